@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures lookups in the key maps of the surrogate key lookup step. One operation looks up one
+ * natural key, so the score is in ns/row. Half of the looked up keys are in the map.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KettleColumnStoreKeyLookupBenchmark {
+
+  // number of pregenerated lookup keys, a power of two
+  private static final int LOOKUPS = 1 << 16;
+
+  @Param({"LONG", "STRING"})
+  public String type;
+
+  @Param({"10000", "1000000"})
+  public int keys;
+
+  private KettleColumnStoreKeyMap.Longs longKeys;
+  private KettleColumnStoreKeyMap.Strings stringKeys;
+  private long[] longLookups;
+  private String[] stringLookups;
+  private int next = 0;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    if ("LONG".equals(type)) {
+      longKeys = new KettleColumnStoreKeyMap.Longs(keys);
+      for (int k = 0; k < keys; k++) {
+        longKeys.put(k * 2L, k);
+      }
+      longLookups = new long[LOOKUPS];
+      for (int i = 0; i < LOOKUPS; i++) {
+        longLookups[i] = random.nextInt(keys * 2);
+      }
+    } else {
+      stringKeys = new KettleColumnStoreKeyMap.Strings(keys);
+      for (int k = 0; k < keys; k++) {
+        stringKeys.put("CUST-" + k * 2, k);
+      }
+      stringLookups = new String[LOOKUPS];
+      for (int i = 0; i < LOOKUPS; i++) {
+        stringLookups[i] = "CUST-" + random.nextInt(keys * 2);
+      }
+    }
+  }
+
+  @Benchmark
+  public long lookup() {
+    int i = next++ & (LOOKUPS - 1);
+    return longKeys != null ? longKeys.get(longLookups[i]) : stringKeys.get(stringLookups[i]);
+  }
+}
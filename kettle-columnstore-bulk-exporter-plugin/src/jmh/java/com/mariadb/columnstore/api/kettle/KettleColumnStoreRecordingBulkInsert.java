@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+
+/**
+ * In-process stand-in for the mcsapi bulk insert used by the benchmarks. It records the values of
+ * the current row like ColumnStoreBulkInsert buffers them, without the native library and without
+ * a ColumnStore cluster, so that the benchmarks measure the conversion of the column writers.
+ *
+ * Binary strings are decoded like KettleColumnStoreBulkLoader does, as mcsapi only takes Strings.
+ */
+class KettleColumnStoreRecordingBulkInsert implements KettleColumnStoreRowSink {
+
+  private final long[] longs;
+  private final double[] doubles;
+  private final Object[] objects;
+  private long rows = 0;
+  private long checksum = 0;
+
+  KettleColumnStoreRecordingBulkInsert(int columnCount) {
+    longs = new long[columnCount];
+    doubles = new double[columnCount];
+    objects = new Object[columnCount];
+  }
+
+  @Override
+  public void setNull(int column) {
+    objects[column] = null;
+    longs[column] = 0;
+  }
+
+  @Override
+  public void setColumn(int column, String value) {
+    objects[column] = value;
+  }
+
+  @Override
+  public void setColumn(int column, long value) {
+    longs[column] = value;
+  }
+
+  @Override
+  public void setColumn(int column, double value) {
+    doubles[column] = value;
+  }
+
+  @Override
+  public void setColumn(int column, boolean value) {
+    longs[column] = value ? 1 : 0;
+  }
+
+  @Override
+  public void setColumn(int column, BigInteger value) {
+    objects[column] = value;
+  }
+
+  @Override
+  public void setColumn(int column, byte[] value, Charset charset) {
+    objects[column] = new String(value, charset);
+  }
+
+  @Override
+  public void setDecimal(int column, String value) {
+    objects[column] = value;
+  }
+
+  @Override
+  public void setDecimal(int column, long unscaled, int scale) {
+    longs[column] = unscaled;
+    doubles[column] = scale;
+  }
+
+  @Override
+  public void setDateTime(int column, int year, int month, int day, int hour, int minute, int second, int microsecond) {
+    longs[column] = ((((year * 13L + month) * 32 + day) * 24 + hour) * 60 + minute) * 60 + second;
+    doubles[column] = microsecond;
+  }
+
+  /**
+   * Completes the current row. The checksum keeps the JIT from discarding the recorded values.
+   */
+  @Override
+  public void writeRow() {
+    rows++;
+    checksum += longs[0] + (long) doubles[0] + (objects[0] != null ? 1 : 0);
+  }
+
+  long getRows() {
+    return rows;
+  }
+
+  long getChecksum() {
+    return checksum;
+  }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBigNumber;
+import org.pentaho.di.core.row.value.ValueMetaBoolean;
+import org.pentaho.di.core.row.value.ValueMetaDate;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.core.row.value.ValueMetaTimestamp;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of Kettle rows by the column writers into an in-process stand-in of the
+ * bulk insert. One operation converts one row, so the score is in ns/row; run with "-prof gc" to
+ * get the allocated bytes per row (gc.alloc.rate.norm).
+ *
+ * Rows are generated once per trial with a fixed seed. With binaryStorage the fields arrive lazily
+ * converted, as the CSV input step emits them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KettleColumnStoreRowConversionBenchmark {
+
+  // number of pregenerated rows, a power of two
+  private static final int ROWS = 1024;
+
+  private static final int[] MIXED_TYPES = {ValueMetaInterface.TYPE_STRING, ValueMetaInterface.TYPE_INTEGER,
+          ValueMetaInterface.TYPE_NUMBER, ValueMetaInterface.TYPE_BIGNUMBER, ValueMetaInterface.TYPE_DATE,
+          ValueMetaInterface.TYPE_TIMESTAMP, ValueMetaInterface.TYPE_BOOLEAN};
+
+  private static final String DATE_MASK = "yyyy/MM/dd HH:mm:ss.SSS";
+  private static final String TIMESTAMP_MASK = "yyyy-MM-dd HH:mm:ss.SSSSSSSSS";
+
+  @Param({"STRING", "INTEGER", "NUMBER", "BIGNUMBER", "DATE", "TIMESTAMP", "BOOLEAN", "MIXED"})
+  public String type;
+
+  @Param({"4", "16", "64"})
+  public int columns;
+
+  @Param({"0.0", "0.1", "0.5"})
+  public double nullRatio;
+
+  @Param({"false", "true"})
+  public boolean binaryStorage;
+
+  private KettleColumnStoreColumnWriter[] writers;
+  private Object[][] rows;
+  private KettleColumnStoreRecordingBulkInsert bulkInsert;
+  private int next = 0;
+
+  @Setup
+  public void setup() throws KettleException {
+    Random random = new Random(42);
+    SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_MASK);
+    int[] types = new int[columns];
+    writers = new KettleColumnStoreColumnWriter[columns];
+    for (int c = 0; c < columns; c++) {
+      types[c] = "MIXED".equals(type) ? MIXED_TYPES[c % MIXED_TYPES.length] : typeOf(type);
+      ValueMetaInterface meta = createValueMeta(types[c], "c" + c);
+      boolean realTarget = types[c] == ValueMetaInterface.TYPE_NUMBER || types[c] == ValueMetaInterface.TYPE_BIGNUMBER;
+      boolean temporalTarget = types[c] == ValueMetaInterface.TYPE_DATE || types[c] == ValueMetaInterface.TYPE_TIMESTAMP;
+      writers[c] = KettleColumnStoreColumnWriter.create(c, c, meta, meta.getName(), realTarget, temporalTarget,
+              true, null, null);
+    }
+
+    rows = new Object[ROWS][];
+    for (int r = 0; r < ROWS; r++) {
+      Object[] row = new Object[columns];
+      for (int c = 0; c < columns; c++) {
+        if (random.nextDouble() >= nullRatio) {
+          Object value = createValue(types[c], random);
+          row[c] = binaryStorage ? format(value, dateFormat).getBytes(StandardCharsets.UTF_8) : value;
+        }
+      }
+      rows[r] = row;
+    }
+    bulkInsert = new KettleColumnStoreRecordingBulkInsert(columns);
+  }
+
+  @Benchmark
+  public long convertRow() throws KettleException {
+    Object[] row = rows[next++ & (ROWS - 1)];
+    for (KettleColumnStoreColumnWriter writer : writers) {
+      writer.write(row, bulkInsert);
+    }
+    bulkInsert.writeRow();
+    return bulkInsert.getChecksum();
+  }
+
+  private static int typeOf(String type) {
+    switch (type) {
+      case "STRING":
+        return ValueMetaInterface.TYPE_STRING;
+      case "INTEGER":
+        return ValueMetaInterface.TYPE_INTEGER;
+      case "NUMBER":
+        return ValueMetaInterface.TYPE_NUMBER;
+      case "BIGNUMBER":
+        return ValueMetaInterface.TYPE_BIGNUMBER;
+      case "DATE":
+        return ValueMetaInterface.TYPE_DATE;
+      case "TIMESTAMP":
+        return ValueMetaInterface.TYPE_TIMESTAMP;
+      case "BOOLEAN":
+        return ValueMetaInterface.TYPE_BOOLEAN;
+      default:
+        throw new IllegalArgumentException("unknown type " + type);
+    }
+  }
+
+  /**
+   * Creates the value meta of an input field. For binary storage the storage meta is set up like the
+   * CSV input step does with lazy conversion: a string meta with the same conversion settings.
+   */
+  private ValueMetaInterface createValueMeta(int kettleType, String name) {
+    ValueMetaInterface meta;
+    String mask = null;
+    switch (kettleType) {
+      case ValueMetaInterface.TYPE_STRING:
+        meta = new ValueMetaString(name);
+        break;
+      case ValueMetaInterface.TYPE_INTEGER:
+        meta = new ValueMetaInteger(name);
+        mask = "#";
+        break;
+      case ValueMetaInterface.TYPE_NUMBER:
+        meta = new ValueMetaNumber(name);
+        mask = "#.#";
+        break;
+      case ValueMetaInterface.TYPE_BIGNUMBER:
+        meta = new ValueMetaBigNumber(name);
+        mask = "#.#";
+        break;
+      case ValueMetaInterface.TYPE_DATE:
+        meta = new ValueMetaDate(name);
+        mask = DATE_MASK;
+        break;
+      case ValueMetaInterface.TYPE_TIMESTAMP:
+        meta = new ValueMetaTimestamp(name);
+        mask = TIMESTAMP_MASK;
+        break;
+      default:
+        meta = new ValueMetaBoolean(name);
+    }
+    meta.setConversionMask(mask);
+    meta.setDecimalSymbol(".");
+    meta.setGroupingSymbol("");
+    meta.setDateFormatLenient(false);
+    if (binaryStorage) {
+      ValueMetaInterface storageMeta = new ValueMetaString(name);
+      storageMeta.setConversionMask(mask);
+      storageMeta.setDecimalSymbol(".");
+      storageMeta.setGroupingSymbol("");
+      storageMeta.setDateFormatLenient(false);
+      storageMeta.setStringEncoding("UTF-8");
+      meta.setStorageMetadata(storageMeta);
+      meta.setStorageType(ValueMetaInterface.STORAGE_TYPE_BINARY_STRING);
+    }
+    return meta;
+  }
+
+  private static Object createValue(int kettleType, Random random) {
+    switch (kettleType) {
+      case ValueMetaInterface.TYPE_STRING:
+        char[] chars = new char[1 + random.nextInt(32)];
+        for (int i = 0; i < chars.length; i++) {
+          chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+      case ValueMetaInterface.TYPE_INTEGER:
+        return random.nextLong() >> random.nextInt(64);
+      case ValueMetaInterface.TYPE_NUMBER:
+        return random.nextInt(100000000) / 100.0;
+      case ValueMetaInterface.TYPE_BIGNUMBER:
+        return BigDecimal.valueOf(random.nextLong() >> random.nextInt(64), random.nextInt(10));
+      case ValueMetaInterface.TYPE_DATE:
+        return new Date(946684800000L + (random.nextLong() >>> 1) % 1000000000000L);
+      case ValueMetaInterface.TYPE_TIMESTAMP:
+        Timestamp timestamp = new Timestamp(946684800000L + (random.nextLong() >>> 1) % 1000000000000L);
+        timestamp.setNanos(random.nextInt(1000000000));
+        return timestamp;
+      default:
+        return random.nextBoolean();
+    }
+  }
+
+  /**
+   * Formats a value as text matching the conversion mask of its storage meta.
+   */
+  private static String format(Object value, SimpleDateFormat dateFormat) {
+    if (value instanceof Boolean) {
+      return (Boolean) value ? "Y" : "N";
+    } else if (value instanceof BigDecimal) {
+      return ((BigDecimal) value).toPlainString();
+    } else if (value instanceof Timestamp) {
+      // Timestamp.toString() drops trailing zeros of the nanoseconds
+      String text = value.toString();
+      return text + "000000000".substring(text.length() - text.indexOf('.') - 1);
+    } else if (value instanceof Date) {
+      return dateFormat.format((Date) value);
+    }
+    return value.toString();
+  }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import com.mariadb.columnstore.api.ColumnStoreException;
+import org.pentaho.di.core.exception.KettleException;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decouples the conversion of rows from writing them into ColumnStore.
+ *
+ * The step thread converts rows into the slots of a bounded, preallocated ring buffer. A dedicated
+ * writer thread owns the KettleColumnStoreBulkLoader, drains the ring buffer into it and commits once
+ * the step finished. Failures of the writer thread are reported to the step thread by the next call
+ * that needs a free slot, and by finish().
+ */
+class KettleColumnStoreAsyncWriter implements KettleColumnStoreRowSink {
+
+  private final KettleColumnStoreConvertedRow[] ring;
+  private final KettleColumnStoreBulkLoader loader;
+  private final Thread writerThread;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+
+  // number of published and of written rows, guarded by lock
+  private long published = 0;
+  private long written = 0;
+  private boolean finished = false;
+  private boolean aborted = false;
+
+  private volatile Throwable failure;
+
+  // slot the step thread currently converts into
+  private KettleColumnStoreConvertedRow current;
+
+  /**
+   * Constructor, starts the writer thread.
+   * @param loader loader to write the rows into, only used by the writer thread afterwards
+   * @param columnCount number of columns of the target table
+   * @param capacity number of rows the ring buffer holds
+   * @param threadName name of the writer thread
+   */
+  KettleColumnStoreAsyncWriter(KettleColumnStoreBulkLoader loader, int columnCount, int capacity, String threadName) {
+    this.loader = loader;
+    this.ring = new KettleColumnStoreConvertedRow[Math.max(capacity, 1)];
+    for (int i = 0; i < ring.length; i++) {
+      ring[i] = new KettleColumnStoreConvertedRow(columnCount);
+    }
+    writerThread = new Thread(new Runnable() {
+      public void run() {
+        drain();
+      }
+    }, threadName);
+    writerThread.setDaemon(true);
+    writerThread.start();
+  }
+
+  /**
+   * Returns the slot to convert the current row into, waiting for the writer thread if the ring buffer is full.
+   */
+  private KettleColumnStoreConvertedRow currentSlot() throws KettleException {
+    if (current == null) {
+      lock.lock();
+      try {
+        while (published - written >= ring.length && failure == null) {
+          notFull.await();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new KettleException("interrupted while waiting for the ColumnStore bulk writer", e);
+      } finally {
+        lock.unlock();
+      }
+      checkFailure();
+      current = ring[(int) (published % ring.length)];
+      current.clear();
+    }
+    return current;
+  }
+
+  private void checkFailure() throws KettleException {
+    if (failure != null) {
+      throw new KettleException("the ColumnStore bulk writer failed: " + failure.getMessage(), failure);
+    }
+  }
+
+  @Override
+  public void setNull(int column) throws KettleException {
+    currentSlot().setNull(column);
+  }
+
+  @Override
+  public void setColumn(int column, String value) throws KettleException {
+    currentSlot().setColumn(column, value);
+  }
+
+  @Override
+  public void setColumn(int column, long value) throws KettleException {
+    currentSlot().setColumn(column, value);
+  }
+
+  @Override
+  public void setColumn(int column, double value) throws KettleException {
+    currentSlot().setColumn(column, value);
+  }
+
+  @Override
+  public void setColumn(int column, boolean value) throws KettleException {
+    currentSlot().setColumn(column, value);
+  }
+
+  @Override
+  public void setColumn(int column, BigInteger value) throws KettleException {
+    currentSlot().setColumn(column, value);
+  }
+
+  @Override
+  public void setColumn(int column, byte[] value, Charset charset) throws KettleException {
+    currentSlot().setColumn(column, value, charset);
+  }
+
+  @Override
+  public void setDecimal(int column, String value) throws KettleException {
+    currentSlot().setDecimal(column, value);
+  }
+
+  @Override
+  public void setDecimal(int column, long unscaled, int scale) throws KettleException {
+    currentSlot().setDecimal(column, unscaled, scale);
+  }
+
+  @Override
+  public void setDateTime(int column, int year, int month, int day, int hour, int minute, int second, int microsecond)
+          throws KettleException {
+    currentSlot().setDateTime(column, year, month, day, hour, minute, second, microsecond);
+  }
+
+  /**
+   * Publishes the current slot to the writer thread.
+   */
+  @Override
+  public void writeRow() throws KettleException {
+    currentSlot();
+    lock.lock();
+    try {
+      published++;
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+    current = null;
+  }
+
+  /**
+   * Waits until the writer thread wrote all published rows and committed them.
+   * @throws KettleException if the writer thread failed, the bulk insert was rolled back in that case
+   */
+  void finish() throws KettleException {
+    stop(false);
+    checkFailure();
+  }
+
+  /**
+   * Stops the writer thread without writing the remaining rows and rolls back the current batch.
+   */
+  void abort() {
+    try {
+      stop(true);
+    } catch (KettleException e) {
+      // interrupted, the writer thread rolls back on its own
+    }
+  }
+
+  private void stop(boolean abort) throws KettleException {
+    lock.lock();
+    try {
+      finished = true;
+      aborted = abort;
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+    try {
+      writerThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new KettleException("interrupted while waiting for the ColumnStore bulk writer", e);
+    }
+  }
+
+  /**
+   * Body of the writer thread, writes published slots in batches until the step finished.
+   */
+  private void drain() {
+    try {
+      while (true) {
+        long from;
+        long to;
+        lock.lock();
+        try {
+          while (written == published && !finished) {
+            notEmpty.await();
+          }
+          if (aborted || (written == published && finished)) {
+            break;
+          }
+          from = written;
+          to = published;
+        } finally {
+          lock.unlock();
+        }
+
+        for (long i = from; i < to; i++) {
+          loader.writeRow(ring[(int) (i % ring.length)]);
+        }
+
+        lock.lock();
+        try {
+          written = to;
+          notFull.signal();
+        } finally {
+          lock.unlock();
+        }
+      }
+      if (aborted) {
+        loader.rollback();
+      } else {
+        loader.commit();
+      }
+    } catch (Throwable t) {
+      failure = t;
+      try {
+        loader.rollback();
+      } catch (ColumnStoreException e) {
+        // the original failure is reported
+      }
+      lock.lock();
+      try {
+        notFull.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Running metrics of a bulk exporter step copy, published as MBean.
+ *
+ * Timing every cell would cost more than some conversions, therefore only every SAMPLE_INTERVAL-th
+ * row is timed and the times are reported as averages per sampled row. Counters are updated by the
+ * step thread, the writer thread and read by JMX clients, so all of them are atomic.
+ */
+public class KettleColumnStoreBulkExporterMetrics implements KettleColumnStoreBulkExporterMetricsMBean {
+
+  static final int SAMPLE_INTERVAL = 64;
+  private static final int HISTOGRAM_BUCKETS = 24;
+
+  private final long start = System.nanoTime();
+  private final AtomicLong rowsWritten = new AtomicLong();
+
+  private final AtomicLong conversionNanos = new AtomicLong();
+  private final AtomicLong conversionSamples = new AtomicLong();
+  private final AtomicLong handoffNanos = new AtomicLong();
+  private final AtomicLong handoffSamples = new AtomicLong();
+  private final AtomicLong writeNanos = new AtomicLong();
+  private final AtomicLong writeSamples = new AtomicLong();
+
+  private final AtomicLong commits = new AtomicLong();
+  private final AtomicLong commitNanos = new AtomicLong();
+  private final AtomicLong maxCommitNanos = new AtomicLong();
+  private final AtomicLongArray commitHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+  private final AtomicLong rowsInserted = new AtomicLong();
+  private final AtomicLong truncationCount = new AtomicLong();
+  private final AtomicLong saturatedCount = new AtomicLong();
+  private final AtomicLong invalidCount = new AtomicLong();
+  private final AtomicLong throttledNanos = new AtomicLong();
+
+  private volatile KettleColumnStoreThrottle throttle;
+
+  private ObjectName objectName;
+
+  /**
+   * Checks if a row is timed.
+   * @param row number of the row
+   * @return true if the row is sampled
+   */
+  static boolean isSampled(long row) {
+    return row % SAMPLE_INTERVAL == 0;
+  }
+
+  void addRowsWritten(long rows) {
+    rowsWritten.addAndGet(rows);
+  }
+
+  void addConversionSample(long nanos) {
+    conversionNanos.addAndGet(nanos);
+    conversionSamples.incrementAndGet();
+  }
+
+  void addHandoffSample(long nanos) {
+    handoffNanos.addAndGet(nanos);
+    handoffSamples.incrementAndGet();
+  }
+
+  void addWriteSample(long nanos) {
+    writeNanos.addAndGet(nanos);
+    writeSamples.incrementAndGet();
+  }
+
+  /**
+   * Adds a committed batch.
+   * @param nanos latency of the commit
+   * @param inserted number of rows inserted by the batch
+   * @param truncated number of truncated values of the batch
+   * @param saturated number of saturated values of the batch
+   * @param invalid number of invalid values of the batch
+   */
+  void addCommit(long nanos, long inserted, long truncated, long saturated, long invalid) {
+    commits.incrementAndGet();
+    commitNanos.addAndGet(nanos);
+    long max;
+    while (nanos > (max = maxCommitNanos.get()) && !maxCommitNanos.compareAndSet(max, nanos)) {
+      // retry until the maximum is updated or isn't exceeded anymore
+    }
+    long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+    int bucket = millis == 0 ? 0 : Math.min(64 - Long.numberOfLeadingZeros(millis), HISTOGRAM_BUCKETS - 1);
+    commitHistogram.incrementAndGet(bucket);
+    rowsInserted.addAndGet(inserted);
+    truncationCount.addAndGet(truncated);
+    saturatedCount.addAndGet(saturated);
+    invalidCount.addAndGet(invalid);
+  }
+
+  void addThrottled(long nanos) {
+    throttledNanos.addAndGet(nanos);
+  }
+
+  /**
+   * Sets the throttle whose limits are exposed by the MBean.
+   * @param throttle throttle of the step copy, null if throttling isn't enabled
+   */
+  void setThrottle(KettleColumnStoreThrottle throttle) {
+    this.throttle = throttle;
+  }
+
+  /**
+   * Publishes the metrics on the platform MBean server. Failures are only logged, as the metrics are optional.
+   * @param transformation name of the transformation
+   * @param step name of the step
+   * @param copy number of the step copy
+   * @param log log channel of the step
+   */
+  void register(String transformation, String step, int copy, LogChannelInterface log) {
+    register("type=BulkExporter,transformation=" + ObjectName.quote(String.valueOf(transformation)) + ",step=" + ObjectName.quote(step)
+            + ",copy=" + copy, log);
+  }
+
+  /**
+   * Publishes the metrics of a bulk insert shared by step copies, which outlives the copies.
+   * @param transformation name of the transformation
+   * @param table target table, database.table
+   * @param log log channel of the step copy creating the shared bulk insert
+   */
+  void registerShared(String transformation, String table, LogChannelInterface log) {
+    register("type=SharedBulkInsert,transformation=" + ObjectName.quote(String.valueOf(transformation)) + ",table="
+            + ObjectName.quote(table), log);
+  }
+
+  private void register(String properties, LogChannelInterface log) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName("com.mariadb.columnstore.kettle:" + properties);
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(this, name);
+      objectName = name;
+    } catch (JMException | SecurityException e) {
+      log.logBasic("Warning: couldn't register the bulk exporter metrics MBean: " + e.getMessage());
+    }
+  }
+
+  void unregister() {
+    if (objectName != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+      } catch (JMException e) {
+        // already unregistered
+      }
+      objectName = null;
+    }
+  }
+
+  @Override
+  public long getRowsWritten() {
+    return rowsWritten.get();
+  }
+
+  @Override
+  public double getRowsPerSecond() {
+    long nanos = System.nanoTime() - start;
+    return nanos > 0 ? rowsWritten.get() * 1e9 / nanos : 0;
+  }
+
+  @Override
+  public double getConversionNanosPerRow() {
+    return average(conversionNanos, conversionSamples);
+  }
+
+  @Override
+  public double getHandoffNanosPerRow() {
+    return average(handoffNanos, handoffSamples);
+  }
+
+  @Override
+  public double getWriteNanosPerRow() {
+    return average(writeNanos, writeSamples);
+  }
+
+  @Override
+  public long getCommits() {
+    return commits.get();
+  }
+
+  @Override
+  public double getAverageCommitMillis() {
+    return average(commitNanos, commits) / 1e6;
+  }
+
+  @Override
+  public long getMaxCommitMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(maxCommitNanos.get());
+  }
+
+  @Override
+  public long[] getCommitLatencyHistogram() {
+    long[] histogram = new long[HISTOGRAM_BUCKETS];
+    for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+      histogram[i] = commitHistogram.get(i);
+    }
+    return histogram;
+  }
+
+  @Override
+  public long getRowsInserted() {
+    return rowsInserted.get();
+  }
+
+  @Override
+  public long getTruncationCount() {
+    return truncationCount.get();
+  }
+
+  @Override
+  public long getSaturatedCount() {
+    return saturatedCount.get();
+  }
+
+  @Override
+  public long getInvalidCount() {
+    return invalidCount.get();
+  }
+
+  @Override
+  public long getThrottledMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(throttledNanos.get());
+  }
+
+  @Override
+  public long getMaxRowsPerSecond() {
+    KettleColumnStoreThrottle current = throttle;
+    return current != null ? current.getMaxRowsPerSecond() : 0;
+  }
+
+  @Override
+  public void setMaxRowsPerSecond(long maxRowsPerSecond) {
+    KettleColumnStoreThrottle current = throttle;
+    if (current == null) {
+      throw new IllegalStateException("throttling isn't enabled for this step");
+    }
+    current.setMaxRowsPerSecond(maxRowsPerSecond);
+  }
+
+  @Override
+  public long getMaxBytesPerSecond() {
+    KettleColumnStoreThrottle current = throttle;
+    return current != null ? current.getMaxBytesPerSecond() : 0;
+  }
+
+  @Override
+  public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+    KettleColumnStoreThrottle current = throttle;
+    if (current == null) {
+      throw new IllegalStateException("throttling isn't enabled for this step");
+    }
+    current.setMaxBytesPerSecond(maxBytesPerSecond);
+  }
+
+  private static double average(AtomicLong total, AtomicLong count) {
+    long n = count.get();
+    return n > 0 ? (double) total.get() / n : 0;
+  }
+
+  /**
+   * Returns a one line summary for the step log.
+   */
+  @Override
+  public String toString() {
+    return String.format("%d rows written, %.0f rows/s, conversion %.0f ns/row, handoff %.0f ns/row, write %.0f ns/row, "
+                    + "%d commits, %.1f ms average commit, %d ms max commit, %d ms throttled", getRowsWritten(), getRowsPerSecond(),
+            getConversionNanosPerRow(), getHandoffNanosPerRow(), getWriteNanosPerRow(), getCommits(),
+            getAverageCommitMillis(), getMaxCommitMillis(), getThrottledMillis());
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+/**
+ * JMX interface of the metrics of a bulk exporter step copy.
+ *
+ * Times per row are averages of sampled rows. The conversion time is spent on the step thread
+ * converting Kettle values, the handoff time is spent passing converted rows to a writer thread
+ * (including waiting for buffer space), and the write time is spent in setColumn() and writeRow()
+ * of mcsapi. The throttled time is spent waiting for the rate limits, it isn't part of the write time.
+ */
+public interface KettleColumnStoreBulkExporterMetricsMBean {
+
+  long getRowsWritten();
+
+  double getRowsPerSecond();
+
+  double getConversionNanosPerRow();
+
+  double getHandoffNanosPerRow();
+
+  double getWriteNanosPerRow();
+
+  long getCommits();
+
+  double getAverageCommitMillis();
+
+  long getMaxCommitMillis();
+
+  /**
+   * Returns the commit latency histogram: entry 0 counts commits below 1 ms, entry i > 0 counts
+   * commits of 2^(i-1) ms up to below 2^i ms.
+   */
+  long[] getCommitLatencyHistogram();
+
+  long getRowsInserted();
+
+  long getTruncationCount();
+
+  long getSaturatedCount();
+
+  long getInvalidCount();
+
+  long getThrottledMillis();
+
+  /**
+   * Returns the rows per second the step copy is limited to, 0 if it isn't limited or throttling isn't enabled.
+   */
+  long getMaxRowsPerSecond();
+
+  /**
+   * Changes the rows per second limit of a step copy that has throttling enabled, 0 removes the limit.
+   */
+  void setMaxRowsPerSecond(long maxRowsPerSecond);
+
+  /**
+   * Returns the estimated bytes per second the step copy is limited to, 0 if it isn't limited or throttling isn't enabled.
+   */
+  long getMaxBytesPerSecond();
+
+  /**
+   * Changes the bytes per second limit of a step copy that has throttling enabled, 0 removes the limit.
+   */
+  void setMaxBytesPerSecond(long maxBytesPerSecond);
+}
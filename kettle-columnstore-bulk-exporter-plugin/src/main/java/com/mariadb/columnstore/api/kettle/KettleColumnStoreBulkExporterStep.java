@@ -14,8 +14,8 @@
 package com.mariadb.columnstore.api.kettle;
 
 import com.mariadb.columnstore.api.*;
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.exception.KettleException;
-import org.pentaho.di.core.row.value.ValueMetaTimestamp;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransMeta;
@@ -23,15 +23,13 @@ import org.pentaho.di.trans.step.BaseStep;
 import org.pentaho.di.trans.step.StepDataInterface;
 import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaDataCombi;
 import org.pentaho.di.trans.step.StepMetaInterface;
 
-import java.math.BigDecimal;
-import java.text.SimpleDateFormat;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
-
-import static org.pentaho.di.core.row.ValueMetaInterface.*;
+import java.util.Calendar;
 
 /**
  *   
@@ -51,9 +49,6 @@ public class KettleColumnStoreBulkExporterStep extends BaseStep implements StepI
 
   private static final Class<?> PKG = KettleColumnStoreBulkExporterStepMeta.class; // for i18n purposes
 
-  private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-  private ValueMetaTimestamp valueMetaTimestamp = new ValueMetaTimestamp();
-
   /**
    * The constructor should simply pass on its arguments to the parent class.
    * 
@@ -85,19 +80,20 @@ public class KettleColumnStoreBulkExporterStep extends BaseStep implements StepI
    */
   public boolean init( StepMetaInterface smi, StepDataInterface sdi ){
     // Casting to step-specific implementation classes is safe
-    KettleColumnStoreBulkExporterStepMeta meta = (KettleColumnStoreBulkExporterStepMeta) smi;
+    final KettleColumnStoreBulkExporterStepMeta meta = (KettleColumnStoreBulkExporterStepMeta) smi;
     KettleColumnStoreBulkExporterStepData data = (KettleColumnStoreBulkExporterStepData) sdi;
     if ( !super.init( meta, data ) ) {
       return false;
     }
 
-    // Initialize the ColumnStore Driver
-    data.d = meta.initializeColumnStoreDriver(getTransMeta());
-    if(data.d == null){
+    // Lease a ColumnStore Driver, it is reused by later initializations with the same configuration
+    data.driverLease = meta.acquireColumnStoreDriver(getTransMeta());
+    if(data.driverLease == null){
         logError("The ColumnStoreDriver couldn't be instantiated.");
         setErrors(1);
         return false;
     }
+    data.d = data.driverLease.getDriver();
 
     logBasic("mcsapi version: " + data.d.getVersion());
     logBasic("javamcsapi version: " + data.d.getJavaMcsapiVersion());
@@ -106,13 +102,18 @@ public class KettleColumnStoreBulkExporterStep extends BaseStep implements StepI
     }
 
     try {
-        data.catalog = data.d.getSystemCatalog();
-        data.table = data.catalog.getTable(meta.getTargetDatabase(), meta.getTargetTable());
+        // the target tables are looked up per row if they are read from a field
+        if(!meta.isTableFromField()) {
+            data.table = new KettleColumnStoreTableSchema(data.driverLease.getTable(meta.getTargetDatabase(), meta.getTargetTable()));
+        }else{
+            data.driverLease.getSystemCatalog();
+        }
     }catch(ColumnStoreException e){
         if(log.isRowLevel()){
             data.d.setDebug((short)0);
         }
         if(e.getMessage().toLowerCase().contains("connection failure")){
+            data.driverHealthy = false;
             logError("Can't connect to ColumnStore instance.", e);
         }else {
             logError("Target table " + meta.getTargetTable() + " doesn't exist.", e);
@@ -121,24 +122,433 @@ public class KettleColumnStoreBulkExporterStep extends BaseStep implements StepI
         return false;
     }
 
-    data.targetColumnCount = data.table.getColumnCount();
+    // if the target tables are read from a field, the mapping is checked per table once it is opened
+    if(!meta.isTableFromField()) {
+        data.targetColumnCount = data.table.getColumnCount();
 
-    data.b = data.d.createBulkInsert(meta.getTargetDatabase(), meta.getTargetTable(), (short) 0, 0);
+        if(meta.getFieldMapping().getNumberOfEntries() == data.targetColumnCount) {
+            data.targetInputMapping = new int[meta.getFieldMapping().getNumberOfEntries()];
+        }else{
+            if(log.isRowLevel()){
+                data.d.setDebug((short)0);
+            }
+            logError("Number of mapping entries and target columns doesn't match");
+            setErrors(1);
+            return false;
+        }
+    }
 
-    if(meta.getFieldMapping().getNumberOfEntries() == data.targetColumnCount) {
-        data.targetInputMapping = new int[meta.getFieldMapping().getNumberOfEntries()];
-    }else{
-        if(log.isRowLevel()){
-            data.d.setDebug((short)0);
+    // Load into a staging table, which is merged into the target table by key columns or swapped in once the load is committed
+    if((meta.isMerge() || meta.isShadowSwap()) && !meta.isTableFromField() && !meta.isSharedWriter()){
+        if(meta.isMerge() && meta.isShadowSwap()){
+            logError("Merge mode and loading a shadow table can't be combined");
+            setErrors(1);
+            return false;
         }
-        logError("Number of mapping entries and target columns doesn't match");
-        setErrors(1);
-        return false;
+        // the staging table has a fixed name and is merged by the copy that finishes, and replayed journal rows would be merged along with the re-fed source
+        if(meta.isMerge() && (getStepMeta().getCopies() > 1 || meta.isJournal())){
+            logError("Merge mode needs a single copy of the step and can't be combined with the journal");
+            setErrors(1);
+            return false;
+        }
+        // the first copy to finish would swap in a partial table, and replayed journal rows would be loaded twice into the fresh shadow table
+        if(meta.isShadowSwap() && (getStepMeta().getCopies() > 1 || meta.isJournal())){
+            logError("Loading a shadow table needs a single copy of the step and can't be combined with the journal");
+            setErrors(1);
+            return false;
+        }
+        if(meta.getDatabaseMeta() == null){
+            logError("Merge mode and loading a shadow table need a JDBC connection");
+            setErrors(1);
+            return false;
+        }
+        if(meta.isMerge()){
+            if(Const.isEmpty(environmentSubstitute(meta.getMergeKeys()))){
+                logError("Merge mode needs key columns");
+                setErrors(1);
+                return false;
+            }
+            data.mergeKeys = environmentSubstitute(meta.getMergeKeys()).split(",");
+            for(int k=0; k<data.mergeKeys.length; k++){
+                data.mergeKeys[k] = data.mergeKeys[k].trim();
+            }
+        }
+        data.stagingTable = new KettleColumnStoreStagingTable(meta.getDatabaseMeta(), this, this, meta.getTargetDatabase(), meta.getTargetTable(),
+                meta.isMerge() ? KettleColumnStoreStagingTable.MERGE_SUFFIX : KettleColumnStoreStagingTable.SHADOW_SUFFIX, log);
+        try {
+            data.stagingTable.prepare();
+            data.table = new KettleColumnStoreTableSchema(data.driverLease.getTable(meta.getTargetDatabase(), data.stagingTable.getStagingTable()));
+        }catch(KettleException | ColumnStoreException e){
+            if(log.isRowLevel()){
+                data.d.setDebug((short)0);
+            }
+            logError("Couldn't create the staging table of " + meta.getTargetDatabase() + "." + meta.getTargetTable(), e);
+            setErrors(1);
+            return false;
+        }
+    }
+
+    // Fill the key column from a sequence, whose keys are reserved in blocks over the JDBC connection
+    if(!Const.isEmpty(meta.getSequenceColumn()) && !meta.isTableFromField()){
+        if(meta.getDatabaseMeta() == null){
+            logError("Keys from a sequence need a JDBC connection");
+            setErrors(1);
+            return false;
+        }
+        String sequenceColumn = environmentSubstitute(meta.getSequenceColumn()).trim();
+        for(int c = 0; c<data.targetColumnCount; c++){
+            if(data.table.getColumnName(c).equalsIgnoreCase(sequenceColumn)){
+                data.sequenceColumn = c;
+            }
+        }
+        if(data.sequenceColumn<0){
+            if(log.isRowLevel()){
+                data.d.setDebug((short)0);
+            }
+            logError("Sequence column " + sequenceColumn + " isn't a column of " + meta.getTargetDatabase() + "." + meta.getTargetTable());
+            setErrors(1);
+            return false;
+        }
+        String sequenceName = Const.NVL(environmentSubstitute(meta.getSequenceName()),
+                meta.getTargetDatabase() + "." + meta.getTargetTable() + "." + data.table.getColumnName(data.sequenceColumn));
+        data.sequence = new KettleColumnStoreSequence(meta.getDatabaseMeta(), this, this, meta.getTargetDatabase(), sequenceName,
+                Const.toLong(environmentSubstitute(meta.getSequenceBlockSize()), 1000), log);
+        try {
+            data.sequence.open(meta.getTargetTable(), data.table.getColumnName(data.sequenceColumn));
+        }catch(KettleException e){
+            if(log.isRowLevel()){
+                data.d.setDebug((short)0);
+            }
+            logError("Couldn't open the key sequence " + sequenceName, e);
+            setErrors(1);
+            return false;
+        }
+        logDetailed("Column " + data.table.getColumnName(data.sequenceColumn) + " is filled from sequence " + sequenceName);
+    }
+
+    // Aggregate the loaded rows into the rollup table, which is written once the load is committed
+    if(!Const.isEmpty(meta.getRollupTable())){
+        if(meta.isTableFromField() || data.stagingTable != null){
+            logBasic("Warning: rollups are ignored with the target table from field, merge and shadow table options");
+        }else{
+            data.rollupTable = environmentSubstitute(meta.getRollupTable());
+            try {
+                File directory = new File(Const.NVL(environmentSubstitute(meta.getClusterDirectory()), System.getProperty("java.io.tmpdir")));
+                data.rollup = new KettleColumnStoreRollup(environmentSubstitute(meta.getRollupGroupFields()), environmentSubstitute(meta.getRollupMeasures()),
+                        Const.toLong(environmentSubstitute(meta.getRollupMemory()), 256) * 1024 * 1024, directory, log);
+                int rollupColumnCount = data.driverLease.getTable(meta.getTargetDatabase(), data.rollupTable).getColumnCount();
+                if(rollupColumnCount != data.rollup.getColumnCount()){
+                    throw new KettleException("the rollup table has " + rollupColumnCount + " columns, but there are "
+                            + data.rollup.getColumnCount() + " group fields and measures");
+                }
+            }catch(KettleException | ColumnStoreException e){
+                if(log.isRowLevel()){
+                    data.d.setDebug((short)0);
+                }
+                logError("Couldn't set up the rollups into " + meta.getTargetDatabase() + "." + data.rollupTable, e);
+                setErrors(1);
+                return false;
+            }
+        }
+    }
+
+    // Only write the rows that changed since the previous load, the snapshot of the previous load is read with the first row
+    if(meta.isDelta() && !meta.isTableFromField()){
+        if(getStepMeta().getCopies() > 1 || meta.isShadowSwap()){
+            logError("Delta mode needs a single copy of the step and can't load a shadow table, which would miss the unchanged rows");
+            setErrors(1);
+            return false;
+        }
+        File snapshot = new File(Const.NVL(environmentSubstitute(meta.getDeltaSnapshotFile()),
+                new File(System.getProperty("java.io.tmpdir"), "kettle-columnstore-delta-" + meta.getTargetDatabase() + "." + meta.getTargetTable() + ".bin").getPath()));
+        try {
+            data.delta = new KettleColumnStoreDelta(environmentSubstitute(meta.getDeltaKeyFields()), environmentSubstitute(meta.getDeltaValueFields()),
+                    snapshot, log);
+            if(!Const.isEmpty(meta.getDeltaDeletedTable())){
+                data.deltaDeletedTable = environmentSubstitute(meta.getDeltaDeletedTable());
+                int deletedColumnCount = data.driverLease.getTable(meta.getTargetDatabase(), data.deltaDeletedTable).getColumnCount();
+                if(deletedColumnCount != data.delta.getKeyFieldCount()){
+                    throw new KettleException("the deleted keys table has " + deletedColumnCount + " columns, but there are "
+                            + data.delta.getKeyFieldCount() + " key fields");
+                }
+            }
+        }catch(KettleException | ColumnStoreException e){
+            if(log.isRowLevel()){
+                data.d.setDebug((short)0);
+            }
+            logError("Couldn't set up delta mode", e);
+            setErrors(1);
+            return false;
+        }
+    }
+
+    // Only load the rows above the high-watermark of a column, which is published as variable for the source query
+    if(!Const.isEmpty(meta.getWatermarkColumn()) && !meta.isTableFromField()){
+        if(meta.getDatabaseMeta() == null || getStepMeta().getCopies() > 1 || meta.isShadowSwap()){
+            logError("The high-watermark needs a JDBC connection and a single copy of the step and can't load a shadow table, which would only hold the new rows");
+            setErrors(1);
+            return false;
+        }
+        String watermarkColumn = environmentSubstitute(meta.getWatermarkColumn()).trim();
+        for(int c = 0; c<data.targetColumnCount; c++){
+            if(data.table.getColumnName(c).equalsIgnoreCase(watermarkColumn)){
+                watermarkColumn = data.table.getColumnName(c);
+                data.watermarkField = meta.getFieldMapping().getTargetInputMappingField(watermarkColumn);
+            }
+        }
+        if(data.watermarkField == null){
+            if(log.isRowLevel()){
+                data.d.setDebug((short)0);
+            }
+            logError("Watermark column " + watermarkColumn + " isn't a mapped column of " + meta.getTargetDatabase() + "." + meta.getTargetTable());
+            setErrors(1);
+            return false;
+        }
+        data.watermark = new KettleColumnStoreWatermark(meta.getDatabaseMeta(), this, this, meta.getTargetDatabase(), meta.getTargetTable(),
+                watermarkColumn, log);
+        String watermark;
+        try {
+            watermark = Const.NVL(data.watermark.open(), "");
+        }catch(KettleException e){
+            if(log.isRowLevel()){
+                data.d.setDebug((short)0);
+            }
+            logError("Couldn't read the high-watermark of " + meta.getTargetDatabase() + "." + meta.getTargetTable(), e);
+            setErrors(1);
+            return false;
+        }
+        // the other steps are initialized already, a table input substitutes the variables of its query when it starts reading
+        String variable = environmentSubstitute(meta.getWatermarkVariable());
+        if(!Const.isEmpty(variable)){
+            getTrans().setVariable(variable, watermark);
+            for(StepMetaDataCombi combi : getTrans().getSteps()){
+                combi.step.setVariable(variable, watermark);
+            }
+        }
+        logBasic("High-watermark of " + meta.getTargetTable() + "." + watermarkColumn + " is '" + watermark + "'"
+                + (Const.isEmpty(variable) ? "" : ", set into variable " + variable));
     }
 
+    // Drop the rows repeating the key of an earlier row, the keys are spilled to disk beyond the memory budget
+    if(meta.isDedup() && !meta.isTableFromField()){
+        File directory = new File(Const.NVL(environmentSubstitute(meta.getClusterDirectory()), System.getProperty("java.io.tmpdir")));
+        try {
+            data.dedup = new KettleColumnStoreDedup(environmentSubstitute(meta.getDedupKeyFields()),
+                    Const.toLong(environmentSubstitute(meta.getDedupMemory()), 256) * 1024 * 1024, directory, log);
+        }catch(KettleException e){
+            logError("Couldn't set up the deduplication", e);
+            setErrors(1);
+            return false;
+        }
+    }
+
+    // Profile the columns of the loaded rows, the statistics are written into their table once the load is committed
+    if(meta.isStatistics()){
+        if(meta.isTableFromField()){
+            logBasic("Warning: column statistics are ignored with the target table from field option");
+        }else if(!Const.isEmpty(meta.getStatisticsTable())){
+            data.statisticsTable = environmentSubstitute(meta.getStatisticsTable());
+            try {
+                int statisticsColumnCount = data.driverLease.getTable(meta.getTargetDatabase(), data.statisticsTable).getColumnCount();
+                if(statisticsColumnCount != KettleColumnStoreStatisticsSink.STATISTICS_COLUMNS){
+                    throw new KettleException("the statistics table has " + statisticsColumnCount + " columns instead of "
+                            + KettleColumnStoreStatisticsSink.STATISTICS_COLUMNS);
+                }
+            }catch(KettleException | ColumnStoreException e){
+                if(log.isRowLevel()){
+                    data.d.setDebug((short)0);
+                }
+                logError("Couldn't set up the column statistics in " + meta.getTargetDatabase() + "." + data.statisticsTable, e);
+                setErrors(1);
+                return false;
+            }
+        }
+    }
+
+    final String database = meta.getTargetDatabase();
+    final String table = data.stagingTable != null ? data.stagingTable.getStagingTable() : meta.getTargetTable();
+    final long commitRowCount = Const.toLong(environmentSubstitute(meta.getCommitRowCount()), 0);
+    final long commitInterval = Const.toLong(environmentSubstitute(meta.getCommitInterval()), 0);
+    int bufferSize = (int) Const.toLong(environmentSubstitute(meta.getAsyncBufferSize()), 10000);
+
+    // Publish the metrics of this step copy
+    data.metrics = new KettleColumnStoreBulkExporterMetrics();
+    data.metrics.register(getTransMeta().getName(), getStepname(), getCopy(), log);
+
+    // Limit the rows and bytes per second written by this step copy, the limits can be changed through the metrics MBean
+    if(!Const.isEmpty(meta.getMaxRowsPerSecond()) || !Const.isEmpty(meta.getMaxBytesPerSecond())){
+        data.throttle = new KettleColumnStoreThrottle(Const.toLong(environmentSubstitute(meta.getMaxRowsPerSecond()), 0),
+                Const.toLong(environmentSubstitute(meta.getMaxBytesPerSecond()), 0), data.metrics);
+        data.metrics.setThrottle(data.throttle);
+        logDetailed("Writes are limited to " + data.throttle.getMaxRowsPerSecond() + " rows/s and "
+                + data.throttle.getMaxBytesPerSecond() + " bytes/s, 0 is unlimited");
+    }
+
+    // The journal follows the batches of the bulk insert owned by this step copy
+    if(meta.isJournal() && (meta.isAsyncWriter() || meta.isSharedWriter() || meta.isCpimport() || meta.isTableFromField())){
+        logBasic("Warning: the row journal is ignored with the writer thread, shared bulk insert, cpimport and target table from field options");
+    }
+
+    // Route the rows into the tables named by a field, each table with its own bulk insert
+    if(meta.isTableFromField()){
+        int maxOpenTables = (int) Const.toLong(environmentSubstitute(meta.getMaxOpenTables()), 16);
+        data.router = new KettleColumnStoreTableRouter(data.driverLease, database, meta.getFieldMapping(),
+                commitRowCount, commitInterval, maxOpenTables, data.metrics, log);
+        data.router.setThrottle(data.throttle);
+        return true;
+    }
+
+    // Stream the rows into a cpimport process, the driver is only used for the system catalog then
+    if(meta.isCpimport()){
+        try {
+            data.cpimportLoader = new KettleColumnStoreCpimportLoader(Const.NVL(environmentSubstitute(meta.getCpimportPath()), "cpimport"),
+                    (int) Const.toLong(environmentSubstitute(meta.getCpimportMode()), 1), database, table, log);
+            data.cpimportLoader.setMetrics(data.metrics);
+            data.cpimportLoader.start();
+        }catch(KettleException e){
+            if(log.isRowLevel()){
+                data.d.setDebug((short)0);
+            }
+            logError("Couldn't start cpimport for " + database + "." + table, e);
+            setErrors(1);
+            return false;
+        }
+        data.sink = throttle(data, data.cpimportLoader);
+        data.timingSink = new KettleColumnStoreTimingSink(data.sink);
+        return true;
+    }
+
+    // Let all copies of the step write into one bulk insert, which is owned by a shared writer with its own driver
+    if(meta.isSharedWriter()){
+        try {
+            data.sharedWriter = KettleColumnStoreSharedWriter.join(getTrans(), getTransMeta().getName(), database, table, data.targetColumnCount, bufferSize,
+                    new KettleColumnStoreSharedWriter.LoaderFactory() {
+                        public KettleColumnStoreBulkLoader createLoader() throws KettleException {
+                            ColumnStoreDriver sharedDriver = meta.initializeColumnStoreDriver(getTransMeta());
+                            if(sharedDriver == null){
+                                throw new KettleException("The ColumnStoreDriver of the shared writer couldn't be instantiated.");
+                            }
+                            return new KettleColumnStoreBulkLoader(sharedDriver, database, table, commitRowCount, commitInterval, log);
+                        }
+                    }, log);
+        }catch(KettleException e){
+            if(log.isRowLevel()){
+                data.d.setDebug((short)0);
+            }
+            logError("Couldn't join the shared bulk insert of " + database + "." + table, e);
+            setErrors(1);
+            return false;
+        }
+        data.sink = throttle(data, data.sharedWriter);
+        data.timingSink = new KettleColumnStoreTimingSink(data.sink);
+        return true;
+    }
+
+    data.loader = new KettleColumnStoreBulkLoader(data.d, database, table, commitRowCount, commitInterval, log);
+    data.loader.setMetrics(data.metrics);
+
+    // Journal the rows of the current batch, and replay the batches an earlier load didn't commit
+    if(meta.isJournal() && !meta.isAsyncWriter()){
+        File directory = new File(Const.NVL(environmentSubstitute(meta.getJournalDirectory()), System.getProperty("java.io.tmpdir")),
+                database + "." + table);
+        data.journal = new KettleColumnStoreRowJournal(directory, data.targetColumnCount, data.loader, log);
+        try {
+            data.journal.open();
+            data.journalReplayed = data.journal.replay();
+            if(data.journalReplayed > 0){
+                logBasic("Replayed and committed " + data.journalReplayed + " rows from the journal in " + directory
+                        + ", this run only restarts them and fails if it receives input rows");
+            }
+        }catch(KettleException | ColumnStoreException e){
+            data.loader.rollback();
+            if(log.isRowLevel()){
+                data.d.setDebug((short)0);
+            }
+            logError("Couldn't replay the journal in " + directory, e);
+            setErrors(1);
+            return false;
+        }
+    }
+    data.loader.getBulkInsert();
+
+    // Either write the rows directly into the bulk insert or hand them over to a writer thread
+    if(meta.isAsyncWriter()){
+        data.asyncWriter = new KettleColumnStoreAsyncWriter(data.loader, data.targetColumnCount, bufferSize,
+                "ColumnStore bulk writer " + getStepname() + "." + getCopy());
+        data.sink = throttle(data, data.asyncWriter);
+    }else if(data.journal != null){
+        data.sink = throttle(data, data.journal);
+    }else{
+        data.sink = throttle(data, data.loader);
+    }
+    data.timingSink = new KettleColumnStoreTimingSink(data.sink);
+
     return true;
   }
 
+  /**
+   * Writes a row through the column writers into a sink and counts it as output to ColumnStore, and
+   * as rejected the invalid values ColumnStore reported for the committed batches.
+   */
+  private void writeRow(KettleColumnStoreBulkExporterStepData data, KettleColumnStoreColumnWriter[] writers, KettleColumnStoreRowSink sink,
+                        KettleColumnStoreTimingSink timingSink, Object[] r) throws KettleException {
+    if (KettleColumnStoreBulkExporterMetrics.isSampled(getLinesRead())) {
+        // time the sampled row, the time spent in the sink is either writing or handing the row over to a writer thread or the sorter
+        timingSink.reset();
+        long start = System.nanoTime();
+        for (KettleColumnStoreColumnWriter writer : writers) {
+            writer.write(r, timingSink);
+        }
+        if (data.sequence != null) {
+            timingSink.setColumn(data.sequenceColumn, data.sequence.next());
+        }
+        timingSink.writeRow();
+        long sinkNanos = timingSink.getNanos();
+        if (data.throttle != null) {
+            // waiting for the rate limits isn't part of the write or handoff time
+            sinkNanos -= data.throttle.getRowParkNanos();
+        }
+        data.metrics.addConversionSample(System.nanoTime() - start - sinkNanos);
+        if (data.sorter == null && data.asyncWriter == null && data.sharedWriter == null) {
+            data.metrics.addWriteSample(sinkNanos);
+        } else {
+            data.metrics.addHandoffSample(sinkNanos);
+        }
+    } else {
+        for (KettleColumnStoreColumnWriter writer : writers) {
+            writer.write(r, sink);
+        }
+        if (data.sequence != null) {
+            sink.setColumn(data.sequenceColumn, data.sequence.next());
+        }
+        sink.writeRow();
+    }
+    data.metrics.addRowsWritten(1);
+    if (data.rollup != null) {
+        data.rollup.add(r);
+    }
+    incrementLinesOutput();
+    if (data.metrics.getCommits() != data.reportedCommits) {
+        data.reportedCommits = data.metrics.getCommits();
+        setLinesRejected(data.metrics.getInvalidCount());
+        // rows written on this thread are committed up to this one, later commits of a writer thread, the sorter, a staging table
+        // or of the deferred rows of the deduplication aren't followed. Unless the rows arrived in ascending order, uncommitted
+        // rows may lie below the largest value, so the watermark is only saved at the end of the load then.
+        if (data.watermark != null && data.watermark.isAscending() && data.loader != null && data.asyncWriter == null
+                && data.sorter == null && data.stagingTable == null && (data.dedup == null || !data.dedup.hasDeferred())) {
+            data.watermark.save();
+        }
+    }
+  }
+
+  /**
+   * Puts the throttle of the step copy in front of a sink, if throttling is enabled.
+   * The cluster sorter is put in front of the throttle, so the sorted rows are throttled when they are written.
+   */
+  private KettleColumnStoreRowSink throttle(KettleColumnStoreBulkExporterStepData data, KettleColumnStoreRowSink sink){
+    return data.throttle != null ? data.throttle.wrap(sink) : sink;
+  }
+
   /**
    * Once the transformation starts executing, the processRow() method is called repeatedly
    * by PDI for as long as it returns true. To indicate that a step has finished processing rows
@@ -171,6 +581,26 @@ public class KettleColumnStoreBulkExporterStep extends BaseStep implements StepI
 
     // if no more rows are expected, indicate step is finished and processRow() should not be called again
     if ( r == null ) {
+      // write the deferred rows of the spilled deduplication partitions that aren't duplicates
+      if (data.dedup != null && data.dedup.hasDeferred()) {
+          long duplicates = data.dedup.getDuplicates();
+          Object[] deferred = null;
+          try {
+              while ((deferred = data.dedup.nextDeferred()) != null) {
+                  writeRow(data, data.writers, data.sink, data.timingSink, deferred);
+              }
+          }catch(KettleException | ColumnStoreException e){
+              rollback(data);
+              if(log.isRowLevel()){
+                  data.d.setDebug((short)0);
+              }
+              putError(data.rowMeta, deferred, 1L, "An error occurred writing the deferred rows - rollback ", "", e.getMessage());
+              setErrors(1);
+              setOutputDone();
+              return false;
+          }
+          setLinesSkipped(getLinesSkipped() + data.dedup.getDuplicates() - duplicates);
+      }
       if(log.isRowLevel()){
           data.d.setDebug((short)0);
       }
@@ -186,6 +616,108 @@ public class KettleColumnStoreBulkExporterStep extends BaseStep implements StepI
         data.rowMeta = getInputRowMeta().clone();
         data.rowValueTypes = getInputRowMeta().getValueMetaList();
 
+        // A run that replayed the journal only restarts the failed load, re-fed source rows would be loaded a second time
+        if(data.journalReplayed > 0){
+            if(log.isRowLevel()){
+                data.d.setDebug((short)0);
+            }
+            logError("The journal replayed " + data.journalReplayed + " rows of an earlier load, run the step without input rows to restart"
+                    + " a failed load and feed new rows to the next run");
+            setErrors(1);
+            setOutputDone();
+            return false;
+        }
+
+        // Rows are only passed on if the step isn't a terminal sink or if a following step is connected anyway
+        data.forwardRows = !meta.isTerminalSink() || !getOutputRowSets().isEmpty();
+        if(!data.forwardRows){
+            logDetailed("Terminal sink, rows aren't passed on to following steps");
+        }
+
+        // The column writer plans are built per target table if the tables are read from a field
+        if(data.router != null){
+            String tableField = environmentSubstitute(meta.getTableField());
+            data.tableFieldIndex = data.rowMeta.indexOfValue(tableField);
+            if(data.tableFieldIndex < 0){
+                if(log.isRowLevel()){
+                    data.d.setDebug((short)0);
+                }
+                putError(data.rowMeta, r, 1L, "target table field " + tableField + " not found", tableField, "Target table field not found");
+                setErrors(1);
+                setOutputDone();
+                return false;
+            }
+            data.router.setRowMeta(data.rowMeta);
+        }
+
+        // The delta snapshot is keyed by input fields as well
+        if(data.delta != null){
+            try {
+                data.delta.setRowMeta(data.rowMeta);
+            } catch (KettleException e) {
+                rollback(data);
+                if(log.isRowLevel()){
+                    data.d.setDebug((short)0);
+                }
+                putError(data.rowMeta, r, 1L, e.getMessage() + " - rollback", "", "Delta snapshot not available");
+                setErrors(1);
+                setOutputDone();
+                return false;
+            }
+        }
+
+        // The rollups read the group and measure fields from the input rows
+        if(data.rollup != null){
+            try {
+                data.rollup.setRowMeta(data.rowMeta);
+            } catch (KettleException e) {
+                rollback(data);
+                if(log.isRowLevel()){
+                    data.d.setDebug((short)0);
+                }
+                putError(data.rowMeta, r, 1L, e.getMessage() + " - rollback", "", "Rollup field not found");
+                setErrors(1);
+                setOutputDone();
+                return false;
+            }
+        }
+
+        // The deduplication keys are input fields as well
+        if(data.dedup != null){
+            try {
+                data.dedup.setRowMeta(data.rowMeta);
+            } catch (KettleException e) {
+                rollback(data);
+                if(log.isRowLevel()){
+                    data.d.setDebug((short)0);
+                }
+                putError(data.rowMeta, r, 1L, e.getMessage() + " - rollback", "", "Deduplication key field not found");
+                setErrors(1);
+                setOutputDone();
+                return false;
+            }
+        }
+
+        // The watermark is compared in the type of its input field
+        if(data.watermark != null){
+            try {
+                data.watermark.setRowMeta(data.rowMeta, data.watermarkField);
+            } catch (KettleException e) {
+                rollback(data);
+                if(log.isRowLevel()){
+                    data.d.setDebug((short)0);
+                }
+                putError(data.rowMeta, r, 1L, e.getMessage() + " - rollback", data.watermarkField, "Watermark not comparable");
+                setErrors(1);
+                setOutputDone();
+                return false;
+            }
+        }
+    }
+
+    // with a single target table the column writer plan is built with the first row
+    if ( data.writers == null && data.router == null ) {
+
         if(log.isDebug()) {
             logDebug("Input field names and types");
             int g = 0;
@@ -195,21 +727,25 @@ public class KettleColumnStoreBulkExporterStep extends BaseStep implements StepI
 
             logDebug("ColumnStore rows and types");
             for (int i = 0; i < data.table.getColumnCount(); i++) {
-                logDebug(i + " : " + data.table.getColumn(i).getColumnName() + " : " + data.table.getColumn(i).getType().toString());
+                logDebug(i + " : " + data.table.getColumnName(i) + " : " + data.table.getType(i).toString());
             }
         }
 
         // Construct the targetInputMapping as target[int] mapped to input index int used for bulk import.
         ArrayList<String> inputFields = new ArrayList<>(Arrays.asList(data.rowMeta.getFieldNames()));
         for(int i = 0; i<data.targetColumnCount; i++){
-            String mappedInputField = meta.getFieldMapping().getTargetInputMappingField(data.table.getColumn(i).getColumnName());
+            String mappedInputField = meta.getFieldMapping().getTargetInputMappingField(data.table.getColumnName(i));
             data.targetInputMapping[i] = inputFields.indexOf(mappedInputField);
-            if(data.targetInputMapping[i]<0){
-                data.b.rollback();
+            // the sequence column doesn't need a mapping
+            if(data.targetInputMapping[i]<0 && i != data.sequenceColumn){
+                rollback(data);
                 if(log.isRowLevel()){
                     data.d.setDebug((short)0);
                 }
-                putError(data.rowMeta, r, 1L, "no mapping for column " + data.table.getColumn(i).getColumnName() + " found - rollback", data.rowMeta.getFieldNames()[i], "Column mapping not found");
+                putError(data.rowMeta, r, 1L, "no mapping for column " + data.table.getColumnName(i) + " found - rollback", data.table.getColumnName(i), "Column mapping not found");
+                setErrors(1);
+                setOutputDone();
+                return false;
             }
         }
 
@@ -217,178 +753,139 @@ public class KettleColumnStoreBulkExporterStep extends BaseStep implements StepI
         if(log.isDebug()){
             logDebug("Target Input Mapping:");
             for(int i=0; i<data.targetInputMapping.length; i++){
-                logDebug("target: " + i + " - " + data.table.getColumn(i).getColumnName() + " | input: " + data.targetInputMapping[i] + " - " + data.rowMeta.getFieldNames()[data.targetInputMapping[i]]);
+                if(i == data.sequenceColumn){
+                    logDebug("target: " + i + " - " + data.table.getColumnName(i) + " | sequence: " + data.sequence.getName());
+                }else{
+                    logDebug("target: " + i + " - " + data.table.getColumnName(i) + " | input: " + data.targetInputMapping[i] + " - " + data.rowMeta.getFieldNames()[data.targetInputMapping[i]]);
+                }
             }
         }
-    }
 
-    // put the row into ColumnStore
-    try {
-        logDebug("Iterating through the ColumnStore table to set the row object");
-        for (int c = 0; c < data.targetColumnCount; c++) {
-        int i = data.targetInputMapping[c];
-        boolean nullValue = false;
-            if(data.rowValueTypes.get(i).getNativeDataType(r[i]) != null) {
-                logDebug("Column " + c + " - " + data.table.getColumn(c).getColumnName() + " -- trying to insert item: " + i + ", class: " + data.rowValueTypes.get(i).getNativeDataType(r[i]).getClass() + ", value to String: " + data.rowValueTypes.get(i).getNativeDataType(r[i]).toString());
-            } else{
-                nullValue = true;
-                logDebug("Trying to insert item of type null from field " + i + ": " + data.rowMeta.getFieldNames()[i] + " into column " + c + ": " + data.table.getColumn(c).getColumnName());
-            }
-            switch (data.rowValueTypes.get(i).getType()) {
-                case TYPE_STRING:
-                    logDebug("Try to insert item " + i + " as String");
-                    if(nullValue){
-                        if(data.table.getColumn(c).isNullable()){
-                            data.b.setNull(c);
-                        }else{
-                            logBasic("Warning: target column is not nullable, using default value for null");
-                            data.b.setColumn(c, data.table.getColumn(c).getDefaultValue());
-                        }
-                    }else {
-                        data.b.setColumn(c, data.rowValueTypes.get(i).getString(r[i]));
-                    }
-                    logDebug("Inserted item " + i + " as String");
-                    break;
-                case TYPE_INTEGER:
-                    logDebug("Try to insert item " + i + " as Long");
-                    if(nullValue){
-                        if(data.table.getColumn(c).isNullable()){
-                            data.b.setNull(c);
-                        }else{
-                            logBasic("Warning: target column is not nullable, using default value for null");
-                            data.b.setColumn(c, data.table.getColumn(c).getDefaultValue());
-                        }
-                    } else{
-                        data.b.setColumn(c, data.rowValueTypes.get(i).getInteger(r[i]));
-                    }
-                    logDebug("Inserted item " + i + " as Long");
-                    break;
-                case TYPE_NUMBER:
-                    if(nullValue){
-                        if(data.table.getColumn(c).isNullable()){
-                            data.b.setNull(c);
-                        }else{
-                            logBasic("Warning: target column is not nullable, using default value for null");
-                            data.b.setColumn(c, data.table.getColumn(c).getDefaultValue());
-                        }
-                    }else{
-                        logDebug("Try to insert item " + i + " as Double");
-                        data.b.setColumn(c, data.rowValueTypes.get(i).getNumber(r[i]));
-                        logDebug("Inserted item " + i + " as Double");
-                    }
-                    break;
-                case TYPE_BIGNUMBER:
-                    if(nullValue){
-                        if(data.table.getColumn(c).isNullable()){
-                            data.b.setNull(c);
-                        }else{
-                            logBasic("Warning: target column is not nullable, using default value for null");
-                            data.b.setColumn(c, data.table.getColumn(c).getDefaultValue());
-                        }
-                    }else{
-                        logDebug("Detect ColumnStore row type");
-                        BigDecimal bd = data.rowValueTypes.get(i).getBigNumber(r[i]);
-                        if (data.table.getColumn(c).getType() == columnstore_data_types_t.DATA_TYPE_DECIMAL ||
-                                data.table.getColumn(c).getType() == columnstore_data_types_t.DATA_TYPE_FLOAT ||
-                                data.table.getColumn(c).getType() == columnstore_data_types_t.DATA_TYPE_DOUBLE ||
-                                data.table.getColumn(c).getType() == columnstore_data_types_t.DATA_TYPE_UDECIMAL ||
-                                data.table.getColumn(c).getType() == columnstore_data_types_t.DATA_TYPE_UFLOAT ||
-                                data.table.getColumn(c).getType() == columnstore_data_types_t.DATA_TYPE_UDOUBLE) {
-                            logDebug("ColumnStore column is of type 'real'");
-                            logDebug("Try to insert item " + i + " as BigDecimal");
-                            logDebug("Value to insert: " + bd.toPlainString());
-                            data.b.setColumn(c, new ColumnStoreDecimal(bd.toPlainString()));
-                            logDebug("Inserted item " + i + " as BigDecimal");
-                        } else {
-                            logDebug("ColumnStore column is of type 'decimal'");
-                            logDebug("Try to insert item " + i + " as BigInteger");
-                            logDebug("Value to insert: " + bd.toBigInteger());
-                            data.b.setColumn(c, bd.toBigInteger());
-                            logDebug("Inserted item " + i + " as BigInteger");
-                        }
-                    }
-                    break;
-                case TYPE_DATE:
-                    if(nullValue){
-                        if(data.table.getColumn(c).isNullable()){
-                            data.b.setNull(c);
-                        }else{
-                            logBasic("Warning: target column is not nullable, using default value for null");
-                            data.b.setColumn(c, data.table.getColumn(c).getDefaultValue());
-                        }
-                    }else{
-                        logDebug("Try to insert item " + i + " as Date");
-                        Date dt = data.rowValueTypes.get(i).getDate(r[i]);
-                        logDebug("Value to insert: " + dateFormat.format(dt));
-                        data.b.setColumn(c, dateFormat.format(dt));
-                        logDebug("Inserted item " + i + " as Date");
-                    }
-                    break;
-                case TYPE_TIMESTAMP:
-                    if(nullValue){
-                        if(data.table.getColumn(c).isNullable()){
-                            data.b.setNull(c);
-                        }else{
-                            logBasic("Warning: target column is not nullable, using default value for null");
-                            data.b.setColumn(c, data.table.getColumn(c).getDefaultValue());
-                        }
-                    }else{
-                        logDebug("Try to insert item " + i + " as Timestamp");
-                        java.sql.Timestamp t;
-                        Object nativeData = data.rowValueTypes.get(i).getNativeDataType(r[i]);
-                        if (nativeData instanceof java.sql.Timestamp){
-                            t = (java.sql.Timestamp) nativeData;
-                        } else{
-                            t = valueMetaTimestamp.getTimestamp(r[i]);
-                        }
-                        logDebug("Value to insert: " + t.toString());
-                        data.b.setColumn(c, t.toString());
-                        logDebug("Inserted item " + i + " as Timestamp");
-                    }
-                    break;
-                case TYPE_BOOLEAN:
-                    if(nullValue){
-                        if(data.table.getColumn(c).isNullable()){
-                            data.b.setNull(c);
-                        }else{
-                            logBasic("Warning: target column is not nullable, using default value for null");
-                            data.b.setColumn(c, data.table.getColumn(c).getDefaultValue());
-                        }
-                    }else{
-                        logDebug("Try to insert item " + i + " as Boolean");
-                        boolean b = data.rowValueTypes.get(i).getBoolean(r[i]);
-                        data.b.setColumn(c, b);
-                        logDebug("Inserted item " + i + " as Boolean");
-                    }
-                    break;
-                case TYPE_BINARY:
-                    data.b.rollback();
-                    if(log.isRowLevel()){
-                        data.d.setDebug((short)0);
+        // Build the column writer plan, so that no catalog lookups and type dispatching are needed per row.
+        // The sequence column has no writer, its keys are set after the other columns.
+        data.writers = new KettleColumnStoreColumnWriter[data.targetColumnCount - (data.sequence != null ? 1 : 0)];
+        int w = 0;
+        for(int c = 0; c<data.targetColumnCount; c++){
+            if(c == data.sequenceColumn){
+                continue;
+            }
+            int i = data.targetInputMapping[c];
+            try {
+                data.writers[w++] = data.table.createWriter(c, i, data.rowValueTypes.get(i), log);
+            } catch (KettleException e) {
+                rollback(data);
+                if(log.isRowLevel()){
+                    data.d.setDebug((short)0);
+                }
+                putError(data.rowMeta, r, 1L, e.getMessage() + " - rollback", data.rowMeta.getFieldNames()[i], "Data type not supported");
+                setErrors(1);
+                setOutputDone();
+                return false;
+            }
+        }
+
+        // Sort the rows by the cluster columns before they are written, so that the extents cover narrow ranges of them
+        String clusterColumns = environmentSubstitute(meta.getClusterColumns());
+        if(!Const.isEmpty(clusterColumns)){
+            String[] names = clusterColumns.split(",");
+            int[] columns = new int[names.length];
+            for(int k = 0; k<names.length; k++){
+                columns[k] = -1;
+                for(int c = 0; c<data.targetColumnCount; c++){
+                    if(data.table.getColumnName(c).equalsIgnoreCase(names[k].trim())){
+                        columns[k] = c;
                     }
-                    putError(data.rowMeta, r, 1L, "data type binary is not supported at the moment - rollback", data.rowMeta.getFieldNames()[i], "Binary data type not supported");
-                    setErrors(1);
-                default:
-                    data.b.rollback();
+                }
+                if(columns[k]<0){
+                    rollback(data);
                     if(log.isRowLevel()){
                         data.d.setDebug((short)0);
                     }
-                    putError(data.rowMeta, r, 1L, "data type " + data.rowValueTypes.get(i).getType() + " is not supported at the moment - rollback", data.rowMeta.getFieldNames()[i], "Data type not supported");
+                    putError(data.rowMeta, r, 1L, "cluster column " + names[k].trim() + " not found - rollback", names[k].trim(), "Cluster column not found");
                     setErrors(1);
+                    setOutputDone();
+                    return false;
+                }
             }
+            long memoryBudget = Const.toLong(environmentSubstitute(meta.getClusterMemory()), 256) * 1024 * 1024;
+            File directory = new File(Const.NVL(environmentSubstitute(meta.getClusterDirectory()), System.getProperty("java.io.tmpdir")));
+            data.sorter = new KettleColumnStoreClusterSorter(data.sink, data.targetColumnCount, columns, memoryBudget, directory, log);
+            data.sink = data.sorter;
+            data.timingSink = new KettleColumnStoreTimingSink(data.sink);
+            logDetailed("Rows are sorted by " + clusterColumns + " before they are written");
         }
-        data.b.writeRow();
-    }catch(ColumnStoreException e){
-        data.b.rollback();
+
+        // Profile the converted values on their way into the sink
+        if(meta.isStatistics()){
+            String[] columnNames = new String[data.targetColumnCount];
+            for(int c = 0; c<data.targetColumnCount; c++){
+                columnNames[c] = data.table.getColumnName(c);
+            }
+            data.statistics = new KettleColumnStoreStatisticsSink(data.sink, columnNames);
+            data.sink = data.statistics;
+            data.timingSink = new KettleColumnStoreTimingSink(data.sink);
+        }
+    }
+
+    // pick the target table of the row if the tables are read from a field
+    KettleColumnStoreColumnWriter[] writers = data.writers;
+    KettleColumnStoreRowSink sink = data.sink;
+    KettleColumnStoreTimingSink timingSink = data.timingSink;
+    if (data.router != null) {
+        try {
+            KettleColumnStoreTableRouter.Route route = data.router.route(data.rowMeta.getString(r, data.tableFieldIndex));
+            writers = route.writers;
+            sink = route.sink;
+            timingSink = route.timingSink;
+        } catch (KettleException | ColumnStoreException e) {
+            rollback(data);
+            if(log.isRowLevel()){
+                data.d.setDebug((short)0);
+            }
+            putError(data.rowMeta, r, 1L, e.getMessage() + " - rollback", data.rowMeta.getFieldNames()[data.tableFieldIndex], "Target table not available");
+            setErrors(1);
+            setOutputDone();
+            return false;
+        }
+    }
+
+    // rows at or below the high-watermark were loaded before, as were rows that didn't change since the previous load in delta mode,
+    // and rows repeating the key of an earlier row are duplicates, they are only passed on. Deferred rows are written at the end of the input.
+    // Every row is checked against the delta snapshot, also those below the watermark, as keys missing from the snapshot count as deleted.
+    boolean changed = data.delta == null || data.delta.isChanged(r);
+    boolean load = (data.watermark == null || data.watermark.isNew(r)) && changed;
+    int dedupState = load && data.dedup != null ? data.dedup.add(r) : KettleColumnStoreDedup.NEW;
+    if (!load || dedupState != KettleColumnStoreDedup.NEW) {
+        if (dedupState != KettleColumnStoreDedup.DEFERRED) {
+            incrementLinesSkipped();
+        }
+        if (data.forwardRows) {
+            putRow( data.rowMeta, r );
+        }
+        if ( checkFeedback( getLinesRead() ) ) {
+            logBasic( BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.Linenr", getLinesRead() ) );
+        }
+        return true;
+    }
+
+    // put the row into ColumnStore, the loader commits the batch if it reached its row count or interval
+    try {
+        writeRow(data, writers, sink, timingSink, r);
+    }catch(ColumnStoreException | KettleException e){
+        rollback(data);
         if(log.isRowLevel()){
             data.d.setDebug((short)0);
         }
         putError(data.rowMeta, r, 1L, "An error occurred during bulk insert - rollback ", "", e.getMessage());
         setErrors(1);
+        setOutputDone();
+        return false;
     }
 
-    // put the row to the output row stream
-    putRow( data.rowMeta, r );
+    // put the row to the output row stream, unless the step is a terminal sink
+    if (data.forwardRows) {
+        putRow( data.rowMeta, r );
+    }
 
     // log progress if it is time to to so
     if ( checkFeedback( getLinesRead() ) ) {
@@ -419,37 +916,288 @@ public class KettleColumnStoreBulkExporterStep extends BaseStep implements StepI
     KettleColumnStoreBulkExporterStepMeta meta = (KettleColumnStoreBulkExporterStepMeta) smi;
     KettleColumnStoreBulkExporterStepData data = (KettleColumnStoreBulkExporterStepData) sdi;
 
-    // Finally commit the changes to ColumnStore
-    try {
-        data.b.commit();
-        if(log.isRowLevel()){
-            data.d.setDebug((short)0);
+    // Write the sorted rows, unless the load already failed
+    if (data.sorter != null) {
+        try {
+            if (getErrors() == 0) {
+                data.sorter.finish();
+                logDetailed("Wrote " + data.sorter.getRows() + " rows sorted by the cluster columns");
+            }
+        }catch(KettleException | ColumnStoreException e){
+            logError("couldn't write the sorted rows into ColumnStore - rollback", e);
+            setErrors(1);
+            rollback(data);
+        }finally{
+            data.sorter.close();
         }
-        logDebug("bulk insert committed");
-    }catch(ColumnStoreException e){
-        data.b.rollback();
-        if(log.isRowLevel()){
-            data.d.setDebug((short)0);
+    }
+
+    // Finally commit the last batch to ColumnStore, unless the load failed anywhere, e.g. in a writer or the watermark.
+    // A shared bulk insert is also rolled back if the transformation was stopped, e.g. because another copy failed its init().
+    KettleColumnStoreBulkLoader summaryLoader = data.loader;
+    if (getErrors() > 0 || (data.sharedWriter != null && isStopped())) {
+        rollback(data);
+        logError("the load failed - rollback of the uncommitted rows");
+    }else if (data.router != null) {
+        try {
+            data.router.commit();
+            if(log.isRowLevel()){
+                data.d.setDebug((short)0);
+            }
+            if(log.isDetailed()){
+                logDetailed("bulk inserts into " + data.router.getKnownTables() + " tables committed, "
+                        + data.router.getEvictions() + " closed early to stay within the open table limit");
+            }
+        }catch(ColumnStoreException e){
+            data.router.rollback();
+            if(log.isRowLevel()){
+                data.d.setDebug((short)0);
+            }
+            logError("couldn't commit bulk inserts to ColumnStore - rollback", e);
+            setErrors(1);
+        }
+    }else if (data.cpimportLoader != null) {
+        try {
+            data.cpimportLoader.finish();
+            if(log.isDetailed()){
+                logDetailed("cpimport loaded " + (data.cpimportLoader.getRows() - data.cpimportLoader.getRejected())
+                        + " rows, rejected " + data.cpimportLoader.getRejected() + " rows");
+            }
+        }catch(KettleException e){
+            logError("cpimport couldn't load the rows into ColumnStore", e);
+            setErrors(1);
+        }
+    }else if (data.sharedWriter != null) {
+        try {
+            // only the last copy reports the summary of the shared bulk insert
+            if (data.sharedWriter.finish()) {
+                summaryLoader = data.sharedWriter.getLoader();
+            }
+            if(log.isRowLevel()){
+                data.d.setDebug((short)0);
+            }
+            logDebug("shared bulk insert committed");
+        }catch(KettleException e){
+            if(log.isRowLevel()){
+                data.d.setDebug((short)0);
+            }
+            logError("couldn't commit shared bulk insert to ColumnStore - rollback", e);
+            setErrors(1);
+        }
+    }else if (data.asyncWriter != null) {
+        try {
+            data.asyncWriter.finish();
+            if(log.isRowLevel()){
+                data.d.setDebug((short)0);
+            }
+            logDebug("bulk insert committed by the writer thread");
+        }catch(KettleException e){
+            if(log.isRowLevel()){
+                data.d.setDebug((short)0);
+            }
+            logError("couldn't commit bulk insert to ColumnStore - rollback", e);
+            setErrors(1);
+        }
+    }else if (data.loader != null) {
+        try {
+            if (data.journal != null) {
+                data.journal.commit();
+            } else {
+                data.loader.commit();
+            }
+            if(log.isRowLevel()){
+                data.d.setDebug((short)0);
+            }
+            logDebug("bulk insert committed");
+        }catch(ColumnStoreException | KettleException e){
+            data.loader.rollback();
+            if(log.isRowLevel()){
+                data.d.setDebug((short)0);
+            }
+            logError("couldn't commit bulk insert to ColumnStore - rollback", e);
+            setErrors(1);
         }
-        logError("couldn't commit bulk insert to ColumnStore - rollback", e);
-        setErrors(1);
     }
 
-  if(log.isDetailed()){
-      ColumnStoreSummary summary = data.b.getSummary();
-      logDetailed("Execution time: " + summary.getExecutionTime());
-      logDetailed("Rows inserted: " + summary.getRowsInsertedCount());
-      logDetailed("Truncation count: " + summary.getTruncationCount());
-      logDetailed("Saturated count: " + summary.getSaturatedCount());
-      logDetailed("Invalid count: " + summary.getInvalidCount());
-  }
+    // Write the rollups of the committed rows in one bulk insert
+    if (data.rollup != null) {
+        if (getErrors() == 0) {
+            KettleColumnStoreBulkLoader rollupLoader = new KettleColumnStoreBulkLoader(data.d, meta.getTargetDatabase(), data.rollupTable, 0, 0, log);
+            synchronized (KettleColumnStoreRollup.getTableLock(meta.getTargetDatabase(), data.rollupTable)) {
+                try {
+                    long spilledRuns = data.rollup.getRuns();
+                    data.rollup.write(rollupLoader);
+                    rollupLoader.commit();
+                    logDetailed("Wrote " + data.rollup.getGroupsWritten() + " rollups of " + data.rollup.getRows() + " rows into "
+                            + meta.getTargetDatabase() + "." + data.rollupTable + ", " + spilledRuns + " runs spilled");
+                }catch(KettleException | ColumnStoreException e){
+                    rollupLoader.rollback();
+                    logError("couldn't write the rollups into " + meta.getTargetDatabase() + "." + data.rollupTable
+                            + ", the loaded rows are committed", e);
+                    setErrors(1);
+                }
+            }
+        } else {
+            data.rollup.close();
+        }
+    }
 
-    if (data.d != null){
-        data.d.delete();
+    // Keep the segment of an uncommitted batch for the next load
+    if (data.journal != null) {
+        data.journal.close();
     }
+
+    // Merge the staged rows into the target table or swap the shadow table in, unless the load failed
+    if (data.stagingTable != null) {
+        if (getErrors() == 0) {
+            try {
+                if (data.mergeKeys != null) {
+                    data.stagingTable.merge(data.mergeKeys);
+                    logBasic("Merged the loaded rows into " + meta.getTargetDatabase() + "." + meta.getTargetTable());
+                } else {
+                    data.stagingTable.swap();
+                    logBasic("Replaced " + meta.getTargetDatabase() + "." + meta.getTargetTable() + " by the loaded shadow table");
+                }
+            }catch(KettleException e){
+                logError("couldn't apply the staging table to the target table", e);
+                setErrors(1);
+            }
+        } else {
+            data.stagingTable.drop();
+        }
+    }
+
+    // Write the statistics of the committed columns in one bulk insert
+    if (data.statistics != null) {
+        if(log.isDetailed()){
+            logDetailed("Statistics of " + data.statistics.getRows() + " rows:\n" + data.statistics);
+        }
+        if (getErrors() == 0 && data.statisticsTable != null) {
+            KettleColumnStoreBulkLoader statisticsLoader = new KettleColumnStoreBulkLoader(data.d, meta.getTargetDatabase(), data.statisticsTable, 0, 0, log);
+            synchronized (KettleColumnStoreRollup.getTableLock(meta.getTargetDatabase(), data.statisticsTable)) {
+                try {
+                    data.statistics.write(statisticsLoader, meta.getTargetDatabase(), meta.getTargetTable(), Calendar.getInstance());
+                    statisticsLoader.commit();
+                    logDetailed("Wrote the column statistics into " + meta.getTargetDatabase() + "." + data.statisticsTable);
+                }catch(KettleException | ColumnStoreException e){
+                    statisticsLoader.rollback();
+                    logError("couldn't write the column statistics into " + meta.getTargetDatabase() + "." + data.statisticsTable
+                            + ", the loaded rows are committed", e);
+                    setErrors(1);
+                }
+            }
+        }
+    }
+
+    // The rest of the reserved keys is skipped
+    if (data.sequence != null) {
+        data.sequence.close();
+        if(log.isDetailed()){
+            logDetailed("Reserved " + data.sequence.getReservations() + " key blocks from sequence " + data.sequence.getName());
+        }
+    }
+
+    // Write the keys of the deleted rows and keep the snapshot for the next load, unless the load failed
+    if (data.delta != null) {
+        if (getErrors() == 0 && data.deltaDeletedTable != null && data.delta.getDeletedRows() > 0) {
+            KettleColumnStoreBulkLoader deletedLoader = new KettleColumnStoreBulkLoader(data.d, meta.getTargetDatabase(), data.deltaDeletedTable, 0, 0, log);
+            try {
+                data.delta.writeDeleted(deletedLoader);
+                deletedLoader.commit();
+            }catch(KettleException | ColumnStoreException e){
+                deletedLoader.rollback();
+                logError("couldn't write the deleted keys into " + meta.getTargetDatabase() + "." + data.deltaDeletedTable, e);
+                setErrors(1);
+            }
+        }
+        if (getErrors() == 0) {
+            try {
+                data.delta.save();
+                logBasic("Delta: " + data.delta.getNewRows() + " new, " + data.delta.getChangedRows() + " changed, "
+                        + data.delta.getUnchangedRows() + " unchanged and " + data.delta.getDeletedRows() + " deleted rows");
+            }catch(KettleException e){
+                logError("couldn't save the delta snapshot, the next load writes the rows of this load again", e);
+                setErrors(1);
+            }
+        } else {
+            logBasic("The delta snapshot " + data.delta.getSnapshot() + " is kept, the next load compares against the previous one");
+        }
+        data.delta.close();
+    }
+
+    // Keep the largest loaded value for the next load, unless the load failed
+    if (data.watermark != null) {
+        if (getErrors() == 0) {
+            try {
+                data.watermark.save();
+                logBasic("High-watermark is '" + Const.NVL(data.watermark.getWatermark(), "") + "', skipped "
+                        + data.watermark.getDropped() + " rows at or below it");
+            }catch(KettleException e){
+                logError("couldn't save the high-watermark, the next load writes the rows of this load again", e);
+                setErrors(1);
+            }
+        }
+        data.watermark.close();
+    }
+
+    // Release the deduplication keys and delete the spilled partitions
+    if (data.dedup != null) {
+        logBasic("Deduplication dropped " + data.dedup.getDuplicates() + " duplicate rows, " + data.dedup.getDeferred()
+                + " rows were deferred in " + data.dedup.getSpilledPartitions() + " spilled partitions");
+        data.dedup.close();
+    }
+
+    if (summaryLoader != null) {
+        if(log.isDetailed()){
+            logDetailed("Committed batches: " + summaryLoader.getCommits());
+            logDetailed("Execution time: " + summaryLoader.getExecutionTime());
+            logDetailed("Rows inserted: " + summaryLoader.getRowsInserted());
+            logDetailed("Truncation count: " + summaryLoader.getTruncationCount());
+            logDetailed("Saturated count: " + summaryLoader.getSaturatedCount());
+            logDetailed("Invalid count: " + summaryLoader.getInvalidCount());
+        }
+    }
+
+    if (data.metrics != null) {
+        setLinesRejected(data.metrics.getInvalidCount());
+        if(data.throttle != null){
+            logBasic("Throttled for " + data.metrics.getThrottledMillis() + " ms to stay within the rate limits");
+        }
+        if(log.isDetailed()){
+            logDetailed("Metrics: " + data.metrics);
+        }
+        data.metrics.unregister();
+    }
+
+    // Return the driver for the next initialization, unless the load failed
+    KettleColumnStoreDriverCache.release(data.driverLease, data.driverHealthy && getErrors() == 0);
+    data.driverLease = null;
+    data.d = null;
     // Call superclass dispose()
     super.dispose( meta, data );
   }
+
+  /**
+   * Rolls back the current batch, on the writer thread if there is one. A shared bulk insert is rolled back for all step copies,
+   * cpimport is killed, and the open tables of a router are rolled back.
+   * @param data step data holding the loader and the writer thread
+   */
+  private void rollback( KettleColumnStoreBulkExporterStepData data ) {
+    if (data.router != null) {
+        data.router.rollback();
+    } else if (data.cpimportLoader != null) {
+        data.cpimportLoader.abort();
+    } else if (data.sharedWriter != null) {
+        data.sharedWriter.abort();
+    } else if (data.asyncWriter != null) {
+        data.asyncWriter.abort();
+    } else if (data.loader != null) {
+        data.loader.rollback();
+        if (data.journal != null) {
+            data.journal.abort();
+        }
+    }
+  }
 }
 
 
@@ -13,10 +13,7 @@
 
 package com.mariadb.columnstore.api.kettle;
 
-import com.mariadb.columnstore.api.ColumnStoreBulkInsert;
 import com.mariadb.columnstore.api.ColumnStoreDriver;
-import com.mariadb.columnstore.api.ColumnStoreSystemCatalog;
-import com.mariadb.columnstore.api.ColumnStoreSystemCatalogTable;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.trans.step.BaseStepData;
@@ -45,13 +42,42 @@ public class KettleColumnStoreBulkExporterStepData extends BaseStepData implemen
   RowMetaInterface rowMeta;
   List<ValueMetaInterface> rowValueTypes;
 
+  KettleColumnStoreDriverCache.CachedDriver driverLease;
+  boolean driverHealthy = true;
   ColumnStoreDriver d;
-  ColumnStoreBulkInsert b;
-  ColumnStoreSystemCatalog catalog;
-  ColumnStoreSystemCatalogTable table;
+  KettleColumnStoreBulkLoader loader;
+  KettleColumnStoreRowJournal journal;
+  long journalReplayed;
+  KettleColumnStoreStagingTable stagingTable;
+  String[] mergeKeys;
+  KettleColumnStoreAsyncWriter asyncWriter;
+  KettleColumnStoreSharedWriter.Participant sharedWriter;
+  KettleColumnStoreCpimportLoader cpimportLoader;
+  KettleColumnStoreTableRouter router;
+  KettleColumnStoreClusterSorter sorter;
+  int tableFieldIndex;
+  KettleColumnStoreRowSink sink;
+  KettleColumnStoreTimingSink timingSink;
+  KettleColumnStoreBulkExporterMetrics metrics;
+  KettleColumnStoreThrottle throttle;
+  KettleColumnStoreSequence sequence;
+  int sequenceColumn = -1;
+  KettleColumnStoreRollup rollup;
+  String rollupTable;
+  KettleColumnStoreDelta delta;
+  String deltaDeletedTable;
+  KettleColumnStoreWatermark watermark;
+  String watermarkField;
+  KettleColumnStoreDedup dedup;
+  KettleColumnStoreStatisticsSink statistics;
+  String statisticsTable;
+  long reportedCommits;
+  KettleColumnStoreTableSchema table;
   int targetColumnCount;
 
   int[] targetInputMapping;
+  KettleColumnStoreColumnWriter[] writers;
+  boolean forwardRows;
 
   public KettleColumnStoreBulkExporterStepData() {
     super();
@@ -17,6 +17,7 @@ import com.mariadb.columnstore.api.*;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.CCombo;
+import org.eclipse.swt.custom.ScrolledComposite;
 import org.eclipse.swt.events.*;
 import org.eclipse.swt.layout.*;
 import org.eclipse.swt.widgets.*;
@@ -89,7 +90,57 @@ public class KettleColumnStoreBulkExporterStepDialog extends BaseStepDialog impl
   //columnstore xml connection configuration file
   private TextVar wColumnStoreXML;
 
-  private ColumnStoreDriver d;
+  //number of rows and seconds after which the bulk insert is committed
+  private TextVar wCommitRowCount;
+  private TextVar wCommitInterval;
+
+  //asynchronous writer thread and its buffer size
+  private Button wAsyncWriter;
+  private TextVar wAsyncBufferSize;
+
+  //one bulk insert shared by all step copies
+  private Button wSharedWriter;
+
+  //don't pass rows on to following steps
+  private Button wTerminalSink;
+  private Button wCpimport;
+  private TextVar wCpimportPath;
+  private TextVar wCpimportMode;
+  private Button wTableFromField;
+  private TextVar wTableField;
+  private TextVar wMaxOpenTables;
+  private TextVar wClusterColumns;
+  private TextVar wClusterMemory;
+  private TextVar wClusterDirectory;
+  private Button wJournal;
+  private TextVar wJournalDirectory;
+  private Button wMerge;
+  private TextVar wMergeKeys;
+  private Button wShadowSwap;
+  private TextVar wMaxRowsPerSecond;
+  private TextVar wMaxBytesPerSecond;
+  private TextVar wSequenceColumn;
+  private TextVar wSequenceName;
+  private TextVar wSequenceBlockSize;
+  private TextVar wRollupTable;
+  private TextVar wRollupGroupFields;
+  private TextVar wRollupMeasures;
+  private TextVar wRollupMemory;
+  private Button wDelta;
+  private TextVar wDeltaKeyFields;
+  private TextVar wDeltaValueFields;
+  private TextVar wDeltaSnapshotFile;
+  private TextVar wDeltaDeletedTable;
+  private TextVar wWatermarkColumn;
+  private TextVar wWatermarkVariable;
+  private Button wDedup;
+  private TextVar wDedupKeyFields;
+  private TextVar wDedupMemory;
+  private Button wStatistics;
+  private TextVar wStatisticsTable;
+  private Button wReloadAlter;
+
+  private KettleColumnStoreDriverCache.CachedDriver d;
 
   //listener and pattern for table and column name validation
   private VerifyListener lsCSNamingConvention;
@@ -154,8 +205,8 @@ public class KettleColumnStoreBulkExporterStepDialog extends BaseStepDialog impl
     // The "changed" variable is inherited from BaseStepDialog
     changed = meta.hasChanged();
 
-    // Initialize the ColumnStoreDriver
-    d = meta.initializeColumnStoreDriver(transMeta);
+    // Lease a ColumnStoreDriver
+    d = meta.acquireColumnStoreDriver(transMeta);
 
     // If the ColumnStoreDriver can't be accessed, show an error message.
     if(d==null){
@@ -385,6 +436,90 @@ public class KettleColumnStoreBulkExporterStepDialog extends BaseStepDialog impl
       }
     });
 
+    // TabItem loading options
+    TabItem tabItemLoading = new TabItem(tabFolder, SWT.FILL);
+    tabItemLoading.setText(BaseMessages.getString(PKG, "KettleColumnStoreBulkExporterPlugin.Loading.Tab"));
+
+    // The loading options don't fit into the dialog anymore, therefore they scroll
+    ScrolledComposite scrolledLoading = new ScrolledComposite(tabFolder, SWT.V_SCROLL | SWT.H_SCROLL);
+    scrolledLoading.setExpandHorizontal(true);
+    scrolledLoading.setExpandVertical(true);
+    tabItemLoading.setControl(scrolledLoading);
+
+    Composite compositeLoading = new Composite(scrolledLoading, SWT.NONE);
+    scrolledLoading.setContent(compositeLoading);
+    compositeLoading.setLayout(new FormLayout());
+
+    // The loading options don't affect the mapping, therefore they only mark the meta object as changed.
+    ModifyListener lsOptionMod = new ModifyListener() {
+      public void modifyText( ModifyEvent e ) {
+        meta.setChanged();
+      }
+    };
+
+    // Commit row count and commit interval lines
+    wCommitRowCount = addTextVarLine(compositeLoading, null, "KettleColumnStoreBulkExporterPlugin.Label.CommitRowCount", lsOptionMod, middle, margin);
+    wCommitInterval = addTextVarLine(compositeLoading, wCommitRowCount, "KettleColumnStoreBulkExporterPlugin.Label.CommitInterval", lsOptionMod, middle, margin);
+
+    // Asynchronous writer lines
+    SelectionAdapter lsOptionSelection = new SelectionAdapter() {
+      @Override
+      public void widgetSelected( SelectionEvent e ) {
+        meta.setChanged();
+      }
+    };
+    wAsyncWriter = addCheckboxLine(compositeLoading, wCommitInterval, "KettleColumnStoreBulkExporterPlugin.Label.AsyncWriter", lsOptionSelection, middle, margin);
+    wAsyncBufferSize = addTextVarLine(compositeLoading, wAsyncWriter, "KettleColumnStoreBulkExporterPlugin.Label.AsyncBufferSize", lsOptionMod, middle, margin);
+
+    // Shared writer line
+    wSharedWriter = addCheckboxLine(compositeLoading, wAsyncBufferSize, "KettleColumnStoreBulkExporterPlugin.Label.SharedWriter", lsOptionSelection, middle, margin);
+
+    // Terminal sink line
+    wTerminalSink = addCheckboxLine(compositeLoading, wSharedWriter, "KettleColumnStoreBulkExporterPlugin.Label.TerminalSink", lsOptionSelection, middle, margin);
+
+    // cpimport load engine lines
+    wCpimport = addCheckboxLine(compositeLoading, wTerminalSink, "KettleColumnStoreBulkExporterPlugin.Label.Cpimport", lsOptionSelection, middle, margin);
+    wCpimportPath = addTextVarLine(compositeLoading, wCpimport, "KettleColumnStoreBulkExporterPlugin.Label.CpimportPath", lsOptionMod, middle, margin);
+    wCpimportMode = addTextVarLine(compositeLoading, wCpimportPath, "KettleColumnStoreBulkExporterPlugin.Label.CpimportMode", lsOptionMod, middle, margin);
+
+    // Target table from field lines
+    wTableFromField = addCheckboxLine(compositeLoading, wCpimportMode, "KettleColumnStoreBulkExporterPlugin.Label.TableFromField", lsOptionSelection, middle, margin);
+    wTableField = addTextVarLine(compositeLoading, wTableFromField, "KettleColumnStoreBulkExporterPlugin.Label.TableField", lsOptionMod, middle, margin);
+    wMaxOpenTables = addTextVarLine(compositeLoading, wTableField, "KettleColumnStoreBulkExporterPlugin.Label.MaxOpenTables", lsOptionMod, middle, margin);
+
+    // Cluster sort lines
+    wClusterColumns = addTextVarLine(compositeLoading, wMaxOpenTables, "KettleColumnStoreBulkExporterPlugin.Label.ClusterColumns", lsOptionMod, middle, margin);
+    wClusterMemory = addTextVarLine(compositeLoading, wClusterColumns, "KettleColumnStoreBulkExporterPlugin.Label.ClusterMemory", lsOptionMod, middle, margin);
+    wClusterDirectory = addTextVarLine(compositeLoading, wClusterMemory, "KettleColumnStoreBulkExporterPlugin.Label.ClusterDirectory", lsOptionMod, middle, margin);
+    wJournal = addCheckboxLine(compositeLoading, wClusterDirectory, "KettleColumnStoreBulkExporterPlugin.Label.Journal", lsOptionSelection, middle, margin);
+    wJournalDirectory = addTextVarLine(compositeLoading, wJournal, "KettleColumnStoreBulkExporterPlugin.Label.JournalDirectory", lsOptionMod, middle, margin);
+    wMerge = addCheckboxLine(compositeLoading, wJournalDirectory, "KettleColumnStoreBulkExporterPlugin.Label.Merge", lsOptionSelection, middle, margin);
+    wMergeKeys = addTextVarLine(compositeLoading, wMerge, "KettleColumnStoreBulkExporterPlugin.Label.MergeKeys", lsOptionMod, middle, margin);
+    wShadowSwap = addCheckboxLine(compositeLoading, wMergeKeys, "KettleColumnStoreBulkExporterPlugin.Label.ShadowSwap", lsOptionSelection, middle, margin);
+    wMaxRowsPerSecond = addTextVarLine(compositeLoading, wShadowSwap, "KettleColumnStoreBulkExporterPlugin.Label.MaxRowsPerSecond", lsOptionMod, middle, margin);
+    wMaxBytesPerSecond = addTextVarLine(compositeLoading, wMaxRowsPerSecond, "KettleColumnStoreBulkExporterPlugin.Label.MaxBytesPerSecond", lsOptionMod, middle, margin);
+    wSequenceColumn = addTextVarLine(compositeLoading, wMaxBytesPerSecond, "KettleColumnStoreBulkExporterPlugin.Label.SequenceColumn", lsOptionMod, middle, margin);
+    wSequenceName = addTextVarLine(compositeLoading, wSequenceColumn, "KettleColumnStoreBulkExporterPlugin.Label.SequenceName", lsOptionMod, middle, margin);
+    wSequenceBlockSize = addTextVarLine(compositeLoading, wSequenceName, "KettleColumnStoreBulkExporterPlugin.Label.SequenceBlockSize", lsOptionMod, middle, margin);
+    wRollupTable = addTextVarLine(compositeLoading, wSequenceBlockSize, "KettleColumnStoreBulkExporterPlugin.Label.RollupTable", lsOptionMod, middle, margin);
+    wRollupGroupFields = addTextVarLine(compositeLoading, wRollupTable, "KettleColumnStoreBulkExporterPlugin.Label.RollupGroupFields", lsOptionMod, middle, margin);
+    wRollupMeasures = addTextVarLine(compositeLoading, wRollupGroupFields, "KettleColumnStoreBulkExporterPlugin.Label.RollupMeasures", lsOptionMod, middle, margin);
+    wRollupMemory = addTextVarLine(compositeLoading, wRollupMeasures, "KettleColumnStoreBulkExporterPlugin.Label.RollupMemory", lsOptionMod, middle, margin);
+    wDelta = addCheckboxLine(compositeLoading, wRollupMemory, "KettleColumnStoreBulkExporterPlugin.Label.Delta", lsOptionSelection, middle, margin);
+    wDeltaKeyFields = addTextVarLine(compositeLoading, wDelta, "KettleColumnStoreBulkExporterPlugin.Label.DeltaKeyFields", lsOptionMod, middle, margin);
+    wDeltaValueFields = addTextVarLine(compositeLoading, wDeltaKeyFields, "KettleColumnStoreBulkExporterPlugin.Label.DeltaValueFields", lsOptionMod, middle, margin);
+    wDeltaSnapshotFile = addTextVarLine(compositeLoading, wDeltaValueFields, "KettleColumnStoreBulkExporterPlugin.Label.DeltaSnapshotFile", lsOptionMod, middle, margin);
+    wDeltaDeletedTable = addTextVarLine(compositeLoading, wDeltaSnapshotFile, "KettleColumnStoreBulkExporterPlugin.Label.DeltaDeletedTable", lsOptionMod, middle, margin);
+    wWatermarkColumn = addTextVarLine(compositeLoading, wDeltaDeletedTable, "KettleColumnStoreBulkExporterPlugin.Label.WatermarkColumn", lsOptionMod, middle, margin);
+    wWatermarkVariable = addTextVarLine(compositeLoading, wWatermarkColumn, "KettleColumnStoreBulkExporterPlugin.Label.WatermarkVariable", lsOptionMod, middle, margin);
+    wDedup = addCheckboxLine(compositeLoading, wWatermarkVariable, "KettleColumnStoreBulkExporterPlugin.Label.Dedup", lsOptionSelection, middle, margin);
+    wDedupKeyFields = addTextVarLine(compositeLoading, wDedup, "KettleColumnStoreBulkExporterPlugin.Label.DedupKeyFields", lsOptionMod, middle, margin);
+    wDedupMemory = addTextVarLine(compositeLoading, wDedupKeyFields, "KettleColumnStoreBulkExporterPlugin.Label.DedupMemory", lsOptionMod, middle, margin);
+    wStatistics = addCheckboxLine(compositeLoading, wDedupMemory, "KettleColumnStoreBulkExporterPlugin.Label.Statistics", lsOptionSelection, middle, margin);
+    wStatisticsTable = addTextVarLine(compositeLoading, wStatistics, "KettleColumnStoreBulkExporterPlugin.Label.StatisticsTable", lsOptionMod, middle, margin);
+    wReloadAlter = addCheckboxLine(compositeLoading, wStatisticsTable, "KettleColumnStoreBulkExporterPlugin.Label.ReloadAlter", lsOptionSelection, middle, margin);
+    scrolledLoading.setMinSize(compositeLoading.computeSize(SWT.DEFAULT, SWT.DEFAULT));
+
     // Select settings tab on startup if the ColumnStoreDriver couldn't be loaded or no JDBC connection is set.
     if(d == null || wConnection.getItemCount() == 0){
       tabFolder.setSelection(1);
@@ -524,7 +659,70 @@ public class KettleColumnStoreBulkExporterStepDialog extends BaseStepDialog impl
   }
 
   /**
-   * Updates the ColumnStoreDriver from wColumnStoreXML
+   * Adds a labeled TextVar line to a composite with FormLayout.
+   * @param parent composite to add the line to
+   * @param previous control above the new line, null for the first line
+   * @param labelKey i18n key of the label
+   * @param lsMod modify listener of the TextVar
+   * @param middle percentage of the label column
+   * @param margin margin between the controls
+   * @return the new TextVar
+   */
+  private TextVar addTextVarLine(Composite parent, Control previous, String labelKey, ModifyListener lsMod, int middle, int margin){
+    Label label = new Label(parent, SWT.RIGHT);
+    label.setText(BaseMessages.getString(PKG, labelKey));
+    props.setLook(label);
+    FormData fdLabel = new FormData();
+    fdLabel.left = new FormAttachment(0, 0);
+    fdLabel.top = previous == null ? new FormAttachment(0, margin) : new FormAttachment(previous, margin);
+    fdLabel.right = new FormAttachment(middle, -margin);
+    label.setLayoutData(fdLabel);
+
+    TextVar text = new TextVar(transMeta, parent, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+    props.setLook(text);
+    text.addModifyListener(lsMod);
+    FormData fdText = new FormData();
+    fdText.left = new FormAttachment(middle, 0);
+    fdText.top = previous == null ? new FormAttachment(0, margin) : new FormAttachment(previous, margin);
+    fdText.right = new FormAttachment(100, 0);
+    text.setLayoutData(fdText);
+    return text;
+  }
+
+  /**
+   * Adds a labeled checkbox line to a composite with FormLayout.
+   * @param parent composite to add the line to
+   * @param previous control above the new line, null for the first line
+   * @param labelKey i18n key of the label
+   * @param lsSelection selection listener of the checkbox
+   * @param middle percentage of the label column
+   * @param margin margin between the controls
+   * @return the new checkbox
+   */
+  private Button addCheckboxLine(Composite parent, Control previous, String labelKey, SelectionListener lsSelection, int middle, int margin){
+    Label label = new Label(parent, SWT.RIGHT);
+    label.setText(BaseMessages.getString(PKG, labelKey));
+    props.setLook(label);
+    FormData fdLabel = new FormData();
+    fdLabel.left = new FormAttachment(0, 0);
+    fdLabel.top = previous == null ? new FormAttachment(0, margin) : new FormAttachment(previous, margin);
+    fdLabel.right = new FormAttachment(middle, -margin);
+    label.setLayoutData(fdLabel);
+
+    Button checkbox = new Button(parent, SWT.CHECK);
+    props.setLook(checkbox);
+    checkbox.addSelectionListener(lsSelection);
+    FormData fdCheckbox = new FormData();
+    fdCheckbox.left = new FormAttachment(middle, 0);
+    fdCheckbox.top = previous == null ? new FormAttachment(0, margin) : new FormAttachment(previous, margin);
+    fdCheckbox.right = new FormAttachment(100, 0);
+    checkbox.setLayoutData(fdCheckbox);
+    return checkbox;
+  }
+
+  /**
+   * Updates the ColumnStoreDriver from wColumnStoreXML. The dialog doesn't use cached system catalogs,
+   * the catalog is read again with every lookup.
    */
   private void updateColumnStoreDriver(){
     if(wColumnStoreXML.getText() != null && !wColumnStoreXML.getText().equals("")) {
@@ -534,19 +732,28 @@ public class KettleColumnStoreBulkExporterStepDialog extends BaseStepDialog impl
         path = transMeta.environmentSubstitute(m.group(0));
       }
       try{
-        d = new ColumnStoreDriver(path);
+        replaceColumnStoreDriver(KettleColumnStoreDriverCache.acquire(path, 0));
       } catch(ColumnStoreException e){
         logDebug("can't instantiate the ColumnStoreDriver with configuration file: " + path,e);
       }
     } else{
       try{
-        d = new ColumnStoreDriver();
+        replaceColumnStoreDriver(KettleColumnStoreDriverCache.acquire(null, 0));
       } catch(ColumnStoreException e){
         logDebug("can't instantiate the default ColumnStoreDriver.", e);
       }
     }
   }
 
+  /**
+   * Returns the leased ColumnStoreDriver to the cache and uses the given one instead.
+   * @param lease the new leased ColumnStoreDriver
+   */
+  private void replaceColumnStoreDriver(KettleColumnStoreDriverCache.CachedDriver lease){
+    KettleColumnStoreDriverCache.release(d, true);
+    d = lease;
+  }
+
   /**
    * Function is invoked when button "Map all Inputs" is hit.
    * It maps all input fields to a new ColumnStore columns of adequate type.
@@ -938,6 +1145,48 @@ public class KettleColumnStoreBulkExporterStepDialog extends BaseStepDialog impl
     }else{
       wColumnStoreXML.setText( meta.getColumnStoreXML() );
     }
+    wCommitRowCount.setText( Const.NVL( meta.getCommitRowCount(), "" ) );
+    wCommitInterval.setText( Const.NVL( meta.getCommitInterval(), "" ) );
+    wAsyncWriter.setSelection( meta.isAsyncWriter() );
+    wAsyncBufferSize.setText( Const.NVL( meta.getAsyncBufferSize(), "" ) );
+    wSharedWriter.setSelection( meta.isSharedWriter() );
+    wTerminalSink.setSelection( meta.isTerminalSink() );
+    wCpimport.setSelection( meta.isCpimport() );
+    wCpimportPath.setText( Const.NVL( meta.getCpimportPath(), "" ) );
+    wCpimportMode.setText( Const.NVL( meta.getCpimportMode(), "" ) );
+    wTableFromField.setSelection( meta.isTableFromField() );
+    wTableField.setText( Const.NVL( meta.getTableField(), "" ) );
+    wMaxOpenTables.setText( Const.NVL( meta.getMaxOpenTables(), "" ) );
+    wClusterColumns.setText( Const.NVL( meta.getClusterColumns(), "" ) );
+    wClusterMemory.setText( Const.NVL( meta.getClusterMemory(), "" ) );
+    wClusterDirectory.setText( Const.NVL( meta.getClusterDirectory(), "" ) );
+    wJournal.setSelection( meta.isJournal() );
+    wJournalDirectory.setText( Const.NVL( meta.getJournalDirectory(), "" ) );
+    wMerge.setSelection( meta.isMerge() );
+    wMergeKeys.setText( Const.NVL( meta.getMergeKeys(), "" ) );
+    wShadowSwap.setSelection( meta.isShadowSwap() );
+    wMaxRowsPerSecond.setText( Const.NVL( meta.getMaxRowsPerSecond(), "" ) );
+    wMaxBytesPerSecond.setText( Const.NVL( meta.getMaxBytesPerSecond(), "" ) );
+    wSequenceColumn.setText( Const.NVL( meta.getSequenceColumn(), "" ) );
+    wSequenceName.setText( Const.NVL( meta.getSequenceName(), "" ) );
+    wSequenceBlockSize.setText( Const.NVL( meta.getSequenceBlockSize(), "" ) );
+    wRollupTable.setText( Const.NVL( meta.getRollupTable(), "" ) );
+    wRollupGroupFields.setText( Const.NVL( meta.getRollupGroupFields(), "" ) );
+    wRollupMeasures.setText( Const.NVL( meta.getRollupMeasures(), "" ) );
+    wRollupMemory.setText( Const.NVL( meta.getRollupMemory(), "" ) );
+    wDelta.setSelection( meta.isDelta() );
+    wDeltaKeyFields.setText( Const.NVL( meta.getDeltaKeyFields(), "" ) );
+    wDeltaValueFields.setText( Const.NVL( meta.getDeltaValueFields(), "" ) );
+    wDeltaSnapshotFile.setText( Const.NVL( meta.getDeltaSnapshotFile(), "" ) );
+    wDeltaDeletedTable.setText( Const.NVL( meta.getDeltaDeletedTable(), "" ) );
+    wWatermarkColumn.setText( Const.NVL( meta.getWatermarkColumn(), "" ) );
+    wWatermarkVariable.setText( Const.NVL( meta.getWatermarkVariable(), "" ) );
+    wDedup.setSelection( meta.isDedup() );
+    wDedupKeyFields.setText( Const.NVL( meta.getDedupKeyFields(), "" ) );
+    wDedupMemory.setText( Const.NVL( meta.getDedupMemory(), "" ) );
+    wStatistics.setSelection( meta.isStatistics() );
+    wStatisticsTable.setText( Const.NVL( meta.getStatisticsTable(), "" ) );
+    wReloadAlter.setSelection( meta.isReloadAlter() );
   }
 
   /**
@@ -950,9 +1199,8 @@ public class KettleColumnStoreBulkExporterStepDialog extends BaseStepDialog impl
     // Restoring original "changed" flag on the meta object
     meta.setChanged( changed );
     // close the SWT dialog window
-    if(d!=null){
-      d.delete();
-    }
+    KettleColumnStoreDriverCache.release(d, true);
+    d = null;
     dispose();
   }
 
@@ -973,13 +1221,58 @@ public class KettleColumnStoreBulkExporterStepDialog extends BaseStepDialog impl
     // set the columnstore xml file location
     meta.setColumnStoreXML( wColumnStoreXML.getText() );
 
+    // set the commit row count and interval
+    meta.setCommitRowCount( wCommitRowCount.getText() );
+    meta.setCommitInterval( wCommitInterval.getText() );
+
+    // set the asynchronous writer options
+    meta.setAsyncWriter( wAsyncWriter.getSelection() );
+    meta.setAsyncBufferSize( wAsyncBufferSize.getText() );
+    meta.setSharedWriter( wSharedWriter.getSelection() );
+    meta.setTerminalSink( wTerminalSink.getSelection() );
+    meta.setCpimport( wCpimport.getSelection() );
+    meta.setCpimportPath( wCpimportPath.getText() );
+    meta.setCpimportMode( wCpimportMode.getText() );
+    meta.setTableFromField( wTableFromField.getSelection() );
+    meta.setTableField( wTableField.getText() );
+    meta.setMaxOpenTables( wMaxOpenTables.getText() );
+    meta.setClusterColumns( wClusterColumns.getText() );
+    meta.setClusterMemory( wClusterMemory.getText() );
+    meta.setClusterDirectory( wClusterDirectory.getText() );
+    meta.setJournal( wJournal.getSelection() );
+    meta.setJournalDirectory( wJournalDirectory.getText() );
+    meta.setMerge( wMerge.getSelection() );
+    meta.setMergeKeys( wMergeKeys.getText() );
+    meta.setShadowSwap( wShadowSwap.getSelection() );
+    meta.setMaxRowsPerSecond( wMaxRowsPerSecond.getText() );
+    meta.setMaxBytesPerSecond( wMaxBytesPerSecond.getText() );
+    meta.setSequenceColumn( wSequenceColumn.getText() );
+    meta.setSequenceName( wSequenceName.getText() );
+    meta.setSequenceBlockSize( wSequenceBlockSize.getText() );
+    meta.setRollupTable( wRollupTable.getText() );
+    meta.setRollupGroupFields( wRollupGroupFields.getText() );
+    meta.setRollupMeasures( wRollupMeasures.getText() );
+    meta.setRollupMemory( wRollupMemory.getText() );
+    meta.setDelta( wDelta.getSelection() );
+    meta.setDeltaKeyFields( wDeltaKeyFields.getText() );
+    meta.setDeltaValueFields( wDeltaValueFields.getText() );
+    meta.setDeltaSnapshotFile( wDeltaSnapshotFile.getText() );
+    meta.setDeltaDeletedTable( wDeltaDeletedTable.getText() );
+    meta.setWatermarkColumn( wWatermarkColumn.getText() );
+    meta.setWatermarkVariable( wWatermarkVariable.getText() );
+    meta.setDedup( wDedup.getSelection() );
+    meta.setDedupKeyFields( wDedupKeyFields.getText() );
+    meta.setDedupMemory( wDedupMemory.getText() );
+    meta.setStatistics( wStatistics.getSelection() );
+    meta.setStatisticsTable( wStatisticsTable.getText() );
+    meta.setReloadAlter( wReloadAlter.getSelection() );
+
     // Set the field mapping
     meta.setFieldMapping(itm);
 
     // close the SWT dialog window
-    if(d!=null){
-      d.delete();
-    }
+    KettleColumnStoreDriverCache.release(d, true);
+    d = null;
     dispose();
   }
 
@@ -993,6 +1286,8 @@ public class KettleColumnStoreBulkExporterStepDialog extends BaseStepDialog impl
     @Override
     protected void refreshExecutionResults() {
       super.refreshExecutionResults();
+      // the executed statements might have changed tables, cached catalogs are outdated
+      KettleColumnStoreDriverCache.invalidateCatalogs();
       updateColumnStoreDriver(); //temporary fix for MCOL-1218
       updateTableView();
     }
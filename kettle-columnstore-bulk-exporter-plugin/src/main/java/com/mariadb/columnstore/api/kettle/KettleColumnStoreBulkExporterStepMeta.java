@@ -131,176 +131,1142 @@ public class KettleColumnStoreBulkExporterStepMeta extends BaseStepMeta implemen
 
   private String columnStoreXML;
 
+  /**
+   * Stores the number of rows after which the bulk insert is committed, 0 or empty to commit only at the end.
+   */
+  @Injection( name = "COMMIT_ROW_COUNT" )
+  private String commitRowCount;
+
+  /**
+   * Stores the number of seconds after which the bulk insert is committed, 0 or empty to commit only at the end.
+   */
+  @Injection( name = "COMMIT_INTERVAL" )
+  private String commitInterval;
+
+  /**
+   * Stores whether the rows are written into ColumnStore by a separate writer thread.
+   */
+  @Injection( name = "ASYNC_WRITER" )
+  private boolean asyncWriter;
+
+  /**
+   * Stores the number of converted rows buffered for the writer thread.
+   */
+  @Injection( name = "ASYNC_BUFFER_SIZE" )
+  private String asyncBufferSize;
+
+  /**
+   * Stores whether all copies of the step write into one shared bulk insert.
+   */
+  @Injection( name = "SHARED_WRITER" )
+  private boolean sharedWriter;
+
+  /**
+   * Stores whether rows are only written into ColumnStore and not passed on to following steps.
+   */
+  @Injection( name = "TERMINAL_SINK" )
+  private boolean terminalSink;
+
+  /**
+   * Stores whether rows are loaded through a spawned cpimport process instead of the mcsapi bulk insert.
+   */
+  @Injection( name = "CPIMPORT" )
+  private boolean cpimport;
+
+  /**
+   * Stores the path of the cpimport binary.
+   */
+  @Injection( name = "CPIMPORT_PATH" )
+  private String cpimportPath;
+
+  /**
+   * Stores the cpimport mode, 1 (distributed by the UM) or 3 (local PM).
+   */
+  @Injection( name = "CPIMPORT_MODE" )
+  private String cpimportMode;
+
+  /**
+   * Stores whether the target table of each row is read from a field of the row.
+   */
+  @Injection( name = "TABLE_FROM_FIELD" )
+  private boolean tableFromField;
+
+  /**
+   * Stores the name of the field holding the target table.
+   */
+  @Injection( name = "TABLE_FIELD" )
+  private String tableField;
+
+  /**
+   * Stores the maximum number of bulk inserts open at the same time if the target table is read from a field.
+   */
+  @Injection( name = "MAX_OPEN_TABLES" )
+  private String maxOpenTables;
+
+  /**
+   * Stores the comma separated target columns the rows are sorted by before they are written.
+   */
+  @Injection( name = "CLUSTER_COLUMNS" )
+  private String clusterColumns;
+
+  /**
+   * Stores the memory budget in MB of the rows buffered for sorting.
+   */
+  @Injection( name = "CLUSTER_MEMORY" )
+  private String clusterMemory;
+
+  /**
+   * Stores the directory sorted runs are spilled to.
+   */
+  @Injection( name = "CLUSTER_DIRECTORY" )
+  private String clusterDirectory;
+
+  /**
+   * Keep the uncommitted rows in a local journal, so that a restarted load can replay them
+   */
+  @Injection( name = "JOURNAL" )
+  private boolean journal;
+
+  /**
+   * Directory of the row journal
+   */
+  @Injection( name = "JOURNAL_DIRECTORY" )
+  private String journalDirectory;
+
+  /**
+   * Merge the rows into the target table by key columns through a staging table
+   */
+  @Injection( name = "MERGE" )
+  private boolean merge;
+
+  /**
+   * Comma separated target columns identifying the rows to replace in merge mode
+   */
+  @Injection( name = "MERGE_KEYS" )
+  private String mergeKeys;
+
+  /**
+   * Load into a shadow table and swap it with the target table once the load is committed
+   */
+  @Injection( name = "SHADOW_SWAP" )
+  private boolean shadowSwap;
+
+  /**
+   * Maximum number of rows per second a step copy writes, empty to disable throttling
+   */
+  @Injection( name = "MAX_ROWS_PER_SECOND" )
+  private String maxRowsPerSecond;
+
+  /**
+   * Maximum number of estimated bytes per second a step copy writes, empty to disable throttling
+   */
+  @Injection( name = "MAX_BYTES_PER_SECOND" )
+  private String maxBytesPerSecond;
+
+  /**
+   * Target column filled with keys from a sequence instead of an input field, empty for none
+   */
+  @Injection( name = "SEQUENCE_COLUMN" )
+  private String sequenceColumn;
+
+  /**
+   * Name of the sequence the keys are taken from, database.table.column of the target if empty
+   */
+  @Injection( name = "SEQUENCE_NAME" )
+  private String sequenceName;
+
+  /**
+   * Number of keys reserved from the sequence at once
+   */
+  @Injection( name = "SEQUENCE_BLOCK_SIZE" )
+  private String sequenceBlockSize;
+
+  /**
+   * Table of the target database the rollups of the loaded rows are written into, empty for none
+   */
+  @Injection( name = "ROLLUP_TABLE" )
+  private String rollupTable;
+
+  /**
+   * Comma separated input fields the rollups are grouped by
+   */
+  @Injection( name = "ROLLUP_GROUP_FIELDS" )
+  private String rollupGroupFields;
+
+  /**
+   * Comma separated rollup measures, e.g. sum(amount), count(*)
+   */
+  @Injection( name = "ROLLUP_MEASURES" )
+  private String rollupMeasures;
+
+  /**
+   * Memory in MB the rollup groups may use before they are spilled
+   */
+  @Injection( name = "ROLLUP_MEMORY" )
+  private String rollupMemory;
+
+  /**
+   * Flag to only write the rows that are new or changed since the previous load
+   */
+  @Injection( name = "DELTA" )
+  private boolean delta;
+
+  /**
+   * Comma separated input fields identifying a row in delta mode
+   */
+  @Injection( name = "DELTA_KEY_FIELDS" )
+  private String deltaKeyFields;
+
+  /**
+   * Comma separated input fields compared between loads in delta mode, all other fields if empty
+   */
+  @Injection( name = "DELTA_VALUE_FIELDS" )
+  private String deltaValueFields;
+
+  /**
+   * File holding the row hashes of the previous load in delta mode
+   */
+  @Injection( name = "DELTA_SNAPSHOT_FILE" )
+  private String deltaSnapshotFile;
+
+  /**
+   * Table of the target database the keys of deleted rows are written into in delta mode, empty for none
+   */
+  @Injection( name = "DELTA_DELETED_TABLE" )
+  private String deltaDeletedTable;
+
+  /**
+   * Column of the target table whose high-watermark is kept, empty for none
+   */
+  @Injection( name = "WATERMARK_COLUMN" )
+  private String watermarkColumn;
+
+  /**
+   * Variable the watermark is set into at the start of the transformation
+   */
+  @Injection( name = "WATERMARK_VARIABLE" )
+  private String watermarkVariable;
+
+  /**
+   * Flag to drop rows whose key fields repeat an earlier row of the load
+   */
+  @Injection( name = "DEDUP" )
+  private boolean dedup;
+
+  /**
+   * Comma separated input fields identifying a row for the deduplication
+   */
+  @Injection( name = "DEDUP_KEY_FIELDS" )
+  private String dedupKeyFields;
+
+  /**
+   * Memory budget of the deduplication keys in MB, partitions beyond it are spilled to disk
+   */
+  @Injection( name = "DEDUP_MEMORY" )
+  private String dedupMemory;
+
+  /**
+   * Flag to profile the columns of the loaded rows
+   */
+  @Injection( name = "STATISTICS" )
+  private boolean statistics;
+
+  /**
+   * Table of the target database the column statistics are written into, empty to only log them
+   */
+  @Injection( name = "STATISTICS_TABLE" )
+  private String statisticsTable;
+
+  /**
+   * Flag to change column types by reloading the table into a new one instead of copying each column with UPDATE
+   */
+  @Injection( name = "RELOAD_ALTER" )
+  private boolean reloadAlter;
+
   /**
    * Database connection (JDBC)
    */
-  private DatabaseMeta databaseMeta;
+  private DatabaseMeta databaseMeta;
+
+  //Pattern for PDI variables
+  protected static final Pattern PDI_VARIABLE_PATTERN = Pattern.compile("\\$\\{.+?\\}");
+
+  /**
+   * Wrapper class to store the mapping between input and output.
+   * Mapped are field and column names not the position in the ColumnStore
+   * table or input fields. It gets translated into positions in
+   * KettleColumnStoreBulkExporterStep..
+   */
+  protected static class InputTargetMapping{
+    private String[] inputStreamFields;
+    private String[] targetColumnStoreColumns;
+
+    public InputTargetMapping(){
+      this(0);
+    }
+
+    public InputTargetMapping(int entries){
+      this.inputStreamFields = new String[entries];
+      this.targetColumnStoreColumns = new String[entries];
+    }
+
+    public int getNumberOfEntries(){
+      return inputStreamFields.length;
+    }
+
+    public String[] getInputStreamFields() {
+      return inputStreamFields;
+    }
+
+    public String[] getTargetColumnStoreColumns() {
+      return targetColumnStoreColumns;
+    }
+
+    public String getInputStreamField(int i){
+      return inputStreamFields[i];
+    }
+
+    public String getTargetColumnStoreColumn(int i){
+      return targetColumnStoreColumns[i];
+    }
+
+    public void setInputFieldMetaData(int index, String metaData){
+      inputStreamFields[index] = metaData;
+    }
+
+    public void setTargetColumnStoreColumn(int index, String metaData){
+      targetColumnStoreColumns[index] = metaData;
+    }
+
+    public String getTargetInputMappingField(String ColumnStoreTargetName){
+      for (int i=0; i< targetColumnStoreColumns.length; i++){
+        if(targetColumnStoreColumns[i].toLowerCase().equals(ColumnStoreTargetName)){
+          return inputStreamFields[i];
+        }
+      }
+      return null;
+    }
+  }
+
+  private InputTargetMapping fieldMapping;
+
+  /**
+   * Constructor should call super() to make sure the base class has a chance to initialize properly.
+   */
+  public KettleColumnStoreBulkExporterStepMeta() {
+    super();
+  }
+
+  /**
+   * Called by Spoon to get a new instance of the SWT dialog for the step.
+   * A standard implementation passing the arguments to the constructor of the step dialog is recommended.
+   * 
+   * @param shell    an SWT Shell
+   * @param meta     description of the step 
+   * @param transMeta  description of the the transformation 
+   * @param name    the name of the step
+   * @return       new instance of a dialog for this step 
+   */
+  public StepDialogInterface getDialog( Shell shell, StepMetaInterface meta, TransMeta transMeta, String name ) {
+    return new KettleColumnStoreBulkExporterStepDialog( shell, meta, transMeta, name );
+  }
+
+  /**
+   * Called by PDI to get a new instance of the step implementation. 
+   * A standard implementation passing the arguments to the constructor of the step class is recommended.
+   * 
+   * @param stepMeta        description of the step
+   * @param stepDataInterface    instance of a step data class
+   * @param cnr          copy number
+   * @param transMeta        description of the transformation
+   * @param disp          runtime implementation of the transformation
+   * @return            the new instance of a step implementation 
+   */
+  public StepInterface getStep( StepMeta stepMeta, StepDataInterface stepDataInterface, int cnr, TransMeta transMeta,
+      Trans disp ) {
+    return new KettleColumnStoreBulkExporterStep( stepMeta, stepDataInterface, cnr, transMeta, disp );
+  }
+
+  /**
+   * Called by PDI to get a new instance of the step data class.
+   */
+  public StepDataInterface getStepData() {
+    return new KettleColumnStoreBulkExporterStepData();
+  }
+
+  /**
+   * Gets used/defined database connections (JDBC), that are set in Spoon.
+   * @return used/defined database connections
+   */
+  public DatabaseMeta[] getUsedDatabaseConnections()
+  {
+    if (databaseMeta!=null)
+    {
+      return new DatabaseMeta[] { databaseMeta };
+    }
+    else
+    {
+      return super.getUsedDatabaseConnections();
+    }
+  }
+
+  /**
+   * This method is called every time a new step is created and should allocate/set the step configuration
+   * to sensible defaults. The values set here will be used by Spoon when a new step is created.    
+   */
+  public void setDefault() {
+      setTargetDatabase(BaseMessages.getString(PKG, "KettleColumnStoreBulkExporterPlugin.TargetDatabase.Text.Default"));
+      setTargetTable(BaseMessages.getString(PKG, "KettleColumnStoreBulkExporterPlugin.TargetTable.Text.Default"));
+      fieldMapping = new InputTargetMapping();
+      databaseMeta = null;
+      columnStoreXML = "";
+      commitRowCount = "0";
+      commitInterval = "0";
+      asyncWriter = false;
+      asyncBufferSize = "10000";
+      sharedWriter = false;
+      terminalSink = false;
+      cpimport = false;
+      cpimportPath = "/usr/local/mariadb/columnstore/bin/cpimport";
+      cpimportMode = "1";
+      tableFromField = false;
+      tableField = "";
+      maxOpenTables = "16";
+      clusterColumns = "";
+      clusterMemory = "256";
+      clusterDirectory = "%%java.io.tmpdir%%";
+      journal = false;
+      journalDirectory = "%%java.io.tmpdir%%";
+      merge = false;
+      mergeKeys = "";
+      shadowSwap = false;
+      maxRowsPerSecond = "";
+      maxBytesPerSecond = "";
+      sequenceColumn = "";
+      sequenceName = "";
+      sequenceBlockSize = "1000";
+      rollupTable = "";
+      rollupGroupFields = "";
+      rollupMeasures = "";
+      rollupMemory = "256";
+      delta = false;
+      deltaKeyFields = "";
+      deltaValueFields = "";
+      deltaSnapshotFile = "";
+      deltaDeletedTable = "";
+      watermarkColumn = "";
+      watermarkVariable = "COLUMNSTORE_HIGH_WATERMARK";
+      dedup = false;
+      dedupKeyFields = "";
+      dedupMemory = "256";
+      statistics = false;
+      statisticsTable = "";
+      reloadAlter = false;
+  }
+
+  /**
+   * Getter for the name of the target database to export to
+   * @return the name of the target database
+   */
+  public String getTargetDatabase() {
+    return targetDatabase;
+  }
+
+  /**
+   * Setter for the name of the target database to export to
+   * @param targetDatabase the name of the target database
+   */
+  public void setTargetDatabase( String targetDatabase ) {
+    this.targetDatabase = targetDatabase;
+  }
+
+    /**
+     * Getter for the name of the target table to export to
+     * @return the name of the target table
+     */
+    public String getTargetTable() {
+        return targetTable;
+    }
+
+    /**
+     * Setter for the name of the target table to export to
+     * @param targetTable the name of the target table
+     */
+    public void setTargetTable( String targetTable ) {
+        this.targetTable = targetTable;
+    }
+
+  /**
+   * Getter for the number of rows after which the bulk insert is committed
+   * @return number of rows, may contain variables
+   */
+  public String getCommitRowCount() {
+    return commitRowCount;
+  }
+
+  /**
+   * Setter for the number of rows after which the bulk insert is committed
+   * @param commitRowCount number of rows, 0 or empty to commit only at the end
+   */
+  public void setCommitRowCount( String commitRowCount ) {
+    this.commitRowCount = commitRowCount;
+  }
+
+  /**
+   * Getter for the number of seconds after which the bulk insert is committed
+   * @return number of seconds, may contain variables
+   */
+  public String getCommitInterval() {
+    return commitInterval;
+  }
+
+  /**
+   * Setter for the number of seconds after which the bulk insert is committed
+   * @param commitInterval number of seconds, 0 or empty to commit only at the end
+   */
+  public void setCommitInterval( String commitInterval ) {
+    this.commitInterval = commitInterval;
+  }
+
+  /**
+   * Getter for the asynchronous writer option
+   * @return true if the rows are written by a separate writer thread
+   */
+  public boolean isAsyncWriter() {
+    return asyncWriter;
+  }
+
+  /**
+   * Setter for the asynchronous writer option
+   * @param asyncWriter true if the rows are written by a separate writer thread
+   */
+  public void setAsyncWriter( boolean asyncWriter ) {
+    this.asyncWriter = asyncWriter;
+  }
+
+  /**
+   * Getter for the number of rows buffered for the writer thread
+   * @return number of rows
+   */
+  public String getAsyncBufferSize() {
+    return asyncBufferSize;
+  }
+
+  /**
+   * Setter for the number of rows buffered for the writer thread
+   * @param asyncBufferSize number of rows
+   */
+  public void setAsyncBufferSize( String asyncBufferSize ) {
+    this.asyncBufferSize = asyncBufferSize;
+  }
+
+  /**
+   * Getter for the shared bulk insert option
+   * @return true if all step copies write into one shared bulk insert
+   */
+  public boolean isSharedWriter() {
+    return sharedWriter;
+  }
+
+  /**
+   * Setter for the shared bulk insert option
+   * @param sharedWriter true if all step copies write into one shared bulk insert
+   */
+  public void setSharedWriter( boolean sharedWriter ) {
+    this.sharedWriter = sharedWriter;
+  }
+
+  /**
+   * Getter for the terminal sink option
+   * @return true if rows aren't passed on unless a following step is connected
+   */
+  public boolean isTerminalSink() {
+    return terminalSink;
+  }
+
+  /**
+   * Setter for the terminal sink option
+   * @param terminalSink true if rows aren't passed on unless a following step is connected
+   */
+  public void setTerminalSink( boolean terminalSink ) {
+    this.terminalSink = terminalSink;
+  }
+
+  /**
+   * Getter for the cpimport load engine option
+   * @return true if rows are streamed into cpimport
+   */
+  public boolean isCpimport() {
+    return cpimport;
+  }
+
+  /**
+   * Setter for the cpimport load engine option
+   * @param cpimport true if rows are streamed into cpimport
+   */
+  public void setCpimport( boolean cpimport ) {
+    this.cpimport = cpimport;
+  }
+
+  /**
+   * Getter for the path of the cpimport binary
+   * @return path of the cpimport binary
+   */
+  public String getCpimportPath() {
+    return cpimportPath;
+  }
+
+  /**
+   * Setter for the path of the cpimport binary
+   * @param cpimportPath path of the cpimport binary
+   */
+  public void setCpimportPath( String cpimportPath ) {
+    this.cpimportPath = cpimportPath;
+  }
+
+  /**
+   * Getter for the cpimport mode
+   * @return cpimport mode
+   */
+  public String getCpimportMode() {
+    return cpimportMode;
+  }
+
+  /**
+   * Setter for the cpimport mode
+   * @param cpimportMode cpimport mode
+   */
+  public void setCpimportMode( String cpimportMode ) {
+    this.cpimportMode = cpimportMode;
+  }
+
+  /**
+   * Getter for the target table from field option
+   * @return true if the target table is read from a field
+   */
+  public boolean isTableFromField() {
+    return tableFromField;
+  }
+
+  /**
+   * Setter for the target table from field option
+   * @param tableFromField true if the target table is read from a field
+   */
+  public void setTableFromField( boolean tableFromField ) {
+    this.tableFromField = tableFromField;
+  }
+
+  /**
+   * Getter for the target table field
+   * @return name of the field holding the target table
+   */
+  public String getTableField() {
+    return tableField;
+  }
+
+  /**
+   * Setter for the target table field
+   * @param tableField name of the field holding the target table
+   */
+  public void setTableField( String tableField ) {
+    this.tableField = tableField;
+  }
+
+  /**
+   * Getter for the maximum number of open tables
+   * @return maximum number of bulk inserts open at the same time
+   */
+  public String getMaxOpenTables() {
+    return maxOpenTables;
+  }
+
+  /**
+   * Setter for the maximum number of open tables
+   * @param maxOpenTables maximum number of bulk inserts open at the same time
+   */
+  public void setMaxOpenTables( String maxOpenTables ) {
+    this.maxOpenTables = maxOpenTables;
+  }
+
+  /**
+   * Getter for the cluster columns
+   * @return comma separated target columns the rows are sorted by
+   */
+  public String getClusterColumns() {
+    return clusterColumns;
+  }
+
+  /**
+   * Setter for the cluster columns
+   * @param clusterColumns comma separated target columns the rows are sorted by
+   */
+  public void setClusterColumns( String clusterColumns ) {
+    this.clusterColumns = clusterColumns;
+  }
+
+  /**
+   * Getter for the sort memory budget
+   * @return memory budget in MB of the rows buffered for sorting
+   */
+  public String getClusterMemory() {
+    return clusterMemory;
+  }
+
+  /**
+   * Setter for the sort memory budget
+   * @param clusterMemory memory budget in MB of the rows buffered for sorting
+   */
+  public void setClusterMemory( String clusterMemory ) {
+    this.clusterMemory = clusterMemory;
+  }
+
+  /**
+   * Getter for the sort spill directory
+   * @return directory sorted runs are spilled to
+   */
+  public String getClusterDirectory() {
+    return clusterDirectory;
+  }
+
+  /**
+   * Setter for the sort spill directory
+   * @param clusterDirectory directory sorted runs are spilled to
+   */
+  public void setClusterDirectory( String clusterDirectory ) {
+    this.clusterDirectory = clusterDirectory;
+  }
+
+  /**
+   * Getter for the row journal option
+   * @return true if uncommitted rows are kept in a local journal
+   */
+  public boolean isJournal() {
+    return journal;
+  }
+
+  /**
+   * Setter for the row journal option
+   * @param journal true if uncommitted rows are kept in a local journal
+   */
+  public void setJournal( boolean journal ) {
+    this.journal = journal;
+  }
+
+  /**
+   * Getter for the directory of the row journal
+   * @return directory of the row journal, may contain variables
+   */
+  public String getJournalDirectory() {
+    return journalDirectory;
+  }
+
+  /**
+   * Setter for the directory of the row journal
+   * @param journalDirectory directory of the row journal
+   */
+  public void setJournalDirectory( String journalDirectory ) {
+    this.journalDirectory = journalDirectory;
+  }
+
+  /**
+   * Getter for the merge mode option
+   * @return true if the rows replace the rows with the same key in the target table
+   */
+  public boolean isMerge() {
+    return merge;
+  }
+
+  /**
+   * Setter for the merge mode option
+   * @param merge true if the rows replace the rows with the same key in the target table
+   */
+  public void setMerge( boolean merge ) {
+    this.merge = merge;
+  }
+
+  /**
+   * Getter for the key columns of the merge mode
+   * @return comma separated target columns, may contain variables
+   */
+  public String getMergeKeys() {
+    return mergeKeys;
+  }
+
+  /**
+   * Setter for the key columns of the merge mode
+   * @param mergeKeys comma separated target columns
+   */
+  public void setMergeKeys( String mergeKeys ) {
+    this.mergeKeys = mergeKeys;
+  }
+
+  /**
+   * Getter for the shadow table option
+   * @return true if the rows are loaded into a shadow table that replaces the target table
+   */
+  public boolean isShadowSwap() {
+    return shadowSwap;
+  }
+
+  /**
+   * Setter for the shadow table option
+   * @param shadowSwap true if the rows are loaded into a shadow table that replaces the target table
+   */
+  public void setShadowSwap( boolean shadowSwap ) {
+    this.shadowSwap = shadowSwap;
+  }
+
+  /**
+   * Getter for the max rows per second option
+   * @return rows per second, 0 or empty for no limit
+   */
+  public String getMaxRowsPerSecond() {
+    return maxRowsPerSecond;
+  }
+
+  /**
+   * Setter for the max rows per second option
+   * @param maxRowsPerSecond rows per second, 0 or empty for no limit
+   */
+  public void setMaxRowsPerSecond( String maxRowsPerSecond ) {
+    this.maxRowsPerSecond = maxRowsPerSecond;
+  }
+
+  /**
+   * Getter for the max bytes per second option
+   * @return estimated bytes per second, 0 or empty for no limit
+   */
+  public String getMaxBytesPerSecond() {
+    return maxBytesPerSecond;
+  }
+
+  /**
+   * Setter for the max bytes per second option
+   * @param maxBytesPerSecond estimated bytes per second, 0 or empty for no limit
+   */
+  public void setMaxBytesPerSecond( String maxBytesPerSecond ) {
+    this.maxBytesPerSecond = maxBytesPerSecond;
+  }
+
+  /**
+   * Getter for the target column filled from a sequence
+   * @return name of the target column, empty for none
+   */
+  public String getSequenceColumn() {
+    return sequenceColumn;
+  }
+
+  /**
+   * Setter for the target column filled from a sequence
+   * @param sequenceColumn name of the target column, empty for none
+   */
+  public void setSequenceColumn( String sequenceColumn ) {
+    this.sequenceColumn = sequenceColumn;
+  }
+
+  /**
+   * Getter for the name of the key sequence
+   * @return name of the sequence, empty for database.table.column
+   */
+  public String getSequenceName() {
+    return sequenceName;
+  }
+
+  /**
+   * Setter for the name of the key sequence
+   * @param sequenceName name of the sequence, empty for database.table.column
+   */
+  public void setSequenceName( String sequenceName ) {
+    this.sequenceName = sequenceName;
+  }
+
+  /**
+   * Getter for the number of keys reserved at once
+   * @return number of keys per reservation
+   */
+  public String getSequenceBlockSize() {
+    return sequenceBlockSize;
+  }
+
+  /**
+   * Setter for the number of keys reserved at once
+   * @param sequenceBlockSize number of keys per reservation
+   */
+  public void setSequenceBlockSize( String sequenceBlockSize ) {
+    this.sequenceBlockSize = sequenceBlockSize;
+  }
+
+  /**
+   * Getter for the rollup table
+   * @return name of the rollup table, empty for none
+   */
+  public String getRollupTable() {
+    return rollupTable;
+  }
+
+  /**
+   * Setter for the rollup table
+   * @param rollupTable name of the rollup table, empty for none
+   */
+  public void setRollupTable( String rollupTable ) {
+    this.rollupTable = rollupTable;
+  }
+
+  /**
+   * Getter for the rollup group fields
+   * @return comma separated input field names
+   */
+  public String getRollupGroupFields() {
+    return rollupGroupFields;
+  }
+
+  /**
+   * Setter for the rollup group fields
+   * @param rollupGroupFields comma separated input field names
+   */
+  public void setRollupGroupFields( String rollupGroupFields ) {
+    this.rollupGroupFields = rollupGroupFields;
+  }
+
+  /**
+   * Getter for the rollup measures
+   * @return comma separated sum, count, min and max measures of input fields
+   */
+  public String getRollupMeasures() {
+    return rollupMeasures;
+  }
 
-  //Pattern for PDI variables
-  protected static final Pattern PDI_VARIABLE_PATTERN = Pattern.compile("\\$\\{.+?\\}");
+  /**
+   * Setter for the rollup measures
+   * @param rollupMeasures comma separated sum, count, min and max measures of input fields
+   */
+  public void setRollupMeasures( String rollupMeasures ) {
+    this.rollupMeasures = rollupMeasures;
+  }
 
   /**
-   * Wrapper class to store the mapping between input and output.
-   * Mapped are field and column names not the position in the ColumnStore
-   * table or input fields. It gets translated into positions in
-   * KettleColumnStoreBulkExporterStep..
+   * Getter for the rollup memory in MB
+   * @return memory in MB
    */
-  protected static class InputTargetMapping{
-    private String[] inputStreamFields;
-    private String[] targetColumnStoreColumns;
+  public String getRollupMemory() {
+    return rollupMemory;
+  }
 
-    public InputTargetMapping(){
-      this(0);
-    }
+  /**
+   * Setter for the rollup memory in MB
+   * @param rollupMemory memory in MB
+   */
+  public void setRollupMemory( String rollupMemory ) {
+    this.rollupMemory = rollupMemory;
+  }
 
-    public InputTargetMapping(int entries){
-      this.inputStreamFields = new String[entries];
-      this.targetColumnStoreColumns = new String[entries];
-    }
+  /**
+   * Getter for the delta mode flag
+   * @return true to only write new and changed rows
+   */
+  public boolean isDelta() {
+    return delta;
+  }
 
-    public int getNumberOfEntries(){
-      return inputStreamFields.length;
-    }
+  /**
+   * Setter for the delta mode flag
+   * @param delta true to only write new and changed rows
+   */
+  public void setDelta( boolean delta ) {
+    this.delta = delta;
+  }
 
-    public String[] getInputStreamFields() {
-      return inputStreamFields;
-    }
+  /**
+   * Getter for the delta key fields
+   * @return comma separated input field names
+   */
+  public String getDeltaKeyFields() {
+    return deltaKeyFields;
+  }
 
-    public String[] getTargetColumnStoreColumns() {
-      return targetColumnStoreColumns;
-    }
+  /**
+   * Setter for the delta key fields
+   * @param deltaKeyFields comma separated input field names
+   */
+  public void setDeltaKeyFields( String deltaKeyFields ) {
+    this.deltaKeyFields = deltaKeyFields;
+  }
 
-    public String getInputStreamField(int i){
-      return inputStreamFields[i];
-    }
+  /**
+   * Getter for the delta value fields
+   * @return comma separated input field names, empty for all other fields
+   */
+  public String getDeltaValueFields() {
+    return deltaValueFields;
+  }
 
-    public String getTargetColumnStoreColumn(int i){
-      return targetColumnStoreColumns[i];
-    }
+  /**
+   * Setter for the delta value fields
+   * @param deltaValueFields comma separated input field names, empty for all other fields
+   */
+  public void setDeltaValueFields( String deltaValueFields ) {
+    this.deltaValueFields = deltaValueFields;
+  }
 
-    public void setInputFieldMetaData(int index, String metaData){
-      inputStreamFields[index] = metaData;
-    }
+  /**
+   * Getter for the delta snapshot file
+   * @return path of the snapshot file, empty for one in the temporary directory
+   */
+  public String getDeltaSnapshotFile() {
+    return deltaSnapshotFile;
+  }
 
-    public void setTargetColumnStoreColumn(int index, String metaData){
-      targetColumnStoreColumns[index] = metaData;
-    }
+  /**
+   * Setter for the delta snapshot file
+   * @param deltaSnapshotFile path of the snapshot file, empty for one in the temporary directory
+   */
+  public void setDeltaSnapshotFile( String deltaSnapshotFile ) {
+    this.deltaSnapshotFile = deltaSnapshotFile;
+  }
 
-    public String getTargetInputMappingField(String ColumnStoreTargetName){
-      for (int i=0; i< targetColumnStoreColumns.length; i++){
-        if(targetColumnStoreColumns[i].toLowerCase().equals(ColumnStoreTargetName)){
-          return inputStreamFields[i];
-        }
-      }
-      return null;
-    }
+  /**
+   * Getter for the deleted keys table
+   * @return name of the deleted keys table, empty for none
+   */
+  public String getDeltaDeletedTable() {
+    return deltaDeletedTable;
   }
 
-  private InputTargetMapping fieldMapping;
+  /**
+   * Setter for the deleted keys table
+   * @param deltaDeletedTable name of the deleted keys table, empty for none
+   */
+  public void setDeltaDeletedTable( String deltaDeletedTable ) {
+    this.deltaDeletedTable = deltaDeletedTable;
+  }
 
   /**
-   * Constructor should call super() to make sure the base class has a chance to initialize properly.
+   * Getter for name of the watermark column
+   * @return name of the watermark column, empty for none
    */
-  public KettleColumnStoreBulkExporterStepMeta() {
-    super();
+  public String getWatermarkColumn() {
+    return watermarkColumn;
   }
 
   /**
-   * Called by Spoon to get a new instance of the SWT dialog for the step.
-   * A standard implementation passing the arguments to the constructor of the step dialog is recommended.
-   * 
-   * @param shell    an SWT Shell
-   * @param meta     description of the step 
-   * @param transMeta  description of the the transformation 
-   * @param name    the name of the step
-   * @return       new instance of a dialog for this step 
+   * Setter for name of the watermark column
+   * @param watermarkColumn name of the watermark column, empty for none
    */
-  public StepDialogInterface getDialog( Shell shell, StepMetaInterface meta, TransMeta transMeta, String name ) {
-    return new KettleColumnStoreBulkExporterStepDialog( shell, meta, transMeta, name );
+  public void setWatermarkColumn( String watermarkColumn ) {
+    this.watermarkColumn = watermarkColumn;
   }
 
   /**
-   * Called by PDI to get a new instance of the step implementation. 
-   * A standard implementation passing the arguments to the constructor of the step class is recommended.
-   * 
-   * @param stepMeta        description of the step
-   * @param stepDataInterface    instance of a step data class
-   * @param cnr          copy number
-   * @param transMeta        description of the transformation
-   * @param disp          runtime implementation of the transformation
-   * @return            the new instance of a step implementation 
+   * Getter for name of the watermark variable
+   * @return name of the watermark variable
    */
-  public StepInterface getStep( StepMeta stepMeta, StepDataInterface stepDataInterface, int cnr, TransMeta transMeta,
-      Trans disp ) {
-    return new KettleColumnStoreBulkExporterStep( stepMeta, stepDataInterface, cnr, transMeta, disp );
+  public String getWatermarkVariable() {
+    return watermarkVariable;
   }
 
   /**
-   * Called by PDI to get a new instance of the step data class.
+   * Setter for name of the watermark variable
+   * @param watermarkVariable name of the watermark variable
    */
-  public StepDataInterface getStepData() {
-    return new KettleColumnStoreBulkExporterStepData();
+  public void setWatermarkVariable( String watermarkVariable ) {
+    this.watermarkVariable = watermarkVariable;
   }
 
   /**
-   * Gets used/defined database connections (JDBC), that are set in Spoon.
-   * @return used/defined database connections
+   * Getter for the deduplication flag
+   * @return true to drop rows with a repeated key
    */
-  public DatabaseMeta[] getUsedDatabaseConnections()
-  {
-    if (databaseMeta!=null)
-    {
-      return new DatabaseMeta[] { databaseMeta };
-    }
-    else
-    {
-      return super.getUsedDatabaseConnections();
-    }
+  public boolean isDedup() {
+    return dedup;
   }
 
   /**
-   * This method is called every time a new step is created and should allocate/set the step configuration
-   * to sensible defaults. The values set here will be used by Spoon when a new step is created.    
+   * Setter for the deduplication flag
+   * @param dedup true to drop rows with a repeated key
    */
-  public void setDefault() {
-      setTargetDatabase(BaseMessages.getString(PKG, "KettleColumnStoreBulkExporterPlugin.TargetDatabase.Text.Default"));
-      setTargetTable(BaseMessages.getString(PKG, "KettleColumnStoreBulkExporterPlugin.TargetTable.Text.Default"));
-      fieldMapping = new InputTargetMapping();
-      databaseMeta = null;
-      columnStoreXML = "";
+  public void setDedup( boolean dedup ) {
+    this.dedup = dedup;
   }
 
   /**
-   * Getter for the name of the target database to export to
-   * @return the name of the target database
+   * Getter for the deduplication key fields
+   * @return comma separated input field names
    */
-  public String getTargetDatabase() {
-    return targetDatabase;
+  public String getDedupKeyFields() {
+    return dedupKeyFields;
   }
 
   /**
-   * Setter for the name of the target database to export to
-   * @param targetDatabase the name of the target database
+   * Setter for the deduplication key fields
+   * @param dedupKeyFields comma separated input field names
    */
-  public void setTargetDatabase( String targetDatabase ) {
-    this.targetDatabase = targetDatabase;
+  public void setDedupKeyFields( String dedupKeyFields ) {
+    this.dedupKeyFields = dedupKeyFields;
   }
 
-    /**
-     * Getter for the name of the target table to export to
-     * @return the name of the target table
-     */
-    public String getTargetTable() {
-        return targetTable;
-    }
+  /**
+   * Getter for the deduplication memory budget
+   * @return memory budget in MB
+   */
+  public String getDedupMemory() {
+    return dedupMemory;
+  }
 
-    /**
-     * Setter for the name of the target table to export to
-     * @param targetTable the name of the target table
-     */
-    public void setTargetTable( String targetTable ) {
-        this.targetTable = targetTable;
-    }
+  /**
+   * Setter for the deduplication memory budget
+   * @param dedupMemory memory budget in MB
+   */
+  public void setDedupMemory( String dedupMemory ) {
+    this.dedupMemory = dedupMemory;
+  }
+
+  /**
+   * Getter for the column statistics flag
+   * @return true to profile the loaded columns
+   */
+  public boolean isStatistics() {
+    return statistics;
+  }
+
+  /**
+   * Setter for the column statistics flag
+   * @param statistics true to profile the loaded columns
+   */
+  public void setStatistics( boolean statistics ) {
+    this.statistics = statistics;
+  }
+
+  /**
+   * Getter for name of the statistics table
+   * @return name of the statistics table, empty to only log the statistics
+   */
+  public String getStatisticsTable() {
+    return statisticsTable;
+  }
+
+  /**
+   * Setter for name of the statistics table
+   * @param statisticsTable name of the statistics table, empty to only log the statistics
+   */
+  public void setStatisticsTable( String statisticsTable ) {
+    this.statisticsTable = statisticsTable;
+  }
+
+  /**
+   * Getter for the reload alter flag
+   * @return true to change column types by reloading the table
+   */
+  public boolean isReloadAlter() {
+    return reloadAlter;
+  }
+
+  /**
+   * Setter for the reload alter flag
+   * @param reloadAlter true to change column types by reloading the table
+   */
+  public void setReloadAlter( boolean reloadAlter ) {
+    this.reloadAlter = reloadAlter;
+  }
 
   /**
    * Getter for the Columnstore.xml configuration file
@@ -324,15 +1290,8 @@ public class KettleColumnStoreBulkExporterStepMeta extends BaseStepMeta implemen
      * @return the new ColumnStoreDriver
      */
   public ColumnStoreDriver initializeColumnStoreDriver(TransMeta transMeta){
-      if(databaseMeta != null) {
-         databaseMeta.shareVariablesWith(transMeta);
-      }
-      if(columnStoreXML != null && !columnStoreXML.equals("")) {
-          Matcher m = KettleColumnStoreBulkExporterStepMeta.PDI_VARIABLE_PATTERN.matcher(columnStoreXML);
-          String path = columnStoreXML;
-          if(m.find()){
-              path = transMeta.environmentSubstitute(m.group(0));
-          }
+      String path = resolveColumnStoreXML(transMeta);
+      if(path != null) {
           try{
               return new ColumnStoreDriver(path);
           } catch(ColumnStoreException e){
@@ -349,6 +1308,47 @@ public class KettleColumnStoreBulkExporterStepMeta extends BaseStepMeta implemen
       }
   }
 
+    /**
+     * Leases a cached ColumnStoreDriver, to be returned with KettleColumnStoreDriverCache.release().
+     * @param transMeta used to substitute environment variables.
+     * @return the leased ColumnStoreDriver, or null if it couldn't be instantiated
+     */
+  KettleColumnStoreDriverCache.CachedDriver acquireColumnStoreDriver(TransMeta transMeta){
+      String path = resolveColumnStoreXML(transMeta);
+      long catalogTtl = org.pentaho.di.core.Const.toLong(transMeta.getVariable(KettleColumnStoreDriverCache.CATALOG_TTL_VARIABLE),
+              KettleColumnStoreDriverCache.DEFAULT_CATALOG_TTL);
+      try{
+          return KettleColumnStoreDriverCache.acquire(path, catalogTtl);
+      } catch(ColumnStoreException e){
+          if(path != null) {
+              logDebug("can't instantiate the ColumnStoreDriver with configuration file: " + path, e);
+          } else {
+              logDebug("can't instantiate the default ColumnStoreDriver.", e);
+          }
+          return null;
+      }
+  }
+
+    /**
+     * Resolves the path of the Columnstore.xml configuration file.
+     * @param transMeta used to substitute environment variables.
+     * @return the path, or null for the default configuration
+     */
+  private String resolveColumnStoreXML(TransMeta transMeta){
+      if(databaseMeta != null) {
+         databaseMeta.shareVariablesWith(transMeta);
+      }
+      if(columnStoreXML != null && !columnStoreXML.equals("")) {
+          Matcher m = KettleColumnStoreBulkExporterStepMeta.PDI_VARIABLE_PATTERN.matcher(columnStoreXML);
+          String path = columnStoreXML;
+          if(m.find()){
+              path = transMeta.environmentSubstitute(m.group(0));
+          }
+          return path;
+      }
+      return null;
+  }
+
   /**
    * Gets the fieldMapping between fields and ColumnStore columns.
    * @return fieldMapping
@@ -424,6 +1424,48 @@ public class KettleColumnStoreBulkExporterStepMeta extends BaseStepMeta implemen
     xml.append( XMLHandler.addTagValue( "targetdatabase", targetDatabase ) );
     xml.append( XMLHandler.addTagValue( "targettable", targetTable ) );
     xml.append( XMLHandler.addTagValue ("columnStoreXML", columnStoreXML));
+    xml.append( XMLHandler.addTagValue( "commitRowCount", commitRowCount ) );
+    xml.append( XMLHandler.addTagValue( "commitInterval", commitInterval ) );
+    xml.append( XMLHandler.addTagValue( "asyncWriter", asyncWriter ) );
+    xml.append( XMLHandler.addTagValue( "asyncBufferSize", asyncBufferSize ) );
+    xml.append( XMLHandler.addTagValue( "sharedWriter", sharedWriter ) );
+    xml.append( XMLHandler.addTagValue( "terminalSink", terminalSink ) );
+    xml.append( XMLHandler.addTagValue( "cpimport", cpimport ) );
+    xml.append( XMLHandler.addTagValue( "cpimportPath", cpimportPath ) );
+    xml.append( XMLHandler.addTagValue( "cpimportMode", cpimportMode ) );
+    xml.append( XMLHandler.addTagValue( "tableFromField", tableFromField ) );
+    xml.append( XMLHandler.addTagValue( "tableField", tableField ) );
+    xml.append( XMLHandler.addTagValue( "maxOpenTables", maxOpenTables ) );
+    xml.append( XMLHandler.addTagValue( "clusterColumns", clusterColumns ) );
+    xml.append( XMLHandler.addTagValue( "clusterMemory", clusterMemory ) );
+    xml.append( XMLHandler.addTagValue( "clusterDirectory", clusterDirectory ) );
+    xml.append( XMLHandler.addTagValue( "journal", journal ) );
+    xml.append( XMLHandler.addTagValue( "journalDirectory", journalDirectory ) );
+    xml.append( XMLHandler.addTagValue( "merge", merge ) );
+    xml.append( XMLHandler.addTagValue( "mergeKeys", mergeKeys ) );
+    xml.append( XMLHandler.addTagValue( "shadowSwap", shadowSwap ) );
+    xml.append( XMLHandler.addTagValue( "maxRowsPerSecond", maxRowsPerSecond ) );
+    xml.append( XMLHandler.addTagValue( "maxBytesPerSecond", maxBytesPerSecond ) );
+    xml.append( XMLHandler.addTagValue( "sequenceColumn", sequenceColumn ) );
+    xml.append( XMLHandler.addTagValue( "sequenceName", sequenceName ) );
+    xml.append( XMLHandler.addTagValue( "sequenceBlockSize", sequenceBlockSize ) );
+    xml.append( XMLHandler.addTagValue( "rollupTable", rollupTable ) );
+    xml.append( XMLHandler.addTagValue( "rollupGroupFields", rollupGroupFields ) );
+    xml.append( XMLHandler.addTagValue( "rollupMeasures", rollupMeasures ) );
+    xml.append( XMLHandler.addTagValue( "rollupMemory", rollupMemory ) );
+    xml.append( XMLHandler.addTagValue( "delta", delta ) );
+    xml.append( XMLHandler.addTagValue( "deltaKeyFields", deltaKeyFields ) );
+    xml.append( XMLHandler.addTagValue( "deltaValueFields", deltaValueFields ) );
+    xml.append( XMLHandler.addTagValue( "deltaSnapshotFile", deltaSnapshotFile ) );
+    xml.append( XMLHandler.addTagValue( "deltaDeletedTable", deltaDeletedTable ) );
+    xml.append( XMLHandler.addTagValue( "watermarkColumn", watermarkColumn ) );
+    xml.append( XMLHandler.addTagValue( "watermarkVariable", watermarkVariable ) );
+    xml.append( XMLHandler.addTagValue( "dedup", dedup ) );
+    xml.append( XMLHandler.addTagValue( "dedupKeyFields", dedupKeyFields ) );
+    xml.append( XMLHandler.addTagValue( "dedupMemory", dedupMemory ) );
+    xml.append( XMLHandler.addTagValue( "statistics", statistics ) );
+    xml.append( XMLHandler.addTagValue( "statisticsTable", statisticsTable ) );
+    xml.append( XMLHandler.addTagValue( "reloadAlter", reloadAlter ) );
 
     xml.append( XMLHandler.addTagValue("numberOfMappingEntries", fieldMapping.getNumberOfEntries()));
     for(int i=0; i<fieldMapping.getNumberOfEntries(); i++){
@@ -448,6 +1490,48 @@ public class KettleColumnStoreBulkExporterStepMeta extends BaseStepMeta implemen
       setTargetDatabase( XMLHandler.getNodeValue( XMLHandler.getSubNode( stepnode, "targetdatabase" ) ) );
       setTargetTable( XMLHandler.getNodeValue( XMLHandler.getSubNode( stepnode, "targettable" ) ) );
       setColumnStoreXML( XMLHandler.getNodeValue( XMLHandler.getSubNode( stepnode, "columnStoreXML" ) ) );
+      setCommitRowCount( XMLHandler.getTagValue( stepnode, "commitRowCount" ) );
+      setCommitInterval( XMLHandler.getTagValue( stepnode, "commitInterval" ) );
+      setAsyncWriter( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "asyncWriter" ) ) );
+      setAsyncBufferSize( XMLHandler.getTagValue( stepnode, "asyncBufferSize" ) );
+      setSharedWriter( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "sharedWriter" ) ) );
+      setTerminalSink( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "terminalSink" ) ) );
+      setCpimport( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "cpimport" ) ) );
+      setCpimportPath( XMLHandler.getTagValue( stepnode, "cpimportPath" ) );
+      setCpimportMode( XMLHandler.getTagValue( stepnode, "cpimportMode" ) );
+      setTableFromField( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "tableFromField" ) ) );
+      setTableField( XMLHandler.getTagValue( stepnode, "tableField" ) );
+      setMaxOpenTables( XMLHandler.getTagValue( stepnode, "maxOpenTables" ) );
+      setClusterColumns( XMLHandler.getTagValue( stepnode, "clusterColumns" ) );
+      setClusterMemory( XMLHandler.getTagValue( stepnode, "clusterMemory" ) );
+      setClusterDirectory( XMLHandler.getTagValue( stepnode, "clusterDirectory" ) );
+      setJournal( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "journal" ) ) );
+      setJournalDirectory( XMLHandler.getTagValue( stepnode, "journalDirectory" ) );
+      setMerge( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "merge" ) ) );
+      setMergeKeys( XMLHandler.getTagValue( stepnode, "mergeKeys" ) );
+      setShadowSwap( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "shadowSwap" ) ) );
+      setMaxRowsPerSecond( XMLHandler.getTagValue( stepnode, "maxRowsPerSecond" ) );
+      setMaxBytesPerSecond( XMLHandler.getTagValue( stepnode, "maxBytesPerSecond" ) );
+      setSequenceColumn( XMLHandler.getTagValue( stepnode, "sequenceColumn" ) );
+      setSequenceName( XMLHandler.getTagValue( stepnode, "sequenceName" ) );
+      setSequenceBlockSize( XMLHandler.getTagValue( stepnode, "sequenceBlockSize" ) );
+      setRollupTable( XMLHandler.getTagValue( stepnode, "rollupTable" ) );
+      setRollupGroupFields( XMLHandler.getTagValue( stepnode, "rollupGroupFields" ) );
+      setRollupMeasures( XMLHandler.getTagValue( stepnode, "rollupMeasures" ) );
+      setRollupMemory( XMLHandler.getTagValue( stepnode, "rollupMemory" ) );
+      setDelta( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "delta" ) ) );
+      setDeltaKeyFields( XMLHandler.getTagValue( stepnode, "deltaKeyFields" ) );
+      setDeltaValueFields( XMLHandler.getTagValue( stepnode, "deltaValueFields" ) );
+      setDeltaSnapshotFile( XMLHandler.getTagValue( stepnode, "deltaSnapshotFile" ) );
+      setDeltaDeletedTable( XMLHandler.getTagValue( stepnode, "deltaDeletedTable" ) );
+      setWatermarkColumn( XMLHandler.getTagValue( stepnode, "watermarkColumn" ) );
+      setWatermarkVariable( XMLHandler.getTagValue( stepnode, "watermarkVariable" ) );
+      setDedup( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "dedup" ) ) );
+      setDedupKeyFields( XMLHandler.getTagValue( stepnode, "dedupKeyFields" ) );
+      setDedupMemory( XMLHandler.getTagValue( stepnode, "dedupMemory" ) );
+      setStatistics( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "statistics" ) ) );
+      setStatisticsTable( XMLHandler.getTagValue( stepnode, "statisticsTable" ) );
+      setReloadAlter( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "reloadAlter" ) ) );
 
       fieldMapping = new InputTargetMapping(Integer.parseInt(XMLHandler.getNodeValue(XMLHandler.getSubNode(stepnode, "numberOfMappingEntries"))));
       for(int i=0; i<fieldMapping.getNumberOfEntries(); i++){
@@ -480,6 +1564,48 @@ public class KettleColumnStoreBulkExporterStepMeta extends BaseStepMeta implemen
       rep.saveStepAttribute( id_transformation, id_step, "targetdatabase", targetDatabase ); //$NON-NLS-1$
       rep.saveStepAttribute( id_transformation, id_step, "targettable", targetTable ); //$NON-NLS-1$
       rep.saveStepAttribute( id_transformation, id_step, "columnStoreXML", columnStoreXML );
+      rep.saveStepAttribute( id_transformation, id_step, "commitRowCount", commitRowCount );
+      rep.saveStepAttribute( id_transformation, id_step, "commitInterval", commitInterval );
+      rep.saveStepAttribute( id_transformation, id_step, "asyncWriter", asyncWriter );
+      rep.saveStepAttribute( id_transformation, id_step, "asyncBufferSize", asyncBufferSize );
+      rep.saveStepAttribute( id_transformation, id_step, "sharedWriter", sharedWriter );
+      rep.saveStepAttribute( id_transformation, id_step, "terminalSink", terminalSink );
+      rep.saveStepAttribute( id_transformation, id_step, "cpimport", cpimport );
+      rep.saveStepAttribute( id_transformation, id_step, "cpimportPath", cpimportPath );
+      rep.saveStepAttribute( id_transformation, id_step, "cpimportMode", cpimportMode );
+      rep.saveStepAttribute( id_transformation, id_step, "tableFromField", tableFromField );
+      rep.saveStepAttribute( id_transformation, id_step, "tableField", tableField );
+      rep.saveStepAttribute( id_transformation, id_step, "maxOpenTables", maxOpenTables );
+      rep.saveStepAttribute( id_transformation, id_step, "clusterColumns", clusterColumns );
+      rep.saveStepAttribute( id_transformation, id_step, "clusterMemory", clusterMemory );
+      rep.saveStepAttribute( id_transformation, id_step, "clusterDirectory", clusterDirectory );
+      rep.saveStepAttribute( id_transformation, id_step, "journal", journal );
+      rep.saveStepAttribute( id_transformation, id_step, "journalDirectory", journalDirectory );
+      rep.saveStepAttribute( id_transformation, id_step, "merge", merge );
+      rep.saveStepAttribute( id_transformation, id_step, "mergeKeys", mergeKeys );
+      rep.saveStepAttribute( id_transformation, id_step, "shadowSwap", shadowSwap );
+      rep.saveStepAttribute( id_transformation, id_step, "maxRowsPerSecond", maxRowsPerSecond );
+      rep.saveStepAttribute( id_transformation, id_step, "maxBytesPerSecond", maxBytesPerSecond );
+      rep.saveStepAttribute( id_transformation, id_step, "sequenceColumn", sequenceColumn );
+      rep.saveStepAttribute( id_transformation, id_step, "sequenceName", sequenceName );
+      rep.saveStepAttribute( id_transformation, id_step, "sequenceBlockSize", sequenceBlockSize );
+      rep.saveStepAttribute( id_transformation, id_step, "rollupTable", rollupTable );
+      rep.saveStepAttribute( id_transformation, id_step, "rollupGroupFields", rollupGroupFields );
+      rep.saveStepAttribute( id_transformation, id_step, "rollupMeasures", rollupMeasures );
+      rep.saveStepAttribute( id_transformation, id_step, "rollupMemory", rollupMemory );
+      rep.saveStepAttribute( id_transformation, id_step, "delta", delta );
+      rep.saveStepAttribute( id_transformation, id_step, "deltaKeyFields", deltaKeyFields );
+      rep.saveStepAttribute( id_transformation, id_step, "deltaValueFields", deltaValueFields );
+      rep.saveStepAttribute( id_transformation, id_step, "deltaSnapshotFile", deltaSnapshotFile );
+      rep.saveStepAttribute( id_transformation, id_step, "deltaDeletedTable", deltaDeletedTable );
+      rep.saveStepAttribute( id_transformation, id_step, "watermarkColumn", watermarkColumn );
+      rep.saveStepAttribute( id_transformation, id_step, "watermarkVariable", watermarkVariable );
+      rep.saveStepAttribute( id_transformation, id_step, "dedup", dedup );
+      rep.saveStepAttribute( id_transformation, id_step, "dedupKeyFields", dedupKeyFields );
+      rep.saveStepAttribute( id_transformation, id_step, "dedupMemory", dedupMemory );
+      rep.saveStepAttribute( id_transformation, id_step, "statistics", statistics );
+      rep.saveStepAttribute( id_transformation, id_step, "statisticsTable", statisticsTable );
+      rep.saveStepAttribute( id_transformation, id_step, "reloadAlter", reloadAlter );
 
       rep.saveStepAttribute( id_transformation, id_step, "numberOfMappingEntries", fieldMapping.getNumberOfEntries() );
       for(int i=0; i<fieldMapping.getNumberOfEntries(); i++){
@@ -507,6 +1633,48 @@ public class KettleColumnStoreBulkExporterStepMeta extends BaseStepMeta implemen
       setTargetDatabase(rep.getStepAttributeString( id_step, "targetdatabase")); //$NON-NLS-1$
       setTargetTable(rep.getStepAttributeString( id_step, "targettable")); //$NON-NLS-1$
       setColumnStoreXML(rep.getStepAttributeString( id_step, "columnStoreXML" ));
+      setCommitRowCount(rep.getStepAttributeString( id_step, "commitRowCount" ));
+      setCommitInterval(rep.getStepAttributeString( id_step, "commitInterval" ));
+      setAsyncWriter(rep.getStepAttributeBoolean( id_step, "asyncWriter" ));
+      setAsyncBufferSize(rep.getStepAttributeString( id_step, "asyncBufferSize" ));
+      setSharedWriter(rep.getStepAttributeBoolean( id_step, "sharedWriter" ));
+      setTerminalSink(rep.getStepAttributeBoolean( id_step, "terminalSink" ));
+      setCpimport(rep.getStepAttributeBoolean( id_step, "cpimport" ));
+      setCpimportPath(rep.getStepAttributeString( id_step, "cpimportPath" ));
+      setCpimportMode(rep.getStepAttributeString( id_step, "cpimportMode" ));
+      setTableFromField(rep.getStepAttributeBoolean( id_step, "tableFromField" ));
+      setTableField(rep.getStepAttributeString( id_step, "tableField" ));
+      setMaxOpenTables(rep.getStepAttributeString( id_step, "maxOpenTables" ));
+      setClusterColumns(rep.getStepAttributeString( id_step, "clusterColumns" ));
+      setClusterMemory(rep.getStepAttributeString( id_step, "clusterMemory" ));
+      setClusterDirectory(rep.getStepAttributeString( id_step, "clusterDirectory" ));
+      setJournal(rep.getStepAttributeBoolean( id_step, "journal" ));
+      setJournalDirectory(rep.getStepAttributeString( id_step, "journalDirectory" ));
+      setMerge(rep.getStepAttributeBoolean( id_step, "merge" ));
+      setMergeKeys(rep.getStepAttributeString( id_step, "mergeKeys" ));
+      setShadowSwap(rep.getStepAttributeBoolean( id_step, "shadowSwap" ));
+      setMaxRowsPerSecond(rep.getStepAttributeString( id_step, "maxRowsPerSecond" ));
+      setMaxBytesPerSecond(rep.getStepAttributeString( id_step, "maxBytesPerSecond" ));
+      setSequenceColumn(rep.getStepAttributeString( id_step, "sequenceColumn" ));
+      setSequenceName(rep.getStepAttributeString( id_step, "sequenceName" ));
+      setSequenceBlockSize(rep.getStepAttributeString( id_step, "sequenceBlockSize" ));
+      setRollupTable(rep.getStepAttributeString( id_step, "rollupTable" ));
+      setRollupGroupFields(rep.getStepAttributeString( id_step, "rollupGroupFields" ));
+      setRollupMeasures(rep.getStepAttributeString( id_step, "rollupMeasures" ));
+      setRollupMemory(rep.getStepAttributeString( id_step, "rollupMemory" ));
+      setDelta(rep.getStepAttributeBoolean( id_step, "delta" ));
+      setDeltaKeyFields(rep.getStepAttributeString( id_step, "deltaKeyFields" ));
+      setDeltaValueFields(rep.getStepAttributeString( id_step, "deltaValueFields" ));
+      setDeltaSnapshotFile(rep.getStepAttributeString( id_step, "deltaSnapshotFile" ));
+      setDeltaDeletedTable(rep.getStepAttributeString( id_step, "deltaDeletedTable" ));
+      setWatermarkColumn(rep.getStepAttributeString( id_step, "watermarkColumn" ));
+      setWatermarkVariable(rep.getStepAttributeString( id_step, "watermarkVariable" ));
+      setDedup(rep.getStepAttributeBoolean( id_step, "dedup" ));
+      setDedupKeyFields(rep.getStepAttributeString( id_step, "dedupKeyFields" ));
+      setDedupMemory(rep.getStepAttributeString( id_step, "dedupMemory" ));
+      setStatistics(rep.getStepAttributeBoolean( id_step, "statistics" ));
+      setStatisticsTable(rep.getStepAttributeString( id_step, "statisticsTable" ));
+      setReloadAlter(rep.getStepAttributeBoolean( id_step, "reloadAlter" ));
 
       fieldMapping = new InputTargetMapping((int)rep.getStepAttributeInteger(id_step, "numberOfMappingEntries"));
       for(int i=0; i<fieldMapping.getNumberOfEntries(); i++){
@@ -560,19 +1728,19 @@ public class KettleColumnStoreBulkExporterStepMeta extends BaseStepMeta implemen
     // See if there are input streams leading to this step!
     if ( input != null && input.length > 0 ) {
       remarks.add( new CheckResult(CheckResult.TYPE_RESULT_OK, BaseMessages.getString(PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.ReceivingRows.OK"), stepMeta));
-      ColumnStoreDriver d = initializeColumnStoreDriver(transMeta);
+      KettleColumnStoreDriverCache.CachedDriver d = acquireColumnStoreDriver(transMeta);
+      boolean reusable = true;
       if (d == null) {
         remarks.add(new CheckResult(CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString(PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.ColumnStoreDriver.ERROR"), stepMeta));
       } else {
         remarks.add(new CheckResult(CheckResult.TYPE_RESULT_OK, BaseMessages.getString(PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.ColumnStoreDriver.OK"), stepMeta));
-        ColumnStoreSystemCatalog catalog = null;
         ColumnStoreSystemCatalogTable table = null;
 
         try {
-          catalog = d.getSystemCatalog();
-          table = catalog.getTable(targetDatabase, targetTable);
+          table = d.getTable(targetDatabase, targetTable);
         } catch (ColumnStoreException e) {
           if(e.getMessage().toLowerCase().contains("connection failure")){
+            reusable = false;
             remarks.add(new CheckResult(CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString(PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.ColumnStoreConnection.ERROR"), stepMeta));
             logBasic("Can't connect to ColumnStore server: " + e.getMessage());
           }else {
@@ -598,7 +1766,10 @@ public class KettleColumnStoreBulkExporterStepMeta extends BaseStepMeta implemen
               String mappedInputField = fieldMapping.getTargetInputMappingField(outputColumnName);
               int mappedInputIndex = inputFields.indexOf(mappedInputField);
 
-              if (mappedInputIndex > -1) {
+              // the sequence column is filled by the step, its mapping is ignored
+              if (!Const.isEmpty(sequenceColumn) && outputColumnName.equalsIgnoreCase(sequenceColumn)) {
+                remarks.add(new CheckResult(CheckResult.TYPE_RESULT_OK, BaseMessages.getString(PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.SequenceColumn.OK") + " " + outputColumnName, stepMeta));
+              } else if (mappedInputIndex > -1) {
                 remarks.add(new CheckResult(CheckResult.TYPE_RESULT_OK, BaseMessages.getString(PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.MappingAvailable.OK") + " " + table.getColumn(i).getColumnName(), stepMeta));
                 int inputColumnType = inputValueTypes.get(mappedInputIndex).getType();
 
@@ -619,12 +1790,123 @@ public class KettleColumnStoreBulkExporterStepMeta extends BaseStepMeta implemen
           }
         }
       }
-      if(d!=null){
-        d.delete();
-      }
+      KettleColumnStoreDriverCache.release(d, reusable);
     }else {
       remarks.add( new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.ReceivingRows.ERROR" ), stepMeta ));
     }
+    // The terminal sink option has no effect if rows are consumed by a following step
+    if ( terminalSink && output != null && output.length > 0 ) {
+      remarks.add( new CheckResult( CheckResult.TYPE_RESULT_COMMENT, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.TerminalSink.COMMENT" ), stepMeta ));
+    }
+    // Routing needs the field holding the target table, and loads through mcsapi only
+    if ( tableFromField ) {
+      if ( tableField == null || tableField.trim().isEmpty()
+              || ( prev != null && prev.indexOfValue( tableField ) < 0 && !tableField.contains( "$" ) ) ) {
+        remarks.add( new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.TableField.ERROR" ), stepMeta ));
+      }
+      if ( asyncWriter || sharedWriter || cpimport || !Const.isEmpty( clusterColumns ) ) {
+        remarks.add( new CheckResult( CheckResult.TYPE_RESULT_COMMENT, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.TableFromField.COMMENT" ), stepMeta ));
+      }
+    }
+    // merge mode runs the set-based statements over the JDBC connection, keyed by mapped target columns
+    if ( merge ) {
+      if ( databaseMeta == null ) {
+        remarks.add( new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.MergeConnection.ERROR" ), stepMeta ));
+      }
+      boolean keysMapped = !Const.isEmpty( mergeKeys );
+      if ( keysMapped && !mergeKeys.contains( "$" ) ) {
+        for ( String key : mergeKeys.split( "," ) ) {
+          keysMapped &= fieldMapping.getTargetInputMappingField( key.trim().toLowerCase() ) != null;
+        }
+      }
+      if ( !keysMapped ) {
+        remarks.add( new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.MergeKeys.ERROR" ), stepMeta ));
+      }
+      if ( stepMeta.getCopies() > 1 || journal ) {
+        remarks.add( new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.MergeCopies.ERROR" ), stepMeta ));
+      }
+      if ( tableFromField || sharedWriter ) {
+        remarks.add( new CheckResult( CheckResult.TYPE_RESULT_COMMENT, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.Merge.COMMENT" ), stepMeta ));
+      }
+    }
+    // the shadow table is created and swapped in over the JDBC connection
+    if ( shadowSwap ) {
+      if ( databaseMeta == null ) {
+        remarks.add( new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.ShadowSwapConnection.ERROR" ), stepMeta ));
+      }
+      if ( merge ) {
+        remarks.add( new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.ShadowSwapMerge.ERROR" ), stepMeta ));
+      }
+      if ( stepMeta.getCopies() > 1 || journal ) {
+        remarks.add( new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.ShadowSwapCopies.ERROR" ), stepMeta ));
+      }
+      if ( tableFromField || sharedWriter ) {
+        remarks.add( new CheckResult( CheckResult.TYPE_RESULT_COMMENT, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.ShadowSwap.COMMENT" ), stepMeta ));
+      }
+    }
+    // the journal follows the batches of the bulk insert owned by the step copy
+    if ( journal && ( asyncWriter || sharedWriter || cpimport || tableFromField ) ) {
+      remarks.add( new CheckResult( CheckResult.TYPE_RESULT_COMMENT, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.Journal.COMMENT" ), stepMeta ));
+    }
+    // the keys are reserved from the sequence table over the JDBC connection, for the one target table
+    if ( !Const.isEmpty( sequenceColumn ) ) {
+      if ( databaseMeta == null ) {
+        remarks.add( new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.SequenceConnection.ERROR" ), stepMeta ));
+      }
+      if ( tableFromField ) {
+        remarks.add( new CheckResult( CheckResult.TYPE_RESULT_COMMENT, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.Sequence.COMMENT" ), stepMeta ));
+      }
+    }
+    // the rollups aggregate the input rows of a plain load into one more table
+    if ( !Const.isEmpty( rollupTable ) ) {
+      if ( Const.isEmpty( rollupMeasures ) ) {
+        remarks.add( new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.RollupMeasures.ERROR" ), stepMeta ));
+      }
+      if ( tableFromField || merge || shadowSwap ) {
+        remarks.add( new CheckResult( CheckResult.TYPE_RESULT_COMMENT, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.Rollup.COMMENT" ), stepMeta ));
+      }
+    }
+    // the delta snapshot follows the rows of one step copy, and a shadow table would lose the unchanged rows
+    if ( delta ) {
+      if ( Const.isEmpty( deltaKeyFields ) ) {
+        remarks.add( new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.DeltaKeyFields.ERROR" ), stepMeta ));
+      }
+      if ( stepMeta.getCopies() > 1 || shadowSwap ) {
+        remarks.add( new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.Delta.ERROR" ), stepMeta ));
+      }
+      if ( tableFromField ) {
+        remarks.add( new CheckResult( CheckResult.TYPE_RESULT_COMMENT, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.Delta.COMMENT" ), stepMeta ));
+      }
+    }
+    // the watermark is kept over the JDBC connection for the rows of one step copy, and a shadow table would only hold the new rows
+    if ( !Const.isEmpty( watermarkColumn ) ) {
+      if ( databaseMeta == null ) {
+        remarks.add( new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.WatermarkConnection.ERROR" ), stepMeta ));
+      }
+      if ( stepMeta.getCopies() > 1 || shadowSwap ) {
+        remarks.add( new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.Watermark.ERROR" ), stepMeta ));
+      }
+      if ( tableFromField ) {
+        remarks.add( new CheckResult( CheckResult.TYPE_RESULT_COMMENT, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.Watermark.COMMENT" ), stepMeta ));
+      }
+    }
+    // the deduplication keys are input fields of the rows of one target table
+    if ( dedup ) {
+      if ( Const.isEmpty( dedupKeyFields ) ) {
+        remarks.add( new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.DedupKeyFields.ERROR" ), stepMeta ));
+      }
+      if ( tableFromField ) {
+        remarks.add( new CheckResult( CheckResult.TYPE_RESULT_COMMENT, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.Dedup.COMMENT" ), stepMeta ));
+      }
+    }
+    // the column statistics profile the rows of one target table
+    if ( statistics && tableFromField ) {
+      remarks.add( new CheckResult( CheckResult.TYPE_RESULT_COMMENT, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.Statistics.COMMENT" ), stepMeta ));
+    }
+    // cpimport only reads rows from a pipe in mode 1 and 3
+    if ( cpimport && cpimportMode != null && !cpimportMode.contains( "$" ) && !"1".equals( cpimportMode.trim() ) && !"3".equals( cpimportMode.trim() ) ) {
+      remarks.add( new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.CheckResult.CpimportMode.ERROR" ), stepMeta ));
+    }
   }
 
   /**
@@ -775,6 +2057,7 @@ public class KettleColumnStoreBulkExporterStepMeta extends BaseStepMeta implemen
           databaseMeta.setSupportsBooleanDataType(true);
           MariaDBColumnStoreDatabase db = new MariaDBColumnStoreDatabase(loggingObject, databaseMeta);
           db.shareVariablesWith(transMeta);
+          db.setReloadAlter(reloadAlter);
           try
           {
             db.connect();
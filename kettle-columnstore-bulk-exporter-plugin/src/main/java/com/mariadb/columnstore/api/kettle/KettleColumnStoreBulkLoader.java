@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import com.mariadb.columnstore.api.ColumnStoreBulkInsert;
+import com.mariadb.columnstore.api.ColumnStoreDateTime;
+import com.mariadb.columnstore.api.ColumnStoreDecimal;
+import com.mariadb.columnstore.api.ColumnStoreDriver;
+import com.mariadb.columnstore.api.ColumnStoreException;
+import com.mariadb.columnstore.api.ColumnStoreSummary;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the ColumnStoreBulkInsert of a ColumnStore target table and commits it in batches.
+ *
+ * A batch is committed once it holds commitRowCount rows or once commitInterval seconds passed since
+ * the last commit, whatever comes first. The next bulk insert is only opened when the next row is
+ * written, so that the table lock is released between batches. The summaries of all committed
+ * batches are added up.
+ *
+ * As a KettleColumnStoreRowSink it sets the column values directly in the current bulk insert.
+ */
+class KettleColumnStoreBulkLoader implements KettleColumnStoreRowSink {
+
+  private final ColumnStoreDriver d;
+  private final String database;
+  private final String table;
+  private final long commitRowCount;
+  private final long commitIntervalNanos;
+  private final LogChannelInterface log;
+
+  private ColumnStoreBulkInsert b;
+  // setColumn() copies the value, therefore one decimal and one date/time are reused for all cells
+  private final ColumnStoreDecimal decimal = new ColumnStoreDecimal();
+  private final ColumnStoreDateTime dateTime = new ColumnStoreDateTime();
+
+  private KettleColumnStoreBulkExporterMetrics metrics;
+  private long replayedRows = 0;
+  private long rowsInBatch = 0;
+  private long batchStart;
+
+  // running summary of all committed batches
+  private int commits = 0;
+  private double executionTime = 0;
+  private long rowsInserted = 0;
+  private long truncationCount = 0;
+  private long saturatedCount = 0;
+  private long invalidCount = 0;
+
+  /**
+   * Constructor
+   * @param d ColumnStoreDriver used to create the bulk inserts
+   * @param database target database
+   * @param table target table
+   * @param commitRowCount number of rows after which a batch is committed, 0 to disable
+   * @param commitInterval number of seconds after which a batch is committed, 0 to disable
+   * @param log log channel of the step
+   */
+  KettleColumnStoreBulkLoader(ColumnStoreDriver d, String database, String table, long commitRowCount,
+                              long commitInterval, LogChannelInterface log) {
+    this.d = d;
+    this.database = database;
+    this.table = table;
+    this.commitRowCount = commitRowCount;
+    this.commitIntervalNanos = TimeUnit.SECONDS.toNanos(commitInterval);
+    this.log = log;
+  }
+
+  /**
+   * Sets the metrics the commits and the write times of replayed rows are added to.
+   * @param metrics metrics of the step copy, null to disable them
+   */
+  void setMetrics(KettleColumnStoreBulkExporterMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Returns the bulk insert of the current batch and opens it if there is none.
+   * @return the current bulk insert
+   */
+  ColumnStoreBulkInsert getBulkInsert() {
+    if (b == null) {
+      b = d.createBulkInsert(database, table, (short) 0, 0);
+      rowsInBatch = 0;
+      batchStart = System.nanoTime();
+    }
+    return b;
+  }
+
+  @Override
+  public void setNull(int column) {
+    getBulkInsert().setNull(column);
+  }
+
+  @Override
+  public void setColumn(int column, String value) {
+    getBulkInsert().setColumn(column, value);
+  }
+
+  @Override
+  public void setColumn(int column, long value) {
+    getBulkInsert().setColumn(column, value);
+  }
+
+  @Override
+  public void setColumn(int column, double value) {
+    getBulkInsert().setColumn(column, value);
+  }
+
+  @Override
+  public void setColumn(int column, boolean value) {
+    getBulkInsert().setColumn(column, value);
+  }
+
+  @Override
+  public void setColumn(int column, BigInteger value) {
+    getBulkInsert().setColumn(column, value);
+  }
+
+  /**
+   * javamcsapi only takes strings, therefore encoded strings are decoded here, which is on the writer
+   * thread if there is one.
+   */
+  @Override
+  public void setColumn(int column, byte[] value, Charset charset) {
+    getBulkInsert().setColumn(column, new String(value, charset));
+  }
+
+  @Override
+  public void setDecimal(int column, String value) {
+    if (!decimal.set(value)) {
+      throw new ColumnStoreException("invalid decimal " + value + " for column " + column);
+    }
+    getBulkInsert().setColumn(column, decimal);
+  }
+
+  @Override
+  public void setDecimal(int column, long unscaled, int scale) {
+    if (!decimal.set(unscaled, (short) scale)) {
+      throw new ColumnStoreException("invalid decimal " + unscaled + "E" + (-scale) + " for column " + column);
+    }
+    getBulkInsert().setColumn(column, decimal);
+  }
+
+  @Override
+  public void setDateTime(int column, int year, int month, int day, int hour, int minute, int second, int microsecond) {
+    if (!dateTime.set(year, month, day, hour, minute, second, microsecond)) {
+      throw new ColumnStoreException("invalid date/time " + year + "-" + month + "-" + day + " " + hour + ":" + minute + ":"
+              + second + "." + microsecond + " for column " + column);
+    }
+    getBulkInsert().setColumn(column, dateTime);
+  }
+
+  /**
+   * Writes the current row of the bulk insert and commits the batch if it reached its row count or interval.
+   */
+  @Override
+  public void writeRow() {
+    writeRow(isCommitDue());
+  }
+
+  /**
+   * Checks if the next row written completes the batch, so that the batch is committed with it.
+   * @return true if the batch reaches its row count or interval with the next row
+   */
+  boolean isCommitDue() {
+    long rows = b == null ? 1 : rowsInBatch + 1;
+    return (commitRowCount > 0 && rows >= commitRowCount) ||
+            (b != null && commitIntervalNanos > 0 && System.nanoTime() - batchStart >= commitIntervalNanos);
+  }
+
+  /**
+   * Writes the current row of the bulk insert and commits the batch if told so.
+   * @param commit true to commit the batch with this row, see isCommitDue()
+   */
+  void writeRow(boolean commit) {
+    getBulkInsert().writeRow();
+    rowsInBatch++;
+    if (commit) {
+      commit();
+    }
+  }
+
+  /**
+   * Writes a row converted by another thread, timing every sampled row.
+   * @param row the converted row
+   * @throws KettleException if a value can't be set
+   */
+  void writeRow(KettleColumnStoreConvertedRow row) throws KettleException {
+    if (metrics != null && KettleColumnStoreBulkExporterMetrics.isSampled(replayedRows++)) {
+      long start = System.nanoTime();
+      row.replay(this);
+      writeRow();
+      metrics.addWriteSample(System.nanoTime() - start);
+    } else {
+      row.replay(this);
+      writeRow();
+    }
+  }
+
+  /**
+   * Writes a row replayed from the row journal. The batch isn't committed by row count or interval,
+   * so that a journal segment is committed as a whole.
+   * @param row the replayed row
+   * @throws KettleException if a value can't be set
+   */
+  void writeReplayedRow(KettleColumnStoreConvertedRow row) throws KettleException {
+    row.replay(this);
+    getBulkInsert().writeRow();
+    rowsInBatch++;
+  }
+
+  /**
+   * Commits the current batch, if there is one, and adds its summary to the running summary.
+   */
+  void commit() {
+    if (b == null) {
+      return;
+    }
+    long start = System.nanoTime();
+    b.commit();
+    long latency = System.nanoTime() - start;
+    ColumnStoreSummary summary = b.getSummary();
+    long batchInserted = summary.getRowsInsertedCount().longValue();
+    long batchTruncated = summary.getTruncationCount().longValue();
+    long batchSaturated = summary.getSaturatedCount().longValue();
+    long batchInvalid = summary.getInvalidCount().longValue();
+    commits++;
+    executionTime += summary.getExecutionTime();
+    rowsInserted += batchInserted;
+    truncationCount += batchTruncated;
+    saturatedCount += batchSaturated;
+    invalidCount += batchInvalid;
+    if (metrics != null) {
+      metrics.addCommit(latency, batchInserted, batchTruncated, batchSaturated, batchInvalid);
+    }
+    if (log.isDetailed()) {
+      log.logDetailed("Committed batch " + commits + " of " + summary.getRowsInsertedCount() + " rows into " + database + "." + table
+              + " in " + summary.getExecutionTime() + " seconds");
+    }
+    b = null;
+  }
+
+  /**
+   * Rolls back the current batch, if there is one. Already committed batches aren't affected.
+   */
+  void rollback() {
+    if (b != null) {
+      b.rollback();
+      b = null;
+    }
+  }
+
+  ColumnStoreDriver getDriver() {
+    return d;
+  }
+
+  int getCommits() {
+    return commits;
+  }
+
+  double getExecutionTime() {
+    return executionTime;
+  }
+
+  long getRowsInserted() {
+    return rowsInserted;
+  }
+
+  long getTruncationCount() {
+    return truncationCount;
+  }
+
+  long getSaturatedCount() {
+    return saturatedCount;
+  }
+
+  long getInvalidCount() {
+    return invalidCount;
+  }
+}
@@ -0,0 +1,570 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts the rows by cluster columns before they are written, so that the extents of the loaded table
+ * cover narrow value ranges of these columns and ColumnStore can eliminate them in queries.
+ *
+ * Converted rows are buffered in a byte array in a compact binary format: each record holds a
+ * normalized sort key, which compares as unsigned bytes, followed by the serialized row. If the
+ * buffer exceeds the memory budget, its records are sorted and spilled as a run to a temporary file.
+ * finish() sorts the remaining records and merges them with all runs into the sink. Rows with equal
+ * keys keep their input order.
+ *
+ * Keys compare nulls first, numbers by their value (decimals as doubles) and strings by their UTF-8
+ * bytes, which is close enough to the collation of ColumnStore for clustering.
+ */
+class KettleColumnStoreClusterSorter implements KettleColumnStoreRowSink {
+
+  // key tags, null sorts first
+  private static final int TAG_NULL = 0;
+  private static final int TAG_LONG = 1;
+  private static final int TAG_DOUBLE = 2;
+  private static final int TAG_STRING = 3;
+
+  private static final int RUN_BUFFER_SIZE = 64 * 1024;
+
+  private static final double[] POWERS_OF_TEN = new double[19];
+
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+  }
+
+  private final KettleColumnStoreRowSink sink;
+  private final int[] clusterColumns;
+  private final long memoryBudget;
+  private final File directory;
+  private final LogChannelInterface log;
+
+  private final KettleColumnStoreConvertedRow row;
+  private final Buffer buffer;
+  private final DataOutputStream bufferOut;
+  private int[] offsets = new int[1024];
+  private int records = 0;
+
+  private final List<File> runs = new ArrayList<>();
+  private long rows = 0;
+
+  /**
+   * Constructor
+   * @param sink sink the sorted rows are written into by finish()
+   * @param columnCount number of columns of the target table
+   * @param clusterColumns target columns to sort by, in order of significance
+   * @param memoryBudget number of bytes of buffered rows after which a run is spilled
+   * @param directory directory of the spilled runs
+   * @param log log channel of the step
+   */
+  KettleColumnStoreClusterSorter(KettleColumnStoreRowSink sink, int columnCount, int[] clusterColumns, long memoryBudget,
+                                 File directory, LogChannelInterface log) {
+    this.sink = sink;
+    this.clusterColumns = clusterColumns;
+    // offsets into the buffer are ints
+    this.memoryBudget = Math.max(1024 * 1024, Math.min(memoryBudget, Integer.MAX_VALUE - 8));
+    this.directory = directory;
+    this.log = log;
+    this.row = new KettleColumnStoreConvertedRow(columnCount);
+    this.buffer = new Buffer((int) Math.min(this.memoryBudget, 1024 * 1024), (int) this.memoryBudget);
+    this.bufferOut = new DataOutputStream(buffer);
+  }
+
+  @Override
+  public void setNull(int column) {
+    row.setNull(column);
+  }
+
+  @Override
+  public void setColumn(int column, String value) {
+    row.setColumn(column, value);
+  }
+
+  @Override
+  public void setColumn(int column, long value) {
+    row.setColumn(column, value);
+  }
+
+  @Override
+  public void setColumn(int column, double value) {
+    row.setColumn(column, value);
+  }
+
+  @Override
+  public void setColumn(int column, boolean value) {
+    row.setColumn(column, value);
+  }
+
+  @Override
+  public void setColumn(int column, BigInteger value) {
+    row.setColumn(column, value);
+  }
+
+  @Override
+  public void setColumn(int column, byte[] value, Charset charset) {
+    row.setColumn(column, value, charset);
+  }
+
+  @Override
+  public void setDecimal(int column, String value) {
+    row.setDecimal(column, value);
+  }
+
+  @Override
+  public void setDecimal(int column, long unscaled, int scale) {
+    row.setDecimal(column, unscaled, scale);
+  }
+
+  @Override
+  public void setDateTime(int column, int year, int month, int day, int hour, int minute, int second, int microsecond) {
+    row.setDateTime(column, year, month, day, hour, minute, second, microsecond);
+  }
+
+  /**
+   * Buffers the current row as record: record length, key length, key and the serialized row.
+   */
+  @Override
+  public void writeRow() throws KettleException {
+    if (records > 0 && buffer.size() + (long) records * 4 >= memoryBudget) {
+      spill();
+    }
+    int offset = buffer.size();
+    try {
+      bufferOut.writeInt(0);
+      bufferOut.writeInt(0);
+      writeKey();
+      int keyLength = buffer.size() - offset - 8;
+      row.writeTo(bufferOut);
+      buffer.setInt(offset, buffer.size() - offset - 4);
+      buffer.setInt(offset + 4, keyLength);
+    } catch (IOException e) {
+      throw new KettleException("couldn't buffer the row for sorting", e);
+    }
+    if (records == offsets.length) {
+      offsets = Arrays.copyOf(offsets, records * 2);
+    }
+    offsets[records++] = offset;
+    row.clear();
+    rows++;
+  }
+
+  /**
+   * Appends the normalized key of the current row to the buffer.
+   */
+  private void writeKey() throws IOException {
+    for (int c : clusterColumns) {
+      switch (row.getKind(c)) {
+        case KettleColumnStoreConvertedRow.LONG:
+        case KettleColumnStoreConvertedRow.BOOLEAN:
+        case KettleColumnStoreConvertedRow.DATETIME:
+          buffer.write(TAG_LONG);
+          bufferOut.writeLong(row.getLong(c) ^ Long.MIN_VALUE);
+          break;
+        case KettleColumnStoreConvertedRow.DOUBLE:
+          writeDoubleKey(row.getDouble(c));
+          break;
+        case KettleColumnStoreConvertedRow.DECIMAL_LONG:
+          int scale = row.getScale(c);
+          writeDoubleKey(scale >= 0 && scale < POWERS_OF_TEN.length ? row.getLong(c) / POWERS_OF_TEN[scale]
+                  : BigDecimal.valueOf(row.getLong(c), scale).doubleValue());
+          break;
+        case KettleColumnStoreConvertedRow.DECIMAL:
+          writeDoubleKey(new BigDecimal((String) row.getObject(c)).doubleValue());
+          break;
+        case KettleColumnStoreConvertedRow.BIG_INTEGER:
+          writeDoubleKey(((BigInteger) row.getObject(c)).doubleValue());
+          break;
+        case KettleColumnStoreConvertedRow.STRING:
+          writeStringKey(((String) row.getObject(c)).getBytes(StandardCharsets.UTF_8));
+          break;
+        case KettleColumnStoreConvertedRow.BYTES:
+          Charset charset = row.getCharset(c);
+          byte[] bytes = (byte[]) row.getObject(c);
+          writeStringKey(charset.equals(StandardCharsets.UTF_8) ? bytes
+                  : new String(bytes, charset).getBytes(StandardCharsets.UTF_8));
+          break;
+        default:
+          buffer.write(TAG_NULL);
+      }
+    }
+  }
+
+  /**
+   * Writes a double so that its bytes compare like its value: the sign bit is flipped for positive
+   * values and all bits for negative ones.
+   */
+  private void writeDoubleKey(double value) throws IOException {
+    long bits = Double.doubleToLongBits(value);
+    buffer.write(TAG_DOUBLE);
+    bufferOut.writeLong(bits ^ ((bits >> 63) | Long.MIN_VALUE));
+  }
+
+  /**
+   * Writes string bytes terminated by 0, escaping 0 as 1 1 and 1 as 1 2 to keep their order.
+   */
+  private void writeStringKey(byte[] bytes) {
+    buffer.write(TAG_STRING);
+    for (byte b : bytes) {
+      if (b == 0 || b == 1) {
+        buffer.write(1);
+        buffer.write(b + 1);
+      } else {
+        buffer.write(b);
+      }
+    }
+    buffer.write(0);
+  }
+
+  /**
+   * Sorts the buffered records by their keys, stable so that equal keys keep their input order.
+   */
+  private void sortBuffer() {
+    final byte[] data = buffer.array();
+    int[] sorted = Arrays.copyOf(offsets, records);
+    mergeSort(Arrays.copyOf(sorted, records), sorted, 0, records, data);
+    offsets = sorted.length >= 1024 ? sorted : Arrays.copyOf(sorted, 1024);
+  }
+
+  /**
+   * Sorts src[from, to) into dst[from, to), both arrays start with the same content.
+   */
+  private static void mergeSort(int[] src, int[] dst, int from, int to, byte[] data) {
+    int length = to - from;
+    if (length < 8) {
+      // insertion sort of small ranges
+      for (int i = from + 1; i < to; i++) {
+        int offset = dst[i];
+        int j = i;
+        while (j > from && compareRecords(data, dst[j - 1], data, offset) > 0) {
+          dst[j] = dst[j - 1];
+          j--;
+        }
+        dst[j] = offset;
+      }
+      return;
+    }
+    int middle = (from + to) >>> 1;
+    mergeSort(dst, src, from, middle, data);
+    mergeSort(dst, src, middle, to, data);
+    for (int i = from, p = from, q = middle; i < to; i++) {
+      if (q >= to || (p < middle && compareRecords(data, src[p], data, src[q]) <= 0)) {
+        dst[i] = src[p++];
+      } else {
+        dst[i] = src[q++];
+      }
+    }
+  }
+
+  /**
+   * Compares the keys of two records as unsigned bytes.
+   */
+  private static int compareRecords(byte[] a, int aOffset, byte[] b, int bOffset) {
+    int aLength = readInt(a, aOffset + 4);
+    int bLength = readInt(b, bOffset + 4);
+    int n = Math.min(aLength, bLength);
+    for (int i = 0; i < n; i++) {
+      int cmp = (a[aOffset + 8 + i] & 0xFF) - (b[bOffset + 8 + i] & 0xFF);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return aLength - bLength;
+  }
+
+  private static int readInt(byte[] data, int offset) {
+    return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16) | ((data[offset + 2] & 0xFF) << 8)
+            | (data[offset + 3] & 0xFF);
+  }
+
+  /**
+   * Sorts the buffered records and writes them as a run into a temporary file.
+   */
+  private void spill() throws KettleException {
+    sortBuffer();
+    File run;
+    try {
+      run = File.createTempFile("kettle-columnstore-run-", ".bin", directory);
+    } catch (IOException e) {
+      throw new KettleException("couldn't create a sort run file in " + directory, e);
+    }
+    runs.add(run);
+    byte[] data = buffer.array();
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(run), RUN_BUFFER_SIZE)) {
+      for (int i = 0; i < records; i++) {
+        int offset = offsets[i];
+        out.write(data, offset, readInt(data, offset) + 4);
+      }
+    } catch (IOException e) {
+      throw new KettleException("couldn't write the sort run file " + run, e);
+    }
+    if (log.isDetailed()) {
+      log.logDetailed("Spilled a sorted run of " + records + " rows (" + buffer.size() + " bytes) to " + run);
+    }
+    records = 0;
+    buffer.reset();
+  }
+
+  /**
+   * Writes all rows in key order into the sink and deletes the runs.
+   * @throws KettleException if a run couldn't be read or the sink failed
+   */
+  void finish() throws KettleException {
+    try {
+      if (runs.isEmpty()) {
+        sortBuffer();
+        RecordInput in = new RecordInput();
+        DataInputStream dataIn = new DataInputStream(in);
+        byte[] data = buffer.array();
+        for (int i = 0; i < records; i++) {
+          int offset = offsets[i];
+          in.set(data, offset + 8 + readInt(data, offset + 4), offset + 4 + readInt(data, offset));
+          write(dataIn);
+        }
+      } else {
+        if (records > 0) {
+          spill();
+        }
+        merge();
+      }
+    } catch (IOException e) {
+      throw new KettleException("couldn't read the sorted rows", e);
+    } finally {
+      close();
+    }
+  }
+
+  /**
+   * Merges the runs, using a heap of the run readers ordered by their current records.
+   */
+  private void merge() throws IOException, KettleException {
+    if (log.isDetailed()) {
+      log.logDetailed("Merging " + runs.size() + " sorted runs of " + rows + " rows");
+    }
+    PriorityQueue<RunReader> heap = new PriorityQueue<>(runs.size(), new Comparator<RunReader>() {
+      public int compare(RunReader a, RunReader b) {
+        int cmp = compareRecords(a.record, 0, b.record, 0);
+        // equal keys are taken from earlier runs first, so that they keep their input order
+        return cmp != 0 ? cmp : a.index - b.index;
+      }
+    });
+    List<RunReader> readers = new ArrayList<>();
+    try {
+      for (int i = 0; i < runs.size(); i++) {
+        RunReader reader = new RunReader(runs.get(i), i);
+        readers.add(reader);
+        if (reader.next()) {
+          heap.add(reader);
+        }
+      }
+      RecordInput in = new RecordInput();
+      DataInputStream dataIn = new DataInputStream(in);
+      while (!heap.isEmpty()) {
+        RunReader reader = heap.poll();
+        in.set(reader.record, 8 + readInt(reader.record, 4), reader.length);
+        write(dataIn);
+        if (reader.next()) {
+          heap.add(reader);
+        }
+      }
+    } finally {
+      for (RunReader reader : readers) {
+        reader.close();
+      }
+    }
+  }
+
+  private void write(DataInputStream in) throws IOException, KettleException {
+    row.readFrom(in);
+    row.replay(sink);
+    sink.writeRow();
+  }
+
+  /**
+   * Releases the buffered rows and deletes the runs, also called if the load is aborted.
+   */
+  void close() {
+    records = 0;
+    buffer.reset();
+    for (File run : runs) {
+      if (!run.delete()) {
+        log.logDebug("couldn't delete the sort run file " + run);
+      }
+    }
+    runs.clear();
+  }
+
+  long getRows() {
+    return rows;
+  }
+
+  int getRuns() {
+    return runs.size();
+  }
+
+  /**
+   * Byte buffer that grows up to the memory budget, exposing its array so that records can be sorted in place.
+   */
+  private static final class Buffer extends OutputStream {
+    private byte[] data;
+    private int size = 0;
+    private final int limit;
+
+    Buffer(int capacity, int limit) {
+      this.data = new byte[capacity];
+      this.limit = limit;
+    }
+
+    @Override
+    public void write(int b) {
+      ensureCapacity(size + 1);
+      data[size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      ensureCapacity(size + len);
+      System.arraycopy(b, off, data, size, len);
+      size += len;
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (capacity > data.length) {
+        // grow up to the limit only, a single record may exceed it
+        data = Arrays.copyOf(data, Math.max(capacity, (int) Math.min((long) data.length * 2, Math.max(limit, capacity))));
+      }
+    }
+
+    void setInt(int offset, int value) {
+      data[offset] = (byte) (value >>> 24);
+      data[offset + 1] = (byte) (value >>> 16);
+      data[offset + 2] = (byte) (value >>> 8);
+      data[offset + 3] = (byte) value;
+    }
+
+    int size() {
+      return size;
+    }
+
+    byte[] array() {
+      return data;
+    }
+
+    void reset() {
+      size = 0;
+    }
+  }
+
+  /**
+   * Reusable input stream over a range of a byte array.
+   */
+  private static final class RecordInput extends InputStream {
+    private byte[] data;
+    private int position;
+    private int end;
+
+    void set(byte[] data, int from, int to) {
+      this.data = data;
+      this.position = from;
+      this.end = to;
+    }
+
+    @Override
+    public int read() {
+      return position < end ? data[position++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (position >= end) {
+        return -1;
+      }
+      int n = Math.min(len, end - position);
+      System.arraycopy(data, position, b, off, n);
+      position += n;
+      return n;
+    }
+  }
+
+  /**
+   * Reads the records of a run one after the other. The current record is kept at offset 0 of
+   * record, in the same layout as in the buffer.
+   */
+  private static final class RunReader {
+    private final DataInputStream in;
+    private final int index;
+    private byte[] record = new byte[256];
+    private int length;
+
+    RunReader(File run, int index) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), RUN_BUFFER_SIZE));
+      this.index = index;
+    }
+
+    /**
+     * Reads the next record.
+     * @return false at the end of the run
+     */
+    boolean next() throws IOException {
+      int recordLength;
+      try {
+        recordLength = in.readInt();
+      } catch (EOFException e) {
+        return false;
+      }
+      length = recordLength + 4;
+      if (record.length < length) {
+        record = new byte[Math.max(length, record.length * 2)];
+      }
+      record[0] = (byte) (recordLength >>> 24);
+      record[1] = (byte) (recordLength >>> 16);
+      record[2] = (byte) (recordLength >>> 8);
+      record[3] = (byte) recordLength;
+      in.readFully(record, 4, recordLength);
+      return true;
+    }
+
+    void close() {
+      try {
+        in.close();
+      } catch (IOException e) {
+        // nothing left to read
+      }
+    }
+  }
+}
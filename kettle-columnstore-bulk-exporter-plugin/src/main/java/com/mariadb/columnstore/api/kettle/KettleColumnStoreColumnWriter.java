@@ -0,0 +1,631 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import com.mariadb.columnstore.api.ColumnStoreSystemCatalogColumn;
+import com.mariadb.columnstore.api.columnstore_data_types_t;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaTimestamp;
+
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import static org.pentaho.di.core.row.ValueMetaInterface.*;
+
+/**
+ * Writes one input field of a Kettle row into one column of a ColumnStore table.
+ *
+ * The writers of a step form its column writer plan. The plan is built once when the first
+ * row arrives, so that the input index, the conversion for the Kettle type, the nullability
+ * and the default value of the target column are resolved only once instead of for every cell.
+ *
+ * Dates and timestamps written into date and datetime columns are passed by their fields, and
+ * decimals with up to 18 digits as unscaled long and scale. Strings are only used for other target
+ * types and larger decimals.
+ *
+ * Values of steps using lazy conversion arrive as binary strings. Strings are passed on still
+ * encoded, and integers, numbers and dates with plain formats are parsed directly from the bytes.
+ * Values the binary writers can't parse are converted through the value meta as usual.
+ */
+abstract class KettleColumnStoreColumnWriter {
+
+  // number of decimal digits that always fit into a long
+  static final int MAX_LONG_DECIMAL_PRECISION = 18;
+
+  final int targetColumn;
+  final int inputIndex;
+  final ValueMetaInterface inputMeta;
+  final String columnName;
+
+  private final boolean nullable;
+  private final String defaultValue;
+  private final LogChannelInterface log;
+  private boolean defaultValueWarningLogged = false;
+
+  KettleColumnStoreColumnWriter(int targetColumn, int inputIndex, ValueMetaInterface inputMeta, String columnName,
+                                boolean nullable, String defaultValue, LogChannelInterface log) {
+    this.targetColumn = targetColumn;
+    this.inputIndex = inputIndex;
+    this.inputMeta = inputMeta;
+    this.columnName = columnName;
+    this.nullable = nullable;
+    this.defaultValue = defaultValue;
+    this.log = log;
+  }
+
+  /**
+   * Creates a writer for the same column and input field as another writer.
+   * @param other writer to copy the column and input field from
+   */
+  KettleColumnStoreColumnWriter(KettleColumnStoreColumnWriter other) {
+    this(other.targetColumn, other.inputIndex, other.inputMeta, other.columnName, other.nullable, other.defaultValue,
+            other.log);
+  }
+
+  /**
+   * Creates the writer for a ColumnStore column, reading its properties from the system catalog.
+   * @param targetColumn position of the column in the ColumnStore table
+   * @param inputIndex index of the mapped field in the input row
+   * @param inputMeta value meta of the mapped input field
+   * @param column system catalog entry of the target column
+   * @param log log channel of the step
+   * @return the column writer
+   * @throws KettleException if the Kettle data type isn't supported
+   */
+  static KettleColumnStoreColumnWriter create(int targetColumn, int inputIndex, ValueMetaInterface inputMeta,
+                                              ColumnStoreSystemCatalogColumn column, LogChannelInterface log) throws KettleException {
+    return create(targetColumn, inputIndex, inputMeta, column.getColumnName(), isRealType(column.getType()),
+            isTemporalType(column.getType()), column.isNullable(), column.getDefaultValue(), log);
+  }
+
+  /**
+   * Creates the writer for a ColumnStore column. It doesn't use any mcsapi class, so that writers can
+   * also be created without the native library, e.g. by the benchmarks.
+   * @param targetColumn position of the column in the ColumnStore table
+   * @param inputIndex index of the mapped field in the input row
+   * @param inputMeta value meta of the mapped input field
+   * @param columnName name of the target column
+   * @param realTarget true if the target column is of a decimal or floating point type
+   * @param temporalTarget true if the target column is of a date or datetime type
+   * @param nullable true if the target column accepts null values
+   * @param defaultValue default value of the target column, used for null values if it isn't nullable
+   * @param log log channel of the step
+   * @return the column writer
+   * @throws KettleException if the Kettle data type isn't supported
+   */
+  static KettleColumnStoreColumnWriter create(int targetColumn, int inputIndex, ValueMetaInterface inputMeta, String columnName,
+                                              boolean realTarget, boolean temporalTarget, boolean nullable,
+                                              String defaultValue, LogChannelInterface log) throws KettleException {
+    KettleColumnStoreColumnWriter writer = createConverting(targetColumn, inputIndex, inputMeta, columnName, realTarget,
+            temporalTarget, nullable, defaultValue, log);
+    if (isPlainBinaryString(inputMeta)) {
+      ValueMetaInterface storageMeta = inputMeta.getStorageMetadata();
+      switch (inputMeta.getType()) {
+        case TYPE_STRING:
+          return new BinaryStringWriter(writer, storageMeta);
+        case TYPE_INTEGER:
+          if (isPlainNumberMask(storageMeta.getConversionMask())) {
+            return new BinaryIntegerWriter(writer);
+          }
+          break;
+        case TYPE_NUMBER:
+          if (isPlainNumberMask(storageMeta.getConversionMask())) {
+            return new BinaryNumberWriter(writer, storageMeta);
+          }
+          break;
+        case TYPE_DATE:
+          if (temporalTarget && BinaryDateWriter.isSupported(storageMeta)) {
+            return new BinaryDateWriter(writer, storageMeta);
+          }
+          break;
+        default:
+      }
+    }
+    return writer;
+  }
+
+  /**
+   * Creates the writer for a ColumnStore column that converts the input values through their value meta.
+   */
+  private static KettleColumnStoreColumnWriter createConverting(int targetColumn, int inputIndex, ValueMetaInterface inputMeta,
+                                                                String columnName, boolean realTarget, boolean temporalTarget,
+                                                                boolean nullable, String defaultValue,
+                                                                LogChannelInterface log) throws KettleException {
+    switch (inputMeta.getType()) {
+      case TYPE_STRING:
+        return new StringWriter(targetColumn, inputIndex, inputMeta, columnName, nullable, defaultValue, log);
+      case TYPE_INTEGER:
+        return new IntegerWriter(targetColumn, inputIndex, inputMeta, columnName, nullable, defaultValue, log);
+      case TYPE_NUMBER:
+        return new NumberWriter(targetColumn, inputIndex, inputMeta, columnName, nullable, defaultValue, log);
+      case TYPE_BIGNUMBER:
+        return new BigNumberWriter(targetColumn, inputIndex, inputMeta, columnName, nullable, defaultValue, log,
+                realTarget);
+      case TYPE_DATE:
+        return new DateWriter(targetColumn, inputIndex, inputMeta, columnName, nullable, defaultValue, log,
+                temporalTarget);
+      case TYPE_TIMESTAMP:
+        return new TimestampWriter(targetColumn, inputIndex, inputMeta, columnName, nullable, defaultValue, log,
+                temporalTarget);
+      case TYPE_BOOLEAN:
+        return new BooleanWriter(targetColumn, inputIndex, inputMeta, columnName, nullable, defaultValue, log);
+      case TYPE_BINARY:
+        throw new KettleException("data type binary is not supported at the moment");
+      default:
+        throw new KettleException("data type " + inputMeta.getTypeDesc() + " is not supported at the moment");
+    }
+  }
+
+  /**
+   * Checks if a ColumnStore data type holds decimal or floating point values.
+   * @param type ColumnStore data type
+   * @return true if it is a decimal or floating point type
+   */
+  static boolean isRealType(columnstore_data_types_t type) {
+    return type == columnstore_data_types_t.DATA_TYPE_DECIMAL ||
+            type == columnstore_data_types_t.DATA_TYPE_FLOAT ||
+            type == columnstore_data_types_t.DATA_TYPE_DOUBLE ||
+            type == columnstore_data_types_t.DATA_TYPE_UDECIMAL ||
+            type == columnstore_data_types_t.DATA_TYPE_UFLOAT ||
+            type == columnstore_data_types_t.DATA_TYPE_UDOUBLE;
+  }
+
+  /**
+   * Checks if an input field arrives lazily converted, as binary string whose value isn't changed by
+   * trimming or null replacement, so that its bytes can be used directly.
+   * @param inputMeta value meta of the input field
+   * @return true if the bytes can be used directly
+   */
+  static boolean isPlainBinaryString(ValueMetaInterface inputMeta) {
+    ValueMetaInterface storageMeta = inputMeta.getStorageMetadata();
+    return inputMeta.isStorageBinaryString() && storageMeta != null &&
+            inputMeta.getTrimType() == TRIM_TYPE_NONE && storageMeta.getTrimType() == TRIM_TYPE_NONE &&
+            isEmpty(inputMeta.getNullIf()) && isEmpty(inputMeta.getIfNull()) &&
+            isEmpty(storageMeta.getNullIf()) && isEmpty(storageMeta.getIfNull());
+  }
+
+  /**
+   * Checks if a number conversion mask parses plain digits to their plain value, e.g. has no percent sign or exponent.
+   * @param mask conversion mask
+   * @return true if plain digits can be parsed without the mask
+   */
+  static boolean isPlainNumberMask(String mask) {
+    if (mask == null) {
+      return true;
+    }
+    for (int i = 0; i < mask.length(); i++) {
+      if ("#0,.;-".indexOf(mask.charAt(i)) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isEmpty(String s) {
+    return s == null || s.isEmpty();
+  }
+
+  /**
+   * Checks if a ColumnStore data type holds dates, so that values can be passed by their fields.
+   * @param type ColumnStore data type
+   * @return true if it is a date or datetime type
+   */
+  static boolean isTemporalType(columnstore_data_types_t type) {
+    return type == columnstore_data_types_t.DATA_TYPE_DATE ||
+            type == columnstore_data_types_t.DATA_TYPE_DATETIME;
+  }
+
+  /**
+   * Sets the target column of the current row of the sink from the input row.
+   * @param row input row
+   * @param sink sink to write into
+   * @throws KettleException if the input value can't be converted
+   */
+  final void write(Object[] row, KettleColumnStoreRowSink sink) throws KettleException {
+    Object value = row[inputIndex];
+    if (value == null || isNullValue(value)) {
+      writeNull(sink);
+    } else {
+      writeValue(value, sink);
+    }
+  }
+
+  /**
+   * Checks if a non null input value is converted to null, e.g. an empty string.
+   * @param value input value
+   * @return true if the value is null
+   * @throws KettleException if the input value can't be converted
+   */
+  boolean isNullValue(Object value) throws KettleException {
+    return inputMeta.getNativeDataType(value) == null;
+  }
+
+  private void writeNull(KettleColumnStoreRowSink sink) throws KettleException {
+    if (nullable) {
+      sink.setNull(targetColumn);
+    } else {
+      if (!defaultValueWarningLogged) {
+        log.logBasic("Warning: target column " + columnName + " is not nullable, using default value for null");
+        defaultValueWarningLogged = true;
+      }
+      sink.setColumn(targetColumn, defaultValue);
+    }
+  }
+
+  /**
+   * Converts a non null input value and sets it in the target column.
+   * @param value input value
+   * @param sink sink to write into
+   * @throws KettleException if the input value can't be converted
+   */
+  abstract void writeValue(Object value, KettleColumnStoreRowSink sink) throws KettleException;
+
+  /**
+   * Sets the target column to the date and time fields of a calendar.
+   * @param sink sink to write into
+   * @param calendar calendar holding the value
+   * @param microsecond microsecond of the value
+   * @throws KettleException if the value can't be set
+   */
+  final void setDateTime(KettleColumnStoreRowSink sink, Calendar calendar, int microsecond) throws KettleException {
+    sink.setDateTime(targetColumn, calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1,
+            calendar.get(Calendar.DAY_OF_MONTH), calendar.get(Calendar.HOUR_OF_DAY), calendar.get(Calendar.MINUTE),
+            calendar.get(Calendar.SECOND), microsecond);
+  }
+
+  private static final class StringWriter extends KettleColumnStoreColumnWriter {
+    StringWriter(int targetColumn, int inputIndex, ValueMetaInterface inputMeta, String columnName,
+                 boolean nullable, String defaultValue, LogChannelInterface log) {
+      super(targetColumn, inputIndex, inputMeta, columnName, nullable, defaultValue, log);
+    }
+
+    @Override
+    void writeValue(Object value, KettleColumnStoreRowSink sink) throws KettleException {
+      sink.setColumn(targetColumn, inputMeta.getString(value));
+    }
+  }
+
+  private static final class IntegerWriter extends KettleColumnStoreColumnWriter {
+    IntegerWriter(int targetColumn, int inputIndex, ValueMetaInterface inputMeta, String columnName,
+                  boolean nullable, String defaultValue, LogChannelInterface log) {
+      super(targetColumn, inputIndex, inputMeta, columnName, nullable, defaultValue, log);
+    }
+
+    @Override
+    void writeValue(Object value, KettleColumnStoreRowSink sink) throws KettleException {
+      sink.setColumn(targetColumn, inputMeta.getInteger(value));
+    }
+  }
+
+  private static final class NumberWriter extends KettleColumnStoreColumnWriter {
+    NumberWriter(int targetColumn, int inputIndex, ValueMetaInterface inputMeta, String columnName,
+                 boolean nullable, String defaultValue, LogChannelInterface log) {
+      super(targetColumn, inputIndex, inputMeta, columnName, nullable, defaultValue, log);
+    }
+
+    @Override
+    void writeValue(Object value, KettleColumnStoreRowSink sink) throws KettleException {
+      sink.setColumn(targetColumn, inputMeta.getNumber(value));
+    }
+  }
+
+  private static final class BigNumberWriter extends KettleColumnStoreColumnWriter {
+    private final boolean realTarget;
+
+    BigNumberWriter(int targetColumn, int inputIndex, ValueMetaInterface inputMeta, String columnName,
+                    boolean nullable, String defaultValue, LogChannelInterface log, boolean realTarget) {
+      super(targetColumn, inputIndex, inputMeta, columnName, nullable, defaultValue, log);
+      this.realTarget = realTarget;
+    }
+
+    @Override
+    void writeValue(Object value, KettleColumnStoreRowSink sink) throws KettleException {
+      BigDecimal bd = inputMeta.getBigNumber(value);
+      if (realTarget) {
+        if (bd.scale() < 0) {
+          bd = bd.setScale(0);
+        }
+        // decimals with up to 18 digits are passed as unscaled long, only larger ones as string
+        if (bd.precision() <= MAX_LONG_DECIMAL_PRECISION) {
+          sink.setDecimal(targetColumn, bd.unscaledValue().longValue(), bd.scale());
+        } else {
+          sink.setDecimal(targetColumn, bd.toPlainString());
+        }
+      } else {
+        sink.setColumn(targetColumn, bd.toBigInteger());
+      }
+    }
+  }
+
+  private static final class DateWriter extends KettleColumnStoreColumnWriter {
+    private final boolean temporalTarget;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private final Calendar calendar = Calendar.getInstance();
+
+    DateWriter(int targetColumn, int inputIndex, ValueMetaInterface inputMeta, String columnName,
+               boolean nullable, String defaultValue, LogChannelInterface log, boolean temporalTarget) {
+      super(targetColumn, inputIndex, inputMeta, columnName, nullable, defaultValue, log);
+      this.temporalTarget = temporalTarget;
+    }
+
+    @Override
+    void writeValue(Object value, KettleColumnStoreRowSink sink) throws KettleException {
+      if (temporalTarget) {
+        // like the string format, the milliseconds are dropped
+        calendar.setTime(inputMeta.getDate(value));
+        setDateTime(sink, calendar, 0);
+      } else {
+        sink.setColumn(targetColumn, dateFormat.format(inputMeta.getDate(value)));
+      }
+    }
+  }
+
+  private static final class TimestampWriter extends KettleColumnStoreColumnWriter {
+    private final boolean temporalTarget;
+    private final ValueMetaTimestamp valueMetaTimestamp = new ValueMetaTimestamp();
+    private final Calendar calendar = Calendar.getInstance();
+
+    TimestampWriter(int targetColumn, int inputIndex, ValueMetaInterface inputMeta, String columnName,
+                    boolean nullable, String defaultValue, LogChannelInterface log, boolean temporalTarget) {
+      super(targetColumn, inputIndex, inputMeta, columnName, nullable, defaultValue, log);
+      this.temporalTarget = temporalTarget;
+    }
+
+    @Override
+    void writeValue(Object value, KettleColumnStoreRowSink sink) throws KettleException {
+      java.sql.Timestamp t;
+      Object nativeData = inputMeta.getNativeDataType(value);
+      if (nativeData instanceof java.sql.Timestamp) {
+        t = (java.sql.Timestamp) nativeData;
+      } else {
+        t = valueMetaTimestamp.getTimestamp(value);
+      }
+      if (temporalTarget) {
+        calendar.setTime(t);
+        setDateTime(sink, calendar, t.getNanos() / 1000);
+      } else {
+        sink.setColumn(targetColumn, t.toString());
+      }
+    }
+  }
+
+  private static final class BooleanWriter extends KettleColumnStoreColumnWriter {
+    BooleanWriter(int targetColumn, int inputIndex, ValueMetaInterface inputMeta, String columnName,
+                  boolean nullable, String defaultValue, LogChannelInterface log) {
+      super(targetColumn, inputIndex, inputMeta, columnName, nullable, defaultValue, log);
+    }
+
+    @Override
+    void writeValue(Object value, KettleColumnStoreRowSink sink) throws KettleException {
+      sink.setColumn(targetColumn, inputMeta.getBoolean(value));
+    }
+  }
+
+  /**
+   * Base of the writers for binary string input fields. Values that can't be handled from their
+   * bytes are passed to the converting writer of the field.
+   */
+  private abstract static class BinaryWriter extends KettleColumnStoreColumnWriter {
+    private final KettleColumnStoreColumnWriter converting;
+
+    BinaryWriter(KettleColumnStoreColumnWriter converting) {
+      super(converting);
+      this.converting = converting;
+    }
+
+    /**
+     * Only empty strings can be null, the value meta decides if they are.
+     */
+    @Override
+    boolean isNullValue(Object value) throws KettleException {
+      return ((byte[]) value).length == 0 && converting.isNullValue(value);
+    }
+
+    @Override
+    final void writeValue(Object value, KettleColumnStoreRowSink sink) throws KettleException {
+      if (!writeBytes((byte[]) value, sink)) {
+        converting.writeValue(value, sink);
+      }
+    }
+
+    /**
+     * Sets the target column from the bytes of a binary string.
+     * @param bytes the binary string
+     * @param sink sink to write into
+     * @return false if the bytes can't be handled and the value needs to be converted
+     * @throws KettleException if the value can't be set
+     */
+    abstract boolean writeBytes(byte[] bytes, KettleColumnStoreRowSink sink) throws KettleException;
+
+    /**
+     * Parses digits from a binary string.
+     * @return the value of the digits or -1 if there is a non digit or more than 18 digits
+     */
+    static long parseDigits(byte[] bytes, int from, int to) {
+      if (to <= from || to - from > MAX_LONG_DECIMAL_PRECISION) {
+        return -1;
+      }
+      long value = 0;
+      for (int i = from; i < to; i++) {
+        int digit = bytes[i] - '0';
+        if (digit < 0 || digit > 9) {
+          return -1;
+        }
+        value = value * 10 + digit;
+      }
+      return value;
+    }
+
+    /**
+     * Returns the character set of a binary string, the platform's default if the storage meta has no encoding.
+     */
+    static Charset getCharset(ValueMetaInterface storageMeta) {
+      String encoding = storageMeta.getStringEncoding();
+      return isEmpty(encoding) ? Charset.defaultCharset() : Charset.forName(encoding);
+    }
+  }
+
+  private static final class BinaryStringWriter extends BinaryWriter {
+    private final Charset charset;
+
+    BinaryStringWriter(KettleColumnStoreColumnWriter converting, ValueMetaInterface storageMeta) {
+      super(converting);
+      this.charset = getCharset(storageMeta);
+    }
+
+    @Override
+    boolean writeBytes(byte[] bytes, KettleColumnStoreRowSink sink) throws KettleException {
+      sink.setColumn(targetColumn, bytes, charset);
+      return true;
+    }
+  }
+
+  private static final class BinaryIntegerWriter extends BinaryWriter {
+    BinaryIntegerWriter(KettleColumnStoreColumnWriter converting) {
+      super(converting);
+    }
+
+    @Override
+    boolean writeBytes(byte[] bytes, KettleColumnStoreRowSink sink) throws KettleException {
+      boolean negative = bytes.length > 0 && bytes[0] == '-';
+      int from = bytes.length > 0 && (negative || bytes[0] == '+') ? 1 : 0;
+      long value = parseDigits(bytes, from, bytes.length);
+      if (value < 0) {
+        return false;
+      }
+      sink.setColumn(targetColumn, negative ? -value : value);
+      return true;
+    }
+  }
+
+  private static final class BinaryNumberWriter extends BinaryWriter {
+    // powers of ten up to 10^15, see MAX_DIGITS
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+            1e13, 1e14, 1e15};
+    // up to 15 digits are exactly representable as double, so that value / 10^scale is rounded correctly
+    private static final int MAX_DIGITS = 15;
+
+    private final byte decimalSymbol;
+
+    BinaryNumberWriter(KettleColumnStoreColumnWriter converting, ValueMetaInterface storageMeta) {
+      super(converting);
+      String symbol = storageMeta.getDecimalSymbol();
+      this.decimalSymbol = isEmpty(symbol) || symbol.charAt(0) > 0x7F ? (byte) '.' : (byte) symbol.charAt(0);
+    }
+
+    @Override
+    boolean writeBytes(byte[] bytes, KettleColumnStoreRowSink sink) throws KettleException {
+      boolean negative = bytes.length > 0 && bytes[0] == '-';
+      int from = bytes.length > 0 && (negative || bytes[0] == '+') ? 1 : 0;
+      int point = bytes.length;
+      for (int i = from; i < bytes.length; i++) {
+        if (bytes[i] == decimalSymbol) {
+          point = i;
+          break;
+        }
+      }
+      int scale = point < bytes.length ? bytes.length - point - 1 : 0;
+      if (point - from + scale > MAX_DIGITS || point == from) {
+        return false;
+      }
+      long integerPart = parseDigits(bytes, from, point);
+      long fraction = scale > 0 ? parseDigits(bytes, point + 1, bytes.length) : 0;
+      if (integerPart < 0 || fraction < 0) {
+        return false;
+      }
+      double value = (integerPart * (long) POWERS_OF_TEN[scale] + fraction) / POWERS_OF_TEN[scale];
+      sink.setColumn(targetColumn, negative ? -value : value);
+      return true;
+    }
+  }
+
+  private static final class BinaryDateWriter extends BinaryWriter {
+    // date formats with fixed positions that can be parsed directly, Kettle's default format first
+    private static final String[] FORMATS = {"yyyy/MM/dd HH:mm:ss.SSS", "yyyy/MM/dd HH:mm:ss", "yyyy/MM/dd",
+            "yyyy-MM-dd HH:mm:ss.SSS", "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd"};
+    private static final int[] DAYS_IN_MONTH = {31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    private final byte[] format;
+
+    BinaryDateWriter(KettleColumnStoreColumnWriter converting, ValueMetaInterface storageMeta) {
+      super(converting);
+      String mask = storageMeta.getConversionMask();
+      this.format = (isEmpty(mask) ? FORMATS[0] : mask).getBytes(Charset.forName("US-ASCII"));
+    }
+
+    /**
+     * Checks if the dates of a binary string field can be parsed directly: the format needs to have
+     * fixed positions, parsing must be strict and in the default time zone, as the other date writers use it.
+     * @param storageMeta storage meta of the field
+     * @return true if the dates can be parsed directly
+     */
+    static boolean isSupported(ValueMetaInterface storageMeta) {
+      String mask = isEmpty(storageMeta.getConversionMask()) ? FORMATS[0] : storageMeta.getConversionMask();
+      TimeZone timeZone = storageMeta.getDateFormatTimeZone();
+      if (storageMeta.isDateFormatLenient() || (timeZone != null && !timeZone.equals(TimeZone.getDefault()))) {
+        return false;
+      }
+      for (String supported : FORMATS) {
+        if (supported.equals(mask)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    boolean writeBytes(byte[] bytes, KettleColumnStoreRowSink sink) throws KettleException {
+      if (bytes.length != format.length) {
+        return false;
+      }
+      for (int i = 0; i < format.length; i++) {
+        // separators need to match, letters of the format are digits
+        if (format[i] < 'A' && bytes[i] != format[i]) {
+          return false;
+        }
+      }
+      int year = (int) parseDigits(bytes, 0, 4);
+      int month = (int) parseDigits(bytes, 5, 7);
+      int day = (int) parseDigits(bytes, 8, 10);
+      int hour = 0;
+      int minute = 0;
+      int second = 0;
+      if (format.length > 10) {
+        hour = (int) parseDigits(bytes, 11, 13);
+        minute = (int) parseDigits(bytes, 14, 16);
+        second = (int) parseDigits(bytes, 17, 19);
+      }
+      // the milliseconds are dropped like for the other date values, but they need to be digits
+      if (format.length > 19 && parseDigits(bytes, 20, 23) < 0) {
+        return false;
+      }
+      if (year < 0 || month < 1 || month > 12 || day < 1 || day > DAYS_IN_MONTH[month - 1] ||
+              (month == 2 && day == 29 && !isLeapYear(year)) || hour < 0 || hour > 23 || minute < 0 || minute > 59 ||
+              second < 0 || second > 59) {
+        return false;
+      }
+      sink.setDateTime(targetColumn, year, month, day, hour, minute, second, 0);
+      return true;
+    }
+
+    private static boolean isLeapYear(int year) {
+      return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+  }
+}
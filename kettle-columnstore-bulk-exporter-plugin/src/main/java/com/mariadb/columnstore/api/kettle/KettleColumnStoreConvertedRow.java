@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import org.pentaho.di.core.exception.KettleException;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Holds the converted column values of one row, so that they can be written into a bulk insert later on.
+ *
+ * Instances are reused: primitive values, decimals that fit into a long and datetimes are kept in
+ * preallocated arrays and only references to String, BigInteger and still encoded string values are stored.
+ * Rows can be serialized in a compact binary format, e.g. to buffer them outside of the heap objects.
+ */
+class KettleColumnStoreConvertedRow implements KettleColumnStoreRowSink {
+
+  static final byte UNSET = 0;
+  static final byte NULL = 1;
+  static final byte STRING = 2;
+  static final byte LONG = 3;
+  static final byte DOUBLE = 4;
+  static final byte BOOLEAN = 5;
+  static final byte BIG_INTEGER = 6;
+  static final byte DECIMAL = 7;
+  static final byte DECIMAL_LONG = 8;
+  static final byte DATETIME = 9;
+  static final byte BYTES = 10;
+
+  private final byte[] kinds;
+  private final long[] longs;
+  private final double[] doubles;
+  private final int[] scales;
+  private final Object[] objects;
+  private final Charset[] charsets;
+
+  KettleColumnStoreConvertedRow(int columnCount) {
+    kinds = new byte[columnCount];
+    longs = new long[columnCount];
+    doubles = new double[columnCount];
+    scales = new int[columnCount];
+    objects = new Object[columnCount];
+    charsets = new Charset[columnCount];
+  }
+
+  int getColumnCount() {
+    return kinds.length;
+  }
+
+  byte getKind(int column) {
+    return kinds[column];
+  }
+
+  /**
+   * Returns the value of a LONG, BOOLEAN (1 or 0), DATETIME (packed) or DECIMAL_LONG (unscaled) column.
+   */
+  long getLong(int column) {
+    return longs[column];
+  }
+
+  double getDouble(int column) {
+    return doubles[column];
+  }
+
+  int getScale(int column) {
+    return scales[column];
+  }
+
+  /**
+   * Returns the value of a STRING, BIG_INTEGER, DECIMAL or BYTES column.
+   */
+  Object getObject(int column) {
+    return objects[column];
+  }
+
+  Charset getCharset(int column) {
+    return charsets[column];
+  }
+
+  /**
+   * Resets all columns to unset and releases the referenced values.
+   */
+  void clear() {
+    Arrays.fill(kinds, UNSET);
+    Arrays.fill(objects, null);
+  }
+
+  @Override
+  public void setNull(int column) {
+    kinds[column] = NULL;
+  }
+
+  @Override
+  public void setColumn(int column, String value) {
+    kinds[column] = STRING;
+    objects[column] = value;
+  }
+
+  @Override
+  public void setColumn(int column, long value) {
+    kinds[column] = LONG;
+    longs[column] = value;
+  }
+
+  @Override
+  public void setColumn(int column, double value) {
+    kinds[column] = DOUBLE;
+    doubles[column] = value;
+  }
+
+  @Override
+  public void setColumn(int column, boolean value) {
+    kinds[column] = BOOLEAN;
+    longs[column] = value ? 1 : 0;
+  }
+
+  @Override
+  public void setColumn(int column, BigInteger value) {
+    kinds[column] = BIG_INTEGER;
+    objects[column] = value;
+  }
+
+  @Override
+  public void setColumn(int column, byte[] value, Charset charset) {
+    kinds[column] = BYTES;
+    objects[column] = value;
+    charsets[column] = charset;
+  }
+
+  @Override
+  public void setDecimal(int column, String value) {
+    kinds[column] = DECIMAL;
+    objects[column] = value;
+  }
+
+  @Override
+  public void setDecimal(int column, long unscaled, int scale) {
+    kinds[column] = DECIMAL_LONG;
+    longs[column] = unscaled;
+    scales[column] = scale;
+  }
+
+  /**
+   * Stores the fields of a datetime packed into one long: 20 bits microsecond, 6 bits second,
+   * 6 bits minute, 5 bits hour, 5 bits day, 4 bits month and the year in the remaining bits.
+   */
+  @Override
+  public void setDateTime(int column, int year, int month, int day, int hour, int minute, int second, int microsecond) {
+    kinds[column] = DATETIME;
+    longs[column] = ((long) year << 46) | ((long) month << 42) | ((long) day << 37) | ((long) hour << 32)
+            | ((long) minute << 26) | ((long) second << 20) | microsecond;
+  }
+
+  /**
+   * Rows are completed by the owner of the instance, therefore nothing happens here.
+   */
+  @Override
+  public void writeRow() {
+  }
+
+  /**
+   * Serializes the row: per column the kind, followed by its value if it has one. Strings and decimals
+   * are written as length prefixed UTF-8, encoded strings as their charset followed by their bytes.
+   * @param out output to write into
+   * @throws IOException if the output can't be written
+   */
+  void writeTo(DataOutput out) throws IOException {
+    for (int c = 0; c < kinds.length; c++) {
+      out.writeByte(kinds[c]);
+      switch (kinds[c]) {
+        case STRING:
+        case DECIMAL:
+          writeBytes(out, ((String) objects[c]).getBytes(StandardCharsets.UTF_8));
+          break;
+        case BIG_INTEGER:
+          writeBytes(out, ((BigInteger) objects[c]).toByteArray());
+          break;
+        case BYTES:
+          out.writeUTF(charsets[c].name());
+          writeBytes(out, (byte[]) objects[c]);
+          break;
+        case LONG:
+        case BOOLEAN:
+        case DATETIME:
+          out.writeLong(longs[c]);
+          break;
+        case DECIMAL_LONG:
+          out.writeLong(longs[c]);
+          out.writeInt(scales[c]);
+          break;
+        case DOUBLE:
+          out.writeDouble(doubles[c]);
+          break;
+        default:
+          // unset and null columns have no value
+      }
+    }
+  }
+
+  /**
+   * Reads a row serialized by writeTo() into this instance.
+   * @param in input to read from
+   * @throws IOException if the input can't be read or is corrupt
+   */
+  void readFrom(DataInput in) throws IOException {
+    for (int c = 0; c < kinds.length; c++) {
+      kinds[c] = in.readByte();
+      objects[c] = null;
+      switch (kinds[c]) {
+        case STRING:
+        case DECIMAL:
+          objects[c] = new String(readBytes(in), StandardCharsets.UTF_8);
+          break;
+        case BIG_INTEGER:
+          objects[c] = new BigInteger(readBytes(in));
+          break;
+        case BYTES:
+          String charset = in.readUTF();
+          if (charsets[c] == null || !charsets[c].name().equals(charset)) {
+            charsets[c] = Charset.forName(charset);
+          }
+          objects[c] = readBytes(in);
+          break;
+        case LONG:
+        case BOOLEAN:
+        case DATETIME:
+          longs[c] = in.readLong();
+          break;
+        case DECIMAL_LONG:
+          longs[c] = in.readLong();
+          scales[c] = in.readInt();
+          break;
+        case DOUBLE:
+          doubles[c] = in.readDouble();
+          break;
+        case UNSET:
+        case NULL:
+          break;
+        default:
+          throw new IOException("corrupt row, unknown kind " + kinds[c] + " of column " + c);
+      }
+    }
+  }
+
+  private static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static byte[] readBytes(DataInput in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  /**
+   * Sets all columns of this row in another sink, without completing the row there.
+   * @param sink the sink to set the columns in
+   * @throws KettleException if the sink can't take a value
+   */
+  void replay(KettleColumnStoreRowSink sink) throws KettleException {
+    for (int c = 0; c < kinds.length; c++) {
+      switch (kinds[c]) {
+        case NULL:
+          sink.setNull(c);
+          break;
+        case STRING:
+          sink.setColumn(c, (String) objects[c]);
+          break;
+        case LONG:
+          sink.setColumn(c, longs[c]);
+          break;
+        case DOUBLE:
+          sink.setColumn(c, doubles[c]);
+          break;
+        case BOOLEAN:
+          sink.setColumn(c, longs[c] != 0);
+          break;
+        case BIG_INTEGER:
+          sink.setColumn(c, (BigInteger) objects[c]);
+          break;
+        case DECIMAL:
+          sink.setDecimal(c, (String) objects[c]);
+          break;
+        case BYTES:
+          sink.setColumn(c, (byte[]) objects[c], charsets[c]);
+          break;
+        case DECIMAL_LONG:
+          sink.setDecimal(c, longs[c], scales[c]);
+          break;
+        case DATETIME:
+          long v = longs[c];
+          sink.setDateTime(c, (int) (v >>> 46), (int) (v >>> 42) & 0xF, (int) (v >>> 37) & 0x1F, (int) (v >>> 32) & 0x1F,
+                  (int) (v >>> 26) & 0x3F, (int) (v >>> 20) & 0x3F, (int) v & 0xFFFFF);
+          break;
+        default:
+          // unset columns are left to the sink's default handling
+      }
+    }
+  }
+}
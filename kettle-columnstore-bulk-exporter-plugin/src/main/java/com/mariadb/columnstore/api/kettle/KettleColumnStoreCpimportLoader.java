@@ -0,0 +1,539 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads rows through a spawned cpimport process instead of the mcsapi bulk insert.
+ *
+ * The columns of a row arrive in target column order. They are formatted as delimited text into a
+ * reusable heap buffer, whose array is written into the standard input of cpimport once it is full;
+ * the process stream only takes byte arrays, a direct buffer would be copied on every write.
+ * Strings are enclosed in double quotes, enclosed double quotes are doubled, and null values are
+ * empty fields. cpimport reads from a pipe in mode 1 (distributed by the UM) and mode 3 (local PM)
+ * only, mode 2 expects the input files on the PMs.
+ *
+ * cpimport writes its output into cpimport.log and its .err and .bad files into a temporary
+ * directory. A non-zero exit status fails the load with the end of the output and the first
+ * error lines, rows rejected by cpimport are reported as rejected lines. The directory is only
+ * deleted if cpimport loaded all rows. If the load fails before cpimport read all rows, e.g. on an
+ * incomplete last row or an error of the step, cpimport is killed, so that it neither waits for
+ * more input while it holds the table lock nor commits the rows it got so far.
+ */
+class KettleColumnStoreCpimportLoader implements KettleColumnStoreRowSink {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  // number of lines of the cpimport output and error files that are added to error messages
+  private static final int REPORTED_LINES = 10;
+
+  private static final byte DELIMITER = '|';
+  private static final byte ENCLOSURE = '"';
+  private static final byte NEWLINE = '\n';
+
+  private final String cpimportPath;
+  private final int mode;
+  private final String database;
+  private final String table;
+  private final LogChannelInterface log;
+
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+  private final byte[] digits = new byte[20];
+
+  private Process process;
+  private OutputStream pipe;
+  private File workDir;
+  private KettleColumnStoreBulkExporterMetrics metrics;
+
+  private long rows = 0;
+  private long rejected = 0;
+  private int nextColumn = 0;
+  private long start;
+
+  /**
+   * Constructor, cpimport is started by start().
+   * @param cpimportPath path of the cpimport binary
+   * @param mode cpimport mode, 1 or 3
+   * @param database target database
+   * @param table target table
+   * @param log log channel of the step
+   * @throws KettleException if the mode can't read from a pipe
+   */
+  KettleColumnStoreCpimportLoader(String cpimportPath, int mode, String database, String table,
+                                  LogChannelInterface log) throws KettleException {
+    if (mode != 1 && mode != 3) {
+      throw new KettleException("cpimport mode " + mode + " is not supported, only mode 1 and 3 read from a pipe");
+    }
+    this.cpimportPath = cpimportPath;
+    this.mode = mode;
+    this.database = database;
+    this.table = table;
+    this.log = log;
+  }
+
+  /**
+   * Attaches the metrics the load is reported to as one commit.
+   * @param metrics metrics of the step copy
+   */
+  void setMetrics(KettleColumnStoreBulkExporterMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Starts the cpimport process.
+   * @throws KettleException if cpimport couldn't be started
+   */
+  void start() throws KettleException {
+    List<String> command = new ArrayList<>();
+    command.add(cpimportPath);
+    command.add("-m");
+    command.add(String.valueOf(mode));
+    command.add("-s");
+    command.add(String.valueOf((char) DELIMITER));
+    command.add("-E");
+    command.add(String.valueOf((char) ENCLOSURE));
+    command.add("-C");
+    command.add(String.valueOf((char) ENCLOSURE));
+    try {
+      workDir = Files.createTempDirectory("kettle-cpimport-").toFile();
+      command.add("-L");
+      command.add(workDir.getAbsolutePath());
+      command.add(database);
+      command.add(table);
+      log.logDetailed("Starting " + command);
+      process = new ProcessBuilder(command)
+              .redirectErrorStream(true)
+              .redirectOutput(new File(workDir, "cpimport.log"))
+              .start();
+    } catch (IOException e) {
+      throw new KettleException("couldn't start cpimport " + cpimportPath, e);
+    }
+    pipe = process.getOutputStream();
+    start = System.nanoTime();
+  }
+
+  @Override
+  public void setNull(int column) throws KettleException {
+    startColumn(column);
+  }
+
+  @Override
+  public void setColumn(int column, String value) throws KettleException {
+    startColumn(column);
+    put(ENCLOSURE);
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c >= 0x80) {
+        // not ASCII, encode the rest of the value
+        putEnclosed(value.substring(i).getBytes(StandardCharsets.UTF_8));
+        break;
+      }
+      if (c == ENCLOSURE) {
+        put(ENCLOSURE);
+      }
+      put((byte) c);
+    }
+    put(ENCLOSURE);
+  }
+
+  @Override
+  public void setColumn(int column, long value) throws KettleException {
+    startColumn(column);
+    putLong(value);
+  }
+
+  @Override
+  public void setColumn(int column, double value) throws KettleException {
+    startColumn(column);
+    String text = Double.toString(value);
+    if (text.indexOf('E') >= 0) {
+      text = BigDecimal.valueOf(value).toPlainString();
+    }
+    putAscii(text);
+  }
+
+  @Override
+  public void setColumn(int column, boolean value) throws KettleException {
+    startColumn(column);
+    put(value ? (byte) '1' : (byte) '0');
+  }
+
+  @Override
+  public void setColumn(int column, BigInteger value) throws KettleException {
+    startColumn(column);
+    putAscii(value.toString());
+  }
+
+  /**
+   * Writes the bytes of a binary string, they are only re-encoded if they aren't UTF-8 already.
+   */
+  @Override
+  public void setColumn(int column, byte[] value, Charset charset) throws KettleException {
+    if (charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)) {
+      startColumn(column);
+      put(ENCLOSURE);
+      putEnclosed(value);
+      put(ENCLOSURE);
+    } else {
+      setColumn(column, new String(value, charset));
+    }
+  }
+
+  @Override
+  public void setDecimal(int column, String value) throws KettleException {
+    startColumn(column);
+    putAscii(value);
+  }
+
+  @Override
+  public void setDecimal(int column, long unscaled, int scale) throws KettleException {
+    startColumn(column);
+    if (scale <= 0) {
+      putLong(unscaled);
+      for (int i = 0; i < -scale; i++) {
+        put((byte) '0');
+      }
+      return;
+    }
+    if (unscaled < 0) {
+      put((byte) '-');
+    }
+    int length = toDigits(unscaled);
+    int offset = digits.length - length;
+    if (length <= scale) {
+      put((byte) '0');
+      put((byte) '.');
+      for (int i = length; i < scale; i++) {
+        put((byte) '0');
+      }
+      put(digits, offset, length);
+    } else {
+      put(digits, offset, length - scale);
+      put((byte) '.');
+      put(digits, digits.length - scale, scale);
+    }
+  }
+
+  @Override
+  public void setDateTime(int column, int year, int month, int day, int hour, int minute, int second, int microsecond)
+          throws KettleException {
+    startColumn(column);
+    putPadded(year, 4);
+    put((byte) '-');
+    putPadded(month, 2);
+    put((byte) '-');
+    putPadded(day, 2);
+    put((byte) ' ');
+    putPadded(hour, 2);
+    put((byte) ':');
+    putPadded(minute, 2);
+    put((byte) ':');
+    putPadded(second, 2);
+    if (microsecond > 0) {
+      put((byte) '.');
+      putPadded(microsecond, 6);
+    }
+  }
+
+  @Override
+  public void writeRow() throws KettleException {
+    put(NEWLINE);
+    nextColumn = 0;
+    rows++;
+  }
+
+  /**
+   * Separates the column from the previous one. Columns must be set in target column order.
+   */
+  private void startColumn(int column) throws KettleException {
+    if (column != nextColumn) {
+      throw new KettleException("column " + column + " set out of order, expected column " + nextColumn);
+    }
+    if (column > 0) {
+      put(DELIMITER);
+    }
+    nextColumn++;
+  }
+
+  private void put(byte b) throws KettleException {
+    if (!buffer.hasRemaining()) {
+      flush();
+    }
+    buffer.put(b);
+  }
+
+  private void put(byte[] bytes, int offset, int length) throws KettleException {
+    while (length > 0) {
+      if (!buffer.hasRemaining()) {
+        flush();
+      }
+      int n = Math.min(length, buffer.remaining());
+      buffer.put(bytes, offset, n);
+      offset += n;
+      length -= n;
+    }
+  }
+
+  /**
+   * Writes the bytes of an enclosed value, doubling enclosure characters.
+   */
+  private void putEnclosed(byte[] bytes) throws KettleException {
+    int from = 0;
+    for (int i = 0; i < bytes.length; i++) {
+      if (bytes[i] == ENCLOSURE) {
+        put(bytes, from, i + 1 - from);
+        from = i;
+      }
+    }
+    put(bytes, from, bytes.length - from);
+  }
+
+  private void putAscii(String text) throws KettleException {
+    for (int i = 0; i < text.length(); i++) {
+      put((byte) text.charAt(i));
+    }
+  }
+
+  private void putLong(long value) throws KettleException {
+    if (value < 0) {
+      put((byte) '-');
+    }
+    int length = toDigits(value);
+    put(digits, digits.length - length, length);
+  }
+
+  private void putPadded(int value, int width) throws KettleException {
+    int length = toDigits(value);
+    for (int i = length; i < width; i++) {
+      put((byte) '0');
+    }
+    put(digits, digits.length - length, length);
+  }
+
+  /**
+   * Writes the digits of the absolute value right aligned into the digits buffer.
+   * @return the number of digits
+   */
+  private int toDigits(long value) {
+    int i = digits.length;
+    do {
+      // negative remainders avoid the overflow of Long.MIN_VALUE
+      long q = value / 10;
+      digits[--i] = (byte) ('0' + Math.abs((int) (value - q * 10)));
+      value = q;
+    } while (value != 0);
+    return digits.length - i;
+  }
+
+  private void flush() throws KettleException {
+    try {
+      pipe.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+    } catch (IOException e) {
+      // cpimport exited early, report its error rather than the broken pipe
+      throw new KettleException("couldn't write into cpimport: " + describeFailure(), e);
+    } finally {
+      buffer.clear();
+    }
+  }
+
+  /**
+   * Closes the input of cpimport and waits until it loaded all rows. If the input can't be completed,
+   * cpimport is killed before the exception is thrown.
+   * @throws KettleException if cpimport failed
+   */
+  void finish() throws KettleException {
+    if (nextColumn != 0) {
+      abort();
+      throw new KettleException("the last row written into cpimport is incomplete, cpimport is killed");
+    }
+    try {
+      flush();
+      pipe.close();
+    } catch (KettleException e) {
+      abort();
+      throw e;
+    } catch (IOException e) {
+      kill();
+      KettleException failure = new KettleException("couldn't close the input of cpimport: " + describeFailure(), e);
+      deleteWorkDir();
+      throw failure;
+    }
+    int exitValue;
+    try {
+      exitValue = process.waitFor();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      abort();
+      throw new KettleException("interrupted while waiting for cpimport", e);
+    }
+    rejected = countLines(".bad");
+    if (exitValue != 0) {
+      throw new KettleException("cpimport failed with exit status " + exitValue + ": " + describeFailure()
+              + " - the cpimport files are kept in " + workDir);
+    }
+    if (rejected > 0) {
+      log.logBasic("Warning: cpimport rejected " + rejected + " rows, the rejected rows are kept in " + workDir
+              + ": " + readLines(".err"));
+    } else {
+      deleteWorkDir();
+    }
+    if (metrics != null) {
+      metrics.addCommit(System.nanoTime() - start, rows - rejected, 0, 0, rejected);
+    }
+  }
+
+  /**
+   * Kills cpimport, the table is rolled back by cpimport's own cleanup.
+   */
+  void abort() {
+    kill();
+    deleteWorkDir();
+  }
+
+  private void kill() {
+    if (process != null) {
+      process.destroy();
+      try {
+        process.waitFor();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      try {
+        pipe.close();
+      } catch (IOException e) {
+        // cpimport is gone, nothing reads the pipe anymore
+      }
+      process = null;
+    }
+  }
+
+  /**
+   * Checks if cpimport is still running, it isn't once finish() returned or failed.
+   */
+  boolean isRunning() {
+    return process != null && process.isAlive();
+  }
+
+  long getRows() {
+    return rows;
+  }
+
+  long getRejected() {
+    return rejected;
+  }
+
+  /**
+   * Describes why cpimport failed, from its output and error files.
+   */
+  private String describeFailure() {
+    if (process != null) {
+      try {
+        process.waitFor();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    String output = readLines("cpimport.log");
+    String errors = readLines(".err");
+    return errors.isEmpty() ? output : output + " " + errors;
+  }
+
+  /**
+   * Returns the last lines of the output or the first lines of the error files.
+   * @param suffix name suffix of the files
+   */
+  private String readLines(String suffix) {
+    List<String> lines = new ArrayList<>();
+    for (Path file : listFiles(suffix)) {
+      try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          lines.add(line.trim());
+          if (lines.size() > REPORTED_LINES) {
+            if (suffix.equals("cpimport.log")) {
+              lines.remove(0);
+            } else {
+              break;
+            }
+          }
+        }
+      } catch (IOException e) {
+        lines.add("(couldn't read " + file + ": " + e.getMessage() + ")");
+      }
+    }
+    return String.join(" | ", lines);
+  }
+
+  private long countLines(String suffix) throws KettleException {
+    long count = 0;
+    for (Path file : listFiles(suffix)) {
+      try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.ISO_8859_1)) {
+        while (reader.readLine() != null) {
+          count++;
+        }
+      } catch (IOException e) {
+        throw new KettleException("couldn't read the cpimport reject file " + file, e);
+      }
+    }
+    return count;
+  }
+
+  private List<Path> listFiles(String suffix) {
+    List<Path> files = new ArrayList<>();
+    if (workDir != null) {
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(workDir.toPath(), "*" + suffix)) {
+        for (Path file : stream) {
+          files.add(file);
+        }
+      } catch (IOException e) {
+        log.logDebug("couldn't list the cpimport files: " + e.getMessage());
+      }
+    }
+    return files;
+  }
+
+  private void deleteWorkDir() {
+    if (workDir == null) {
+      return;
+    }
+    File[] files = workDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (!file.delete()) {
+          log.logDebug("couldn't delete " + file);
+        }
+      }
+    }
+    if (!workDir.delete()) {
+      log.logDebug("couldn't delete " + workDir);
+    }
+    workDir = null;
+  }
+}
@@ -0,0 +1,537 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Drops the rows whose key fields repeat the key of an earlier row of the load, as sources with at
+ * least once delivery produce them and ColumnStore has no unique constraints to reject them.
+ *
+ * The keys seen are kept off heap in 64 partitions, selected by the top bits of the key hash. A single
+ * integer key field is kept as a primitive long, 8 bytes per slot, other keys as the UTF-8 bytes of
+ * their KettleColumnStoreRowKey, 16 bytes per slot plus the key. If the sets exceed the memory budget,
+ * the largest partition is spilled: its keys are written to a temporary file, and the later rows of
+ * that partition are deferred into a second file instead of being looked up. At the end of the input
+ * nextDeferred() reads the keys of one spilled partition at a time back into memory and returns its
+ * deferred rows that aren't duplicates, so the result is exact and only one partition has to fit.
+ */
+class KettleColumnStoreDedup {
+
+  static final int NEW = 0;
+  static final int DUPLICATE = 1;
+  static final int DEFERRED = 2;
+
+  private static final int PARTITION_BITS = 6;
+  private static final int PARTITIONS = 1 << PARTITION_BITS;
+  private static final int FILE_BUFFER_SIZE = 64 * 1024;
+
+  private final KettleColumnStoreRowKey key;
+  private final long memoryBudget;
+  private final File directory;
+  private final LogChannelInterface log;
+
+  private RowMetaInterface rowMeta;
+  // the single integer key field, -1 if the keys are encoded
+  private int longIndex = -1;
+  private ValueMetaInterface longMeta;
+
+  // resident partitions, null once spilled
+  private final KeySet[] sets = new KeySet[PARTITIONS];
+  private final File[] keyFiles = new File[PARTITIONS];
+  private final File[] rowFiles = new File[PARTITIONS];
+  private final DataOutputStream[] rowOuts = new DataOutputStream[PARTITIONS];
+  private final long[] deferredCounts = new long[PARTITIONS];
+  private long memory = 0;
+
+  // key of the current row
+  private long hash;
+  private long longKey;
+  private boolean nullKey;
+  private byte[] bytesKey;
+
+  // spilled partition read by nextDeferred()
+  private int drainPartition = 0;
+  private KeySet drainSet;
+  private DataInputStream drainIn;
+  private long drainRemaining;
+
+  private long duplicates = 0;
+  private long deferred = 0;
+  private int spilledPartitions = 0;
+
+  /**
+   * Constructor
+   * @param keyFields comma separated names of the input fields identifying a row
+   * @param memoryBudget number of bytes of the resident key sets after which a partition is spilled
+   * @param directory directory of the spilled partitions
+   * @param log log channel of the step
+   * @throws KettleException if no key fields are set
+   */
+  KettleColumnStoreDedup(String keyFields, long memoryBudget, File directory, LogChannelInterface log) throws KettleException {
+    this.key = new KettleColumnStoreRowKey(KettleColumnStoreRowKey.split(keyFields));
+    if (key.getFields().length == 0) {
+      throw new KettleException("deduplication needs key fields");
+    }
+    this.memoryBudget = memoryBudget;
+    this.directory = directory;
+    this.log = log;
+  }
+
+  /**
+   * Looks up the key fields in the input rows and allocates the key sets.
+   * @param rowMeta layout of the input rows
+   * @throws KettleException if a key field doesn't exist or is binary
+   */
+  void setRowMeta(RowMetaInterface rowMeta) throws KettleException {
+    this.rowMeta = rowMeta;
+    key.setRowMeta(rowMeta, "deduplication key field");
+    if (key.getFields().length == 1) {
+      ValueMetaInterface meta = rowMeta.getValueMeta(rowMeta.indexOfValue(key.getFields()[0]));
+      if (meta.getType() == ValueMetaInterface.TYPE_INTEGER) {
+        longIndex = rowMeta.indexOfValue(key.getFields()[0]);
+        longMeta = meta;
+      }
+    }
+    for (int p = 0; p < PARTITIONS; p++) {
+      sets[p] = newSet();
+      memory += sets[p].getMemorySize();
+    }
+  }
+
+  /**
+   * Adds the key of a row.
+   * @param row input row
+   * @return NEW if the row has to be written, DUPLICATE if its key was seen before, or DEFERRED if its
+   * partition is spilled and the row is returned by nextDeferred() unless it is a duplicate
+   * @throws KettleException if a value can't be converted or a partition can't be spilled
+   */
+  int add(Object[] row) throws KettleException {
+    readKey(row);
+    int p = (int) (hash >>> (64 - PARTITION_BITS));
+    KeySet set = sets[p];
+    if (set == null) {
+      try {
+        rowMeta.writeData(rowOuts[p], row);
+      } catch (KettleException e) {
+        throw new KettleException("couldn't defer a row to " + rowFiles[p], e);
+      }
+      deferredCounts[p]++;
+      deferred++;
+      return DEFERRED;
+    }
+    long before = set.getMemorySize();
+    if (!add(set)) {
+      duplicates++;
+      return DUPLICATE;
+    }
+    memory += set.getMemorySize() - before;
+    if (memory > memoryBudget) {
+      spillLargest();
+    }
+    return NEW;
+  }
+
+  private void readKey(Object[] row) throws KettleException {
+    if (longIndex >= 0) {
+      Long value = longMeta.getInteger(row[longIndex]);
+      nullKey = value == null;
+      longKey = nullKey ? 0 : value;
+      hash = KettleColumnStoreDelta.mix(longKey);
+    } else {
+      String encoded = key.encode(row);
+      bytesKey = encoded.getBytes(StandardCharsets.UTF_8);
+      hash = KettleColumnStoreDelta.hash(encoded);
+    }
+  }
+
+  private boolean add(KeySet set) {
+    return longIndex >= 0 ? ((LongSet) set).add(longKey, nullKey, hash) : ((BytesSet) set).add(bytesKey, hash);
+  }
+
+  private KeySet newSet() {
+    return longIndex >= 0 ? new LongSet() : new BytesSet();
+  }
+
+  private void spillLargest() throws KettleException {
+    int largest = -1;
+    for (int p = 0; p < PARTITIONS; p++) {
+      if (sets[p] != null && (largest < 0 || sets[p].getMemorySize() > sets[largest].getMemorySize())) {
+        largest = p;
+      }
+    }
+    if (largest < 0) {
+      return;
+    }
+    KeySet set = sets[largest];
+    try {
+      keyFiles[largest] = File.createTempFile("kettle-columnstore-dedup-keys-", ".bin", directory);
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(keyFiles[largest]), FILE_BUFFER_SIZE))) {
+        set.writeTo(out);
+      }
+      rowFiles[largest] = File.createTempFile("kettle-columnstore-dedup-rows-", ".bin", directory);
+      rowOuts[largest] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(rowFiles[largest]), FILE_BUFFER_SIZE));
+    } catch (IOException e) {
+      throw new KettleException("couldn't spill a deduplication partition to " + directory, e);
+    }
+    sets[largest] = null;
+    memory -= set.getMemorySize();
+    spilledPartitions++;
+    if (log.isDetailed()) {
+      log.logDetailed("Spilled deduplication partition " + largest + " of " + set.size() + " keys to " + keyFiles[largest]);
+    }
+  }
+
+  /**
+   * Returns the next deferred row whose key wasn't seen before, reading the spilled partitions one after the other.
+   * @return the row, null if there are no more
+   * @throws KettleException if a spilled partition can't be read
+   */
+  Object[] nextDeferred() throws KettleException {
+    try {
+      while (true) {
+        if (drainIn == null) {
+          while (drainPartition < PARTITIONS && rowFiles[drainPartition] == null) {
+            drainPartition++;
+          }
+          if (drainPartition == PARTITIONS) {
+            return null;
+          }
+          openDrain(drainPartition);
+        }
+        if (drainRemaining == 0) {
+          closeDrain(drainPartition++);
+          continue;
+        }
+        Object[] row = rowMeta.readData(drainIn);
+        drainRemaining--;
+        readKey(row);
+        if (add(drainSet)) {
+          return row;
+        }
+        duplicates++;
+      }
+    } catch (IOException e) {
+      throw new KettleException("couldn't read deduplication partition " + drainPartition, e);
+    }
+  }
+
+  private void openDrain(int p) throws IOException {
+    rowOuts[p].close();
+    rowOuts[p] = null;
+    drainSet = newSet();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(keyFiles[p]), FILE_BUFFER_SIZE))) {
+      drainSet.readFrom(in);
+    }
+    drainIn = new DataInputStream(new BufferedInputStream(new FileInputStream(rowFiles[p]), FILE_BUFFER_SIZE));
+    drainRemaining = deferredCounts[p];
+  }
+
+  private void closeDrain(int p) throws IOException {
+    drainIn.close();
+    drainIn = null;
+    drainSet = null;
+    delete(p);
+  }
+
+  private void delete(int p) {
+    if (keyFiles[p] != null && !keyFiles[p].delete()) {
+      log.logDebug("couldn't delete " + keyFiles[p]);
+    }
+    if (rowFiles[p] != null && !rowFiles[p].delete()) {
+      log.logDebug("couldn't delete " + rowFiles[p]);
+    }
+    keyFiles[p] = null;
+    rowFiles[p] = null;
+  }
+
+  boolean hasDeferred() {
+    return deferred > 0;
+  }
+
+  long getDuplicates() {
+    return duplicates;
+  }
+
+  long getDeferred() {
+    return deferred;
+  }
+
+  int getSpilledPartitions() {
+    return spilledPartitions;
+  }
+
+  /**
+   * Releases the key sets and deletes the spilled partitions, the off heap memory is freed with the buffers.
+   */
+  void close() {
+    for (int p = 0; p < PARTITIONS; p++) {
+      sets[p] = null;
+      try {
+        if (rowOuts[p] != null) {
+          rowOuts[p].close();
+          rowOuts[p] = null;
+        }
+      } catch (IOException e) {
+        log.logDebug("couldn't close " + rowFiles[p]);
+      }
+      delete(p);
+    }
+    try {
+      if (drainIn != null) {
+        drainIn.close();
+        drainIn = null;
+      }
+    } catch (IOException e) {
+      log.logDebug("couldn't close deduplication partition " + drainPartition);
+    }
+    drainSet = null;
+  }
+
+  /**
+   * Open addressing hash set in a direct buffer, which grows at three quarters full.
+   */
+  private abstract static class KeySet {
+
+    static final int INITIAL_CAPACITY = 256;
+
+    abstract int size();
+
+    abstract long getMemorySize();
+
+    abstract void writeTo(DataOutputStream out) throws IOException;
+
+    abstract void readFrom(DataInputStream in) throws IOException;
+  }
+
+  /**
+   * Set of longs, 0 marks a free slot, so 0 and null are kept as flags.
+   */
+  private static final class LongSet extends KeySet {
+
+    private ByteBuffer slots = ByteBuffer.allocateDirect(INITIAL_CAPACITY * 8);
+    private int mask = INITIAL_CAPACITY - 1;
+    private int size = 0;
+    private boolean zero = false;
+    private boolean nul = false;
+
+    boolean add(long value, boolean isNull, long hash) {
+      if (isNull || value == 0) {
+        boolean added = isNull ? !nul : !zero;
+        if (isNull) {
+          nul = true;
+        } else {
+          zero = true;
+        }
+        return added;
+      }
+      int slot = (int) hash & mask;
+      while (true) {
+        long stored = slots.getLong(slot * 8);
+        if (stored == 0) {
+          break;
+        }
+        if (stored == value) {
+          return false;
+        }
+        slot = (slot + 1) & mask;
+      }
+      slots.putLong(slot * 8, value);
+      if (++size * 4L > (mask + 1) * 3L) {
+        grow();
+      }
+      return true;
+    }
+
+    private void grow() {
+      int capacity = (mask + 1) * 2;
+      if (capacity > Integer.MAX_VALUE / 8) {
+        throw new IllegalStateException("a deduplication partition exceeds " + size + " keys");
+      }
+      ByteBuffer old = slots;
+      slots = ByteBuffer.allocateDirect(capacity * 8);
+      mask = capacity - 1;
+      for (int s = 0; s < old.capacity() / 8; s++) {
+        long value = old.getLong(s * 8);
+        if (value != 0) {
+          int slot = (int) KettleColumnStoreDelta.mix(value) & mask;
+          while (slots.getLong(slot * 8) != 0) {
+            slot = (slot + 1) & mask;
+          }
+          slots.putLong(slot * 8, value);
+        }
+      }
+    }
+
+    int size() {
+      return size + (zero ? 1 : 0) + (nul ? 1 : 0);
+    }
+
+    long getMemorySize() {
+      return slots.capacity();
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+      out.writeBoolean(zero);
+      out.writeBoolean(nul);
+      out.writeInt(size);
+      for (int s = 0; s <= mask; s++) {
+        long value = slots.getLong(s * 8);
+        if (value != 0) {
+          out.writeLong(value);
+        }
+      }
+    }
+
+    void readFrom(DataInputStream in) throws IOException {
+      zero = in.readBoolean();
+      nul = in.readBoolean();
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        long value = in.readLong();
+        add(value, false, KettleColumnStoreDelta.mix(value));
+      }
+    }
+  }
+
+  /**
+   * Set of byte array keys. Each slot holds the hash of the key and its offset in the key arena plus
+   * one, 0 for a free slot. The arena holds each key as length and bytes.
+   */
+  private static final class BytesSet extends KeySet {
+
+    private static final int SLOT_SIZE = 16;
+
+    private ByteBuffer slots = ByteBuffer.allocateDirect(INITIAL_CAPACITY * SLOT_SIZE);
+    private int mask = INITIAL_CAPACITY - 1;
+    private int size = 0;
+    private ByteBuffer arena = ByteBuffer.allocateDirect(INITIAL_CAPACITY * 16);
+
+    boolean add(byte[] key, long hash) {
+      int slot = (int) hash & mask;
+      while (true) {
+        int position = slot * SLOT_SIZE;
+        long reference = slots.getLong(position + 8);
+        if (reference == 0) {
+          break;
+        }
+        if (slots.getLong(position) == hash && keyEquals((int) reference - 1, key)) {
+          return false;
+        }
+        slot = (slot + 1) & mask;
+      }
+      int offset = arena.position();
+      if (arena.remaining() < key.length + 4) {
+        long needed = (long) offset + key.length + 4;
+        if (needed > Integer.MAX_VALUE - 1) {
+          throw new IllegalStateException("the keys of a deduplication partition exceed 2GB");
+        }
+        ByteBuffer grown = ByteBuffer.allocateDirect((int) Math.min(Math.max(needed, arena.capacity() * 2L), Integer.MAX_VALUE - 1));
+        arena.flip();
+        grown.put(arena);
+        arena = grown;
+      }
+      arena.putInt(key.length);
+      arena.put(key);
+      slots.putLong(slot * SLOT_SIZE, hash);
+      slots.putLong(slot * SLOT_SIZE + 8, offset + 1L);
+      if (++size * 4L > (mask + 1) * 3L) {
+        grow();
+      }
+      return true;
+    }
+
+    private boolean keyEquals(int offset, byte[] key) {
+      if (arena.getInt(offset) != key.length) {
+        return false;
+      }
+      for (int i = 0; i < key.length; i++) {
+        if (arena.get(offset + 4 + i) != key[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void grow() {
+      int capacity = (mask + 1) * 2;
+      if (capacity > Integer.MAX_VALUE / SLOT_SIZE) {
+        throw new IllegalStateException("a deduplication partition exceeds " + size + " keys");
+      }
+      ByteBuffer old = slots;
+      slots = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+      mask = capacity - 1;
+      for (int s = 0; s < old.capacity() / SLOT_SIZE; s++) {
+        long reference = old.getLong(s * SLOT_SIZE + 8);
+        if (reference != 0) {
+          long hash = old.getLong(s * SLOT_SIZE);
+          int slot = (int) hash & mask;
+          while (slots.getLong(slot * SLOT_SIZE + 8) != 0) {
+            slot = (slot + 1) & mask;
+          }
+          slots.putLong(slot * SLOT_SIZE, hash);
+          slots.putLong(slot * SLOT_SIZE + 8, reference);
+        }
+      }
+    }
+
+    int size() {
+      return size;
+    }
+
+    long getMemorySize() {
+      return (long) slots.capacity() + arena.capacity();
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+      out.writeInt(size);
+      for (int s = 0; s <= mask; s++) {
+        long reference = slots.getLong(s * SLOT_SIZE + 8);
+        if (reference != 0) {
+          int offset = (int) reference - 1;
+          int length = arena.getInt(offset);
+          out.writeLong(slots.getLong(s * SLOT_SIZE));
+          out.writeInt(length);
+          for (int i = 0; i < length; i++) {
+            out.write(arena.get(offset + 4 + i));
+          }
+        }
+      }
+    }
+
+    void readFrom(DataInputStream in) throws IOException {
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        long hash = in.readLong();
+        byte[] key = new byte[in.readInt()];
+        in.readFully(key);
+        add(key, hash);
+      }
+    }
+  }
+}
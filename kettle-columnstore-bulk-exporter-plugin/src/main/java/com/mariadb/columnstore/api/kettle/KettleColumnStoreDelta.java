@@ -0,0 +1,487 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Detects the rows that are new or changed since the previous load, so that only they are written.
+ *
+ * The snapshot of the previous load maps the key of each row to a 64 bit hash of its values. It is
+ * read from a file with the first row and kept off heap, so that tens of millions of keys don't burden
+ * the garbage collector. Each row is looked up by the KettleColumnStoreRowKey of its key fields: it is
+ * new if its key isn't in the snapshot, and changed if the hash of its value fields differs. The
+ * snapshot is updated and its key marked as seen. Keys of the snapshot that weren't seen by the load
+ * are the deleted rows. save() writes the seen keys as the snapshot of the next load.
+ *
+ * The snapshot file starts with the key and value fields it was built from, a snapshot of other fields
+ * is ignored and all rows are new then.
+ */
+class KettleColumnStoreDelta {
+
+  private static final int MAGIC = 0x4B435344;
+  private static final int FILE_BUFFER_SIZE = 64 * 1024;
+
+  private final KettleColumnStoreRowKey key;
+  private final String[] valueFieldNames;
+  private final File snapshot;
+  private final LogChannelInterface log;
+
+  private KettleColumnStoreRowKey values;
+  private String signature;
+  private HashStore store;
+
+  private long newRows = 0;
+  private long changedRows = 0;
+  private long unchangedRows = 0;
+
+  /**
+   * Constructor
+   * @param keyFields comma separated names of the input fields identifying a row
+   * @param valueFields comma separated names of the input fields compared between loads, empty for all other fields
+   * @param snapshot file holding the snapshot between loads
+   * @param log log channel of the step
+   * @throws KettleException if no key fields are set
+   */
+  KettleColumnStoreDelta(String keyFields, String valueFields, File snapshot, LogChannelInterface log) throws KettleException {
+    this.key = new KettleColumnStoreRowKey(KettleColumnStoreRowKey.split(keyFields));
+    if (key.getFields().length == 0) {
+      throw new KettleException("delta mode needs key fields");
+    }
+    this.valueFieldNames = KettleColumnStoreRowKey.split(valueFields);
+    this.snapshot = snapshot;
+    this.log = log;
+  }
+
+  int getKeyFieldCount() {
+    return key.getFields().length;
+  }
+
+  File getSnapshot() {
+    return snapshot;
+  }
+
+  /**
+   * Looks up the key and value fields in the input rows and reads the snapshot of the previous load.
+   * @param rowMeta layout of the input rows
+   * @throws KettleException if a field doesn't exist or the snapshot can't be read
+   */
+  void setRowMeta(RowMetaInterface rowMeta) throws KettleException {
+    key.setRowMeta(rowMeta, "delta key field");
+    String[] valueFields = valueFieldNames;
+    if (valueFields.length == 0) {
+      // all fields but the key fields
+      List<String> others = new ArrayList<>(Arrays.asList(rowMeta.getFieldNames()));
+      others.removeAll(Arrays.asList(key.getFields()));
+      valueFields = others.toArray(new String[0]);
+    }
+    values = new KettleColumnStoreRowKey(valueFields);
+    values.setRowMeta(rowMeta, "delta value field");
+    signature = Arrays.toString(key.getFields()) + Arrays.toString(valueFields);
+    store = new HashStore(1024);
+    if (snapshot.exists()) {
+      try {
+        load();
+      } catch (IOException e) {
+        throw new KettleException("couldn't read the delta snapshot " + snapshot, e);
+      }
+    } else {
+      log.logBasic("No delta snapshot " + snapshot + " yet, all rows are new");
+    }
+  }
+
+  private void load() throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot), FILE_BUFFER_SIZE))) {
+      if (in.readInt() != MAGIC || !signature.equals(in.readUTF())) {
+        log.logBasic("The delta snapshot " + snapshot + " was built from other fields, all rows are new");
+        return;
+      }
+      long count = in.readLong();
+      store = new HashStore((int) Math.min(count, Integer.MAX_VALUE / 2));
+      byte[] bytes = new byte[256];
+      for (long i = 0; i < count; i++) {
+        int length = in.readInt();
+        if (bytes.length < length) {
+          bytes = new byte[Math.max(length, bytes.length * 2)];
+        }
+        in.readFully(bytes, 0, length);
+        store.load(bytes, length, in.readLong());
+      }
+    }
+    if (log.isDetailed()) {
+      log.logDetailed("Read " + store.size() + " keys from the delta snapshot " + snapshot + ", "
+              + store.getMemorySize() / 1024 + "KB off heap");
+    }
+  }
+
+  /**
+   * Checks if a row is new or changed and updates the snapshot.
+   * @param row input row
+   * @return true if the row has to be written
+   * @throws KettleException if a value can't be converted
+   */
+  boolean isChanged(Object[] row) throws KettleException {
+    byte[] keyBytes = key.encode(row).getBytes(StandardCharsets.UTF_8);
+    switch (store.update(keyBytes, hash(values.encode(row)))) {
+      case HashStore.NEW:
+        newRows++;
+        return true;
+      case HashStore.CHANGED:
+        changedRows++;
+        return true;
+      default:
+        unchangedRows++;
+        return false;
+    }
+  }
+
+  /**
+   * Writes the key values of the rows that weren't seen by this load into a sink.
+   * @param sink sink to write into, its columns are the key fields
+   * @throws KettleException if the sink failed
+   */
+  void writeDeleted(KettleColumnStoreRowSink sink) throws KettleException {
+    if (store == null) {
+      return;
+    }
+    String[] keyValues = new String[key.getFields().length];
+    HashStore.Cursor cursor = store.cursor();
+    while (cursor.next()) {
+      if (cursor.isSeen()) {
+        continue;
+      }
+      KettleColumnStoreRowKey.decode(new String(cursor.getKey(), StandardCharsets.UTF_8), keyValues);
+      for (int k = 0; k < keyValues.length; k++) {
+        if (keyValues[k] == null) {
+          sink.setNull(k);
+        } else {
+          sink.setColumn(k, keyValues[k]);
+        }
+      }
+      sink.writeRow();
+    }
+  }
+
+  /**
+   * Replaces the snapshot file by the keys seen by this load. A load without input rows leaves it unchanged.
+   * @throws KettleException if the snapshot can't be written
+   */
+  void save() throws KettleException {
+    if (store == null) {
+      return;
+    }
+    File parent = snapshot.getAbsoluteFile().getParentFile();
+    File temp;
+    try {
+      if (!parent.isDirectory() && !parent.mkdirs()) {
+        throw new IOException("couldn't create directory " + parent);
+      }
+      temp = File.createTempFile(snapshot.getName(), ".tmp", parent);
+    } catch (IOException e) {
+      throw new KettleException("couldn't create the delta snapshot " + snapshot, e);
+    }
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), FILE_BUFFER_SIZE))) {
+        out.writeInt(MAGIC);
+        out.writeUTF(signature);
+        out.writeLong(store.getSeen());
+        HashStore.Cursor cursor = store.cursor();
+        while (cursor.next()) {
+          if (cursor.isSeen()) {
+            byte[] keyBytes = cursor.getKey();
+            out.writeInt(keyBytes.length);
+            out.write(keyBytes);
+            out.writeLong(cursor.getValueHash());
+          }
+        }
+      }
+      // replace the snapshot at once, a crash keeps the previous one
+      Files.move(temp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      if (!temp.delete()) {
+        log.logDebug("couldn't delete " + temp);
+      }
+      throw new KettleException("couldn't write the delta snapshot " + snapshot, e);
+    }
+  }
+
+  long getNewRows() {
+    return newRows;
+  }
+
+  long getChangedRows() {
+    return changedRows;
+  }
+
+  long getUnchangedRows() {
+    return unchangedRows;
+  }
+
+  /**
+   * Returns the number of keys of the previous load that weren't seen by this load.
+   * @return number of deleted rows
+   */
+  long getDeletedRows() {
+    return store != null ? store.size() - store.getSeen() : 0;
+  }
+
+  /**
+   * Releases the snapshot, the off heap memory is freed with the buffers.
+   */
+  void close() {
+    store = null;
+  }
+
+  /**
+   * 64 bit FNV-1a hash with the finalizer of MurmurHash3, so that all bits depend on all characters.
+   */
+  static long hash(CharSequence s) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < s.length(); i++) {
+      h = (h ^ s.charAt(i)) * 0x100000001b3L;
+    }
+    return mix(h);
+  }
+
+  static long hash(byte[] bytes, int length) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < length; i++) {
+      h = (h ^ (bytes[i] & 0xFF)) * 0x100000001b3L;
+    }
+    return mix(h);
+  }
+
+  static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /**
+   * Open addressing hash map from keys to value hashes in direct buffers. Each slot holds the hash of
+   * the key, the value hash and the reference of the key, which is its offset in the key arena plus
+   * one, 0 for a free slot, and the seen flag. The arena holds each key as length and UTF-8 bytes. Keys
+   * are compared by their bytes, the key hash only selects the slot. The table grows at half full.
+   */
+  private static final class HashStore {
+
+    static final int UNCHANGED = 0;
+    static final int NEW = 1;
+    static final int CHANGED = 2;
+
+    private static final int SLOT_SIZE = 24;
+    private static final long SEEN = 1L << 62;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE / SLOT_SIZE;
+
+    private ByteBuffer slots;
+    private int mask;
+    private int size = 0;
+    private int seen = 0;
+    private ByteBuffer arena;
+
+    HashStore(int expected) {
+      int capacity = 16;
+      while (capacity < expected * 2L && capacity < MAX_CAPACITY / 2) {
+        capacity <<= 1;
+      }
+      slots = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+      mask = capacity - 1;
+      arena = ByteBuffer.allocateDirect((int) Math.min(Math.max(expected, 1024) * 16L, 1 << 30));
+    }
+
+    int size() {
+      return size;
+    }
+
+    int getSeen() {
+      return seen;
+    }
+
+    long getMemorySize() {
+      return (long) slots.capacity() + arena.capacity();
+    }
+
+    /**
+     * Adds a key of the snapshot file, not seen yet.
+     */
+    void load(byte[] key, int length, long valueHash) {
+      long keyHash = hash(key, length);
+      int slot = find(key, length, keyHash);
+      if (slot < 0) {
+        insert(-slot - 1, key, length, keyHash, valueHash, 0);
+      }
+    }
+
+    /**
+     * Sets the value hash of a key and marks it as seen.
+     * @return NEW, CHANGED or UNCHANGED
+     */
+    int update(byte[] key, long valueHash) {
+      long keyHash = hash(key, key.length);
+      int slot = find(key, key.length, keyHash);
+      if (slot < 0) {
+        insert(-slot - 1, key, key.length, keyHash, valueHash, SEEN);
+        seen++;
+        return NEW;
+      }
+      int position = slot * SLOT_SIZE;
+      long reference = slots.getLong(position + 16);
+      if ((reference & SEEN) == 0) {
+        slots.putLong(position + 16, reference | SEEN);
+        seen++;
+      }
+      if (slots.getLong(position + 8) == valueHash) {
+        return UNCHANGED;
+      }
+      slots.putLong(position + 8, valueHash);
+      return CHANGED;
+    }
+
+    /**
+     * Returns the slot of a key, or -(free slot)-1 if it isn't in the map.
+     */
+    private int find(byte[] key, int length, long keyHash) {
+      int slot = (int) keyHash & mask;
+      while (true) {
+        int position = slot * SLOT_SIZE;
+        long reference = slots.getLong(position + 16);
+        if (reference == 0) {
+          return -slot - 1;
+        }
+        if (slots.getLong(position) == keyHash && keyEquals((int) (reference & ~SEEN) - 1, key, length)) {
+          return slot;
+        }
+        slot = (slot + 1) & mask;
+      }
+    }
+
+    private boolean keyEquals(int offset, byte[] key, int length) {
+      if (arena.getInt(offset) != length) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (arena.get(offset + 4 + i) != key[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void insert(int slot, byte[] key, int length, long keyHash, long valueHash, long seen) {
+      int offset = arena.position();
+      if (arena.remaining() < length + 4) {
+        long needed = (long) offset + length + 4;
+        if (needed > Integer.MAX_VALUE - 1) {
+          throw new IllegalStateException("the keys of the delta snapshot exceed 2GB");
+        }
+        ByteBuffer grown = ByteBuffer.allocateDirect((int) Math.min(Math.max(needed, arena.capacity() * 2L), Integer.MAX_VALUE - 1));
+        arena.flip();
+        grown.put(arena);
+        arena = grown;
+      }
+      arena.putInt(length);
+      arena.put(key, 0, length);
+      int position = slot * SLOT_SIZE;
+      slots.putLong(position, keyHash);
+      slots.putLong(position + 8, valueHash);
+      slots.putLong(position + 16, (offset + 1L) | seen);
+      if (++size * 2 > mask + 1) {
+        grow();
+      }
+    }
+
+    private void grow() {
+      int capacity = (mask + 1) * 2;
+      if (capacity > MAX_CAPACITY) {
+        throw new IllegalStateException("the delta snapshot exceeds " + MAX_CAPACITY / 2 + " keys");
+      }
+      ByteBuffer old = slots;
+      int oldCapacity = mask + 1;
+      slots = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+      mask = capacity - 1;
+      for (int s = 0; s < oldCapacity; s++) {
+        int position = s * SLOT_SIZE;
+        long reference = old.getLong(position + 16);
+        if (reference != 0) {
+          long keyHash = old.getLong(position);
+          int slot = (int) keyHash & mask;
+          while (slots.getLong(slot * SLOT_SIZE + 16) != 0) {
+            slot = (slot + 1) & mask;
+          }
+          slots.putLong(slot * SLOT_SIZE, keyHash);
+          slots.putLong(slot * SLOT_SIZE + 8, old.getLong(position + 8));
+          slots.putLong(slot * SLOT_SIZE + 16, reference);
+        }
+      }
+    }
+
+    Cursor cursor() {
+      return new Cursor();
+    }
+
+    /**
+     * Iterates over the used slots.
+     */
+    final class Cursor {
+      private int slot = -1;
+
+      boolean next() {
+        while (++slot <= mask) {
+          if (slots.getLong(slot * SLOT_SIZE + 16) != 0) {
+            return true;
+          }
+        }
+        return false;
+      }
+
+      boolean isSeen() {
+        return (slots.getLong(slot * SLOT_SIZE + 16) & SEEN) != 0;
+      }
+
+      long getValueHash() {
+        return slots.getLong(slot * SLOT_SIZE + 8);
+      }
+
+      byte[] getKey() {
+        int offset = (int) (slots.getLong(slot * SLOT_SIZE + 16) & ~SEEN) - 1;
+        byte[] key = new byte[arena.getInt(offset)];
+        for (int i = 0; i < key.length; i++) {
+          key[i] = arena.get(offset + 4 + i);
+        }
+        return key;
+      }
+    }
+  }
+}
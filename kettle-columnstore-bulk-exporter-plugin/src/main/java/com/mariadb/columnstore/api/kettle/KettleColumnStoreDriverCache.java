@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import com.mariadb.columnstore.api.ColumnStoreDriver;
+import com.mariadb.columnstore.api.ColumnStoreException;
+import com.mariadb.columnstore.api.ColumnStoreSystemCatalog;
+import com.mariadb.columnstore.api.ColumnStoreSystemCatalogTable;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps ColumnStoreDrivers and their system catalogs across step initializations, per JVM.
+ *
+ * Creating a driver parses Columnstore.xml and reading the system catalog downloads the catalog of
+ * all tables, which dominates the start of short transformations run in a loop. Drivers are pooled
+ * by their resolved configuration path and handed out as exclusive leases, mcsapi doesn't allow
+ * to use a driver from several threads, so concurrent transformations never share one. The system
+ * catalog is kept by the lease and read again once it is older than the TTL, or after
+ * invalidateCatalogs() was called because tables were created, altered or dropped.
+ *
+ * The catalog is owned by the driver and replaced on every read, therefore it must only be read
+ * through the lease, never through the driver directly.
+ */
+class KettleColumnStoreDriverCache {
+
+  /**
+   * Kettle variable holding the number of seconds a cached system catalog is used, 0 reads the catalog on every lease.
+   */
+  static final String CATALOG_TTL_VARIABLE = "KETTLE_COLUMNSTORE_CATALOG_TTL";
+  static final long DEFAULT_CATALOG_TTL = 60;
+
+  // idle drivers kept per configuration, more are deleted when released
+  private static final int MAX_IDLE_DRIVERS = 4;
+
+  private static final Map<String, Deque<CachedDriver>> IDLE = new HashMap<>();
+  private static long generation = 0;
+
+  /**
+   * An exclusively leased driver with its cached system catalog.
+   */
+  static class CachedDriver {
+    private final String configPath;
+    private final long configModified;
+    private final ColumnStoreDriver driver;
+    private long catalogTtl;
+
+    private ColumnStoreSystemCatalog catalog;
+    private long catalogLoaded;
+    private long catalogGeneration;
+    private final Map<String, ColumnStoreSystemCatalogTable> tables = new HashMap<>();
+
+    private CachedDriver(String configPath, long configModified, ColumnStoreDriver driver) {
+      this.configPath = configPath;
+      this.configModified = configModified;
+      this.driver = driver;
+    }
+
+    ColumnStoreDriver getDriver() {
+      return driver;
+    }
+
+    /**
+     * Returns the system catalog, reading it again if it expired or was invalidated.
+     * @return the system catalog
+     * @throws ColumnStoreException if the catalog couldn't be read
+     */
+    ColumnStoreSystemCatalog getSystemCatalog() {
+      if (catalog == null || System.nanoTime() - catalogLoaded > catalogTtl || catalogGeneration != currentGeneration()) {
+        return refreshSystemCatalog();
+      }
+      return catalog;
+    }
+
+    /**
+     * Reads the system catalog from ColumnStore, regardless of the cached one.
+     * @return the system catalog
+     * @throws ColumnStoreException if the catalog couldn't be read
+     */
+    ColumnStoreSystemCatalog refreshSystemCatalog() {
+      long readGeneration = currentGeneration();
+      catalog = null;
+      tables.clear();
+      catalog = driver.getSystemCatalog();
+      catalogLoaded = System.nanoTime();
+      catalogGeneration = readGeneration;
+      return catalog;
+    }
+
+    /**
+     * Looks up a table in the cached system catalog. If the table isn't in a cached catalog, the
+     * catalog is read again once, the table might have been created after it was read.
+     * Reading the catalog frees the tables returned before, so a returned table is only valid until
+     * the next lookup through the lease; callers copy what they keep, see KettleColumnStoreTableSchema.
+     * @param database database name
+     * @param table table name
+     * @return the catalog table
+     * @throws ColumnStoreException if the catalog couldn't be read or the table doesn't exist
+     */
+    ColumnStoreSystemCatalogTable getTable(String database, String table) {
+      long loaded = catalogLoaded;
+      ColumnStoreSystemCatalog current = getSystemCatalog();
+      String key = database + "." + table;
+      ColumnStoreSystemCatalogTable catalogTable = tables.get(key);
+      if (catalogTable == null) {
+        try {
+          catalogTable = current.getTable(database, table);
+        } catch (ColumnStoreException e) {
+          if (catalogLoaded != loaded) {
+            throw e;
+          }
+          catalogTable = refreshSystemCatalog().getTable(database, table);
+        }
+        tables.put(key, catalogTable);
+      }
+      return catalogTable;
+    }
+  }
+
+  private KettleColumnStoreDriverCache() {
+  }
+
+  /**
+   * Leases a driver for a configuration file, reusing an idle one if possible.
+   * @param configPath resolved path of Columnstore.xml, null or empty for the default configuration
+   * @param catalogTtl number of seconds the system catalog of the lease is used before it is read again
+   * @return the leased driver
+   * @throws ColumnStoreException if a new driver couldn't be created
+   */
+  static CachedDriver acquire(String configPath, long catalogTtl) {
+    String key = configPath == null ? "" : configPath;
+    long modified = key.isEmpty() ? 0 : new File(key).lastModified();
+    CachedDriver lease = null;
+    synchronized (IDLE) {
+      Deque<CachedDriver> idle = IDLE.get(key);
+      if (idle != null) {
+        // drivers read an older version of the configuration are of no use anymore
+        if (idle.peekFirst() != null && idle.peekFirst().configModified != modified) {
+          deleteAll(idle);
+        }
+        lease = idle.pollFirst();
+      }
+    }
+    if (lease == null) {
+      ColumnStoreDriver driver = key.isEmpty() ? new ColumnStoreDriver() : new ColumnStoreDriver(key);
+      lease = new CachedDriver(key, modified, driver);
+    }
+    lease.catalogTtl = TimeUnit.SECONDS.toNanos(Math.max(catalogTtl, 0));
+    return lease;
+  }
+
+  /**
+   * Returns a leased driver to the cache.
+   * @param lease the leased driver, may be null
+   * @param reusable false if the driver failed and shouldn't be handed out again
+   */
+  static void release(CachedDriver lease, boolean reusable) {
+    if (lease == null) {
+      return;
+    }
+    if (reusable) {
+      try {
+        lease.driver.setDebug((short) 0);
+      } catch (ColumnStoreException e) {
+        reusable = false;
+      }
+    }
+    if (reusable) {
+      synchronized (IDLE) {
+        Deque<CachedDriver> idle = IDLE.get(lease.configPath);
+        if (idle == null) {
+          idle = new ArrayDeque<>();
+          IDLE.put(lease.configPath, idle);
+        }
+        if (idle.size() < MAX_IDLE_DRIVERS) {
+          // the most recently used driver is handed out first, it most likely has a current catalog
+          idle.addFirst(lease);
+          return;
+        }
+      }
+    }
+    lease.driver.delete();
+  }
+
+  /**
+   * Marks all cached system catalogs as outdated, to be called after DDL statements. Leased drivers
+   * read the catalog again with their next lookup. Idle drivers are deleted, a driver that read the
+   * catalog before might not see the changes (MCOL-1218).
+   */
+  static void invalidateCatalogs() {
+    synchronized (IDLE) {
+      generation++;
+      for (Iterator<Deque<CachedDriver>> it = IDLE.values().iterator(); it.hasNext(); ) {
+        deleteAll(it.next());
+        it.remove();
+      }
+    }
+  }
+
+  private static long currentGeneration() {
+    synchronized (IDLE) {
+      return generation;
+    }
+  }
+
+  private static void deleteAll(Deque<CachedDriver> drivers) {
+    CachedDriver cached;
+    while ((cached = drivers.pollFirst()) != null) {
+      cached.driver.delete();
+    }
+  }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import com.mariadb.columnstore.api.ColumnStoreException;
+import com.mariadb.columnstore.api.ColumnStoreSystemCatalogTable;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.row.RowDataUtil;
+import org.pentaho.di.i18n.BaseMessages;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.BaseStep;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaInterface;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+/**
+ *
+ * This class is the implementation of StepInterface of the surrogate key lookup step.
+ *
+ * The natural and surrogate keys of the dimension table are read once in init(), with one streamed
+ * SELECT over the JDBC connection, into a KettleColumnStoreKeyMap. Rows are then looked up in memory
+ * without a round trip per row. Numeric natural key columns are looked up by the Integer value of
+ * the key field, all other columns by its String value.
+ *
+ * If new keys are assigned, a natural key that isn't in the map gets the largest surrogate key read
+ * so far plus one, and is inserted into the dimension table through a mcsapi bulk insert, which is
+ * committed when the step finishes without errors. The other columns of the new rows are null.
+ *
+ */
+public class KettleColumnStoreKeyLookupStep extends BaseStep implements StepInterface {
+
+  private static final Class<?> PKG = KettleColumnStoreKeyLookupStepMeta.class; // for i18n purposes
+
+  // initial capacity of the key map, it grows with the keys read
+  private static final int EXPECTED_KEYS = 1024;
+
+  /**
+   * The constructor should simply pass on its arguments to the parent class.
+   *
+   * @param s                 step description
+   * @param stepDataInterface step data class
+   * @param c                 step copy
+   * @param t                 transformation description
+   * @param dis               transformation executing
+   */
+  public KettleColumnStoreKeyLookupStep( StepMeta s, StepDataInterface stepDataInterface, int c, TransMeta t, Trans dis ) {
+    super( s, stepDataInterface, c, t, dis );
+  }
+
+  /**
+   * Reads the keys of the dimension table and, if new keys are assigned, leases a ColumnStoreDriver for them.
+   *
+   * @param smi  step meta interface implementation, containing the step settings
+   * @param sdi  step data interface implementation, used to store runtime information
+   *
+   * @return true if initialization completed successfully, false if there was an error preventing the step from working.
+   */
+  public boolean init( StepMetaInterface smi, StepDataInterface sdi ){
+    KettleColumnStoreKeyLookupStepMeta meta = (KettleColumnStoreKeyLookupStepMeta) smi;
+    KettleColumnStoreKeyLookupStepData data = (KettleColumnStoreKeyLookupStepData) sdi;
+    if ( !super.init( meta, data ) ) {
+      return false;
+    }
+
+    if(meta.getDatabaseMeta() == null){
+        logError("The surrogate key lookup needs a JDBC connection to read the dimension table");
+        setErrors(1);
+        return false;
+    }
+    if(meta.isAssignNewKeys() && getStepMeta().getCopies() > 1){
+        logError("Assigning new keys needs a single copy of the step, the copies would assign the same keys");
+        setErrors(1);
+        return false;
+    }
+
+    data.database = environmentSubstitute(meta.getTargetDatabase());
+    data.table = environmentSubstitute(meta.getTargetTable());
+    String naturalKeyColumn = environmentSubstitute(meta.getNaturalKeyColumn());
+    String surrogateKeyColumn = environmentSubstitute(meta.getSurrogateKeyColumn());
+
+    // Read all keys with one streamed query
+    long start = System.nanoTime();
+    MariaDBColumnStoreDatabase db = new MariaDBColumnStoreDatabase(this, meta.getDatabaseMeta());
+    db.shareVariablesWith(this);
+    try {
+        db.connect();
+        loadKeys(db, meta.getDatabaseMeta(), naturalKeyColumn, surrogateKeyColumn, data);
+    }catch(KettleException | SQLException e){
+        logError("Couldn't read the keys of " + data.database + "." + data.table, e);
+        setErrors(1);
+        return false;
+    }finally{
+        db.disconnect();
+    }
+    long size = data.longKeys != null ? data.longKeys.size() : data.stringKeys.size();
+    long memory = data.longKeys != null ? data.longKeys.getMemorySize() : data.stringKeys.getMemorySize();
+    logBasic("Read " + size + " keys of " + data.database + "." + data.table + " in " + (System.nanoTime() - start) / 1000000
+            + " ms, the key cache uses " + memory / 1024 + " KB");
+
+    // Prepare the bulk insert of new keys, it is only opened with the first new key
+    if(meta.isAssignNewKeys()){
+        data.driverLease = meta.acquireColumnStoreDriver(getTransMeta());
+        if(data.driverLease == null){
+            logError("The ColumnStoreDriver couldn't be instantiated.");
+            setErrors(1);
+            return false;
+        }
+        try {
+            ColumnStoreSystemCatalogTable catalogTable = data.driverLease.getTable(data.database, data.table);
+            data.columnCount = catalogTable.getColumnCount();
+            data.naturalKeyColumn = -1;
+            data.surrogateKeyColumn = -1;
+            for(int c = 0; c < data.columnCount; c++){
+                String column = catalogTable.getColumn(c).getColumnName();
+                if(column.equalsIgnoreCase(naturalKeyColumn)){
+                    data.naturalKeyColumn = c;
+                }
+                if(column.equalsIgnoreCase(surrogateKeyColumn)){
+                    data.surrogateKeyColumn = c;
+                }
+            }
+        }catch(ColumnStoreException e){
+            logError("Dimension table " + data.database + "." + data.table + " isn't a ColumnStore table.", e);
+            setErrors(1);
+            return false;
+        }
+        data.loader = new KettleColumnStoreBulkLoader(data.driverLease.getDriver(), data.database, data.table, 0, 0, log);
+    }
+    return true;
+  }
+
+  /**
+   * Streams the natural and surrogate keys of the dimension table into the key map.
+   */
+  private void loadKeys(MariaDBColumnStoreDatabase db, DatabaseMeta databaseMeta, String naturalKeyColumn, String surrogateKeyColumn,
+                        KettleColumnStoreKeyLookupStepData data) throws SQLException {
+    String sql = "SELECT " + databaseMeta.quoteField(naturalKeyColumn) + ", " + databaseMeta.quoteField(surrogateKeyColumn)
+            + " FROM " + databaseMeta.getQuotedSchemaTableCombination(data.database, data.table);
+    try (Statement statement = db.getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+        // the MariaDB and MySQL drivers stream the rows instead of reading the whole result set
+        statement.setFetchSize(Integer.MIN_VALUE);
+        try (ResultSet rs = statement.executeQuery(sql)) {
+            switch (rs.getMetaData().getColumnType(1)) {
+                case Types.BIGINT:
+                case Types.INTEGER:
+                case Types.SMALLINT:
+                case Types.TINYINT:
+                    data.longKeys = new KettleColumnStoreKeyMap.Longs(EXPECTED_KEYS);
+                    break;
+                default:
+                    data.stringKeys = new KettleColumnStoreKeyMap.Strings(EXPECTED_KEYS);
+            }
+            while (rs.next()) {
+                long surrogateKey = rs.getLong(2);
+                if (rs.wasNull() || surrogateKey == KettleColumnStoreKeyMap.MISSING) {
+                    continue;
+                }
+                if (data.longKeys != null) {
+                    long naturalKey = rs.getLong(1);
+                    if (!rs.wasNull()) {
+                        data.longKeys.put(naturalKey, surrogateKey);
+                    }
+                } else {
+                    String naturalKey = rs.getString(1);
+                    if (naturalKey != null) {
+                        data.stringKeys.put(naturalKey, surrogateKey);
+                    }
+                }
+                data.maxKey = Math.max(data.maxKey, surrogateKey);
+            }
+        }
+    }
+  }
+
+  /**
+   * Looks up the surrogate key of the key field and appends it to the row, null if the natural key is null or unknown.
+   *
+   * @param smi the step meta interface containing the step settings
+   * @param sdi the step data interface that should be used to store
+   *
+   * @return true to indicate that the function should be called again, false if the step is done
+   */
+  public boolean processRow( StepMetaInterface smi, StepDataInterface sdi ) throws KettleException {
+    KettleColumnStoreKeyLookupStepMeta meta = (KettleColumnStoreKeyLookupStepMeta) smi;
+    KettleColumnStoreKeyLookupStepData data = (KettleColumnStoreKeyLookupStepData) sdi;
+
+    Object[] r = getRow();
+    if ( r == null ) {
+      setOutputDone();
+      return false;
+    }
+
+    if ( first ) {
+      first = false;
+      data.outputRowMeta = getInputRowMeta().clone();
+      meta.getFields( data.outputRowMeta, getStepname(), null, null, this, repository, metaStore );
+      data.keyIndex = getInputRowMeta().indexOfValue( environmentSubstitute( meta.getKeyField() ) );
+      if ( data.keyIndex < 0 ) {
+        throw new KettleStepException( "Key field " + meta.getKeyField() + " not found in the input rows" );
+      }
+      data.keyMeta = getInputRowMeta().getValueMeta( data.keyIndex );
+      data.inputSize = getInputRowMeta().size();
+    }
+
+    Object value = r[data.keyIndex];
+    Long surrogateKey = null;
+    if ( data.keyMeta.isNull( value ) ) {
+      data.nulls++;
+    } else if ( data.longKeys != null ) {
+      long naturalKey = data.keyMeta.getInteger( value );
+      long key = data.longKeys.get( naturalKey );
+      if ( key != KettleColumnStoreKeyMap.MISSING ) {
+        data.hits++;
+        surrogateKey = key;
+      } else {
+        data.misses++;
+        if ( data.loader != null ) {
+          key = assignKey( data );
+          data.longKeys.put( naturalKey, key );
+          data.loader.setColumn( data.naturalKeyColumn, naturalKey );
+          writeNewKey( data, key );
+          surrogateKey = key;
+        }
+      }
+    } else {
+      String naturalKey = data.keyMeta.getString( value );
+      long key = data.stringKeys.get( naturalKey );
+      if ( key != KettleColumnStoreKeyMap.MISSING ) {
+        data.hits++;
+        surrogateKey = key;
+      } else {
+        data.misses++;
+        if ( data.loader != null ) {
+          key = assignKey( data );
+          data.stringKeys.put( naturalKey, key );
+          data.loader.setColumn( data.naturalKeyColumn, naturalKey );
+          writeNewKey( data, key );
+          surrogateKey = key;
+        }
+      }
+    }
+
+    Object[] out = RowDataUtil.resizeArray( r, data.outputRowMeta.size() );
+    out[data.inputSize] = surrogateKey;
+    putRow( data.outputRowMeta, out );
+
+    if ( checkFeedback( getLinesRead() ) ) {
+      logBasic( BaseMessages.getString( PKG, "KettleColumnStoreKeyLookupPlugin.Linenr", getLinesRead() ) );
+    }
+    return true;
+  }
+
+  private long assignKey( KettleColumnStoreKeyLookupStepData data ) throws KettleException {
+    if ( data.naturalKeyColumn < 0 || data.surrogateKeyColumn < 0 ) {
+      throw new KettleStepException( "The key columns aren't columns of " + data.database + "." + data.table );
+    }
+    return ++data.maxKey;
+  }
+
+  /**
+   * Writes the row of a new key into the bulk insert, the natural key is already set.
+   */
+  private void writeNewKey( KettleColumnStoreKeyLookupStepData data, long key ) throws KettleException {
+    try {
+      for ( int c = 0; c < data.columnCount; c++ ) {
+        if ( c == data.surrogateKeyColumn ) {
+          data.loader.setColumn( c, key );
+        } else if ( c != data.naturalKeyColumn ) {
+          data.loader.setNull( c );
+        }
+      }
+      data.loader.writeRow();
+      data.assigned++;
+    } catch ( ColumnStoreException e ) {
+      throw new KettleStepException( "Couldn't insert the new key " + key + " into " + data.database + "." + data.table, e );
+    }
+  }
+
+  /**
+   * Commits the new keys if the step finished without errors, otherwise rolls them back, and logs the lookup counters.
+   *
+   * @param smi  step meta interface implementation, containing the step settings
+   * @param sdi  step data interface implementation, used to store runtime information
+   */
+  public void dispose( StepMetaInterface smi, StepDataInterface sdi ) {
+    KettleColumnStoreKeyLookupStepData data = (KettleColumnStoreKeyLookupStepData) sdi;
+
+    boolean reusable = true;
+    if ( data.loader != null ) {
+      try {
+        if ( getErrors() == 0 ) {
+          data.loader.commit();
+        } else {
+          data.loader.rollback();
+        }
+      } catch ( ColumnStoreException e ) {
+        logError( "Couldn't commit the new keys of " + data.database + "." + data.table, e );
+        setErrors( 1 );
+        reusable = false;
+      }
+      data.loader = null;
+    }
+    KettleColumnStoreDriverCache.release( data.driverLease, reusable );
+    data.driverLease = null;
+
+    logBasic( "Key lookups: " + data.hits + " hits, " + data.misses + " misses, " + data.nulls + " null keys, "
+            + data.assigned + " new keys assigned" );
+    data.longKeys = null;
+    data.stringKeys = null;
+
+    super.dispose( smi, sdi );
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.trans.step.BaseStepData;
+import org.pentaho.di.trans.step.StepDataInterface;
+
+/**
+ *
+ * This class is the implementation of StepDataInterface of the surrogate key lookup step.
+ *
+ * It stores the preloaded keys of the dimension table, either in a map of numeric or of string
+ * natural keys, the loader of newly assigned keys and the lookup counters.
+ *
+ */
+public class KettleColumnStoreKeyLookupStepData extends BaseStepData implements StepDataInterface {
+
+  String database;
+  String table;
+
+  // exactly one of the maps is set, depending on the type of the natural key column
+  KettleColumnStoreKeyMap.Longs longKeys;
+  KettleColumnStoreKeyMap.Strings stringKeys;
+  long maxKey = 0;
+
+  RowMetaInterface outputRowMeta;
+  int keyIndex;
+  ValueMetaInterface keyMeta;
+  int inputSize;
+
+  // new keys are inserted through mcsapi, the bulk insert is opened with the first new key
+  KettleColumnStoreDriverCache.CachedDriver driverLease;
+  KettleColumnStoreBulkLoader loader;
+  int columnCount;
+  int naturalKeyColumn;
+  int surrogateKeyColumn;
+
+  long hits;
+  long misses;
+  long nulls;
+  long assigned;
+
+  public KettleColumnStoreKeyLookupStepData() {
+    super();
+  }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.CCombo;
+import org.eclipse.swt.events.*;
+import org.eclipse.swt.layout.*;
+import org.eclipse.swt.widgets.*;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.i18n.BaseMessages;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.BaseStepMeta;
+import org.pentaho.di.trans.step.StepDialogInterface;
+import org.pentaho.di.ui.core.widget.TextVar;
+import org.pentaho.di.ui.trans.step.BaseStepDialog;
+
+/**
+ *
+ * This class is the implementation of StepDialogInterface of the surrogate key lookup step.
+ * This class is responsible for:
+ *
+ * - building and opening a SWT dialog displaying the step's settings (stored in the step's meta object)
+ * - writing back any changes the user makes to the step's meta object
+ * - reporting whether the user changed any settings when confirming the dialog
+ *
+ */
+public class KettleColumnStoreKeyLookupStepDialog extends BaseStepDialog implements StepDialogInterface {
+
+  private static Class<?> PKG = KettleColumnStoreKeyLookupStepMeta.class; // for i18n purposes
+
+  private KettleColumnStoreKeyLookupStepMeta meta;
+
+  private CCombo wConnection;
+  private TextVar wColumnStoreXML;
+  private TextVar wTargetDatabase;
+  private TextVar wTargetTable;
+  private TextVar wNaturalKeyColumn;
+  private TextVar wSurrogateKeyColumn;
+  private CCombo wKeyField;
+  private TextVar wResultField;
+  private Button wAssignNewKeys;
+
+  /**
+   * The constructor should simply invoke super() and save the incoming meta
+   * object to a local variable, so it can conveniently read and write settings
+   * from/to it.
+   *
+   * @param parent   the SWT shell to open the dialog in
+   * @param in    the meta object holding the step's settings
+   * @param transMeta  transformation description
+   * @param sname    the step name
+   */
+  public KettleColumnStoreKeyLookupStepDialog( Shell parent, Object in, TransMeta transMeta, String sname ) {
+    super( parent, (BaseStepMeta) in, transMeta, sname );
+    meta = (KettleColumnStoreKeyLookupStepMeta) in;
+  }
+
+  /**
+   * Opens the dialog and returns the name of the step once the user confirmed it, or null if the user cancelled it.
+   */
+  public String open() {
+    Shell parent = getParent();
+    Display display = parent.getDisplay();
+
+    shell = new Shell( parent, SWT.DIALOG_TRIM | SWT.RESIZE | SWT.MIN | SWT.MAX );
+    props.setLook( shell );
+    setShellImage( shell, meta );
+
+    changed = meta.hasChanged();
+
+    ModifyListener lsMod = new ModifyListener() {
+      public void modifyText( ModifyEvent e ) {
+        meta.setChanged();
+      }
+    };
+    SelectionAdapter lsSelection = new SelectionAdapter() {
+      public void widgetSelected( SelectionEvent e ) {
+        meta.setChanged();
+      }
+    };
+
+    FormLayout formLayout = new FormLayout();
+    formLayout.marginWidth = Const.FORM_MARGIN;
+    formLayout.marginHeight = Const.FORM_MARGIN;
+    shell.setLayout( formLayout );
+    shell.setText( BaseMessages.getString( PKG, "KettleColumnStoreKeyLookupPlugin.Shell.Title" ) );
+    int middle = props.getMiddlePct();
+    int margin = Const.MARGIN;
+
+    // Stepname line
+    wlStepname = new Label( shell, SWT.RIGHT );
+    wlStepname.setText( BaseMessages.getString( PKG, "System.Label.StepName" ) );
+    props.setLook( wlStepname );
+    fdlStepname = new FormData();
+    fdlStepname.top = new FormAttachment( 0, margin );
+    fdlStepname.left = new FormAttachment( 0, 0 );
+    fdlStepname.right = new FormAttachment( middle, -margin );
+    wlStepname.setLayoutData( fdlStepname );
+
+    wStepname = new Text( shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wStepname.setText( stepname );
+    props.setLook( wStepname );
+    wStepname.addModifyListener( lsMod );
+    fdStepname = new FormData();
+    fdStepname.top = new FormAttachment( 0, margin );
+    fdStepname.left = new FormAttachment( middle, 0 );
+    fdStepname.right = new FormAttachment( 100, 0 );
+    wStepname.setLayoutData( fdStepname );
+
+    // Connection line
+    wConnection = addConnectionLine( shell, wStepname, middle, margin );
+    if ( meta.getDatabaseMeta() == null && transMeta.nrDatabases() == 1 ) {
+      wConnection.select( 0 );
+    }
+    wConnection.addModifyListener( lsMod );
+
+    wColumnStoreXML = addTextVarLine( wConnection, "KettleColumnStoreKeyLookupPlugin.Label.ColumnStoreXML", lsMod, middle, margin );
+    wTargetDatabase = addTextVarLine( wColumnStoreXML, "KettleColumnStoreKeyLookupPlugin.Label.TargetDatabase", lsMod, middle, margin );
+    wTargetTable = addTextVarLine( wTargetDatabase, "KettleColumnStoreKeyLookupPlugin.Label.TargetTable", lsMod, middle, margin );
+    wNaturalKeyColumn = addTextVarLine( wTargetTable, "KettleColumnStoreKeyLookupPlugin.Label.NaturalKeyColumn", lsMod, middle, margin );
+    wSurrogateKeyColumn = addTextVarLine( wNaturalKeyColumn, "KettleColumnStoreKeyLookupPlugin.Label.SurrogateKeyColumn", lsMod, middle, margin );
+
+    // Key field line, offering the fields of the previous steps
+    Label wlKeyField = new Label( shell, SWT.RIGHT );
+    wlKeyField.setText( BaseMessages.getString( PKG, "KettleColumnStoreKeyLookupPlugin.Label.KeyField" ) );
+    props.setLook( wlKeyField );
+    FormData fdlKeyField = new FormData();
+    fdlKeyField.left = new FormAttachment( 0, 0 );
+    fdlKeyField.top = new FormAttachment( wSurrogateKeyColumn, margin );
+    fdlKeyField.right = new FormAttachment( middle, -margin );
+    wlKeyField.setLayoutData( fdlKeyField );
+    wKeyField = new CCombo( shell, SWT.BORDER );
+    props.setLook( wKeyField );
+    wKeyField.addModifyListener( lsMod );
+    FormData fdKeyField = new FormData();
+    fdKeyField.left = new FormAttachment( middle, 0 );
+    fdKeyField.top = new FormAttachment( wSurrogateKeyColumn, margin );
+    fdKeyField.right = new FormAttachment( 100, 0 );
+    wKeyField.setLayoutData( fdKeyField );
+    try {
+      RowMetaInterface prev = transMeta.getPrevStepFields( stepname );
+      if ( prev != null ) {
+        wKeyField.setItems( prev.getFieldNames() );
+      }
+    } catch ( KettleException e ) {
+      logError( "couldn't read the fields of the previous steps", e );
+    }
+
+    wResultField = addTextVarLine( wKeyField, "KettleColumnStoreKeyLookupPlugin.Label.ResultField", lsMod, middle, margin );
+
+    // Assign new keys line
+    Label wlAssignNewKeys = new Label( shell, SWT.RIGHT );
+    wlAssignNewKeys.setText( BaseMessages.getString( PKG, "KettleColumnStoreKeyLookupPlugin.Label.AssignNewKeys" ) );
+    props.setLook( wlAssignNewKeys );
+    FormData fdlAssignNewKeys = new FormData();
+    fdlAssignNewKeys.left = new FormAttachment( 0, 0 );
+    fdlAssignNewKeys.top = new FormAttachment( wResultField, margin );
+    fdlAssignNewKeys.right = new FormAttachment( middle, -margin );
+    wlAssignNewKeys.setLayoutData( fdlAssignNewKeys );
+    wAssignNewKeys = new Button( shell, SWT.CHECK );
+    props.setLook( wAssignNewKeys );
+    wAssignNewKeys.addSelectionListener( lsSelection );
+    FormData fdAssignNewKeys = new FormData();
+    fdAssignNewKeys.left = new FormAttachment( middle, 0 );
+    fdAssignNewKeys.top = new FormAttachment( wResultField, margin );
+    fdAssignNewKeys.right = new FormAttachment( 100, 0 );
+    wAssignNewKeys.setLayoutData( fdAssignNewKeys );
+
+    // OK and cancel buttons
+    wOK = new Button( shell, SWT.PUSH );
+    wOK.setText( BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.Button.OK" ) );
+    wCancel = new Button( shell, SWT.PUSH );
+    wCancel.setText( BaseMessages.getString( PKG, "KettleColumnStoreBulkExporterPlugin.Button.Cancel" ) );
+    setButtonPositions( new Button[] { wOK, wCancel }, margin, wAssignNewKeys );
+
+    lsCancel = new Listener() {
+      public void handleEvent( Event e ) {
+        cancel();
+      }
+    };
+    lsOK = new Listener() {
+      public void handleEvent( Event e ) {
+        ok();
+      }
+    };
+    wCancel.addListener( SWT.Selection, lsCancel );
+    wOK.addListener( SWT.Selection, lsOK );
+
+    // default listener (for hitting "enter")
+    lsDef = new SelectionAdapter() {
+      public void widgetDefaultSelected( SelectionEvent e ) {
+        ok();
+      }
+    };
+    wStepname.addSelectionListener( lsDef );
+
+    // Detect X or ALT-F4 or something that kills this window and cancel the dialog properly
+    shell.addShellListener( new ShellAdapter() {
+      public void shellClosed( ShellEvent e ) {
+        cancel();
+      }
+    } );
+
+    setSize();
+    populateDialog();
+    meta.setChanged( changed );
+
+    shell.open();
+    while ( !shell.isDisposed() ) {
+      if ( !display.readAndDispatch() ) {
+        display.sleep();
+      }
+    }
+    return stepname;
+  }
+
+  /**
+   * Adds a labeled TextVar line to the shell.
+   * @param previous control above the new line
+   * @param labelKey i18n key of the label
+   * @param lsMod modify listener of the TextVar
+   * @param middle percentage of the label column
+   * @param margin margin between the controls
+   * @return the new TextVar
+   */
+  private TextVar addTextVarLine( Control previous, String labelKey, ModifyListener lsMod, int middle, int margin ) {
+    Label label = new Label( shell, SWT.RIGHT );
+    label.setText( BaseMessages.getString( PKG, labelKey ) );
+    props.setLook( label );
+    FormData fdLabel = new FormData();
+    fdLabel.left = new FormAttachment( 0, 0 );
+    fdLabel.top = new FormAttachment( previous, margin );
+    fdLabel.right = new FormAttachment( middle, -margin );
+    label.setLayoutData( fdLabel );
+
+    TextVar text = new TextVar( transMeta, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( text );
+    text.addModifyListener( lsMod );
+    FormData fdText = new FormData();
+    fdText.left = new FormAttachment( middle, 0 );
+    fdText.top = new FormAttachment( previous, margin );
+    fdText.right = new FormAttachment( 100, 0 );
+    text.setLayoutData( fdText );
+    return text;
+  }
+
+  /**
+   * Copies the settings of the meta object into the dialog.
+   */
+  private void populateDialog() {
+    wStepname.selectAll();
+    if ( meta.getDatabaseMeta() != null ) {
+      wConnection.setText( meta.getDatabaseMeta().getName() );
+    }
+    wColumnStoreXML.setText( Const.NVL( meta.getColumnStoreXML(), "" ) );
+    wTargetDatabase.setText( Const.NVL( meta.getTargetDatabase(), "" ) );
+    wTargetTable.setText( Const.NVL( meta.getTargetTable(), "" ) );
+    wNaturalKeyColumn.setText( Const.NVL( meta.getNaturalKeyColumn(), "" ) );
+    wSurrogateKeyColumn.setText( Const.NVL( meta.getSurrogateKeyColumn(), "" ) );
+    wKeyField.setText( Const.NVL( meta.getKeyField(), "" ) );
+    wResultField.setText( Const.NVL( meta.getResultField(), "" ) );
+    wAssignNewKeys.setSelection( meta.isAssignNewKeys() );
+  }
+
+  /**
+   * Called when the user cancels the dialog.
+   */
+  private void cancel() {
+    stepname = null;
+    meta.setChanged( changed );
+    dispose();
+  }
+
+  /**
+   * Called when the user confirms the dialog.
+   */
+  private void ok() {
+    stepname = wStepname.getText();
+    meta.setDatabaseMeta( transMeta.findDatabase( wConnection.getText() ) );
+    meta.setColumnStoreXML( wColumnStoreXML.getText() );
+    meta.setTargetDatabase( wTargetDatabase.getText() );
+    meta.setTargetTable( wTargetTable.getText() );
+    meta.setNaturalKeyColumn( wNaturalKeyColumn.getText() );
+    meta.setSurrogateKeyColumn( wSurrogateKeyColumn.getText() );
+    meta.setKeyField( wKeyField.getText() );
+    meta.setResultField( wResultField.getText() );
+    meta.setAssignNewKeys( wAssignNewKeys.getSelection() );
+    dispose();
+  }
+}
@@ -0,0 +1,539 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import java.util.List;
+import java.util.regex.Matcher;
+
+import com.mariadb.columnstore.api.ColumnStoreException;
+import org.eclipse.swt.widgets.Shell;
+import org.pentaho.di.core.CheckResult;
+import org.pentaho.di.core.CheckResultInterface;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.annotations.Step;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleXMLException;
+import org.pentaho.di.core.injection.Injection;
+import org.pentaho.di.core.injection.InjectionSupported;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.core.xml.XMLHandler;
+import org.pentaho.di.i18n.BaseMessages;
+import org.pentaho.di.repository.ObjectId;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.BaseStepMeta;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.step.StepDialogInterface;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaInterface;
+import org.pentaho.metastore.api.IMetaStore;
+import org.w3c.dom.Node;
+
+/**
+ *
+ * This class is the implementation of StepMetaInterface of the surrogate key lookup step.
+ * This class is responsible for:
+ *
+ * - keeping track of the step settings
+ * - serializing step settings both to xml and a repository
+ * - providing new instances of objects implementing StepDialogInterface, StepInterface and StepDataInterface
+ * - reporting on how the step modifies the meta-data of the row-stream (row structure and field types)
+ * - performing a sanity-check on the settings provided by the user
+ *
+ */
+
+
+// Metadata annotation for the appearance in Spoon (image, category, help site etc.)
+@Step(
+  id = "KettleColumnStoreKeyLookupPlugin",
+  name = "KettleColumnStoreKeyLookupPlugin.Name",
+  description = "KettleColumnStoreKeyLookupPlugin.TooltipDesc",
+  image = "com/mariadb/columnstore/api/kettle/resources/CS.svg",
+  categoryDescription = "i18n:org.pentaho.di.trans.step:BaseStep.Category.Lookup",
+  i18nPackageName = "com.mariadb.columnstore.api.kettle",
+  documentationUrl = "MariaDB+ColumnStore+Bulk+Loader",
+  casesUrl = "KettleColumnStoreBulkExporterPlugin.CasesURL",
+  forumUrl = "KettleColumnStoreBulkExporterPlugin.ForumURL"
+)
+
+@InjectionSupported( localizationPrefix = "KettleColumnStoreKeyLookupStepMeta.Injection." )
+public class KettleColumnStoreKeyLookupStepMeta extends BaseStepMeta implements StepMetaInterface {
+
+  static {
+    // the native ColumnStore library is loaded by the bulk exporter meta class once it is initialized
+    try {
+      Class.forName( KettleColumnStoreBulkExporterStepMeta.class.getName(), true, KettleColumnStoreKeyLookupStepMeta.class.getClassLoader() );
+    } catch ( ClassNotFoundException e ) {
+      System.err.println( "Wasn't able to initialize the ColumnStore BulkWrite SDK: " + e.getMessage() );
+    }
+  }
+
+  /**
+   *  The PKG member is used when looking up internationalized strings.
+   *  The properties file with localized keys is expected to reside in
+   *  {the package of the class specified}/messages/messages_{locale}.properties
+   */
+  private static final Class<?> PKG = KettleColumnStoreKeyLookupStepMeta.class; // for i18n purposes
+
+  /**
+   * Stores the name of the database of the dimension table.
+   */
+  @Injection( name = "TARGET_DATABASE" )
+  private String targetDatabase;
+
+  /**
+   * Stores the name of the dimension table.
+   */
+  @Injection( name = "TARGET_TABLE" )
+  private String targetTable;
+
+  private String columnStoreXML;
+
+  /**
+   * Column of the dimension table holding the natural key.
+   */
+  @Injection( name = "NATURAL_KEY_COLUMN" )
+  private String naturalKeyColumn;
+
+  /**
+   * Column of the dimension table holding the surrogate key.
+   */
+  @Injection( name = "SURROGATE_KEY_COLUMN" )
+  private String surrogateKeyColumn;
+
+  /**
+   * Input field holding the natural key to look up.
+   */
+  @Injection( name = "KEY_FIELD" )
+  private String keyField;
+
+  /**
+   * Name of the output field the surrogate key is written to.
+   */
+  @Injection( name = "RESULT_FIELD" )
+  private String resultField;
+
+  /**
+   * True if natural keys that aren't in the dimension table get a new surrogate key, which is inserted with mcsapi.
+   */
+  @Injection( name = "ASSIGN_NEW_KEYS" )
+  private boolean assignNewKeys;
+
+  /**
+   * Database connection (JDBC) the dimension table is read through
+   */
+  private DatabaseMeta databaseMeta;
+
+  /**
+   * Constructor should call super() to make sure the base class has a chance to initialize properly.
+   */
+  public KettleColumnStoreKeyLookupStepMeta() {
+    super();
+  }
+
+  /**
+   * Called by Spoon to get a new instance of the SWT dialog for the step.
+   *
+   * @param shell an SWT Shell
+   * @param meta description of the step
+   * @param transMeta description of the the transformation
+   * @param name the name of the step
+   * @return new instance of a dialog for this step
+   */
+  public StepDialogInterface getDialog( Shell shell, StepMetaInterface meta, TransMeta transMeta, String name ) {
+    return new KettleColumnStoreKeyLookupStepDialog( shell, meta, transMeta, name );
+  }
+
+  /**
+   * Called by PDI to get a new instance of the step implementation.
+   *
+   * @param stepMeta description of the step
+   * @param stepDataInterface instance of a step data class
+   * @param cnr copy number
+   * @param transMeta description of the transformation
+   * @param disp runtime implementation of the transformation
+   * @return the new instance of a step implementation
+   */
+  public StepInterface getStep( StepMeta stepMeta, StepDataInterface stepDataInterface, int cnr, TransMeta transMeta,
+      Trans disp ) {
+    return new KettleColumnStoreKeyLookupStep( stepMeta, stepDataInterface, cnr, transMeta, disp );
+  }
+
+  /**
+   * Called by PDI to get a new instance of the step data class.
+   */
+  public StepDataInterface getStepData() {
+    return new KettleColumnStoreKeyLookupStepData();
+  }
+
+  /**
+   * Gets used/defined database connections (JDBC), that are set in Spoon.
+   * @return used/defined database connections
+   */
+  public DatabaseMeta[] getUsedDatabaseConnections()
+  {
+    if (databaseMeta!=null)
+    {
+      return new DatabaseMeta[] { databaseMeta };
+    }
+    else
+    {
+      return super.getUsedDatabaseConnections();
+    }
+  }
+
+  /**
+   * This method is called every time a new step is created and should allocate/set the step configuration
+   * to sensible defaults. The values set here will be used by Spoon when a new step is created.
+   */
+  public void setDefault() {
+      targetDatabase = "";
+      targetTable = "";
+      columnStoreXML = "";
+      naturalKeyColumn = "";
+      surrogateKeyColumn = "";
+      keyField = "";
+      resultField = "surrogate_key";
+      assignNewKeys = false;
+      databaseMeta = null;
+  }
+
+  /**
+   * Getter for the name of the database of the dimension table
+   * @return name of the database
+   */
+  public String getTargetDatabase() {
+    return targetDatabase;
+  }
+
+  /**
+   * Setter for the name of the database of the dimension table
+   * @param targetDatabase name of the database
+   */
+  public void setTargetDatabase( String targetDatabase ) {
+    this.targetDatabase = targetDatabase;
+  }
+
+  /**
+   * Getter for the name of the dimension table
+   * @return name of the dimension table
+   */
+  public String getTargetTable() {
+    return targetTable;
+  }
+
+  /**
+   * Setter for the name of the dimension table
+   * @param targetTable name of the dimension table
+   */
+  public void setTargetTable( String targetTable ) {
+    this.targetTable = targetTable;
+  }
+
+  /**
+   * Getter for the Columnstore.xml configuration file
+   * @return path to the Columnstore.xml configuration file
+   */
+  public String getColumnStoreXML(){
+      return columnStoreXML;
+  }
+
+  /**
+   * Setter for the Columnstore.xml configuration file
+   * @param columnStoreXML path to the Columnstore.xml configuration file
+   */
+  public void setColumnStoreXML(String columnStoreXML){
+     this.columnStoreXML = columnStoreXML;
+  }
+
+  /**
+   * Getter for the natural key column
+   * @return column of the dimension table holding the natural key
+   */
+  public String getNaturalKeyColumn() {
+    return naturalKeyColumn;
+  }
+
+  /**
+   * Setter for the natural key column
+   * @param naturalKeyColumn column of the dimension table holding the natural key
+   */
+  public void setNaturalKeyColumn( String naturalKeyColumn ) {
+    this.naturalKeyColumn = naturalKeyColumn;
+  }
+
+  /**
+   * Getter for the surrogate key column
+   * @return column of the dimension table holding the surrogate key
+   */
+  public String getSurrogateKeyColumn() {
+    return surrogateKeyColumn;
+  }
+
+  /**
+   * Setter for the surrogate key column
+   * @param surrogateKeyColumn column of the dimension table holding the surrogate key
+   */
+  public void setSurrogateKeyColumn( String surrogateKeyColumn ) {
+    this.surrogateKeyColumn = surrogateKeyColumn;
+  }
+
+  /**
+   * Getter for the key field
+   * @return input field holding the natural key
+   */
+  public String getKeyField() {
+    return keyField;
+  }
+
+  /**
+   * Setter for the key field
+   * @param keyField input field holding the natural key
+   */
+  public void setKeyField( String keyField ) {
+    this.keyField = keyField;
+  }
+
+  /**
+   * Getter for the result field
+   * @return name of the output field holding the surrogate key
+   */
+  public String getResultField() {
+    return resultField;
+  }
+
+  /**
+   * Setter for the result field
+   * @param resultField name of the output field holding the surrogate key
+   */
+  public void setResultField( String resultField ) {
+    this.resultField = resultField;
+  }
+
+  /**
+   * Getter for the assign new keys option
+   * @return true if unknown natural keys get a new surrogate key
+   */
+  public boolean isAssignNewKeys() {
+    return assignNewKeys;
+  }
+
+  /**
+   * Setter for the assign new keys option
+   * @param assignNewKeys true if unknown natural keys get a new surrogate key
+   */
+  public void setAssignNewKeys( boolean assignNewKeys ) {
+    this.assignNewKeys = assignNewKeys;
+  }
+
+  /**
+   * Gets the DatabaseMeta object for the used JDBC connection.
+   * @return databaseMeta
+   */
+  public DatabaseMeta getDatabaseMeta()
+  {
+    return databaseMeta;
+  }
+
+  /**
+   * Sets the DatabaseMeta object for the used JDBC connection
+   * @param database to use
+   */
+  public void setDatabaseMeta(DatabaseMeta database)
+  {
+    this.databaseMeta = database;
+  }
+
+    /**
+     * Leases a cached ColumnStoreDriver, to be returned with KettleColumnStoreDriverCache.release().
+     * @param transMeta used to substitute environment variables.
+     * @return the leased ColumnStoreDriver, or null if it couldn't be instantiated
+     */
+  KettleColumnStoreDriverCache.CachedDriver acquireColumnStoreDriver(TransMeta transMeta){
+      String path = null;
+      if(columnStoreXML != null && !columnStoreXML.equals("")) {
+          Matcher m = KettleColumnStoreBulkExporterStepMeta.PDI_VARIABLE_PATTERN.matcher(columnStoreXML);
+          path = columnStoreXML;
+          if(m.find()){
+              path = transMeta.environmentSubstitute(m.group(0));
+          }
+      }
+      long catalogTtl = Const.toLong(transMeta.getVariable(KettleColumnStoreDriverCache.CATALOG_TTL_VARIABLE),
+              KettleColumnStoreDriverCache.DEFAULT_CATALOG_TTL);
+      try{
+          return KettleColumnStoreDriverCache.acquire(path, catalogTtl);
+      } catch(ColumnStoreException e){
+          logDebug("can't instantiate the ColumnStoreDriver.", e);
+          return null;
+      }
+  }
+
+  /**
+   * This method is called by Spoon when a step needs to serialize its configuration to XML.
+   *
+   * @return a string containing the XML serialization of this step
+   */
+  public String getXML() {
+
+    StringBuilder xml = new StringBuilder();
+
+    xml.append( XMLHandler.addTagValue( "connection", databaseMeta == null ? "" : databaseMeta.getName() ) );
+    xml.append( XMLHandler.addTagValue( "targetdatabase", targetDatabase ) );
+    xml.append( XMLHandler.addTagValue( "targettable", targetTable ) );
+    xml.append( XMLHandler.addTagValue( "columnStoreXML", columnStoreXML ) );
+    xml.append( XMLHandler.addTagValue( "naturalKeyColumn", naturalKeyColumn ) );
+    xml.append( XMLHandler.addTagValue( "surrogateKeyColumn", surrogateKeyColumn ) );
+    xml.append( XMLHandler.addTagValue( "keyField", keyField ) );
+    xml.append( XMLHandler.addTagValue( "resultField", resultField ) );
+    xml.append( XMLHandler.addTagValue( "assignNewKeys", assignNewKeys ) );
+    return xml.toString();
+  }
+
+  /**
+   * This method is called by PDI when a step needs to load its configuration from XML.
+   *
+   * @param stepnode  the XML node containing the configuration
+   * @param databases  the databases available in the transformation
+   * @param metaStore the metaStore to optionally read from
+   */
+  public void loadXML( Node stepnode, List<DatabaseMeta> databases, IMetaStore metaStore ) throws KettleXMLException {
+    try {
+      databaseMeta = DatabaseMeta.findDatabase( databases, XMLHandler.getTagValue( stepnode, "connection" ) );
+      setTargetDatabase( XMLHandler.getTagValue( stepnode, "targetdatabase" ) );
+      setTargetTable( XMLHandler.getTagValue( stepnode, "targettable" ) );
+      setColumnStoreXML( XMLHandler.getTagValue( stepnode, "columnStoreXML" ) );
+      setNaturalKeyColumn( XMLHandler.getTagValue( stepnode, "naturalKeyColumn" ) );
+      setSurrogateKeyColumn( XMLHandler.getTagValue( stepnode, "surrogateKeyColumn" ) );
+      setKeyField( XMLHandler.getTagValue( stepnode, "keyField" ) );
+      setResultField( XMLHandler.getTagValue( stepnode, "resultField" ) );
+      setAssignNewKeys( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "assignNewKeys" ) ) );
+    } catch ( Exception e ) {
+      throw new KettleXMLException( "MariaDB ColumnStore Key Lookup Plugin unable to read step info from XML node", e );
+    }
+  }
+
+  /**
+   * This method is called by Spoon when a step needs to serialize its configuration to a repository.
+   *
+   * @param rep                 the repository to save to
+   * @param metaStore           the metaStore to optionally write to
+   * @param id_transformation   the id to use for the transformation when saving
+   * @param id_step             the id to use for the step  when saving
+   */
+  public void saveRep( Repository rep, IMetaStore metaStore, ObjectId id_transformation, ObjectId id_step )
+      throws KettleException {
+    try {
+      rep.saveStepAttribute( id_transformation, id_step, "connection", databaseMeta == null ? "" : databaseMeta.getName() );
+      rep.saveStepAttribute( id_transformation, id_step, "targetdatabase", targetDatabase );
+      rep.saveStepAttribute( id_transformation, id_step, "targettable", targetTable );
+      rep.saveStepAttribute( id_transformation, id_step, "columnStoreXML", columnStoreXML );
+      rep.saveStepAttribute( id_transformation, id_step, "naturalKeyColumn", naturalKeyColumn );
+      rep.saveStepAttribute( id_transformation, id_step, "surrogateKeyColumn", surrogateKeyColumn );
+      rep.saveStepAttribute( id_transformation, id_step, "keyField", keyField );
+      rep.saveStepAttribute( id_transformation, id_step, "resultField", resultField );
+      rep.saveStepAttribute( id_transformation, id_step, "assignNewKeys", assignNewKeys );
+    } catch ( Exception e ) {
+      throw new KettleException( "Unable to save step into repository: " + id_step, e );
+    }
+  }
+
+  /**
+   * This method is called by PDI when a step needs to read its configuration from a repository.
+   *
+   * @param rep        the repository to read from
+   * @param metaStore  the metaStore to optionally read from
+   * @param id_step    the id of the step being read
+   * @param databases  the databases available in the transformation
+   */
+  public void readRep( Repository rep, IMetaStore metaStore, ObjectId id_step, List<DatabaseMeta> databases )
+      throws KettleException {
+    try {
+      databaseMeta = DatabaseMeta.findDatabase( databases, rep.getStepAttributeString( id_step, "connection" ) );
+      setTargetDatabase( rep.getStepAttributeString( id_step, "targetdatabase" ) );
+      setTargetTable( rep.getStepAttributeString( id_step, "targettable" ) );
+      setColumnStoreXML( rep.getStepAttributeString( id_step, "columnStoreXML" ) );
+      setNaturalKeyColumn( rep.getStepAttributeString( id_step, "naturalKeyColumn" ) );
+      setSurrogateKeyColumn( rep.getStepAttributeString( id_step, "surrogateKeyColumn" ) );
+      setKeyField( rep.getStepAttributeString( id_step, "keyField" ) );
+      setResultField( rep.getStepAttributeString( id_step, "resultField" ) );
+      setAssignNewKeys( rep.getStepAttributeBoolean( id_step, "assignNewKeys" ) );
+    } catch ( Exception e ) {
+      throw new KettleException( "Unable to load step from repository", e );
+    }
+  }
+
+  /**
+   * Adds the surrogate key field to the row stream.
+   *
+   * @param inputRowMeta    the row structure coming in to the step
+   * @param name         the name of the step making the changes
+   * @param info        row structures of any info steps coming in
+   * @param nextStep      the description of a step this step is passing rows to
+   * @param space        the variable space for resolving variables
+   * @param repository    the repository instance optionally read from
+   * @param metaStore      the metaStore to optionally read from
+   */
+  public void getFields( RowMetaInterface inputRowMeta, String name, RowMetaInterface[] info, StepMeta nextStep,
+      VariableSpace space, Repository repository, IMetaStore metaStore ) {
+    ValueMetaInterface v = new ValueMetaInteger( space.environmentSubstitute( resultField ) );
+    v.setOrigin( name );
+    inputRowMeta.addValueMeta( v );
+  }
+
+  /**
+   * This method is called when the user selects the "Verify Transformation" option in Spoon.
+   *
+   *   @param remarks    the list of remarks to append to
+   *   @param transMeta  the description of the transformation
+   *   @param stepMeta  the description of the step
+   *   @param prev      the structure of the incoming row-stream
+   *   @param input     names of steps sending input to the step
+   *   @param output    names of steps this step is sending output to
+   *   @param info      fields coming in from info steps
+   *   @param metaStore  metaStore to optionally read from
+   */
+  public void check( List<CheckResultInterface> remarks, TransMeta transMeta, StepMeta stepMeta, RowMetaInterface prev,
+      String[] input, String[] output, RowMetaInterface info, VariableSpace space, Repository repository,
+      IMetaStore metaStore ) {
+
+    if ( input != null && input.length > 0 ) {
+      remarks.add( new CheckResult( CheckResult.TYPE_RESULT_OK, BaseMessages.getString( PKG, "KettleColumnStoreKeyLookupPlugin.CheckResult.ReceivingRows.OK" ), stepMeta ));
+    } else {
+      remarks.add( new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString( PKG, "KettleColumnStoreKeyLookupPlugin.CheckResult.ReceivingRows.ERROR" ), stepMeta ));
+    }
+    // the dimension table is read through the JDBC connection
+    if ( databaseMeta == null ) {
+      remarks.add( new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString( PKG, "KettleColumnStoreKeyLookupPlugin.CheckResult.Connection.ERROR" ), stepMeta ));
+    }
+    if ( Const.isEmpty( targetTable ) || Const.isEmpty( naturalKeyColumn ) || Const.isEmpty( surrogateKeyColumn ) ) {
+      remarks.add( new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString( PKG, "KettleColumnStoreKeyLookupPlugin.CheckResult.Columns.ERROR" ), stepMeta ));
+    }
+    if ( prev != null && prev.size() > 0 && ( Const.isEmpty( keyField ) || prev.indexOfValue( keyField ) < 0 ) ) {
+      remarks.add( new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString( PKG, "KettleColumnStoreKeyLookupPlugin.CheckResult.KeyField.ERROR" ), stepMeta ));
+    }
+    if ( Const.isEmpty( resultField ) ) {
+      remarks.add( new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString( PKG, "KettleColumnStoreKeyLookupPlugin.CheckResult.ResultField.ERROR" ), stepMeta ));
+    }
+    // new keys are counted up from the largest key read by the step copy, several copies would assign the same keys
+    if ( assignNewKeys && stepMeta.getCopies() > 1 ) {
+      remarks.add( new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString( PKG, "KettleColumnStoreKeyLookupPlugin.CheckResult.AssignCopies.ERROR" ), stepMeta ));
+    }
+  }
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import java.util.Arrays;
+
+/**
+ * Memory compact hash maps of natural keys to surrogate keys, which don't box keys or values.
+ *
+ * Both maps use open addressing with linear probing in power of two sized tables, kept at most
+ * half full. Numeric natural keys are stored in a long array next to their surrogate keys. String
+ * natural keys are dictionary encoded: their UTF-8 bytes, with lone surrogates encoded like other
+ * chars, are appended to one byte array and the slots only hold entry numbers, so a key costs its
+ * bytes plus about 24 bytes. Lookups compare the UTF-8 bytes with the chars of the String in place
+ * and don't allocate.
+ *
+ * MISSING is returned for keys that aren't in a map, so it can't be used as surrogate key.
+ * The maps aren't thread-safe.
+ */
+class KettleColumnStoreKeyMap {
+
+  static final long MISSING = Long.MIN_VALUE;
+
+  private static final int MIN_CAPACITY = 16;
+
+  private KettleColumnStoreKeyMap() {
+  }
+
+  private static int mix(long hash) {
+    hash *= 0x9E3779B97F4A7C15L;
+    return (int) (hash ^ (hash >>> 32));
+  }
+
+  private static int capacityFor(int size) {
+    int capacity = MIN_CAPACITY;
+    while (capacity < size * 2L && capacity < (1 << 30)) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  /**
+   * Map of long natural keys.
+   */
+  static final class Longs {
+    // slots holding FREE are empty, the key FREE itself is kept aside
+    private static final long FREE = Long.MIN_VALUE;
+
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+    private long freeKeyValue = MISSING;
+
+    Longs(int expectedSize) {
+      allocate(capacityFor(expectedSize));
+    }
+
+    private void allocate(int capacity) {
+      keys = new long[capacity];
+      Arrays.fill(keys, FREE);
+      values = new long[capacity];
+      mask = capacity - 1;
+    }
+
+    /**
+     * Returns the surrogate key of a natural key.
+     * @param key natural key
+     * @return the surrogate key, or MISSING
+     */
+    long get(long key) {
+      if (key == FREE) {
+        return freeKeyValue;
+      }
+      int slot = mix(key) & mask;
+      long k;
+      while ((k = keys[slot]) != FREE) {
+        if (k == key) {
+          return values[slot];
+        }
+        slot = (slot + 1) & mask;
+      }
+      return MISSING;
+    }
+
+    /**
+     * Adds or replaces the surrogate key of a natural key.
+     * @param key natural key
+     * @param value surrogate key, not MISSING
+     */
+    void put(long key, long value) {
+      if (key == FREE) {
+        if (freeKeyValue == MISSING) {
+          size++;
+        }
+        freeKeyValue = value;
+        return;
+      }
+      if (insert(key, value)) {
+        size++;
+        if (size * 2L > keys.length) {
+          grow();
+        }
+      }
+    }
+
+    private boolean insert(long key, long value) {
+      int slot = mix(key) & mask;
+      long k;
+      while ((k = keys[slot]) != FREE) {
+        if (k == key) {
+          values[slot] = value;
+          return false;
+        }
+        slot = (slot + 1) & mask;
+      }
+      keys[slot] = key;
+      values[slot] = value;
+      return true;
+    }
+
+    private void grow() {
+      long[] oldKeys = keys;
+      long[] oldValues = values;
+      allocate(oldKeys.length * 2);
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != FREE) {
+          insert(oldKeys[i], oldValues[i]);
+        }
+      }
+    }
+
+    int size() {
+      return size;
+    }
+
+    /**
+     * Returns the approximate heap size of the map in bytes.
+     */
+    long getMemorySize() {
+      return keys.length * 16L;
+    }
+  }
+
+  /**
+   * Map of dictionary encoded String natural keys.
+   */
+  static final class Strings {
+    // slots hold entry number + 1, 0 is empty
+    private int[] slots;
+    private int mask;
+
+    // per entry: start in the byte array, String.hashCode() of the key and surrogate key
+    private int[] offsets;
+    private int[] hashes;
+    private long[] values;
+    private int size;
+
+    private byte[] bytes;
+    private int used;
+
+    Strings(int expectedSize) {
+      allocate(capacityFor(expectedSize));
+      int entries = Math.max(expectedSize, MIN_CAPACITY);
+      offsets = new int[entries + 1];
+      hashes = new int[entries];
+      values = new long[entries];
+      bytes = new byte[entries * 16];
+    }
+
+    private void allocate(int capacity) {
+      slots = new int[capacity];
+      mask = capacity - 1;
+    }
+
+    /**
+     * Returns the surrogate key of a natural key.
+     * @param key natural key
+     * @return the surrogate key, or MISSING
+     */
+    long get(String key) {
+      int entry = find(key, key.hashCode());
+      return entry >= 0 ? values[entry] : MISSING;
+    }
+
+    /**
+     * Adds or replaces the surrogate key of a natural key.
+     * @param key natural key
+     * @param value surrogate key, not MISSING
+     */
+    void put(String key, long value) {
+      int hash = key.hashCode();
+      int entry = find(key, hash);
+      if (entry >= 0) {
+        values[entry] = value;
+        return;
+      }
+      int length = encodedLength(key);
+      if (size == values.length) {
+        int entries = values.length * 2;
+        offsets = Arrays.copyOf(offsets, entries + 1);
+        hashes = Arrays.copyOf(hashes, entries);
+        values = Arrays.copyOf(values, entries);
+      }
+      if (used + length > bytes.length) {
+        long grown = Math.max(bytes.length * 2L, (long) used + length);
+        if (grown > Integer.MAX_VALUE - 8) {
+          throw new IllegalStateException("the natural keys exceed 2 GB");
+        }
+        bytes = Arrays.copyOf(bytes, (int) grown);
+      }
+      encode(key, used);
+      offsets[size] = used;
+      used += length;
+      offsets[size + 1] = used;
+      hashes[size] = hash;
+      values[size] = value;
+      link(size);
+      size++;
+      if (size * 2L > slots.length) {
+        int[] oldSlots = slots;
+        allocate(oldSlots.length * 2);
+        for (int i = 0; i < size; i++) {
+          link(i);
+        }
+      }
+    }
+
+    /**
+     * Returns the number of bytes of a key encoded by encode().
+     */
+    private static int encodedLength(String key) {
+      int length = 0;
+      for (int i = 0; i < key.length(); i++) {
+        char c = key.charAt(i);
+        if (c < 0x80) {
+          length += 1;
+        } else if (c < 0x800) {
+          length += 2;
+        } else if (Character.isHighSurrogate(c) && i + 1 < key.length() && Character.isLowSurrogate(key.charAt(i + 1))) {
+          length += 4;
+          i++;
+        } else {
+          length += 3;
+        }
+      }
+      return length;
+    }
+
+    /**
+     * Writes the UTF-8 bytes of a key at an offset of the byte array. Unlike String.getBytes(), which
+     * replaces a lone surrogate by '?', a lone surrogate is written as a three byte sequence of its own,
+     * so that matches() finds the key again.
+     */
+    private void encode(String key, int offset) {
+      int p = offset;
+      for (int i = 0; i < key.length(); i++) {
+        char c = key.charAt(i);
+        if (c < 0x80) {
+          bytes[p++] = (byte) c;
+        } else if (c < 0x800) {
+          bytes[p++] = (byte) (0xc0 | (c >> 6));
+          bytes[p++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && i + 1 < key.length() && Character.isLowSurrogate(key.charAt(i + 1))) {
+          int codePoint = Character.toCodePoint(c, key.charAt(++i));
+          bytes[p++] = (byte) (0xf0 | (codePoint >> 18));
+          bytes[p++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+          bytes[p++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+          bytes[p++] = (byte) (0x80 | (codePoint & 0x3f));
+        } else {
+          bytes[p++] = (byte) (0xe0 | (c >> 12));
+          bytes[p++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+          bytes[p++] = (byte) (0x80 | (c & 0x3f));
+        }
+      }
+    }
+
+    private void link(int entry) {
+      int slot = mix(hashes[entry]) & mask;
+      while (slots[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = entry + 1;
+    }
+
+    private int find(String key, int hash) {
+      int slot = mix(hash) & mask;
+      int s;
+      while ((s = slots[slot]) != 0) {
+        int entry = s - 1;
+        if (hashes[entry] == hash && matches(entry, key)) {
+          return entry;
+        }
+        slot = (slot + 1) & mask;
+      }
+      return -1;
+    }
+
+    /**
+     * Compares the UTF-8 bytes of an entry with the chars of a String.
+     */
+    private boolean matches(int entry, String key) {
+      int p = offsets[entry];
+      int end = offsets[entry + 1];
+      int length = key.length();
+      int i = 0;
+      while (p < end && i < length) {
+        int b = bytes[p] & 0xff;
+        int c;
+        if (b < 0x80) {
+          c = b;
+          p += 1;
+        } else if (b < 0xe0) {
+          if (p + 1 >= end) {
+            return false;
+          }
+          c = ((b & 0x1f) << 6) | (bytes[p + 1] & 0x3f);
+          p += 2;
+        } else if (b < 0xf0) {
+          if (p + 2 >= end) {
+            return false;
+          }
+          c = ((b & 0x0f) << 12) | ((bytes[p + 1] & 0x3f) << 6) | (bytes[p + 2] & 0x3f);
+          p += 3;
+        } else {
+          if (p + 3 >= end) {
+            return false;
+          }
+          // a supplementary code point is a surrogate pair in the String
+          int codePoint = ((b & 0x07) << 18) | ((bytes[p + 1] & 0x3f) << 12) | ((bytes[p + 2] & 0x3f) << 6) | (bytes[p + 3] & 0x3f);
+          p += 4;
+          if (i + 1 >= length || key.charAt(i) != Character.highSurrogate(codePoint)
+                  || key.charAt(i + 1) != Character.lowSurrogate(codePoint)) {
+            return false;
+          }
+          i += 2;
+          continue;
+        }
+        if (key.charAt(i) != c) {
+          return false;
+        }
+        i++;
+      }
+      return p == end && i == length;
+    }
+
+    int size() {
+      return size;
+    }
+
+    /**
+     * Returns the approximate heap size of the map in bytes.
+     */
+    long getMemorySize() {
+      return slots.length * 4L + values.length * 16L + bytes.length;
+    }
+  }
+}
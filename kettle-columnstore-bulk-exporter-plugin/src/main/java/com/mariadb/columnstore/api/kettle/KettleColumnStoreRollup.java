@@ -0,0 +1,498 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Aggregates the rows written by the step by group fields into sum, count, min and max measures, so
+ * that a summary table can be filled without scanning the loaded rows again.
+ *
+ * The groups are kept in a hash map, keyed by the KettleColumnStoreRowKey of the group fields. If
+ * the estimated size of the groups exceeds the memory budget, they are sorted by key and spilled as
+ * a run of partial aggregates to a temporary file. write() merges the remaining groups with all runs,
+ * combining the partial aggregates of equal keys, and writes one row per group into a sink.
+ *
+ * The rows have the group fields first, followed by the measures, in the configured order. Group values
+ * are passed as strings. Integer measures are added up as longs, the other numeric measures as doubles.
+ * Sum, min and max are null if a group holds no non null value of the measured field.
+ */
+class KettleColumnStoreRollup {
+
+  static final int SUM = 0;
+  static final int COUNT = 1;
+  static final int MIN = 2;
+  static final int MAX = 3;
+
+  private static final String[] FUNCTIONS = {"sum", "count", "min", "max"};
+  private static final Pattern MEASURE = Pattern.compile("\\s*(sum|count|min|max)\\s*\\(\\s*([^)]*?)\\s*\\)\\s*",
+          Pattern.CASE_INSENSITIVE);
+
+  private static final int RUN_BUFFER_SIZE = 64 * 1024;
+  // ColumnStore allows one bulk insert per table, the copies of a step in this JVM write their rollups one after the other
+  private static final ConcurrentMap<String, Object> TABLE_LOCKS = new ConcurrentHashMap<>();
+  // rough size of a map entry, the key and a group without their arrays
+  private static final int GROUP_OVERHEAD = 160;
+
+  private final KettleColumnStoreRowKey groupKey;
+  private final int groupCount;
+  private final int[] functions;
+  private final String[] measureFields;
+  private final long memoryBudget;
+  private final File directory;
+  private final LogChannelInterface log;
+
+  private int[] measureIndexes;
+  private ValueMetaInterface[] measureMetas;
+  private boolean[] integerMeasures;
+
+  private Map<String, Group> groups = new HashMap<>();
+  private long memory = 0;
+  private final List<File> runs = new ArrayList<>();
+  private final String[] groupValues;
+  private long rows = 0;
+  private long groupsWritten = 0;
+
+  /**
+   * Constructor
+   * @param groupFields comma separated names of the input fields to group by
+   * @param measures comma separated measures, e.g. sum(amount), count(*), min(price), max(price)
+   * @param memoryBudget estimated number of bytes of groups after which a run is spilled
+   * @param directory directory of the spilled runs
+   * @param log log channel of the step
+   * @throws KettleException if a measure can't be parsed
+   */
+  KettleColumnStoreRollup(String groupFields, String measures, long memoryBudget, File directory,
+                          LogChannelInterface log) throws KettleException {
+    this.groupKey = new KettleColumnStoreRowKey(KettleColumnStoreRowKey.split(groupFields));
+    this.groupCount = groupKey.getFields().length;
+    this.groupValues = new String[groupCount];
+    // measures hold no commas within their parentheses
+    String[] measureList = KettleColumnStoreRowKey.split(measures);
+    if (measureList.length == 0) {
+      throw new KettleException("no rollup measures are set");
+    }
+    this.functions = new int[measureList.length];
+    this.measureFields = new String[measureList.length];
+    for (int m = 0; m < measureList.length; m++) {
+      Matcher matcher = MEASURE.matcher(measureList[m]);
+      if (!matcher.matches()) {
+        throw new KettleException("rollup measure " + measureList[m] + " isn't one of sum(field), count(field), count(*), min(field) and max(field)");
+      }
+      String function = matcher.group(1).toLowerCase(Locale.US);
+      for (int f = 0; f < FUNCTIONS.length; f++) {
+        if (FUNCTIONS[f].equals(function)) {
+          functions[m] = f;
+        }
+      }
+      measureFields[m] = matcher.group(2);
+      if ("*".equals(measureFields[m]) && functions[m] != COUNT) {
+        throw new KettleException("rollup measure " + measureList[m] + " needs a field");
+      }
+    }
+    this.memoryBudget = Math.max(1024 * 1024, memoryBudget);
+    this.directory = directory;
+    this.log = log;
+  }
+
+  /**
+   * Looks up the group and measure fields in the input rows.
+   * @param rowMeta layout of the input rows
+   * @throws KettleException if a field doesn't exist or a measured field isn't numeric
+   */
+  void setRowMeta(RowMetaInterface rowMeta) throws KettleException {
+    groupKey.setRowMeta(rowMeta, "rollup group field");
+    measureIndexes = new int[measureFields.length];
+    measureMetas = new ValueMetaInterface[measureFields.length];
+    integerMeasures = new boolean[measureFields.length];
+    for (int m = 0; m < measureFields.length; m++) {
+      if ("*".equals(measureFields[m])) {
+        measureIndexes[m] = -1;
+        continue;
+      }
+      measureIndexes[m] = rowMeta.indexOfValue(measureFields[m]);
+      if (measureIndexes[m] < 0) {
+        throw new KettleException("rollup measure field " + measureFields[m] + " isn't an input field");
+      }
+      measureMetas[m] = rowMeta.getValueMeta(measureIndexes[m]);
+      integerMeasures[m] = measureMetas[m].getType() == ValueMetaInterface.TYPE_INTEGER;
+      if (functions[m] != COUNT && !measureMetas[m].isNumeric()) {
+        throw new KettleException("rollup measure field " + measureFields[m] + " isn't numeric");
+      }
+    }
+  }
+
+  /**
+   * Returns the number of columns of the rows written by write().
+   * @return number of group fields and measures
+   */
+  int getColumnCount() {
+    return groupCount + functions.length;
+  }
+
+  /**
+   * Adds a row to its group.
+   * @param row input row
+   * @throws KettleException if a value can't be converted or a run can't be spilled
+   */
+  void add(Object[] row) throws KettleException {
+    String key = groupKey.encode(row);
+    Group group = groups.get(key);
+    if (group == null) {
+      group = new Group(functions.length);
+      groups.put(key, group);
+      memory += GROUP_OVERHEAD + 2L * key.length() + 24L * functions.length;
+    }
+    for (int m = 0; m < functions.length; m++) {
+      if (measureIndexes[m] < 0) {
+        group.counts[m]++;
+      } else if (integerMeasures[m]) {
+        Long value = measureMetas[m].getInteger(row[measureIndexes[m]]);
+        if (value != null) {
+          group.add(m, functions[m], value);
+        }
+      } else if (functions[m] == COUNT) {
+        if (!measureMetas[m].isNull(row[measureIndexes[m]])) {
+          group.counts[m]++;
+        }
+      } else {
+        Double value = measureMetas[m].getNumber(row[measureIndexes[m]]);
+        if (value != null) {
+          group.add(m, functions[m], value.doubleValue());
+        }
+      }
+    }
+    rows++;
+    if (memory > memoryBudget) {
+      spill();
+    }
+  }
+
+  /**
+   * Sorts the groups by key and writes them as a run into a temporary file.
+   */
+  private void spill() throws KettleException {
+    File run;
+    try {
+      run = File.createTempFile("kettle-columnstore-rollup-", ".bin", directory);
+    } catch (IOException e) {
+      throw new KettleException("couldn't create a rollup run file in " + directory, e);
+    }
+    runs.add(run);
+    List<String> keys = new ArrayList<>(groups.keySet());
+    Collections.sort(keys);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), RUN_BUFFER_SIZE))) {
+      for (String key : keys) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        groups.get(key).writeTo(out);
+      }
+    } catch (IOException e) {
+      throw new KettleException("couldn't write the rollup run file " + run, e);
+    }
+    if (log.isDetailed()) {
+      log.logDetailed("Spilled a rollup run of " + keys.size() + " groups to " + run);
+    }
+    groups = new HashMap<>();
+    memory = 0;
+  }
+
+  /**
+   * Writes one row per group into the sink and deletes the runs.
+   * @param sink sink to write into, its columns are the group fields followed by the measures
+   * @throws KettleException if a run couldn't be read or the sink failed
+   */
+  void write(KettleColumnStoreRowSink sink) throws KettleException {
+    try {
+      if (runs.isEmpty()) {
+        for (Map.Entry<String, Group> entry : groups.entrySet()) {
+          writeGroup(entry.getKey(), entry.getValue(), sink);
+        }
+      } else {
+        if (!groups.isEmpty()) {
+          spill();
+        }
+        merge(sink);
+      }
+    } catch (IOException e) {
+      throw new KettleException("couldn't read the rollup runs", e);
+    } finally {
+      close();
+    }
+  }
+
+  /**
+   * Merges the runs, using a heap of the run readers ordered by their current keys.
+   */
+  private void merge(KettleColumnStoreRowSink sink) throws IOException, KettleException {
+    if (log.isDetailed()) {
+      log.logDetailed("Merging " + runs.size() + " rollup runs");
+    }
+    PriorityQueue<RunReader> heap = new PriorityQueue<>(runs.size(), new Comparator<RunReader>() {
+      public int compare(RunReader a, RunReader b) {
+        return a.key.compareTo(b.key);
+      }
+    });
+    List<RunReader> readers = new ArrayList<>();
+    try {
+      for (File run : runs) {
+        RunReader reader = new RunReader(run, functions.length);
+        readers.add(reader);
+        if (reader.next()) {
+          heap.add(reader);
+        }
+      }
+      while (!heap.isEmpty()) {
+        RunReader reader = heap.poll();
+        String key = reader.key;
+        Group group = reader.group;
+        if (reader.next()) {
+          heap.add(reader);
+        }
+        // combine the partial aggregates of the same key in the other runs
+        while (!heap.isEmpty() && heap.peek().key.equals(key)) {
+          RunReader other = heap.poll();
+          group.merge(other.group, functions);
+          if (other.next()) {
+            heap.add(other);
+          }
+        }
+        writeGroup(key, group, sink);
+      }
+    } finally {
+      for (RunReader reader : readers) {
+        reader.close();
+      }
+    }
+  }
+
+  private void writeGroup(String key, Group group, KettleColumnStoreRowSink sink) throws KettleException {
+    KettleColumnStoreRowKey.decode(key, groupValues);
+    for (int g = 0; g < groupCount; g++) {
+      if (groupValues[g] == null) {
+        sink.setNull(g);
+      } else {
+        sink.setColumn(g, groupValues[g]);
+      }
+    }
+    for (int m = 0; m < functions.length; m++) {
+      int column = groupCount + m;
+      if (functions[m] == COUNT) {
+        sink.setColumn(column, group.counts[m]);
+      } else if (group.counts[m] == 0) {
+        sink.setNull(column);
+      } else if (measureIndexes[m] >= 0 && integerMeasures[m]) {
+        sink.setColumn(column, group.longs[m]);
+      } else {
+        sink.setColumn(column, group.doubles[m]);
+      }
+    }
+    sink.writeRow();
+    groupsWritten++;
+  }
+
+  /**
+   * Returns the lock that serializes the rollup writes into a table within this JVM.
+   * @param database database of the rollup table
+   * @param table rollup table
+   * @return the lock object of the table
+   */
+  static Object getTableLock(String database, String table) {
+    String name = database + "." + table;
+    Object lock = TABLE_LOCKS.get(name);
+    if (lock == null) {
+      Object newLock = new Object();
+      lock = TABLE_LOCKS.putIfAbsent(name, newLock);
+      if (lock == null) {
+        lock = newLock;
+      }
+    }
+    return lock;
+  }
+
+  /**
+   * Releases the groups and deletes the runs, also called if the load is aborted.
+   */
+  void close() {
+    groups = new HashMap<>();
+    memory = 0;
+    for (File run : runs) {
+      if (!run.delete()) {
+        log.logDebug("couldn't delete the rollup run file " + run);
+      }
+    }
+    runs.clear();
+  }
+
+  long getRows() {
+    return rows;
+  }
+
+  long getGroupsWritten() {
+    return groupsWritten;
+  }
+
+  int getRuns() {
+    return runs.size();
+  }
+
+  /**
+   * Partial aggregates of a group. Each measure uses either its long or its double, counts holds the
+   * number of non null values.
+   */
+  private static final class Group {
+    final long[] counts;
+    final long[] longs;
+    final double[] doubles;
+
+    Group(int measures) {
+      counts = new long[measures];
+      longs = new long[measures];
+      doubles = new double[measures];
+    }
+
+    void add(int m, int function, long value) {
+      if (counts[m] == 0) {
+        longs[m] = value;
+      } else if (function == SUM) {
+        longs[m] += value;
+      } else if (function == MIN) {
+        longs[m] = Math.min(longs[m], value);
+      } else if (function == MAX) {
+        longs[m] = Math.max(longs[m], value);
+      }
+      counts[m]++;
+    }
+
+    void add(int m, int function, double value) {
+      if (counts[m] == 0) {
+        doubles[m] = value;
+      } else if (function == SUM) {
+        doubles[m] += value;
+      } else if (function == MIN) {
+        doubles[m] = Math.min(doubles[m], value);
+      } else if (function == MAX) {
+        doubles[m] = Math.max(doubles[m], value);
+      }
+      counts[m]++;
+    }
+
+    void merge(Group other, int[] functions) {
+      for (int m = 0; m < counts.length; m++) {
+        if (other.counts[m] == 0) {
+          continue;
+        }
+        if (counts[m] == 0) {
+          longs[m] = other.longs[m];
+          doubles[m] = other.doubles[m];
+        } else if (functions[m] == SUM) {
+          longs[m] += other.longs[m];
+          doubles[m] += other.doubles[m];
+        } else if (functions[m] == MIN) {
+          longs[m] = Math.min(longs[m], other.longs[m]);
+          doubles[m] = Math.min(doubles[m], other.doubles[m]);
+        } else if (functions[m] == MAX) {
+          longs[m] = Math.max(longs[m], other.longs[m]);
+          doubles[m] = Math.max(doubles[m], other.doubles[m]);
+        }
+        counts[m] += other.counts[m];
+      }
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+      for (int m = 0; m < counts.length; m++) {
+        out.writeLong(counts[m]);
+        out.writeLong(longs[m]);
+        out.writeDouble(doubles[m]);
+      }
+    }
+
+    void readFrom(DataInputStream in) throws IOException {
+      for (int m = 0; m < counts.length; m++) {
+        counts[m] = in.readLong();
+        longs[m] = in.readLong();
+        doubles[m] = in.readDouble();
+      }
+    }
+  }
+
+  /**
+   * Reads the groups of a run one after the other.
+   */
+  private static final class RunReader {
+    private final DataInputStream in;
+    private final int measures;
+    private String key;
+    private Group group;
+
+    RunReader(File run, int measures) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), RUN_BUFFER_SIZE));
+      this.measures = measures;
+    }
+
+    /**
+     * Reads the next group, into a new Group as the current one may be merged and written still.
+     * @return false at the end of the run
+     */
+    boolean next() throws IOException {
+      int length;
+      try {
+        length = in.readInt();
+      } catch (EOFException e) {
+        return false;
+      }
+      byte[] bytes = new byte[length];
+      in.readFully(bytes);
+      key = new String(bytes, StandardCharsets.UTF_8);
+      group = new Group(measures);
+      group.readFrom(in);
+      return true;
+    }
+
+    void close() {
+      try {
+        in.close();
+      } catch (IOException e) {
+        // nothing left to read
+      }
+    }
+  }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-ahead journal of the rows of the current batch of a KettleColumnStoreBulkLoader.
+ *
+ * Every row written into the bulk insert is also appended to a segment file, one segment per batch.
+ * Once the loader committed the batch, its segment is deleted. If a commit fails, the load is rolled
+ * back, or the JVM dies, the segment stays in the journal directory, and the next load of the table
+ * with the journal enabled replays it into a new bulk insert before it takes any input rows. Each
+ * segment is replayed and committed as one batch, and deleted after the commit.
+ *
+ * A segment starts with a header of magic number and column count, followed by the rows serialized
+ * by KettleColumnStoreConvertedRow, each prefixed by its length. Segments are written through a
+ * buffer, which is flushed and synced to disk every SYNC_ROWS rows or SYNC_INTERVAL_SECONDS seconds,
+ * whatever comes first, and always before the loader commits the batch. If the JVM or the machine
+ * dies, at most the rows written since the last sync are lost. A segment that ends within a row or
+ * its header isn't replayed: the load fails and the segment is kept, since its rows can't be told
+ * apart from a damaged file. The journal directory is locked while a load uses it.
+ */
+class KettleColumnStoreRowJournal implements KettleColumnStoreRowSink {
+
+  private static final int MAGIC = 0x43534A31; // "CSJ1"
+  private static final int SEGMENT_BUFFER_SIZE = 64 * 1024;
+  static final int SYNC_ROWS = 10000;
+  static final int SYNC_INTERVAL_SECONDS = 1;
+  private static final long SYNC_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(SYNC_INTERVAL_SECONDS);
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".journal";
+
+  private final File directory;
+  private final KettleColumnStoreBulkLoader loader;
+  private final LogChannelInterface log;
+
+  private final KettleColumnStoreConvertedRow row;
+  private final ByteArrayOutputStream rowBytes = new ByteArrayOutputStream();
+  private final DataOutputStream rowOut = new DataOutputStream(rowBytes);
+
+  private RandomAccessFile lockFile;
+  private FileLock lock;
+  private long nextSegment = 1;
+  private File segment;
+  private FileOutputStream segmentFile;
+  private DataOutputStream segmentOut;
+  private int rowsSinceSync;
+  private long lastSync;
+
+  /**
+   * Constructor
+   * @param directory journal directory of the target table
+   * @param columnCount number of columns of the target table
+   * @param loader loader of the target table
+   * @param log log channel of the step
+   */
+  KettleColumnStoreRowJournal(File directory, int columnCount, KettleColumnStoreBulkLoader loader, LogChannelInterface log) {
+    this.directory = directory;
+    this.loader = loader;
+    this.log = log;
+    this.row = new KettleColumnStoreConvertedRow(columnCount);
+  }
+
+  /**
+   * Creates and locks the journal directory.
+   * @throws KettleException if the directory can't be created or is used by another load
+   */
+  void open() throws KettleException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new KettleException("couldn't create the journal directory " + directory);
+    }
+    try {
+      lockFile = new RandomAccessFile(new File(directory, "journal.lock"), "rw");
+      lock = lockFile.getChannel().tryLock();
+    } catch (OverlappingFileLockException e) {
+      lock = null;
+    } catch (IOException e) {
+      close();
+      throw new KettleException("couldn't lock the journal directory " + directory, e);
+    }
+    if (lock == null) {
+      close();
+      throw new KettleException("the journal directory " + directory + " is used by another load");
+    }
+  }
+
+  /**
+   * Replays the segments left by earlier loads, each one into a bulk insert that is committed on its own.
+   * @return number of replayed rows
+   * @throws KettleException if a segment can't be read, is truncated within a row or doesn't fit the target table,
+   * the segment is kept then
+   */
+  long replay() throws KettleException {
+    File[] segments = directory.listFiles(new FilenameFilter() {
+      public boolean accept(File dir, String name) {
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+      }
+    });
+    if (segments == null || segments.length == 0) {
+      return 0;
+    }
+    Arrays.sort(segments);
+    long rows = 0;
+    for (File file : segments) {
+      long segmentRows = replay(file);
+      loader.commit();
+      if (!file.delete()) {
+        throw new KettleException("couldn't delete the replayed journal segment " + file);
+      }
+      log.logBasic("Replayed " + segmentRows + " uncommitted rows of an earlier load from " + file);
+      rows += segmentRows;
+    }
+    return rows;
+  }
+
+  private long replay(File file) throws KettleException {
+    long rows = 0;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), SEGMENT_BUFFER_SIZE))) {
+      if (in.readInt() != MAGIC) {
+        throw new KettleException(file + " isn't a journal segment");
+      }
+      int columnCount = in.readInt();
+      if (columnCount != row.getColumnCount()) {
+        throw new KettleException("journal segment " + file + " holds rows of " + columnCount + " columns, the target table has "
+                + row.getColumnCount());
+      }
+      byte[] record = new byte[256];
+      int first;
+      // the end of the segment is only expected before the length of a row
+      while ((first = in.read()) >= 0) {
+        int length = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+        if (length < 0) {
+          throw new KettleException("journal segment " + file + " is damaged after " + rows + " rows, it is kept");
+        }
+        if (length > record.length) {
+          record = new byte[Math.max(length, record.length * 2)];
+        }
+        in.readFully(record, 0, length);
+        row.readFrom(new DataInputStream(new ByteArrayInputStream(record, 0, length)));
+        loader.writeReplayedRow(row);
+        rows++;
+      }
+    } catch (EOFException e) {
+      throw new KettleException("journal segment " + file + " is truncated after " + rows + " rows, it is kept; delete it"
+              + " once its rows are loaded otherwise", e);
+    } catch (IOException e) {
+      throw new KettleException("couldn't read journal segment " + file, e);
+    }
+    row.clear();
+    return rows;
+  }
+
+  @Override
+  public void setNull(int column) {
+    row.setNull(column);
+    loader.setNull(column);
+  }
+
+  @Override
+  public void setColumn(int column, String value) {
+    row.setColumn(column, value);
+    loader.setColumn(column, value);
+  }
+
+  @Override
+  public void setColumn(int column, long value) {
+    row.setColumn(column, value);
+    loader.setColumn(column, value);
+  }
+
+  @Override
+  public void setColumn(int column, double value) {
+    row.setColumn(column, value);
+    loader.setColumn(column, value);
+  }
+
+  @Override
+  public void setColumn(int column, boolean value) {
+    row.setColumn(column, value);
+    loader.setColumn(column, value);
+  }
+
+  @Override
+  public void setColumn(int column, BigInteger value) {
+    row.setColumn(column, value);
+    loader.setColumn(column, value);
+  }
+
+  @Override
+  public void setColumn(int column, byte[] value, Charset charset) {
+    row.setColumn(column, value, charset);
+    loader.setColumn(column, value, charset);
+  }
+
+  @Override
+  public void setDecimal(int column, String value) {
+    row.setDecimal(column, value);
+    loader.setDecimal(column, value);
+  }
+
+  @Override
+  public void setDecimal(int column, long unscaled, int scale) {
+    row.setDecimal(column, unscaled, scale);
+    loader.setDecimal(column, unscaled, scale);
+  }
+
+  @Override
+  public void setDateTime(int column, int year, int month, int day, int hour, int minute, int second, int microsecond) {
+    row.setDateTime(column, year, month, day, hour, minute, second, microsecond);
+    loader.setDateTime(column, year, month, day, hour, minute, second, microsecond);
+  }
+
+  /**
+   * Appends the row to the segment of the current batch and writes it into the bulk insert. The
+   * segment is synced before the loader commits the batch with this row, and deleted after.
+   */
+  @Override
+  public void writeRow() throws KettleException {
+    append();
+    boolean commit = loader.isCommitDue();
+    if (commit || rowsSinceSync >= SYNC_ROWS || System.nanoTime() - lastSync >= SYNC_INTERVAL_NANOS) {
+      sync();
+    }
+    loader.writeRow(commit);
+    if (commit) {
+      deleteSegment();
+    }
+  }
+
+  private void append() throws KettleException {
+    try {
+      if (segmentOut == null) {
+        segment = new File(directory, SEGMENT_PREFIX + String.format("%012d", nextSegment++) + SEGMENT_SUFFIX);
+        segmentFile = new FileOutputStream(segment);
+        segmentOut = new DataOutputStream(new BufferedOutputStream(segmentFile, SEGMENT_BUFFER_SIZE));
+        segmentOut.writeInt(MAGIC);
+        segmentOut.writeInt(row.getColumnCount());
+        rowsSinceSync = 0;
+        lastSync = System.nanoTime();
+      }
+      rowBytes.reset();
+      row.writeTo(rowOut);
+      segmentOut.writeInt(rowBytes.size());
+      rowBytes.writeTo(segmentOut);
+      rowsSinceSync++;
+    } catch (IOException e) {
+      throw new KettleException("couldn't append the row to journal segment " + segment, e);
+    }
+    row.clear();
+  }
+
+  /**
+   * Flushes the segment of the current batch and syncs it to disk.
+   * @throws KettleException if the segment can't be written
+   */
+  private void sync() throws KettleException {
+    if (segmentOut == null) {
+      return;
+    }
+    try {
+      segmentOut.flush();
+      segmentFile.getFD().sync();
+    } catch (IOException e) {
+      throw new KettleException("couldn't sync journal segment " + segment, e);
+    }
+    rowsSinceSync = 0;
+    lastSync = System.nanoTime();
+  }
+
+  /**
+   * Syncs the segment of the current batch, commits the batch of the loader and deletes the segment.
+   * @throws KettleException if the segment can't be synced, the batch isn't committed then
+   * @throws com.mariadb.columnstore.api.ColumnStoreException if the commit failed, the segment is kept then
+   */
+  void commit() throws KettleException {
+    sync();
+    loader.commit();
+    deleteSegment();
+  }
+
+  /**
+   * Keeps the segment of the current batch for the next load, to be called when the batch is rolled back.
+   */
+  void abort() {
+    if (segmentOut != null) {
+      try {
+        segmentOut.flush();
+        segmentFile.getFD().sync();
+        log.logBasic("Kept the uncommitted rows in journal segment " + segment + ", they are replayed by the next load");
+      } catch (IOException e) {
+        log.logError("couldn't write journal segment " + segment, e);
+      } finally {
+        closeSegment();
+      }
+      segment = null;
+    }
+  }
+
+  private void deleteSegment() {
+    closeSegment();
+    if (segment != null) {
+      if (!segment.delete()) {
+        log.logError("couldn't delete committed journal segment " + segment + ", delete it before the next load");
+      }
+      segment = null;
+    }
+  }
+
+  private void closeSegment() {
+    if (segmentOut != null) {
+      try {
+        segmentOut.close();
+      } catch (IOException e) {
+        log.logError("couldn't close journal segment " + segment, e);
+      }
+      segmentOut = null;
+      segmentFile = null;
+    }
+  }
+
+  /**
+   * Keeps an uncommitted segment and releases the lock of the journal directory.
+   */
+  void close() {
+    abort();
+    try {
+      if (lock != null) {
+        lock.release();
+      }
+      if (lockFile != null) {
+        lockFile.close();
+      }
+    } catch (IOException e) {
+      log.logError("couldn't unlock the journal directory " + directory, e);
+    }
+    lock = null;
+    lockFile = null;
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+import java.math.BigDecimal;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+/**
+ * Encodes the values of some fields of a Kettle row into one string, which is used as key of the
+ * groups of the rollups and of the rows of the delta snapshot.
+ *
+ * Each value is converted into the string passed to ColumnStore: integers and decimals in plain
+ * notation, dates as yyyy-MM-dd HH:mm:ss and booleans as 1 and 0. Values are length prefixed and
+ * nulls are encoded as '-', so that equal keys mean equal values and the values can be decoded again.
+ */
+class KettleColumnStoreRowKey {
+
+  private final String[] fields;
+  private int[] indexes;
+  private ValueMetaInterface[] metas;
+  private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+  private final StringBuilder key = new StringBuilder();
+
+  /**
+   * Constructor
+   * @param fields names of the input fields
+   */
+  KettleColumnStoreRowKey(String[] fields) {
+    this.fields = fields;
+  }
+
+  /**
+   * Splits a comma separated list of names.
+   * @param list comma separated list, may be null
+   * @return the trimmed, non empty names
+   */
+  static String[] split(String list) {
+    if (list == null || list.trim().isEmpty()) {
+      return new String[0];
+    }
+    String[] names = list.split(",");
+    int n = 0;
+    for (String name : names) {
+      if (!name.trim().isEmpty()) {
+        names[n++] = name.trim();
+      }
+    }
+    String[] trimmed = new String[n];
+    System.arraycopy(names, 0, trimmed, 0, n);
+    return trimmed;
+  }
+
+  /**
+   * Looks up the fields in the input rows.
+   * @param rowMeta layout of the input rows
+   * @param role role of the fields, for the error messages
+   * @throws KettleException if a field doesn't exist or is binary
+   */
+  void setRowMeta(RowMetaInterface rowMeta, String role) throws KettleException {
+    indexes = new int[fields.length];
+    metas = new ValueMetaInterface[fields.length];
+    for (int f = 0; f < fields.length; f++) {
+      indexes[f] = rowMeta.indexOfValue(fields[f]);
+      if (indexes[f] < 0) {
+        throw new KettleException(role + " " + fields[f] + " isn't an input field");
+      }
+      metas[f] = rowMeta.getValueMeta(indexes[f]);
+      if (metas[f].getType() == ValueMetaInterface.TYPE_BINARY) {
+        throw new KettleException(role + " " + fields[f] + " is binary");
+      }
+    }
+  }
+
+  String[] getFields() {
+    return fields;
+  }
+
+  /**
+   * Encodes the values of the fields.
+   * @param row input row
+   * @return the key
+   * @throws KettleException if a value can't be converted
+   */
+  String encode(Object[] row) throws KettleException {
+    key.setLength(0);
+    for (int f = 0; f < indexes.length; f++) {
+      String value = toString(metas[f], row[indexes[f]]);
+      if (value == null) {
+        key.append('-');
+      } else {
+        key.append(value.length()).append(':').append(value);
+      }
+    }
+    return key.toString();
+  }
+
+  /**
+   * Decodes the values of a key.
+   * @param key encoded key
+   * @param values array the values are decoded into, null for null values
+   */
+  static void decode(String key, String[] values) {
+    int position = 0;
+    for (int f = 0; f < values.length; f++) {
+      if (key.charAt(position) == '-') {
+        values[f] = null;
+        position++;
+      } else {
+        int colon = key.indexOf(':', position);
+        int end = colon + 1 + Integer.parseInt(key.substring(position, colon));
+        values[f] = key.substring(colon + 1, end);
+        position = end;
+      }
+    }
+  }
+
+  private String toString(ValueMetaInterface meta, Object value) throws KettleException {
+    if (meta.isNull(value)) {
+      return null;
+    }
+    switch (meta.getType()) {
+      case ValueMetaInterface.TYPE_INTEGER:
+        return meta.getInteger(value).toString();
+      case ValueMetaInterface.TYPE_NUMBER:
+        return BigDecimal.valueOf(meta.getNumber(value)).toPlainString();
+      case ValueMetaInterface.TYPE_BIGNUMBER:
+        return meta.getBigNumber(value).toPlainString();
+      case ValueMetaInterface.TYPE_DATE:
+      case ValueMetaInterface.TYPE_TIMESTAMP:
+        return dateFormat.format(meta.getDate(value));
+      case ValueMetaInterface.TYPE_BOOLEAN:
+        return meta.getBoolean(value) ? "1" : "0";
+      default:
+        return meta.getString(value);
+    }
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import org.pentaho.di.core.exception.KettleException;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+
+/**
+ * Receives the converted column values of rows written to ColumnStore.
+ *
+ * The methods follow ColumnStoreBulkInsert: the columns of a row are set one by one, and writeRow()
+ * completes the row. Dates and decimals can be passed by their fields instead of strings, so that
+ * they don't need to be formatted and parsed again. Implementations either write into a bulk insert directly or hand the values
+ * over to another thread.
+ */
+interface KettleColumnStoreRowSink {
+
+  void setNull(int column) throws KettleException;
+
+  void setColumn(int column, String value) throws KettleException;
+
+  void setColumn(int column, long value) throws KettleException;
+
+  void setColumn(int column, double value) throws KettleException;
+
+  void setColumn(int column, boolean value) throws KettleException;
+
+  void setColumn(int column, BigInteger value) throws KettleException;
+
+  /**
+   * Sets a string value that is still encoded, as passed on by steps using lazy conversion.
+   * @param column target column
+   * @param value encoded string
+   * @param charset encoding of the string
+   * @throws KettleException if the value can't be set
+   */
+  void setColumn(int column, byte[] value, Charset charset) throws KettleException;
+
+  /**
+   * Sets a decimal value.
+   * @param column target column
+   * @param value decimal in plain notation, as returned by BigDecimal.toPlainString()
+   * @throws KettleException if the value can't be set
+   */
+  void setDecimal(int column, String value) throws KettleException;
+
+  /**
+   * Sets a decimal value that fits into a long.
+   * @param column target column
+   * @param unscaled unscaled value, as returned by BigDecimal.unscaledValue()
+   * @param scale number of digits after the decimal point
+   * @throws KettleException if the value can't be set
+   */
+  void setDecimal(int column, long unscaled, int scale) throws KettleException;
+
+  /**
+   * Sets a date or datetime value from its fields.
+   * @param column target column
+   * @param year year
+   * @param month month, starting with 1
+   * @param day day of month
+   * @param hour hour of day
+   * @param minute minute
+   * @param second second
+   * @param microsecond microsecond
+   * @throws KettleException if the value can't be set
+   */
+  void setDateTime(int column, int year, int month, int day, int hour, int minute, int second, int microsecond)
+          throws KettleException;
+
+  void writeRow() throws KettleException;
+}
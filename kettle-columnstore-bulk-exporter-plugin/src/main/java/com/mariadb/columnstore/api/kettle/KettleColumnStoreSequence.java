@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.logging.LoggingObjectInterface;
+import org.pentaho.di.core.variables.VariableSpace;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Hands out the keys of a named sequence, which are reserved in blocks from a small InnoDB table in
+ * the target database. The statements run over the JDBC connection of the step.
+ *
+ * A block is reserved with one autocommitted UPDATE, which adds the block size to the next value of
+ * the sequence and returns the new value through LAST_INSERT_ID(). The row lock of the UPDATE
+ * serializes the reservations of all step copies and transformations, so the blocks never overlap.
+ * Within its block a step copy counts up without any synchronization, there is one statement per
+ * block instead of per row. Keys left in the block of a finished load are skipped, so the keys are
+ * unique and increasing per step copy, but not gapless.
+ *
+ * A sequence that doesn't exist yet starts after the largest value of the key column in the target
+ * table, so that it can be introduced for tables already holding rows.
+ */
+class KettleColumnStoreSequence {
+
+  static final String SEQUENCE_TABLE = "columnstore_kettle_sequences";
+
+  private final DatabaseMeta databaseMeta;
+  private final LoggingObjectInterface parent;
+  private final VariableSpace variables;
+  private final String database;
+  private final String name;
+  private final long blockSize;
+  private final LogChannelInterface log;
+
+  private MariaDBColumnStoreDatabase db;
+  private PreparedStatement reserve;
+  private PreparedStatement lastInsertId;
+  // keys of the current block, next == end if it is used up
+  private long next = 0;
+  private long end = 0;
+  private long reservations = 0;
+
+  /**
+   * Constructor
+   * @param databaseMeta JDBC connection of the step
+   * @param parent the step, for logging
+   * @param variables variables of the step
+   * @param database database holding the sequence table
+   * @param name name of the sequence
+   * @param blockSize number of keys reserved at once
+   * @param log log channel of the step
+   */
+  KettleColumnStoreSequence(DatabaseMeta databaseMeta, LoggingObjectInterface parent, VariableSpace variables, String database,
+                            String name, long blockSize, LogChannelInterface log) {
+    this.databaseMeta = databaseMeta;
+    this.parent = parent;
+    this.variables = variables;
+    this.database = database;
+    this.name = name;
+    this.blockSize = Math.max(blockSize, 1);
+    this.log = log;
+  }
+
+  String getName() {
+    return name;
+  }
+
+  long getReservations() {
+    return reservations;
+  }
+
+  /**
+   * Connects, creates the sequence table and the sequence if they don't exist yet and prepares the reservation.
+   * @param table table the keys are written into
+   * @param column key column of the table, a new sequence starts after its largest value
+   * @throws KettleException if the sequence table can't be created or the sequence can't be read
+   */
+  void open(String table, String column) throws KettleException {
+    db = new MariaDBColumnStoreDatabase(parent, databaseMeta);
+    db.shareVariablesWith(variables);
+    db.connect();
+    try {
+      db.setAutoCommit(true);
+      String quotedSequenceTable = databaseMeta.getQuotedSchemaTableCombination(database, SEQUENCE_TABLE);
+      db.execStatement("CREATE TABLE IF NOT EXISTS " + quotedSequenceTable
+              + " (sequence_name VARCHAR(128) NOT NULL PRIMARY KEY, next_value BIGINT NOT NULL) ENGINE=InnoDB");
+      // concurrent loads may create the same sequence, only the first insert counts
+      try (PreparedStatement create = db.getConnection().prepareStatement("INSERT IGNORE INTO " + quotedSequenceTable
+              + " (sequence_name, next_value) SELECT ?, COALESCE(MAX(" + databaseMeta.quoteField(column) + "), 0) + 1 FROM "
+              + databaseMeta.getQuotedSchemaTableCombination(database, table))) {
+        create.setString(1, name);
+        if (create.executeUpdate() > 0 && log.isDetailed()) {
+          log.logDetailed("Created sequence " + name + " in " + database + "." + SEQUENCE_TABLE);
+        }
+      }
+      reserve = db.getConnection().prepareStatement("UPDATE " + quotedSequenceTable
+              + " SET next_value = LAST_INSERT_ID(next_value + ?) WHERE sequence_name = ?");
+      lastInsertId = db.getConnection().prepareStatement("SELECT LAST_INSERT_ID()");
+    } catch (SQLException | KettleException e) {
+      close();
+      throw new KettleException("couldn't open sequence " + name + " in " + database + "." + SEQUENCE_TABLE, e);
+    }
+  }
+
+  /**
+   * Returns the next key, reserving a new block if the current one is used up.
+   * @return the key
+   * @throws KettleException if a block can't be reserved
+   */
+  long next() throws KettleException {
+    if (next == end) {
+      reserve();
+    }
+    return next++;
+  }
+
+  private void reserve() throws KettleException {
+    try {
+      reserve.setLong(1, blockSize);
+      reserve.setString(2, name);
+      if (reserve.executeUpdate() != 1) {
+        throw new KettleException("sequence " + name + " doesn't exist anymore in " + database + "." + SEQUENCE_TABLE);
+      }
+      try (ResultSet resultSet = lastInsertId.executeQuery()) {
+        resultSet.next();
+        end = resultSet.getLong(1);
+      }
+    } catch (SQLException e) {
+      throw new KettleException("couldn't reserve keys from sequence " + name, e);
+    }
+    next = end - blockSize;
+    reservations++;
+    if (log.isDebug()) {
+      log.logDebug("Reserved keys " + next + " to " + (end - 1) + " from sequence " + name);
+    }
+  }
+
+  /**
+   * Closes the connection, the rest of the current block is skipped.
+   */
+  void close() {
+    if (db == null) {
+      return;
+    }
+    try {
+      if (reserve != null) {
+        reserve.close();
+      }
+      if (lastInsertId != null) {
+        lastInsertId.close();
+      }
+    } catch (SQLException e) {
+      log.logError("couldn't close the statements of sequence " + name, e);
+    } finally {
+      db.disconnect();
+      db = null;
+    }
+  }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import com.mariadb.columnstore.api.ColumnStoreException;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lets several copies of the bulk exporter step load one ColumnStore table through a single bulk insert.
+ *
+ * ColumnStore allows only one bulk insert per table at a time. Therefore the step copies of a
+ * transformation that target the same table join one coordinator per JVM, keyed by database and
+ * table. The copies convert their rows in parallel and hand them over through a lock-free queue to
+ * one writer thread, which owns the KettleColumnStoreBulkLoader. The final commit is done once the
+ * last copy finished, so that ColumnStore sees one bulk transaction. The writer thread sleeps while
+ * the queue is empty and is woken by the copies when they queue a row, finish or abort.
+ *
+ * Copies join as the last action of a successful init(). PDI initializes all step copies before any
+ * of them processes rows, therefore all participants are known when the first one finishes. If
+ * another copy fails its init(), PDI stops the joined copies, which then abort the bulk insert.
+ *
+ * The coordinator reports its commits into its own metrics, published as SharedBulkInsert MBean
+ * until the writer thread is done, since it outlives the step copy that created it.
+ */
+class KettleColumnStoreSharedWriter {
+
+  /**
+   * Creates the loader of a coordinator. It is only called for the first copy joining, and the
+   * driver of the loader is deleted by the coordinator once it is done.
+   */
+  interface LoaderFactory {
+    KettleColumnStoreBulkLoader createLoader() throws KettleException;
+  }
+
+  private static final Map<String, KettleColumnStoreSharedWriter> COORDINATORS = new HashMap<>();
+
+  // time a step copy parks if all slots are in use
+  private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private final String key;
+  private final Object owner;
+  private final int columnCount;
+  private final int capacity;
+  private final KettleColumnStoreBulkLoader loader;
+  private final KettleColumnStoreBulkExporterMetrics metrics = new KettleColumnStoreBulkExporterMetrics();
+  private final Thread writerThread;
+
+  private final ConcurrentLinkedQueue<KettleColumnStoreConvertedRow> queue = new ConcurrentLinkedQueue<>();
+  private final ConcurrentLinkedQueue<KettleColumnStoreConvertedRow> freeSlots = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger allocatedSlots = new AtomicInteger();
+
+  // participants are only added while the coordinator lock is held
+  private int participants = 0;
+  private final AtomicInteger finishedParticipants = new AtomicInteger();
+
+  private volatile boolean aborted = false;
+  private volatile Throwable failure;
+  // set by the writer thread before it parks on an empty queue, the copies only unpark it then
+  private volatile boolean writerIdle = false;
+
+  private KettleColumnStoreSharedWriter(String key, Object owner, int columnCount, int capacity, KettleColumnStoreBulkLoader loader) {
+    this.key = key;
+    this.owner = owner;
+    this.columnCount = columnCount;
+    this.capacity = Math.max(capacity, 1);
+    this.loader = loader;
+    loader.setMetrics(metrics);
+    writerThread = new Thread(new Runnable() {
+      public void run() {
+        drain();
+      }
+    }, "ColumnStore shared bulk writer " + key);
+    writerThread.setDaemon(true);
+  }
+
+  /**
+   * Joins the coordinator of a target table, creating it for the first copy.
+   * @param owner the transformation the step copy belongs to, a table can only be shared within one transformation
+   * @param transformation name of the transformation, for the metrics MBean
+   * @param database target database
+   * @param table target table
+   * @param columnCount number of columns of the target table
+   * @param capacity maximum number of converted rows waiting to be written
+   * @param factory creates the loader if the coordinator doesn't exist yet
+   * @param log log channel of the step copy
+   * @return the participant handle of the step copy
+   * @throws KettleException if the table is loaded by another transformation or the loader couldn't be created
+   */
+  static Participant join(Object owner, String transformation, String database, String table, int columnCount, int capacity,
+                          LoaderFactory factory, LogChannelInterface log) throws KettleException {
+    String key = database + "." + table;
+    synchronized (COORDINATORS) {
+      KettleColumnStoreSharedWriter coordinator = COORDINATORS.get(key);
+      if (coordinator != null && coordinator.owner != owner) {
+        throw new KettleException("ColumnStore table " + key + " is already loaded by another transformation");
+      }
+      if (coordinator == null) {
+        coordinator = new KettleColumnStoreSharedWriter(key, owner, columnCount, capacity, factory.createLoader());
+        COORDINATORS.put(key, coordinator);
+        coordinator.metrics.registerShared(transformation, key, log);
+        coordinator.writerThread.start();
+      }
+      coordinator.participants++;
+      return coordinator.new Participant();
+    }
+  }
+
+  /**
+   * Body of the writer thread, writes queued rows until all participants finished or one aborted.
+   */
+  private void drain() {
+    try {
+      while (!aborted) {
+        KettleColumnStoreConvertedRow row = queue.poll();
+        if (row != null) {
+          loader.writeRow(row);
+          freeSlots.offer(row);
+        } else if (finishedParticipants.get() >= getParticipants() && queue.isEmpty()) {
+          break;
+        } else {
+          // the queue is checked again once the flag is visible, so a row queued meanwhile isn't missed
+          writerIdle = true;
+          if (queue.isEmpty() && !aborted && finishedParticipants.get() < getParticipants()) {
+            LockSupport.park(this);
+          }
+          writerIdle = false;
+        }
+      }
+      if (aborted) {
+        loader.rollback();
+      } else {
+        loader.commit();
+      }
+    } catch (Throwable t) {
+      failure = t;
+      try {
+        loader.rollback();
+      } catch (ColumnStoreException e) {
+        // the original failure is reported
+      }
+    } finally {
+      synchronized (COORDINATORS) {
+        COORDINATORS.remove(key, this);
+      }
+      metrics.unregister();
+      loader.getDriver().delete();
+    }
+  }
+
+  private int getParticipants() {
+    synchronized (COORDINATORS) {
+      return participants;
+    }
+  }
+
+  /**
+   * The handle of one step copy. Each copy converts into its own slot, so a participant is only used by one thread.
+   */
+  class Participant implements KettleColumnStoreRowSink {
+
+    private KettleColumnStoreConvertedRow current;
+    private boolean done = false;
+    private boolean abortedHere = false;
+
+    /**
+     * Returns the slot to convert the current row into, waiting for the writer thread if all slots are in use.
+     */
+    private KettleColumnStoreConvertedRow currentSlot() throws KettleException {
+      while (current == null) {
+        checkFailure();
+        current = freeSlots.poll();
+        if (current != null) {
+          current.clear();
+        } else if (allocatedSlots.incrementAndGet() <= capacity) {
+          current = new KettleColumnStoreConvertedRow(columnCount);
+        } else {
+          allocatedSlots.decrementAndGet();
+          LockSupport.parkNanos(this, FULL_PARK_NANOS);
+        }
+      }
+      return current;
+    }
+
+    private void checkFailure() throws KettleException {
+      if (failure != null) {
+        throw new KettleException("the shared ColumnStore bulk writer failed: " + failure.getMessage(), failure);
+      }
+      if (aborted) {
+        throw new KettleException("the shared ColumnStore bulk insert was rolled back by another step copy");
+      }
+    }
+
+    @Override
+    public void setNull(int column) throws KettleException {
+      currentSlot().setNull(column);
+    }
+
+    @Override
+    public void setColumn(int column, String value) throws KettleException {
+      currentSlot().setColumn(column, value);
+    }
+
+    @Override
+    public void setColumn(int column, long value) throws KettleException {
+      currentSlot().setColumn(column, value);
+    }
+
+    @Override
+    public void setColumn(int column, double value) throws KettleException {
+      currentSlot().setColumn(column, value);
+    }
+
+    @Override
+    public void setColumn(int column, boolean value) throws KettleException {
+      currentSlot().setColumn(column, value);
+    }
+
+    @Override
+    public void setColumn(int column, BigInteger value) throws KettleException {
+      currentSlot().setColumn(column, value);
+    }
+
+    @Override
+    public void setColumn(int column, byte[] value, Charset charset) throws KettleException {
+      currentSlot().setColumn(column, value, charset);
+    }
+
+    @Override
+    public void setDecimal(int column, String value) throws KettleException {
+      currentSlot().setDecimal(column, value);
+    }
+
+    @Override
+    public void setDecimal(int column, long unscaled, int scale) throws KettleException {
+      currentSlot().setDecimal(column, unscaled, scale);
+    }
+
+    @Override
+    public void setDateTime(int column, int year, int month, int day, int hour, int minute, int second, int microsecond)
+            throws KettleException {
+      currentSlot().setDateTime(column, year, month, day, hour, minute, second, microsecond);
+    }
+
+    /**
+     * Queues the current row for the writer thread.
+     */
+    @Override
+    public void writeRow() throws KettleException {
+      queue.offer(currentSlot());
+      current = null;
+      if (writerIdle) {
+        LockSupport.unpark(writerThread);
+      }
+    }
+
+    /**
+     * Finishes this step copy and waits until the writer thread committed the rows of all copies.
+     * @return true if this was the last copy to finish
+     * @throws KettleException if the writer thread failed or another copy rolled back the bulk insert
+     */
+    boolean finish() throws KettleException {
+      boolean last = leave();
+      try {
+        writerThread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new KettleException("interrupted while waiting for the shared ColumnStore bulk writer", e);
+      }
+      if (!abortedHere) {
+        checkFailure();
+      }
+      return last;
+    }
+
+    /**
+     * Rolls back the shared bulk insert for all step copies.
+     */
+    void abort() {
+      abortedHere = true;
+      aborted = true;
+      leave();
+      LockSupport.unpark(writerThread);
+    }
+
+    private boolean leave() {
+      if (done) {
+        return false;
+      }
+      done = true;
+      boolean last = finishedParticipants.incrementAndGet() >= getParticipants();
+      LockSupport.unpark(writerThread);
+      return last;
+    }
+
+    /**
+     * Returns the loader of the shared bulk insert, its summary is complete once finish() returned.
+     */
+    KettleColumnStoreBulkLoader getLoader() {
+      return loader;
+    }
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.logging.LoggingObjectInterface;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.variables.VariableSpace;
+
+/**
+ * A table the rows are bulk loaded into instead of the target table, which is applied to the target
+ * table once the load is committed. The statements run over the JDBC connection of the step.
+ *
+ * The staging table is created from the DDL of the target table, so it has the same columns, types
+ * and engine. It is applied in one of two ways:
+ * - merge: row-level UPDATEs are slow in ColumnStore, therefore the rows of the target table having
+ *   a key in the staging table are deleted with one DELETE ... JOIN, and the staged rows are copied
+ *   with one INSERT ... SELECT, both in one transaction. Rows with a null key never match, and the
+ *   staged rows should hold each key only once. The staging table is dropped afterwards.
+ * - swap: the staging table is a shadow of the target table for full refreshes. Both tables swap
+ *   their names in one RENAME TABLE statement, and the old copy is dropped. Readers see the old rows
+ *   until the rename and never wait for the table lock of the bulk insert.
+ */
+class KettleColumnStoreStagingTable {
+
+  static final String MERGE_SUFFIX = "_merge_stage";
+  static final String SHADOW_SUFFIX = "_shadow";
+  // name the target table has during the swap
+  private static final String SWAP_SUFFIX = "_swap";
+
+  private final DatabaseMeta databaseMeta;
+  private final LoggingObjectInterface parent;
+  private final VariableSpace variables;
+  private final String database;
+  private final String table;
+  private final String stagingTable;
+  private final LogChannelInterface log;
+
+  /**
+   * Constructor
+   * @param databaseMeta JDBC connection of the step
+   * @param parent the step, for logging
+   * @param variables variables of the step
+   * @param database target database
+   * @param table target table
+   * @param suffix appended to the name of the target table to name the staging table
+   * @param log log channel of the step
+   */
+  KettleColumnStoreStagingTable(DatabaseMeta databaseMeta, LoggingObjectInterface parent, VariableSpace variables, String database,
+                                String table, String suffix, LogChannelInterface log) {
+    this.databaseMeta = databaseMeta;
+    this.parent = parent;
+    this.variables = variables;
+    this.database = database;
+    this.table = table;
+    this.stagingTable = table + suffix;
+    this.log = log;
+  }
+
+  String getStagingTable() {
+    return stagingTable;
+  }
+
+  /**
+   * Creates the staging table from the DDL of the target table, replacing a staging table left by an earlier load.
+   * The cached system catalogs are invalidated afterwards.
+   * @throws KettleException if the DDL of the target table can't be read or the staging table can't be created
+   */
+  void prepare() throws KettleException {
+    MariaDBColumnStoreDatabase db = connect();
+    try {
+      String quotedStagingTable = databaseMeta.getQuotedSchemaTableCombination(database, stagingTable);
+      db.execStatement(db.getDropTableIfExistsStatement(quotedStagingTable));
+      db.execStatement(db.getCreateTableLikeStatement(databaseMeta.getQuotedSchemaTableCombination(database, table), quotedStagingTable));
+      if (log.isDetailed()) {
+        log.logDetailed("Created staging table " + database + "." + stagingTable + " for " + database + "." + table);
+      }
+    } finally {
+      db.disconnect();
+      KettleColumnStoreDriverCache.invalidateCatalogs();
+    }
+  }
+
+  /**
+   * Replaces the rows of the target table having a key in the staging table by the staged rows and drops the staging table.
+   * @param keyColumns names of the key columns
+   * @throws KettleException if a key column doesn't exist or a statement failed, the merge is rolled back and the staging table kept then
+   */
+  void merge(String[] keyColumns) throws KettleException {
+    MariaDBColumnStoreDatabase db = connect();
+    try {
+      String quotedTable = databaseMeta.getQuotedSchemaTableCombination(database, table);
+      String quotedStagingTable = databaseMeta.getQuotedSchemaTableCombination(database, stagingTable);
+      RowMetaInterface fields = db.getTableFields(quotedTable);
+      if (fields == null) {
+        throw new KettleException("couldn't read the columns of " + database + "." + table);
+      }
+      String[] columns = fields.getFieldNames();
+      for (String key : keyColumns) {
+        boolean found = false;
+        for (String column : columns) {
+          found |= column.equalsIgnoreCase(key);
+        }
+        if (!found) {
+          throw new KettleException("merge key column " + key + " isn't a column of " + database + "." + table);
+        }
+      }
+      db.setAutoCommit(false);
+      try {
+        db.execStatement(db.getDeleteJoinStatement(quotedTable, quotedStagingTable, quoteFields(keyColumns)));
+        db.execStatement(db.getInsertSelectStatement(quotedTable, quotedStagingTable, quoteFields(columns)));
+        db.commit();
+      } catch (KettleDatabaseException e) {
+        db.rollback();
+        throw new KettleException("couldn't merge " + database + "." + stagingTable + " into " + database + "." + table
+                + ", the staging table is kept", e);
+      }
+      db.setAutoCommit(true);
+      db.execStatement(db.getDropTableIfExistsStatement(quotedStagingTable));
+      if (log.isDetailed()) {
+        log.logDetailed("Merged staging table " + database + "." + stagingTable + " into " + database + "." + table);
+      }
+    } finally {
+      db.disconnect();
+      KettleColumnStoreDriverCache.invalidateCatalogs();
+    }
+  }
+
+  /**
+   * Swaps the names of the target table and the staging table and drops the old copy of the target table.
+   * @throws KettleException if the tables couldn't be renamed, both tables keep their names then
+   */
+  void swap() throws KettleException {
+    MariaDBColumnStoreDatabase db = connect();
+    try {
+      String quotedTable = databaseMeta.getQuotedSchemaTableCombination(database, table);
+      String quotedStagingTable = databaseMeta.getQuotedSchemaTableCombination(database, stagingTable);
+      String quotedSwapTable = databaseMeta.getQuotedSchemaTableCombination(database, table + SWAP_SUFFIX);
+      try {
+        db.execStatement(db.getRenameTablesStatement(new String[]{quotedTable, quotedStagingTable, quotedSwapTable},
+                new String[]{quotedSwapTable, quotedTable, quotedStagingTable}));
+      } catch (KettleDatabaseException e) {
+        throw new KettleException("couldn't swap " + database + "." + stagingTable + " with " + database + "." + table
+                + ", the loaded rows are kept in " + database + "." + stagingTable, e);
+      }
+      // the staging table holds the old rows now
+      db.execStatement(db.getDropTableIfExistsStatement(quotedStagingTable));
+      if (log.isDetailed()) {
+        log.logDetailed("Swapped shadow table " + database + "." + stagingTable + " in as " + database + "." + table);
+      }
+    } finally {
+      db.disconnect();
+      KettleColumnStoreDriverCache.invalidateCatalogs();
+    }
+  }
+
+  /**
+   * Drops the staging table of a failed load.
+   */
+  void drop() {
+    try {
+      MariaDBColumnStoreDatabase db = connect();
+      try {
+        db.execStatement(db.getDropTableIfExistsStatement(databaseMeta.getQuotedSchemaTableCombination(database, stagingTable)));
+      } finally {
+        db.disconnect();
+        KettleColumnStoreDriverCache.invalidateCatalogs();
+      }
+    } catch (KettleException e) {
+      log.logError("couldn't drop staging table " + database + "." + stagingTable, e);
+    }
+  }
+
+  private MariaDBColumnStoreDatabase connect() throws KettleDatabaseException {
+    MariaDBColumnStoreDatabase db = new MariaDBColumnStoreDatabase(parent, databaseMeta);
+    db.shareVariablesWith(variables);
+    db.connect();
+    return db;
+  }
+
+  private String[] quoteFields(String[] names) {
+    String[] quoted = new String[names.length];
+    for (int i = 0; i < names.length; i++) {
+      quoted[i] = databaseMeta.quoteField(names[i]);
+    }
+    return quoted;
+  }
+}
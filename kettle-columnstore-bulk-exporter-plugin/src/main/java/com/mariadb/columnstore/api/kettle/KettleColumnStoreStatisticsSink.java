@@ -0,0 +1,417 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import org.pentaho.di.core.exception.KettleException;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+
+/**
+ * Passes the converted values on to another sink and profiles each column on the way: the number of
+ * nulls, the minimum and maximum, a HyperLogLog estimate of the distinct values and, for strings, the
+ * percentiles of their length. The accumulators are allocated once per column, the values themselves
+ * are only hashed and compared, so that monitoring doesn't need to scan the loaded table again.
+ *
+ * Minimum and maximum are kept per kind of value: integers, doubles, decimals (compared as doubles,
+ * reported exactly), datetimes (packed into a long) and strings (String or encoded bytes, held by
+ * reference). The distinct estimate uses 2^14 registers, about 1% standard error. String lengths are
+ * counted exactly up to 8192, longer strings are reported as the maximum length.
+ */
+class KettleColumnStoreStatisticsSink implements KettleColumnStoreRowSink {
+
+  static final int STATISTICS_COLUMNS = 13;
+
+  private static final int PRECISION = 14;
+  private static final int REGISTERS = 1 << PRECISION;
+  private static final int MAX_COUNTED_LENGTH = 8192;
+
+  private final KettleColumnStoreRowSink sink;
+  private final ColumnStatistics[] columns;
+  private long rows = 0;
+
+  /**
+   * Constructor
+   * @param sink sink the values are passed on to
+   * @param columnNames names of the target columns
+   */
+  KettleColumnStoreStatisticsSink(KettleColumnStoreRowSink sink, String[] columnNames) {
+    this.sink = sink;
+    this.columns = new ColumnStatistics[columnNames.length];
+    for (int c = 0; c < columnNames.length; c++) {
+      columns[c] = new ColumnStatistics(columnNames[c]);
+    }
+  }
+
+  long getRows() {
+    return rows;
+  }
+
+  @Override
+  public void setNull(int column) throws KettleException {
+    columns[column].nulls++;
+    sink.setNull(column);
+  }
+
+  @Override
+  public void setColumn(int column, String value) throws KettleException {
+    columns[column].addString(value);
+    sink.setColumn(column, value);
+  }
+
+  @Override
+  public void setColumn(int column, long value) throws KettleException {
+    columns[column].addLong(value);
+    sink.setColumn(column, value);
+  }
+
+  @Override
+  public void setColumn(int column, double value) throws KettleException {
+    columns[column].addDouble(value);
+    sink.setColumn(column, value);
+  }
+
+  @Override
+  public void setColumn(int column, boolean value) throws KettleException {
+    columns[column].addLong(value ? 1 : 0);
+    sink.setColumn(column, value);
+  }
+
+  @Override
+  public void setColumn(int column, BigInteger value) throws KettleException {
+    // unsigned 64 bit values beyond the range of a long
+    columns[column].addDecimal(value.doubleValue(), 0, 0, value.toString());
+    sink.setColumn(column, value);
+  }
+
+  @Override
+  public void setColumn(int column, byte[] value, Charset charset) throws KettleException {
+    columns[column].addBytes(value, charset);
+    sink.setColumn(column, value, charset);
+  }
+
+  @Override
+  public void setDecimal(int column, String value) throws KettleException {
+    columns[column].addDecimal(Double.parseDouble(value), 0, 0, value);
+    sink.setDecimal(column, value);
+  }
+
+  @Override
+  public void setDecimal(int column, long unscaled, int scale) throws KettleException {
+    columns[column].addDecimal(unscaled / Math.pow(10, scale), unscaled, scale, null);
+    sink.setDecimal(column, unscaled, scale);
+  }
+
+  @Override
+  public void setDateTime(int column, int year, int month, int day, int hour, int minute, int second, int microsecond)
+          throws KettleException {
+    long packed = ((((((long) year * 13 + month) * 32 + day) * 24 + hour) * 60 + minute) * 60 + second) * 1000000L + microsecond;
+    columns[column].addDateTime(packed);
+    sink.setDateTime(column, year, month, day, hour, minute, second, microsecond);
+  }
+
+  @Override
+  public void writeRow() throws KettleException {
+    rows++;
+    sink.writeRow();
+  }
+
+  /**
+   * Writes one row per column into a sink, its columns are load_time, table_schema, table_name,
+   * column_name, row_count, null_count, distinct_estimate, min_value, max_value, length_p50,
+   * length_p90, length_p99 and length_max.
+   * @param statisticsSink sink to write into
+   * @param database target database
+   * @param table target table
+   * @param loadTime time of the load
+   * @throws KettleException if the sink failed
+   */
+  void write(KettleColumnStoreRowSink statisticsSink, String database, String table, Calendar loadTime) throws KettleException {
+    for (ColumnStatistics column : columns) {
+      statisticsSink.setDateTime(0, loadTime.get(Calendar.YEAR), loadTime.get(Calendar.MONTH) + 1, loadTime.get(Calendar.DAY_OF_MONTH),
+              loadTime.get(Calendar.HOUR_OF_DAY), loadTime.get(Calendar.MINUTE), loadTime.get(Calendar.SECOND), 0);
+      statisticsSink.setColumn(1, database);
+      statisticsSink.setColumn(2, table);
+      statisticsSink.setColumn(3, column.name);
+      statisticsSink.setColumn(4, rows);
+      statisticsSink.setColumn(5, column.nulls);
+      statisticsSink.setColumn(6, column.estimateDistinct());
+      setString(statisticsSink, 7, column.format(true));
+      setString(statisticsSink, 8, column.format(false));
+      if (column.lengths == null) {
+        for (int c = 9; c < STATISTICS_COLUMNS; c++) {
+          statisticsSink.setNull(c);
+        }
+      } else {
+        statisticsSink.setColumn(9, column.lengthPercentile(0.5));
+        statisticsSink.setColumn(10, column.lengthPercentile(0.9));
+        statisticsSink.setColumn(11, column.lengthPercentile(0.99));
+        statisticsSink.setColumn(12, column.maxLength);
+      }
+      statisticsSink.writeRow();
+    }
+  }
+
+  private static void setString(KettleColumnStoreRowSink statisticsSink, int column, String value) throws KettleException {
+    if (value == null) {
+      statisticsSink.setNull(column);
+    } else {
+      statisticsSink.setColumn(column, value);
+    }
+  }
+
+  /**
+   * Returns the statistics of all columns, for the log.
+   */
+  @Override
+  public String toString() {
+    StringBuilder s = new StringBuilder();
+    for (ColumnStatistics column : columns) {
+      s.append(column.name).append(": ").append(column.nulls).append(" nulls, ~").append(column.estimateDistinct())
+              .append(" distinct, min ").append(column.format(true)).append(", max ").append(column.format(false));
+      if (column.lengths != null) {
+        s.append(", length p50 ").append(column.lengthPercentile(0.5)).append(" p90 ").append(column.lengthPercentile(0.9))
+                .append(" p99 ").append(column.lengthPercentile(0.99)).append(" max ").append(column.maxLength);
+      }
+      s.append('\n');
+    }
+    return s.toString();
+  }
+
+  /**
+   * Accumulators of one column.
+   */
+  private static final class ColumnStatistics {
+
+    private final String name;
+    private final byte[] registers = new byte[REGISTERS];
+    private long nulls = 0;
+
+    private boolean hasLong = false;
+    private long minLong;
+    private long maxLong;
+
+    private boolean hasDouble = false;
+    private double minDouble;
+    private double maxDouble;
+
+    // decimals, the extremes as unscaled value and scale or as string
+    private boolean hasDecimal = false;
+    private double minDecimal;
+    private double maxDecimal;
+    private long minUnscaled;
+    private long maxUnscaled;
+    private int minScale;
+    private int maxScale;
+    private String minDecimalString;
+    private String maxDecimalString;
+
+    private boolean hasDateTime = false;
+    private long minDateTime;
+    private long maxDateTime;
+
+    private String minString;
+    private String maxString;
+    private byte[] minBytes;
+    private byte[] maxBytes;
+    private Charset charset;
+    private long[] lengths;
+    private int maxLength = 0;
+    private long strings = 0;
+
+    ColumnStatistics(String name) {
+      this.name = name;
+    }
+
+    void addLong(long value) {
+      if (!hasLong || value < minLong) {
+        minLong = value;
+      }
+      if (!hasLong || value > maxLong) {
+        maxLong = value;
+      }
+      hasLong = true;
+      addHash(KettleColumnStoreDelta.mix(value));
+    }
+
+    void addDouble(double value) {
+      if (!hasDouble || value < minDouble) {
+        minDouble = value;
+      }
+      if (!hasDouble || value > maxDouble) {
+        maxDouble = value;
+      }
+      hasDouble = true;
+      addHash(KettleColumnStoreDelta.mix(Double.doubleToLongBits(value == 0 ? 0.0 : value)));
+    }
+
+    void addDecimal(double value, long unscaled, int scale, String string) {
+      if (!hasDecimal || value < minDecimal) {
+        minDecimal = value;
+        minUnscaled = unscaled;
+        minScale = scale;
+        minDecimalString = string;
+      }
+      if (!hasDecimal || value > maxDecimal) {
+        maxDecimal = value;
+        maxUnscaled = unscaled;
+        maxScale = scale;
+        maxDecimalString = string;
+      }
+      hasDecimal = true;
+      if (string != null) {
+        addHash(KettleColumnStoreDelta.hash(string));
+      } else {
+        // equal values with other scales hash alike
+        while (scale > 0 && unscaled % 10 == 0) {
+          unscaled /= 10;
+          scale--;
+        }
+        addHash(KettleColumnStoreDelta.mix(KettleColumnStoreDelta.mix(unscaled) ^ scale));
+      }
+    }
+
+    void addDateTime(long packed) {
+      if (!hasDateTime || packed < minDateTime) {
+        minDateTime = packed;
+      }
+      if (!hasDateTime || packed > maxDateTime) {
+        maxDateTime = packed;
+      }
+      hasDateTime = true;
+      addHash(KettleColumnStoreDelta.mix(packed));
+    }
+
+    void addString(String value) {
+      if (minString == null || value.compareTo(minString) < 0) {
+        minString = value;
+      }
+      if (maxString == null || value.compareTo(maxString) > 0) {
+        maxString = value;
+      }
+      addLength(value.length());
+      addHash(KettleColumnStoreDelta.hash(value));
+    }
+
+    void addBytes(byte[] value, Charset valueCharset) {
+      if (minBytes == null || compare(value, minBytes) < 0) {
+        minBytes = value;
+      }
+      if (maxBytes == null || compare(value, maxBytes) > 0) {
+        maxBytes = value;
+      }
+      charset = valueCharset;
+      addLength(value.length);
+      addHash(KettleColumnStoreDelta.hash(value, value.length));
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+      int length = Math.min(a.length, b.length);
+      for (int i = 0; i < length; i++) {
+        int d = (a[i] & 0xFF) - (b[i] & 0xFF);
+        if (d != 0) {
+          return d;
+        }
+      }
+      return a.length - b.length;
+    }
+
+    private void addLength(int length) {
+      if (lengths == null) {
+        lengths = new long[MAX_COUNTED_LENGTH + 2];
+      }
+      lengths[Math.min(length, MAX_COUNTED_LENGTH + 1)]++;
+      maxLength = Math.max(maxLength, length);
+      strings++;
+    }
+
+    int lengthPercentile(double percentile) {
+      long rank = (long) Math.ceil(percentile * strings);
+      long count = 0;
+      for (int length = 0; length <= MAX_COUNTED_LENGTH; length++) {
+        count += lengths[length];
+        if (count >= rank) {
+          return length;
+        }
+      }
+      return maxLength;
+    }
+
+    private void addHash(long hash) {
+      int register = (int) (hash >>> (64 - PRECISION));
+      byte rank = (byte) (Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1);
+      if (rank > registers[register]) {
+        registers[register] = rank;
+      }
+    }
+
+    long estimateDistinct() {
+      double sum = 0;
+      int zeros = 0;
+      for (byte rank : registers) {
+        sum += 1.0 / (1L << rank);
+        if (rank == 0) {
+          zeros++;
+        }
+      }
+      double estimate = 0.7213 / (1 + 1.079 / REGISTERS) * REGISTERS * REGISTERS / sum;
+      if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+        // linear counting is more accurate for small cardinalities
+        estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+      }
+      return Math.round(estimate);
+    }
+
+    /**
+     * Formats the minimum or maximum, null if the column only held nulls.
+     */
+    String format(boolean min) {
+      if (hasLong) {
+        return Long.toString(min ? minLong : maxLong);
+      }
+      if (hasDouble) {
+        return Double.toString(min ? minDouble : maxDouble);
+      }
+      if (hasDecimal) {
+        String string = min ? minDecimalString : maxDecimalString;
+        return string != null ? string : BigDecimal.valueOf(min ? minUnscaled : maxUnscaled, min ? minScale : maxScale).toPlainString();
+      }
+      if (hasDateTime) {
+        long packed = min ? minDateTime : maxDateTime;
+        int microsecond = (int) (packed % 1000000);
+        packed /= 1000000;
+        int second = (int) (packed % 60);
+        packed /= 60;
+        int minute = (int) (packed % 60);
+        packed /= 60;
+        int hour = (int) (packed % 24);
+        packed /= 24;
+        int day = (int) (packed % 32);
+        packed /= 32;
+        int month = (int) (packed % 13);
+        int year = (int) (packed / 13);
+        return String.format("%04d-%02d-%02d %02d:%02d:%02d.%06d", year, month, day, hour, minute, second, microsecond);
+      }
+      if (minString != null) {
+        return min ? minString : maxString;
+      }
+      if (minBytes != null) {
+        return new String(min ? minBytes : maxBytes, charset);
+      }
+      return null;
+    }
+  }
+}
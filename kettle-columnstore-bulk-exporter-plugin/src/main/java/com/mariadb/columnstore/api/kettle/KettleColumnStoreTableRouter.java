@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import com.mariadb.columnstore.api.ColumnStoreException;
+import com.mariadb.columnstore.api.ColumnStoreSystemCatalogTable;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Routes rows into the ColumnStore table named by a field of the row.
+ *
+ * Each target table has its own KettleColumnStoreBulkLoader. At most maxOpenTables bulk inserts are
+ * open at the same time, once the pool is full the least recently used table is committed and its
+ * bulk insert closed. The column writer plan of a table is built from the system catalog and the
+ * field mapping the first time the table is seen, and kept if the table is evicted, so that its rows
+ * don't need catalog lookups when the table comes back. All tables share the field mapping, which
+ * maps target columns by name.
+ */
+class KettleColumnStoreTableRouter {
+
+  /**
+   * An open target table.
+   */
+  static class Route {
+    final String table;
+    final KettleColumnStoreBulkLoader loader;
+    // the loader, or the loader behind the throttle of the step copy
+    final KettleColumnStoreRowSink sink;
+    final KettleColumnStoreTimingSink timingSink;
+    final KettleColumnStoreColumnWriter[] writers;
+
+    private Route(String table, KettleColumnStoreBulkLoader loader, KettleColumnStoreThrottle throttle,
+                  KettleColumnStoreColumnWriter[] writers) {
+      this.table = table;
+      this.loader = loader;
+      this.sink = throttle != null ? throttle.wrap(loader) : loader;
+      this.timingSink = new KettleColumnStoreTimingSink(sink);
+      this.writers = writers;
+    }
+  }
+
+  private final KettleColumnStoreDriverCache.CachedDriver d;
+  private final String database;
+  private final KettleColumnStoreBulkExporterStepMeta.InputTargetMapping fieldMapping;
+  private final long commitRowCount;
+  private final long commitInterval;
+  private final int maxOpenTables;
+  private final KettleColumnStoreBulkExporterMetrics metrics;
+  private final LogChannelInterface log;
+
+  private RowMetaInterface rowMeta;
+  private KettleColumnStoreThrottle throttle;
+
+  // open tables in access order, the first one is the least recently used
+  private final LinkedHashMap<String, Route> routes = new LinkedHashMap<>(16, 0.75f, true);
+  private final Map<String, KettleColumnStoreColumnWriter[]> plans = new HashMap<>();
+  private long evictions = 0;
+
+  /**
+   * Constructor
+   * @param d leased ColumnStoreDriver used to look up the target tables and create the bulk inserts
+   * @param database target database
+   * @param fieldMapping mapping of target column names to input fields
+   * @param commitRowCount number of rows after which a batch of a table is committed, 0 to disable
+   * @param commitInterval number of seconds after which a batch of a table is committed, 0 to disable
+   * @param maxOpenTables maximum number of bulk inserts open at the same time
+   * @param metrics metrics of the step copy
+   * @param log log channel of the step
+   */
+  KettleColumnStoreTableRouter(KettleColumnStoreDriverCache.CachedDriver d, String database,
+                               KettleColumnStoreBulkExporterStepMeta.InputTargetMapping fieldMapping,
+                               long commitRowCount, long commitInterval, int maxOpenTables,
+                               KettleColumnStoreBulkExporterMetrics metrics, LogChannelInterface log) {
+    this.d = d;
+    this.database = database;
+    this.fieldMapping = fieldMapping;
+    this.commitRowCount = commitRowCount;
+    this.commitInterval = commitInterval;
+    this.maxOpenTables = Math.max(maxOpenTables, 1);
+    this.metrics = metrics;
+    this.log = log;
+  }
+
+  /**
+   * Sets the layout of the input rows, called with the first row.
+   * @param rowMeta input row meta
+   */
+  void setRowMeta(RowMetaInterface rowMeta) {
+    this.rowMeta = rowMeta;
+  }
+
+  /**
+   * Sets the throttle all tables share, called before the first row.
+   * @param throttle throttle of the step copy
+   */
+  void setThrottle(KettleColumnStoreThrottle throttle) {
+    this.throttle = throttle;
+  }
+
+  /**
+   * Returns the open target table, opening it and evicting the least recently used table if needed.
+   * @param table name of the target table
+   * @return the route of the table
+   * @throws KettleException if the table doesn't exist or can't be mapped
+   */
+  Route route(String table) throws KettleException {
+    if (table == null || table.trim().isEmpty()) {
+      throw new KettleException("the target table field is empty");
+    }
+    table = table.trim();
+    Route route = routes.get(table);
+    if (route == null) {
+      KettleColumnStoreColumnWriter[] writers = plans.get(table);
+      if (writers == null) {
+        writers = createPlan(table);
+        plans.put(table, writers);
+      }
+      if (routes.size() >= maxOpenTables) {
+        evict();
+      }
+      KettleColumnStoreBulkLoader loader = new KettleColumnStoreBulkLoader(d.getDriver(), database, table, commitRowCount,
+              commitInterval, log);
+      loader.setMetrics(metrics);
+      route = new Route(table, loader, throttle, writers);
+      routes.put(table, route);
+      if (log.isDetailed()) {
+        log.logDetailed("Opened bulk insert into " + database + "." + table);
+      }
+    }
+    return route;
+  }
+
+  /**
+   * Commits and closes the least recently used table.
+   */
+  private void evict() {
+    Iterator<Route> it = routes.values().iterator();
+    Route eldest = it.next();
+    eldest.loader.commit();
+    it.remove();
+    evictions++;
+    if (log.isDetailed()) {
+      log.logDetailed("Committed and closed the least recently used bulk insert into " + database + "." + eldest.table);
+    }
+  }
+
+  /**
+   * Builds the column writer plan of a table from the system catalog, which is read again once if the table isn't in it.
+   */
+  private KettleColumnStoreColumnWriter[] createPlan(String table) throws KettleException {
+    ColumnStoreSystemCatalogTable catalogTable;
+    try {
+      catalogTable = d.getTable(database, table);
+    } catch (ColumnStoreException e) {
+      throw new KettleException("target table " + database + "." + table + " doesn't exist", e);
+    }
+    List<String> inputFields = new ArrayList<>(Arrays.asList(rowMeta.getFieldNames()));
+    KettleColumnStoreColumnWriter[] writers = new KettleColumnStoreColumnWriter[catalogTable.getColumnCount()];
+    for (int c = 0; c < writers.length; c++) {
+      String columnName = catalogTable.getColumn(c).getColumnName();
+      int i = inputFields.indexOf(fieldMapping.getTargetInputMappingField(columnName));
+      if (i < 0) {
+        throw new KettleException("no mapping for column " + columnName + " of target table " + database + "." + table + " found");
+      }
+      writers[c] = KettleColumnStoreColumnWriter.create(c, i, rowMeta.getValueMeta(i), catalogTable.getColumn(c), log);
+    }
+    return writers;
+  }
+
+  /**
+   * Commits all open tables.
+   * @throws ColumnStoreException if a commit failed, the remaining tables are still open then
+   */
+  void commit() {
+    Iterator<Route> it = routes.values().iterator();
+    while (it.hasNext()) {
+      Route route = it.next();
+      route.loader.commit();
+      it.remove();
+    }
+  }
+
+  /**
+   * Rolls back the current batches of all open tables, batches committed before aren't affected.
+   */
+  void rollback() {
+    for (Route route : routes.values()) {
+      try {
+        route.loader.rollback();
+      } catch (ColumnStoreException e) {
+        log.logError("couldn't roll back bulk insert into " + database + "." + route.table, e);
+      }
+    }
+    routes.clear();
+  }
+
+  int getOpenTables() {
+    return routes.size();
+  }
+
+  int getKnownTables() {
+    return plans.size();
+  }
+
+  long getEvictions() {
+    return evictions;
+  }
+}
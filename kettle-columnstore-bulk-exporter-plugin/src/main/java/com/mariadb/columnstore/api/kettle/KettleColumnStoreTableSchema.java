@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import com.mariadb.columnstore.api.ColumnStoreSystemCatalogColumn;
+import com.mariadb.columnstore.api.ColumnStoreSystemCatalogTable;
+import com.mariadb.columnstore.api.columnstore_data_types_t;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * Copy of the columns of a system catalog table. The catalog entries are owned by the native system
+ * catalog, which is freed whenever the driver reads the catalog again, e.g. when another table is
+ * looked up through the same lease. The step therefore keeps this copy instead of the catalog table.
+ */
+class KettleColumnStoreTableSchema {
+
+  private final String[] names;
+  private final columnstore_data_types_t[] types;
+  private final boolean[] nullable;
+  private final String[] defaultValues;
+
+  /**
+   * Copies the columns of a catalog table, the catalog table isn't used afterwards.
+   * @param table system catalog table
+   */
+  KettleColumnStoreTableSchema(ColumnStoreSystemCatalogTable table) {
+    int columnCount = table.getColumnCount();
+    names = new String[columnCount];
+    types = new columnstore_data_types_t[columnCount];
+    nullable = new boolean[columnCount];
+    defaultValues = new String[columnCount];
+    for (int c = 0; c < columnCount; c++) {
+      ColumnStoreSystemCatalogColumn column = table.getColumn(c);
+      names[c] = column.getColumnName();
+      types[c] = column.getType();
+      nullable[c] = column.isNullable();
+      defaultValues[c] = column.getDefaultValue();
+    }
+  }
+
+  int getColumnCount() {
+    return names.length;
+  }
+
+  String getColumnName(int column) {
+    return names[column];
+  }
+
+  columnstore_data_types_t getType(int column) {
+    return types[column];
+  }
+
+  /**
+   * Creates the writer for a column.
+   * @param column position of the column in the table
+   * @param inputIndex index of the mapped field in the input row
+   * @param inputMeta value meta of the mapped input field
+   * @param log log channel of the step
+   * @return the column writer
+   * @throws KettleException if the Kettle data type isn't supported
+   */
+  KettleColumnStoreColumnWriter createWriter(int column, int inputIndex, ValueMetaInterface inputMeta, LogChannelInterface log)
+          throws KettleException {
+    return KettleColumnStoreColumnWriter.create(column, inputIndex, inputMeta, names[column],
+            KettleColumnStoreColumnWriter.isRealType(types[column]), KettleColumnStoreColumnWriter.isTemporalType(types[column]),
+            nullable[column], defaultValues[column], log);
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import org.pentaho.di.core.exception.KettleException;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.nio.charset.Charset;
+
+/**
+ * Limits the rows and the estimated bytes per second written by a step copy, so that loads during
+ * business hours don't saturate the write I/O of the PMs.
+ *
+ * Two token buckets, one for rows and one for bytes, are refilled at the configured rates and hold
+ * at most BURST_SECONDS worth of tokens, which keeps the load smooth. Each written row takes its
+ * tokens; once a bucket owes at least MIN_PARK_NANOS worth of tokens, the writing thread parks until
+ * the debt is repaid, smaller debts are carried over to the next rows. The size of a row is estimated
+ * from the converted values: 8 bytes for numbers and datetimes, the length of strings.
+ *
+ * The limits can be changed at any time through the metrics MBean, 0 disables a limit.
+ */
+class KettleColumnStoreThrottle {
+
+  private static final double BURST_SECONDS = 0.1;
+  private static final long MIN_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private volatile long maxRowsPerSecond;
+  private volatile long maxBytesPerSecond;
+  private final KettleColumnStoreBulkExporterMetrics metrics;
+
+  private double rowTokens = 0;
+  private double byteTokens = 0;
+  private long lastRefill = System.nanoTime();
+  private long rowParkNanos = 0;
+
+  /**
+   * Constructor
+   * @param maxRowsPerSecond maximum number of rows per second, 0 for no limit
+   * @param maxBytesPerSecond maximum number of estimated bytes per second, 0 for no limit
+   * @param metrics metrics the throttled time is added to
+   */
+  KettleColumnStoreThrottle(long maxRowsPerSecond, long maxBytesPerSecond, KettleColumnStoreBulkExporterMetrics metrics) {
+    this.maxRowsPerSecond = Math.max(maxRowsPerSecond, 0);
+    this.maxBytesPerSecond = Math.max(maxBytesPerSecond, 0);
+    this.metrics = metrics;
+  }
+
+  long getMaxRowsPerSecond() {
+    return maxRowsPerSecond;
+  }
+
+  void setMaxRowsPerSecond(long maxRowsPerSecond) {
+    this.maxRowsPerSecond = Math.max(maxRowsPerSecond, 0);
+  }
+
+  long getMaxBytesPerSecond() {
+    return maxBytesPerSecond;
+  }
+
+  void setMaxBytesPerSecond(long maxBytesPerSecond) {
+    this.maxBytesPerSecond = Math.max(maxBytesPerSecond, 0);
+  }
+
+  /**
+   * Returns the time the last row waited for tokens, so that it can be taken out of the write time of sampled rows.
+   */
+  long getRowParkNanos() {
+    return rowParkNanos;
+  }
+
+  /**
+   * Takes the tokens of a written row, parking the calling thread if the rows or bytes exceed their limit.
+   * @param bytes estimated size of the row
+   */
+  void acquire(long bytes) {
+    rowParkNanos = 0;
+    long rowRate = maxRowsPerSecond;
+    long byteRate = maxBytesPerSecond;
+    long now = System.nanoTime();
+    long elapsed = now - lastRefill;
+    lastRefill = now;
+    long waitNanos = 0;
+    if (rowRate > 0) {
+      rowTokens = Math.min(Math.max(rowRate * BURST_SECONDS, 1), rowTokens + elapsed * rowRate / 1e9) - 1;
+      if (rowTokens < 0) {
+        waitNanos = (long) (-rowTokens * 1e9 / rowRate);
+      }
+    } else {
+      rowTokens = 0;
+    }
+    if (byteRate > 0) {
+      byteTokens = Math.min(Math.max(byteRate * BURST_SECONDS, 1), byteTokens + elapsed * byteRate / 1e9) - bytes;
+      if (byteTokens < 0) {
+        waitNanos = Math.max(waitNanos, (long) (-byteTokens * 1e9 / byteRate));
+      }
+    } else {
+      byteTokens = 0;
+    }
+    if (waitNanos >= MIN_PARK_NANOS) {
+      // the tokens are refilled with the next row, by the time elapsed since this one
+      long deadline = now + waitNanos;
+      long remaining = waitNanos;
+      while (remaining > 0) {
+        LockSupport.parkNanos(remaining);
+        remaining = deadline - System.nanoTime();
+      }
+      rowParkNanos = System.nanoTime() - now;
+      if (metrics != null) {
+        metrics.addThrottled(rowParkNanos);
+      }
+    }
+  }
+
+  /**
+   * Wraps a sink, so that its rows take tokens of this throttle.
+   * @param sink the sink to throttle
+   * @return the throttled sink
+   */
+  KettleColumnStoreRowSink wrap(KettleColumnStoreRowSink sink) {
+    return new ThrottledSink(sink);
+  }
+
+  /**
+   * Forwards the values to a sink and estimates the size of the row.
+   */
+  private class ThrottledSink implements KettleColumnStoreRowSink {
+    private final KettleColumnStoreRowSink sink;
+    private long bytes = 0;
+
+    private ThrottledSink(KettleColumnStoreRowSink sink) {
+      this.sink = sink;
+    }
+
+    @Override
+    public void setNull(int column) throws KettleException {
+      bytes += 1;
+      sink.setNull(column);
+    }
+
+    @Override
+    public void setColumn(int column, String value) throws KettleException {
+      bytes += value.length();
+      sink.setColumn(column, value);
+    }
+
+    @Override
+    public void setColumn(int column, long value) throws KettleException {
+      bytes += 8;
+      sink.setColumn(column, value);
+    }
+
+    @Override
+    public void setColumn(int column, double value) throws KettleException {
+      bytes += 8;
+      sink.setColumn(column, value);
+    }
+
+    @Override
+    public void setColumn(int column, boolean value) throws KettleException {
+      bytes += 1;
+      sink.setColumn(column, value);
+    }
+
+    @Override
+    public void setColumn(int column, BigInteger value) throws KettleException {
+      bytes += 8;
+      sink.setColumn(column, value);
+    }
+
+    @Override
+    public void setColumn(int column, byte[] value, Charset charset) throws KettleException {
+      bytes += value.length;
+      sink.setColumn(column, value, charset);
+    }
+
+    @Override
+    public void setDecimal(int column, String value) throws KettleException {
+      bytes += 8;
+      sink.setDecimal(column, value);
+    }
+
+    @Override
+    public void setDecimal(int column, long unscaled, int scale) throws KettleException {
+      bytes += 8;
+      sink.setDecimal(column, unscaled, scale);
+    }
+
+    @Override
+    public void setDateTime(int column, int year, int month, int day, int hour, int minute, int second, int microsecond)
+            throws KettleException {
+      bytes += 8;
+      sink.setDateTime(column, year, month, day, hour, minute, second, microsecond);
+    }
+
+    @Override
+    public void writeRow() throws KettleException {
+      sink.writeRow();
+      acquire(bytes);
+      bytes = 0;
+    }
+  }
+}
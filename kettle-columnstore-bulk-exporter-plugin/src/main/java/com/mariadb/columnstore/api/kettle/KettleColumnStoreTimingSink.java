@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import org.pentaho.di.core.exception.KettleException;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+
+/**
+ * Forwards the values of sampled rows to another sink and adds up the time spent in it, so that the
+ * time of the column writers can be split into conversion and the time of the sink.
+ */
+class KettleColumnStoreTimingSink implements KettleColumnStoreRowSink {
+
+  private final KettleColumnStoreRowSink sink;
+  private long nanos;
+
+  KettleColumnStoreTimingSink(KettleColumnStoreRowSink sink) {
+    this.sink = sink;
+  }
+
+  /**
+   * Resets the time spent in the sink, called before each sampled row.
+   */
+  void reset() {
+    nanos = 0;
+  }
+
+  long getNanos() {
+    return nanos;
+  }
+
+  @Override
+  public void setNull(int column) throws KettleException {
+    long start = System.nanoTime();
+    sink.setNull(column);
+    nanos += System.nanoTime() - start;
+  }
+
+  @Override
+  public void setColumn(int column, String value) throws KettleException {
+    long start = System.nanoTime();
+    sink.setColumn(column, value);
+    nanos += System.nanoTime() - start;
+  }
+
+  @Override
+  public void setColumn(int column, long value) throws KettleException {
+    long start = System.nanoTime();
+    sink.setColumn(column, value);
+    nanos += System.nanoTime() - start;
+  }
+
+  @Override
+  public void setColumn(int column, double value) throws KettleException {
+    long start = System.nanoTime();
+    sink.setColumn(column, value);
+    nanos += System.nanoTime() - start;
+  }
+
+  @Override
+  public void setColumn(int column, boolean value) throws KettleException {
+    long start = System.nanoTime();
+    sink.setColumn(column, value);
+    nanos += System.nanoTime() - start;
+  }
+
+  @Override
+  public void setColumn(int column, BigInteger value) throws KettleException {
+    long start = System.nanoTime();
+    sink.setColumn(column, value);
+    nanos += System.nanoTime() - start;
+  }
+
+  @Override
+  public void setColumn(int column, byte[] value, Charset charset) throws KettleException {
+    long start = System.nanoTime();
+    sink.setColumn(column, value, charset);
+    nanos += System.nanoTime() - start;
+  }
+
+  @Override
+  public void setDecimal(int column, String value) throws KettleException {
+    long start = System.nanoTime();
+    sink.setDecimal(column, value);
+    nanos += System.nanoTime() - start;
+  }
+
+  @Override
+  public void setDecimal(int column, long unscaled, int scale) throws KettleException {
+    long start = System.nanoTime();
+    sink.setDecimal(column, unscaled, scale);
+    nanos += System.nanoTime() - start;
+  }
+
+  @Override
+  public void setDateTime(int column, int year, int month, int day, int hour, int minute, int second, int microsecond)
+          throws KettleException {
+    long start = System.nanoTime();
+    sink.setDateTime(column, year, month, day, hour, minute, second, microsecond);
+    nanos += System.nanoTime() - start;
+  }
+
+  @Override
+  public void writeRow() throws KettleException {
+    long start = System.nanoTime();
+    sink.writeRow();
+    nanos += System.nanoTime() - start;
+  }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.logging.LoggingObjectInterface;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.variables.VariableSpace;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * The high-watermark of a column of the target table, the largest value loaded so far. It is kept in
+ * a small InnoDB table in the target database, so that incremental loads don't need to scan the
+ * column for its maximum. The statements run over the JDBC connection of the step.
+ *
+ * The watermark is read at initialization; a table without a watermark yet starts with the maximum
+ * of the column. Rows whose value isn't above the watermark are dropped, the largest value of the
+ * written rows is saved once they are committed. Before the end of the load this is only safe as long
+ * as the rows arrived in ascending order, otherwise uncommitted rows may lie below the saved value
+ * and would be skipped by the next load. Values are stored as strings: numbers in plain
+ * notation and dates as yyyy-MM-dd HH:mm:ss.SSS, so that they can be used in SQL statements.
+ */
+class KettleColumnStoreWatermark {
+
+  static final String WATERMARK_TABLE = "columnstore_kettle_watermarks";
+
+  private final DatabaseMeta databaseMeta;
+  private final LoggingObjectInterface parent;
+  private final VariableSpace variables;
+  private final String database;
+  private final String table;
+  private final String column;
+  private final LogChannelInterface log;
+  private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+
+  private MariaDBColumnStoreDatabase db;
+  private PreparedStatement update;
+  private String watermark;
+  private int index;
+  private ValueMetaInterface meta;
+  // watermark and largest written value, of the type of the input field
+  private Comparable<Object> value;
+  private Comparable<Object> pending;
+  private long dropped = 0;
+  private boolean ascending = true;
+
+  /**
+   * Constructor
+   * @param databaseMeta JDBC connection of the step
+   * @param parent the step, for logging
+   * @param variables variables of the step
+   * @param database target database
+   * @param table target table
+   * @param column watermark column of the target table
+   * @param log log channel of the step
+   */
+  KettleColumnStoreWatermark(DatabaseMeta databaseMeta, LoggingObjectInterface parent, VariableSpace variables, String database,
+                             String table, String column, LogChannelInterface log) {
+    this.databaseMeta = databaseMeta;
+    this.parent = parent;
+    this.variables = variables;
+    this.database = database;
+    this.table = table;
+    this.column = column;
+    this.log = log;
+  }
+
+  /**
+   * Connects, creates the watermark table if it doesn't exist yet and reads the watermark.
+   * @return the watermark, null if the target table is empty
+   * @throws KettleException if the watermark can't be read
+   */
+  String open() throws KettleException {
+    db = new MariaDBColumnStoreDatabase(parent, databaseMeta);
+    db.shareVariablesWith(variables);
+    db.connect();
+    try {
+      db.setAutoCommit(true);
+      String quotedWatermarkTable = databaseMeta.getQuotedSchemaTableCombination(database, WATERMARK_TABLE);
+      db.execStatement("CREATE TABLE IF NOT EXISTS " + quotedWatermarkTable
+              + " (table_name VARCHAR(192) NOT NULL, column_name VARCHAR(64) NOT NULL, watermark VARCHAR(64),"
+              + " PRIMARY KEY (table_name, column_name)) ENGINE=InnoDB");
+      boolean found = false;
+      try (PreparedStatement select = db.getConnection().prepareStatement("SELECT watermark FROM " + quotedWatermarkTable
+              + " WHERE table_name = ? AND column_name = ?")) {
+        select.setString(1, table);
+        select.setString(2, column);
+        try (ResultSet resultSet = select.executeQuery()) {
+          if (resultSet.next()) {
+            found = true;
+            watermark = resultSet.getString(1);
+          }
+        }
+      }
+      if (!found) {
+        // the only scan of the column, later loads read the saved watermark
+        Object[] max = db.getOneRow("SELECT MAX(" + databaseMeta.quoteField(column) + ") FROM "
+                + databaseMeta.getQuotedSchemaTableCombination(database, table));
+        watermark = max == null ? null : format(max[0]);
+        if (log.isDetailed()) {
+          log.logDetailed("No watermark of " + database + "." + table + "." + column + " saved yet, starting at the maximum " + watermark);
+        }
+      }
+      update = db.getConnection().prepareStatement("INSERT INTO " + quotedWatermarkTable
+              + " (table_name, column_name, watermark) VALUES (?, ?, ?) ON DUPLICATE KEY UPDATE watermark = VALUES(watermark)");
+      return watermark;
+    } catch (SQLException | KettleException e) {
+      close();
+      throw new KettleException("couldn't read the watermark of " + database + "." + table + "." + column, e);
+    }
+  }
+
+  /**
+   * Looks up the watermark field in the input rows and converts the watermark to its type.
+   * @param rowMeta layout of the input rows
+   * @param field input field mapped to the watermark column
+   * @throws KettleException if the field doesn't exist or the watermark can't be converted
+   */
+  void setRowMeta(RowMetaInterface rowMeta, String field) throws KettleException {
+    index = rowMeta.indexOfValue(field);
+    if (index < 0) {
+      throw new KettleException("watermark field " + field + " isn't an input field");
+    }
+    meta = rowMeta.getValueMeta(index);
+    value = watermark == null ? null : parse(watermark);
+  }
+
+  /**
+   * Checks if a row is above the watermark. Rows with a null value are always written.
+   * @param row input row
+   * @return true if the row has to be written
+   * @throws KettleException if the value can't be converted
+   */
+  boolean isNew(Object[] row) throws KettleException {
+    Comparable<Object> rowValue = nativeValue(row[index]);
+    if (rowValue == null) {
+      return true;
+    }
+    if (value != null && rowValue.compareTo(value) <= 0) {
+      dropped++;
+      return false;
+    }
+    if (pending == null || rowValue.compareTo(pending) > 0) {
+      pending = rowValue;
+    } else if (rowValue.compareTo(pending) < 0) {
+      ascending = false;
+    }
+    return true;
+  }
+
+  /**
+   * Checks if the written rows arrived in ascending order of the watermark column, so that all rows
+   * up to the largest value are committed once the row holding it is.
+   * @return true if the watermark can be saved with an intermediate commit
+   */
+  boolean isAscending() {
+    return ascending;
+  }
+
+  /**
+   * Saves the largest value of the written rows as the watermark, once they are committed.
+   * @throws KettleException if the watermark can't be saved
+   */
+  void save() throws KettleException {
+    if (pending == null || pending.equals(value)) {
+      return;
+    }
+    String newWatermark = format(pending);
+    try {
+      update.setString(1, table);
+      update.setString(2, column);
+      update.setString(3, newWatermark);
+      update.executeUpdate();
+    } catch (SQLException e) {
+      throw new KettleException("couldn't save the watermark " + newWatermark + " of " + database + "." + table + "." + column, e);
+    }
+    value = pending;
+    watermark = newWatermark;
+    if (log.isDebug()) {
+      log.logDebug("Saved watermark " + watermark + " of " + database + "." + table + "." + column);
+    }
+  }
+
+  String getWatermark() {
+    return watermark;
+  }
+
+  long getDropped() {
+    return dropped;
+  }
+
+  /**
+   * Closes the connection.
+   */
+  void close() {
+    if (db == null) {
+      return;
+    }
+    try {
+      if (update != null) {
+        update.close();
+      }
+    } catch (SQLException e) {
+      log.logError("couldn't close the statement of the watermark of " + database + "." + table, e);
+    } finally {
+      db.disconnect();
+      db = null;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private Comparable<Object> nativeValue(Object data) throws KettleException {
+    if (meta.isNull(data)) {
+      return null;
+    }
+    switch (meta.getType()) {
+      case ValueMetaInterface.TYPE_INTEGER:
+        return (Comparable) meta.getInteger(data);
+      case ValueMetaInterface.TYPE_NUMBER:
+        return (Comparable) meta.getNumber(data);
+      case ValueMetaInterface.TYPE_BIGNUMBER:
+        return (Comparable) meta.getBigNumber(data);
+      case ValueMetaInterface.TYPE_DATE:
+      case ValueMetaInterface.TYPE_TIMESTAMP:
+        // compare java.sql.Timestamps as dates, their nanos are below the precision of the watermark
+        return (Comparable) new Date(meta.getDate(data).getTime());
+      default:
+        return (Comparable) meta.getString(data);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private Comparable<Object> parse(String text) throws KettleException {
+    try {
+      switch (meta.getType()) {
+        case ValueMetaInterface.TYPE_INTEGER:
+          return (Comparable) Long.valueOf(new BigDecimal(text).longValue());
+        case ValueMetaInterface.TYPE_NUMBER:
+          return (Comparable) Double.valueOf(text);
+        case ValueMetaInterface.TYPE_BIGNUMBER:
+          return (Comparable) new BigDecimal(text);
+        case ValueMetaInterface.TYPE_DATE:
+        case ValueMetaInterface.TYPE_TIMESTAMP:
+          return (Comparable) parseDate(text);
+        default:
+          return (Comparable) text;
+      }
+    } catch (NumberFormatException | ParseException e) {
+      throw new KettleException("watermark " + text + " of " + database + "." + table + "." + column + " doesn't fit field "
+              + meta.getName(), e);
+    }
+  }
+
+  private Date parseDate(String text) throws ParseException {
+    // the maximum read from the table may have fewer digits
+    String[] patterns = {"yyyy-MM-dd HH:mm:ss.SSS", "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd"};
+    for (String pattern : patterns) {
+      if (text.length() >= pattern.length() - 2) {
+        try {
+          return new SimpleDateFormat(pattern, Locale.US).parse(text);
+        } catch (ParseException e) {
+          // try the next, shorter pattern
+        }
+      }
+    }
+    throw new ParseException(text, 0);
+  }
+
+  private String format(Object data) {
+    if (data == null) {
+      return null;
+    }
+    if (data instanceof Date) {
+      return dateFormat.format((Date) data);
+    }
+    if (data instanceof Double || data instanceof Float) {
+      return BigDecimal.valueOf(((Number) data).doubleValue()).toPlainString();
+    }
+    if (data instanceof BigDecimal) {
+      return ((BigDecimal) data).toPlainString();
+    }
+    return data.toString();
+  }
+}
@@ -24,12 +24,20 @@ import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.core.variables.VariableSpace;
 import org.pentaho.di.core.variables.Variables;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Adapted functions to generate the create table statement and alter table statement.
  * Build in mind using the MariaDBDatabaseInterface to be as close to PDI's default behaviour as possible.
  */
 public class MariaDBColumnStoreDatabase extends org.pentaho.di.core.database.Database {
 
+    static final String RELOAD_SUFFIX = "_reload";
+    static final String RELOAD_SWAP_SUFFIX = "_swap";
+
+    private boolean reloadAlter = false;
+
     /**
      * Constructor
      * @param parentObject parent object
@@ -101,6 +109,14 @@ public class MariaDBColumnStoreDatabase extends org.pentaho.di.core.database.Dat
         return retval.toString();
     }
 
+    /**
+     * Sets how getAlterTableStatement() changes the types of columns.
+     * @param reloadAlter true to reload the table into a new table with the desired definition, false to copy each column with UPDATE
+     */
+    public void setReloadAlter(boolean reloadAlter) {
+        this.reloadAlter = reloadAlter;
+    }
+
     /**
      * Generates SQL
      *
@@ -178,6 +194,14 @@ public class MariaDBColumnStoreDatabase extends org.pentaho.di.core.database.Dat
             }
         }
 
+        // The UPDATE of the column copies below rewrites every extent of the table, reloading it into a new table runs at bulk load speed instead.
+        // The new table has the desired columns, so the added and dropped columns are part of the reload.
+        if (modify_desired.size() > 0 && reloadAlter) {
+            retval.setLength(0);
+            retval.append(getReloadTableStatements(tableName, tabFields, fields, tk, use_autoinc, pk));
+            return retval.toString();
+        }
+
         // As ColumnStore doesn't support MODIFY commands we have to add the temporary desired field, copy all data from the old field to the temporary, drop the old field and rename the temporary.
         if (modify_desired.size() > 0) {
             for (int i = 0; i < modify_desired.size(); i++) {
@@ -196,6 +220,137 @@ public class MariaDBColumnStoreDatabase extends org.pentaho.di.core.database.Dat
         return retval.toString();
     }
 
+    /**
+     * Generates the statements replacing a table by a new table with the desired fields. The rows are copied with one
+     * INSERT ... SELECT, which ColumnStore runs through cpimport, and the tables are swapped with one RENAME TABLE, so the
+     * table keeps its old definition until the copy is complete.
+     * @param tableName     the table name or schema/table combination: this needs to be quoted properly in advance.
+     * @param tabFields     the fields of the table now
+     * @param fields        the desired fields
+     * @param tk            the name of the technical key field
+     * @param use_autoinc   true if we need to use auto-increment fields for a primary key
+     * @param pk            the name of the primary/technical key field
+     * @return the SQL statements, each terminated by a semicolon
+     */
+    private String getReloadTableStatements(String tableName, RowMetaInterface tabFields, RowMetaInterface fields, String tk,
+                                            boolean use_autoinc, String pk) {
+        String reloadTableName = getSuffixedTableName(tableName, RELOAD_SUFFIX);
+        String swapTableName = getSuffixedTableName(tableName, RELOAD_SWAP_SUFFIX);
+
+        // the columns in both definitions are copied, the values are converted into the desired types like by the UPDATE
+        List<String> columnNames = new ArrayList<>();
+        for (int i = 0; i < fields.size(); i++) {
+            String name = fields.getValueMeta(i).getName();
+            if (tabFields.searchValueMeta(name) != null) {
+                columnNames.add(super.getDatabaseMeta().quoteField(name));
+            }
+        }
+
+        StringBuilder retval = new StringBuilder();
+        retval.append(getDropTableIfExistsStatement(reloadTableName)).append(";").append(Const.CR);
+        retval.append(getCreateTableStatement(reloadTableName, fields, tk, use_autoinc, pk, true)).append(Const.CR);
+        if (!columnNames.isEmpty()) {
+            retval.append(getInsertSelectStatement(reloadTableName, tableName, columnNames.toArray(new String[0]))).append(";").append(Const.CR);
+        }
+        retval.append(getRenameTablesStatement(new String[]{tableName, reloadTableName}, new String[]{swapTableName, tableName}))
+                .append(";").append(Const.CR);
+        retval.append(getDropTableIfExistsStatement(swapTableName)).append(";").append(Const.CR);
+        return retval.toString();
+    }
+
+    /**
+     * Appends a suffix to the table name of a quoted schema/table combination.
+     * @param tableName     the table name or schema/table combination, quoted properly in advance.
+     * @param suffix        the suffix
+     * @return the suffixed name, quoted like the table name
+     */
+    private String getSuffixedTableName(String tableName, String suffix) {
+        String endQuote = super.getDatabaseMeta().getEndQuote();
+        if (!Const.isEmpty(endQuote) && tableName.endsWith(endQuote)) {
+            return tableName.substring(0, tableName.length() - endQuote.length()) + suffix + endQuote;
+        }
+        return tableName + suffix;
+    }
+
+    /**
+     * Generates the statement deleting all rows of a table that have a row with the same key in another table.
+     * @param tableName         the table name or schema/table combination: this needs to be quoted properly in advance.
+     * @param sourceTableName   the table holding the keys of the rows to delete, quoted properly in advance.
+     * @param keyColumnNames    the names of the key columns, quoted properly in advance.
+     * @return the SQL statement
+     */
+    public String getDeleteJoinStatement(String tableName, String sourceTableName, String[] keyColumnNames) {
+        StringBuilder retval = new StringBuilder("DELETE t FROM " + tableName + " t INNER JOIN " + sourceTableName + " s ON ");
+        for (int i = 0; i < keyColumnNames.length; i++) {
+            if (i > 0) {
+                retval.append(" AND ");
+            }
+            retval.append("t.").append(keyColumnNames[i]).append(" = s.").append(keyColumnNames[i]);
+        }
+        return retval.toString();
+    }
+
+    /**
+     * Generates the statement copying all rows of a table into another table with the same columns.
+     * @param tableName         the table name or schema/table combination: this needs to be quoted properly in advance.
+     * @param sourceTableName   the table to copy the rows from, quoted properly in advance.
+     * @param columnNames       the names of the columns to copy, quoted properly in advance.
+     * @return the SQL statement
+     */
+    public String getInsertSelectStatement(String tableName, String sourceTableName, String[] columnNames) {
+        StringBuilder columns = new StringBuilder();
+        for (int i = 0; i < columnNames.length; i++) {
+            if (i > 0) {
+                columns.append(", ");
+            }
+            columns.append(columnNames[i]);
+        }
+        return "INSERT INTO " + tableName + " (" + columns + ") SELECT " + columns + " FROM " + sourceTableName;
+    }
+
+    /**
+     * Generates the statement creating a table with the same definition as an existing table, from its SHOW CREATE TABLE output.
+     * @param tableName         the existing table name or schema/table combination: this needs to be quoted properly in advance.
+     * @param newTableName      the name of the table to create, quoted properly in advance.
+     * @return the SQL statement
+     * @throws KettleDatabaseException in case the definition of the existing table can't be read.
+     */
+    public String getCreateTableLikeStatement(String tableName, String newTableName) throws KettleDatabaseException {
+        Object[] row = getOneRow("SHOW CREATE TABLE " + tableName);
+        if (row == null || row.length < 2 || row[1] == null) {
+            throw new KettleDatabaseException("Unable to read the definition of table " + tableName);
+        }
+        String ddl = row[1].toString();
+        // replace the table name, the column definitions start with the first parenthesis
+        return "CREATE TABLE " + newTableName + " " + ddl.substring(ddl.indexOf('('));
+    }
+
+    /**
+     * Generates the statement renaming several tables at once.
+     * @param tableNames        the table names or schema/table combinations: these need to be quoted properly in advance.
+     * @param newTableNames     the new names, quoted properly in advance.
+     * @return the SQL statement
+     */
+    public String getRenameTablesStatement(String[] tableNames, String[] newTableNames) {
+        StringBuilder retval = new StringBuilder("RENAME TABLE ");
+        for (int i = 0; i < tableNames.length; i++) {
+            if (i > 0) {
+                retval.append(", ");
+            }
+            retval.append(tableNames[i]).append(" TO ").append(newTableNames[i]);
+        }
+        return retval.toString();
+    }
+
+    /**
+     * Generates the statement dropping a table if it exists.
+     * @param tableName         the table name or schema/table combination: this needs to be quoted properly in advance.
+     * @return the SQL statement
+     */
+    public String getDropTableIfExistsStatement(String tableName) {
+        return "DROP TABLE IF EXISTS " + tableName;
+    }
+
     /**
      * Copies data from source column to target column in table.
      * @param table             the table name or schema/table combination: this needs to be quoted properly in advance.
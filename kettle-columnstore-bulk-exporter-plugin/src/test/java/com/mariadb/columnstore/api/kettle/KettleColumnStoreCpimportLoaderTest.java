@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.KettleLogStore;
+import org.pentaho.di.core.logging.LogChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs KettleColumnStoreCpimportLoader against the fake cpimport in test/fake-cpimport, which copies
+ * its input into a file and exits with a given status, so that neither cpimport nor ColumnStore are
+ * needed. The path of the fake is passed by the build in the system property fakeCpimport.
+ */
+public class KettleColumnStoreCpimportLoaderTest {
+
+  private File dir;
+  private File output;
+
+  @BeforeClass
+  public static void initLogging() {
+    KettleLogStore.init();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    String fake = System.getProperty("fakeCpimport");
+    Assume.assumeTrue("the fake cpimport needs bash", fake != null && !System.getProperty("os.name").startsWith("Windows"));
+    dir = Files.createTempDirectory("kettle-cpimport-test-").toFile();
+    output = new File(dir, "input.txt");
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = dir == null ? null : dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  @Test(timeout = 30000)
+  public void testFormatting() throws Exception {
+    KettleColumnStoreCpimportLoader loader = start(0, 0);
+    loader.setColumn(0, "a \"b\"|c \u00e4\"d");
+    loader.setNull(1);
+    loader.setColumn(2, Long.MIN_VALUE);
+    loader.setDecimal(3, -12345L, 2);
+    loader.setDecimal(4, 5L, 4);
+    loader.setDecimal(5, 12L, -2);
+    loader.setDecimal(6, -5L, 3);
+    loader.setDecimal(7, "-0.10");
+    loader.setColumn(8, 1e20);
+    loader.setColumn(9, true);
+    loader.setDateTime(10, 2018, 3, 7, 4, 5, 6, 789);
+    loader.setDateTime(11, 2018, 12, 31, 23, 59, 59, 0);
+    loader.setColumn(12, "q\"".getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+    loader.writeRow();
+    loader.setColumn(0, "");
+    loader.setNull(1);
+    loader.writeRow();
+    loader.finish();
+
+    assertEquals("\"a \"\"b\"\"|c \u00e4\"\"d\"||-9223372036854775808|-123.45|0.0005|1200|-0.005|-0.10|100000000000000000000|1"
+            + "|2018-03-07 04:05:06.000789|2018-12-31 23:59:59|\"q\"\"\"\n"
+            + "\"\"|\n", read());
+    assertEquals(2, loader.getRows());
+    assertEquals(0, loader.getRejected());
+  }
+
+  @Test(timeout = 30000)
+  public void testRejectedRows() throws Exception {
+    KettleColumnStoreCpimportLoader loader = start(0, 2);
+    for (int i = 0; i < 3; i++) {
+      loader.setColumn(0, i);
+      loader.writeRow();
+    }
+    loader.finish();
+
+    assertEquals(3, loader.getRows());
+    assertEquals(2, loader.getRejected());
+  }
+
+  @Test(timeout = 30000)
+  public void testExitStatus() throws Exception {
+    KettleColumnStoreCpimportLoader loader = start(3, 0);
+    loader.setColumn(0, 1L);
+    loader.writeRow();
+    try {
+      loader.finish();
+      fail("the exit status of cpimport is ignored");
+    } catch (KettleException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("exit status 3"));
+      assertTrue(e.getMessage(), e.getMessage().contains("Error in loading job data"));
+    }
+  }
+
+  /**
+   * The fake reads its input until the end, so it only exits if it is killed.
+   */
+  @Test(timeout = 30000)
+  public void testIncompleteRowKillsCpimport() throws Exception {
+    KettleColumnStoreCpimportLoader loader = start(0, 0);
+    loader.setColumn(0, 1L);
+    loader.writeRow();
+    loader.setColumn(0, 2L);
+    try {
+      loader.finish();
+      fail("an incomplete row is loaded");
+    } catch (KettleException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("incomplete"));
+    }
+    assertFalse(loader.isRunning());
+  }
+
+  /**
+   * Starts the loader with a wrapper script, which passes the controls of the fake before the cpimport options.
+   */
+  private KettleColumnStoreCpimportLoader start(int exitStatus, int rejected) throws Exception {
+    File wrapper = new File(dir, "cpimport");
+    String script = "#!/bin/sh\nexec '" + System.getProperty("fakeCpimport") + "' '" + output.getAbsolutePath() + "' "
+            + exitStatus + " " + rejected + " \"$@\"\n";
+    Files.write(wrapper.toPath(), script.getBytes(StandardCharsets.UTF_8));
+    assertTrue(wrapper.setExecutable(true));
+    KettleColumnStoreCpimportLoader loader = new KettleColumnStoreCpimportLoader(wrapper.getAbsolutePath(), 1, "test", "t1",
+            new LogChannel("KettleColumnStoreCpimportLoaderTest"));
+    loader.start();
+    return loader;
+  }
+
+  private String read() throws IOException {
+    return new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8);
+  }
+}
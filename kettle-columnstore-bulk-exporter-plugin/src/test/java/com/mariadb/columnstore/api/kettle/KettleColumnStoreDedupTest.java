@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.logging.KettleLogStore;
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs KettleColumnStoreDedup with memory budgets small enough to spill partitions, so that keys are
+ * looked up both in the resident key sets and in the spilled partitions read back by nextDeferred().
+ */
+public class KettleColumnStoreDedupTest {
+
+  // resident size of the 64 initial key sets of integer keys and of encoded keys
+  private static final long INITIAL_LONG_MEMORY = 64 * 256 * 8;
+  private static final long INITIAL_BYTES_MEMORY = 64 * 256 * 32;
+
+  private File dir;
+  private KettleColumnStoreDedup dedup;
+
+  @BeforeClass
+  public static void initLogging() {
+    KettleLogStore.init();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("kettle-dedup-test-").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    if (dedup != null) {
+      dedup.close();
+    }
+    File[] files = dir.listFiles();
+    assertEquals("the spilled partitions aren't deleted", 0, files == null ? 0 : files.length);
+    dir.delete();
+  }
+
+  @Test(timeout = 30000)
+  public void testIntegerKeysAcrossSpilledPartitions() throws Exception {
+    dedup = create("id", INITIAL_LONG_MEMORY + 16 * 2048, integerRowMeta());
+    Set<Object> keys = new HashSet<>();
+    List<Object[]> rows = new ArrayList<>();
+    for (int pass = 0; pass < 3; pass++) {
+      for (long id = 1; id <= 20000; id++) {
+        rows.add(new Object[]{id * 7919, "pass " + pass});
+        keys.add(id * 7919);
+      }
+    }
+    assertUnique(rows, keys, 1);
+  }
+
+  @Test(timeout = 30000)
+  public void testCompositeKeysAcrossSpilledPartitions() throws Exception {
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta(new ValueMetaInteger("id"));
+    rowMeta.addValueMeta(new ValueMetaString("name"));
+    dedup = create("id,name", INITIAL_BYTES_MEMORY + 16 * 8192, rowMeta);
+    Set<Object> keys = new HashSet<>();
+    List<Object[]> rows = new ArrayList<>();
+    for (int pass = 0; pass < 3; pass++) {
+      for (long id = 1; id <= 20000; id++) {
+        String name = id % 3 == 0 ? null : "name " + (id % 5);
+        rows.add(new Object[]{id, name});
+        keys.add(id + "/" + name);
+      }
+    }
+    assertUnique(rows, keys, 2);
+  }
+
+  /**
+   * Null and 0 don't take a slot in the integer key sets, they are flags which have to survive a spill.
+   */
+  @Test(timeout = 30000)
+  public void testNullAndZeroIntegerKeys() throws Exception {
+    dedup = create("id", Long.MAX_VALUE, integerRowMeta());
+    assertEquals(KettleColumnStoreDedup.NEW, dedup.add(new Object[]{null, "a"}));
+    assertEquals(KettleColumnStoreDedup.NEW, dedup.add(new Object[]{0L, "b"}));
+    assertEquals(KettleColumnStoreDedup.DUPLICATE, dedup.add(new Object[]{null, "c"}));
+    assertEquals(KettleColumnStoreDedup.DUPLICATE, dedup.add(new Object[]{0L, "d"}));
+    assertEquals(KettleColumnStoreDedup.NEW, dedup.add(new Object[]{1L, "e"}));
+    assertEquals(2, dedup.getDuplicates());
+    assertFalse(dedup.hasDeferred());
+    assertNull(dedup.nextDeferred());
+    dedup.close();
+
+    // the first row spills partition 0, which holds both null and 0
+    dedup = create("id", 0, integerRowMeta());
+    assertEquals(KettleColumnStoreDedup.NEW, dedup.add(new Object[]{null, "a"}));
+    assertEquals(1, dedup.getSpilledPartitions());
+    assertEquals(KettleColumnStoreDedup.DEFERRED, dedup.add(new Object[]{0L, "b"}));
+    assertEquals(KettleColumnStoreDedup.DEFERRED, dedup.add(new Object[]{null, "c"}));
+    assertEquals(KettleColumnStoreDedup.DEFERRED, dedup.add(new Object[]{0L, "d"}));
+    Object[] row = dedup.nextDeferred();
+    assertEquals(0L, row[0]);
+    assertEquals("b", row[1]);
+    assertNull(dedup.nextDeferred());
+    assertEquals(2, dedup.getDuplicates());
+  }
+
+  /**
+   * Deferred rows are returned partition after partition, each partition in input order, and only the
+   * first row of a key is kept.
+   */
+  @Test(timeout = 30000)
+  public void testDrainOrder() throws Exception {
+    dedup = create("id", 0, integerRowMeta());
+    List<Object[]> deferred = new ArrayList<>();
+    Set<Long> seen = new HashSet<>();
+    long sequence = 0;
+    for (long id = 1; dedup.getSpilledPartitions() < 64; id++) {
+      Object[] row = new Object[]{id, String.valueOf(sequence++)};
+      int result = dedup.add(row);
+      if (result == KettleColumnStoreDedup.NEW) {
+        seen.add(id);
+      } else {
+        assertEquals(KettleColumnStoreDedup.DEFERRED, result);
+        deferred.add(row);
+      }
+    }
+    for (long id = 1000; id > 0; id--) {
+      Object[] row = new Object[]{id, String.valueOf(sequence++)};
+      assertEquals(KettleColumnStoreDedup.DEFERRED, dedup.add(row));
+      deferred.add(row);
+    }
+
+    List<Object[]> expected = new ArrayList<>();
+    for (int p = 0; p < 64; p++) {
+      for (Object[] row : deferred) {
+        if (partition((Long) row[0]) == p && seen.add((Long) row[0])) {
+          expected.add(row);
+        }
+      }
+    }
+    for (Object[] row : expected) {
+      Object[] next = dedup.nextDeferred();
+      assertEquals(row[0], next[0]);
+      assertEquals(row[1], next[1]);
+    }
+    assertNull(dedup.nextDeferred());
+    assertEquals(deferred.size() - expected.size(), dedup.getDuplicates());
+  }
+
+  private KettleColumnStoreDedup create(String keyFields, long memoryBudget, RowMetaInterface rowMeta) throws Exception {
+    KettleColumnStoreDedup created = new KettleColumnStoreDedup(keyFields, memoryBudget, dir,
+            new LogChannel("KettleColumnStoreDedupTest"));
+    created.setRowMeta(rowMeta);
+    return created;
+  }
+
+  private static RowMetaInterface integerRowMeta() {
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta(new ValueMetaInteger("id"));
+    rowMeta.addValueMeta(new ValueMetaString("payload"));
+    return rowMeta;
+  }
+
+  private static int partition(long id) {
+    return (int) (KettleColumnStoreDelta.mix(id) >>> 58);
+  }
+
+  /**
+   * Adds the rows and checks that every key is returned exactly once, either by add() or by nextDeferred(),
+   * and that the keys were split between resident and spilled partitions.
+   */
+  private void assertUnique(List<Object[]> rows, Set<Object> keys, int keyFields) throws Exception {
+    Set<Object> returned = new HashSet<>();
+    long written = 0;
+    for (Object[] row : rows) {
+      if (dedup.add(row) == KettleColumnStoreDedup.NEW) {
+        assertTrue("duplicate key " + key(row, keyFields), returned.add(key(row, keyFields)));
+        written++;
+      }
+    }
+    assertTrue("no partition was spilled", dedup.getSpilledPartitions() > 0);
+    assertTrue("all partitions were spilled", dedup.getSpilledPartitions() < 64);
+    assertTrue(dedup.hasDeferred());
+    for (Object[] row = dedup.nextDeferred(); row != null; row = dedup.nextDeferred()) {
+      assertTrue("duplicate deferred key " + key(row, keyFields), returned.add(key(row, keyFields)));
+      written++;
+    }
+    assertEquals(keys, returned);
+    assertEquals(rows.size() - written, dedup.getDuplicates());
+  }
+
+  private static Object key(Object[] row, int keyFields) {
+    return keyFields == 1 ? row[0] : row[0] + "/" + row[1];
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.logging.KettleLogStore;
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs KettleColumnStoreDelta over several loads sharing a snapshot file. The loads have enough keys
+ * to grow the off heap hash store while some keys are seen and others aren't.
+ */
+public class KettleColumnStoreDeltaTest {
+
+  private File dir;
+  private File snapshot;
+  private KettleColumnStoreDelta delta;
+
+  @BeforeClass
+  public static void initLogging() {
+    KettleLogStore.init();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("kettle-delta-test-").toFile();
+    snapshot = new File(dir, "snapshot.bin");
+  }
+
+  @After
+  public void tearDown() {
+    if (delta != null) {
+      delta.close();
+    }
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    dir.delete();
+  }
+
+  @Test(timeout = 60000)
+  public void testLoadsSharingASnapshot() throws Exception {
+    // first load: 50000 keys and a null key, id 5 is repeated unchanged
+    delta = create("");
+    assertTrue(delta.isChanged(row(null, "x")));
+    for (long id = 0; id < 50000; id++) {
+      assertTrue(delta.isChanged(row(id, "a" + id)));
+    }
+    assertFalse(delta.isChanged(row(5L, "a5")));
+    assertCounts(50001, 0, 1, 0);
+    delta.save();
+    delta.close();
+
+    // second load: ids 0 to 9999 and the null key are deleted, 10000 to 19999 change, 20000 to 49999
+    // don't, and 100000 new keys grow the store loaded with the snapshot
+    delta = create("");
+    for (long id = 10000; id < 150000; id++) {
+      assertEquals(id < 20000 || id >= 50000, delta.isChanged(row(id, (id < 20000 ? "b" : "a") + id)));
+    }
+    assertFalse(delta.isChanged(row(20000L, "a20000")));
+    assertTrue(delta.isChanged(row(20000L, "c20000")));
+    assertCounts(100000, 10001, 30001, 10001);
+    Set<String> deleted = new HashSet<>();
+    for (long id = 0; id < 10000; id++) {
+      deleted.add(String.valueOf(id));
+    }
+    deleted.add(null);
+    assertEquals(deleted, writeDeleted());
+    delta.save();
+    delta.close();
+
+    // third load: the snapshot holds the 140000 keys seen by the second load with their last values
+    delta = create("");
+    assertTrue(delta.isChanged(row(0L, "a0")));
+    assertFalse(delta.isChanged(row(149999L, "a149999")));
+    assertFalse(delta.isChanged(row(10000L, "b10000")));
+    assertTrue(delta.isChanged(row(20000L, "a20000")));
+    assertCounts(1, 1, 2, 139997);
+  }
+
+  @Test(timeout = 30000)
+  public void testValueFields() throws Exception {
+    delta = create("name");
+    assertTrue(delta.isChanged(row(1L, "a")));
+    delta.save();
+    delta.close();
+
+    // only the value fields are compared
+    delta = create("name");
+    assertFalse(delta.isChanged(new Object[]{1L, "a", "other"}));
+    assertTrue(delta.isChanged(row(1L, "b")));
+    assertCounts(0, 1, 1, 0);
+    delta.close();
+
+    // a snapshot of other value fields is ignored
+    delta = create("");
+    assertTrue(delta.isChanged(row(1L, "a")));
+    assertCounts(1, 0, 0, 0);
+  }
+
+  private KettleColumnStoreDelta create(String valueFields) throws Exception {
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta(new ValueMetaInteger("id"));
+    rowMeta.addValueMeta(new ValueMetaString("name"));
+    rowMeta.addValueMeta(new ValueMetaString("comment"));
+    KettleColumnStoreDelta created = new KettleColumnStoreDelta("id", valueFields, snapshot, new LogChannel("KettleColumnStoreDeltaTest"));
+    created.setRowMeta(rowMeta);
+    return created;
+  }
+
+  private static Object[] row(Long id, String name) {
+    return new Object[]{id, name, null};
+  }
+
+  private void assertCounts(long newRows, long changedRows, long unchangedRows, long deletedRows) {
+    assertEquals("new rows", newRows, delta.getNewRows());
+    assertEquals("changed rows", changedRows, delta.getChangedRows());
+    assertEquals("unchanged rows", unchangedRows, delta.getUnchangedRows());
+    assertEquals("deleted rows", deletedRows, delta.getDeletedRows());
+  }
+
+  private Set<String> writeDeleted() throws Exception {
+    final Set<String> keys = new HashSet<>();
+    delta.writeDeleted(new KettleColumnStoreRowSink() {
+      private String key;
+
+      public void setNull(int column) {
+        key = null;
+      }
+
+      public void setColumn(int column, String value) {
+        key = value;
+      }
+
+      public void setColumn(int column, long value) {
+        throw new UnsupportedOperationException();
+      }
+
+      public void setColumn(int column, double value) {
+        throw new UnsupportedOperationException();
+      }
+
+      public void setColumn(int column, boolean value) {
+        throw new UnsupportedOperationException();
+      }
+
+      public void setColumn(int column, BigInteger value) {
+        throw new UnsupportedOperationException();
+      }
+
+      public void setColumn(int column, byte[] value, Charset charset) {
+        throw new UnsupportedOperationException();
+      }
+
+      public void setDecimal(int column, String value) {
+        throw new UnsupportedOperationException();
+      }
+
+      public void setDecimal(int column, long unscaled, int scale) {
+        throw new UnsupportedOperationException();
+      }
+
+      public void setDateTime(int column, int year, int month, int day, int hour, int minute, int second, int microsecond) {
+        throw new UnsupportedOperationException();
+      }
+
+      public void writeRow() {
+        assertTrue("key " + key + " is deleted twice", keys.add(key));
+      }
+    });
+    return keys;
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2018 MariaDB Corporation Ab
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE file and at www.mariadb.com/bsl11.
+ *
+ * Change Date: 2021-04-01
+ *
+ * On the date above, in accordance with the Business Source License, use
+ * of this software will be governed by version 2 or later of the General
+ * Public License.
+ */
+
+package com.mariadb.columnstore.api.kettle;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the maps of KettleColumnStoreKeyMap find each key again, in particular that the UTF-8
+ * bytes of the String keys are matched char by char.
+ */
+public class KettleColumnStoreKeyMapTest {
+
+  @Test
+  public void testStringEncodings() {
+    String[] keys = {
+        "", "a", "\u00e4", "\u20ac", "\ud83d\ude00", "a\ud83d\ude00b", "\u00e4\u20ac\ud83d\ude00\u007f\u0080\u07ff\u0800\uffff",
+        // lone and reversed surrogates, which String.getBytes() replaces by '?'
+        "\ud83d", "\ude00", "x\ud83dy", "\ude00\ud83d", "?", "x?y"
+    };
+    KettleColumnStoreKeyMap.Strings map = new KettleColumnStoreKeyMap.Strings(4);
+    for (int k = 0; k < keys.length; k++) {
+      assertEquals(KettleColumnStoreKeyMap.MISSING, map.get(keys[k]));
+      map.put(keys[k], k);
+    }
+    assertEquals(keys.length, map.size());
+    for (int k = 0; k < keys.length; k++) {
+      assertEquals(keys[k], k, map.get(keys[k]));
+      // the key is found, so put() replaces the surrogate key instead of adding an entry
+      map.put(keys[k], k + 100);
+    }
+    assertEquals(keys.length, map.size());
+    for (int k = 0; k < keys.length; k++) {
+      assertEquals(keys[k], k + 100, map.get(keys[k]));
+    }
+    // a pair and a lone surrogate sharing the first char with keys of the map
+    assertEquals(KettleColumnStoreKeyMap.MISSING, map.get("\ud83d\ude01"));
+    assertEquals(KettleColumnStoreKeyMap.MISSING, map.get("\ud83dy"));
+  }
+
+  /**
+   * Keys that are prefixes of each other share their first bytes, only the lengths differ.
+   */
+  @Test
+  public void testPrefixes() {
+    KettleColumnStoreKeyMap.Strings map = new KettleColumnStoreKeyMap.Strings(4);
+    StringBuilder key = new StringBuilder();
+    for (int k = 0; k < 40; k++) {
+      map.put(key.toString(), k);
+      key.append(k % 3 == 0 ? "\u00e4" : k % 3 == 1 ? "\ud83d\ude00" : "a");
+    }
+    key.setLength(0);
+    for (int k = 0; k < 40; k++) {
+      assertEquals(k, map.get(key.toString()));
+      key.append(k % 3 == 0 ? "\u00e4" : k % 3 == 1 ? "\ud83d\ude00" : "a");
+    }
+    assertEquals(KettleColumnStoreKeyMap.MISSING, map.get(key.toString()));
+    assertEquals(KettleColumnStoreKeyMap.MISSING, map.get("\ud83d"));
+    assertEquals(40, map.size());
+  }
+
+  @Test
+  public void testStringGrowth() {
+    KettleColumnStoreKeyMap.Strings map = new KettleColumnStoreKeyMap.Strings(1);
+    for (int k = 0; k < 100000; k++) {
+      map.put("key \u00e4 " + k, k);
+    }
+    assertEquals(100000, map.size());
+    for (int k = 0; k < 100000; k++) {
+      assertEquals(k, map.get("key \u00e4 " + k));
+    }
+    assertEquals(KettleColumnStoreKeyMap.MISSING, map.get("key \u00e4 100000"));
+  }
+
+  @Test
+  public void testLongs() {
+    KettleColumnStoreKeyMap.Longs map = new KettleColumnStoreKeyMap.Longs(1);
+    for (long k = -50000; k < 50000; k++) {
+      map.put(k * 31, k);
+    }
+    map.put(Long.MIN_VALUE, 1);
+    map.put(Long.MIN_VALUE, 2);
+    assertEquals(100001, map.size());
+    for (long k = -50000; k < 50000; k++) {
+      assertEquals(k, map.get(k * 31));
+    }
+    assertEquals(2, map.get(Long.MIN_VALUE));
+    assertEquals(KettleColumnStoreKeyMap.MISSING, map.get(1));
+  }
+}
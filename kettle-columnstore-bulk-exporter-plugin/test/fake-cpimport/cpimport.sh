@@ -0,0 +1,53 @@
+#!/bin/bash
+
+# Copyright (c) 2018, MariaDB Corporation. All rights reserved.
+#
+# This library is free software; you can redistribute it and/or
+# modify it under the terms of the GNU Lesser General Public
+# License as published by the Free Software Foundation; either
+# version 2.1 of the License, or (at your option) any later version.
+#
+# This library is distributed in the hope that it will be useful,
+# but WITHOUT ANY WARRANTY; without even the implied warranty of
+# MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+# Lesser General Public License for more details.
+#
+# You should have received a copy of the GNU Lesser General Public
+# License along with this library; if not, write to the Free Software
+# Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+# MA 02110-1301  USA
+
+# Stand-in for cpimport used by KettleColumnStoreCpimportLoaderTest.
+# usage: cpimport.sh output_file exit_status rejected_lines [cpimport options] database table
+# Copies its input into output_file, reports the first rejected_lines input lines in the .bad and
+# .err files of the -L directory like cpimport does, and exits with exit_status.
+
+output=$1
+status=$2
+rejected=$3
+shift 3
+
+logdir=.
+while getopts "m:s:E:C:L:" opt; do
+	case $opt in
+		L) logdir=$OPTARG ;;
+	esac
+done
+shift $((OPTIND-1))
+database=$1
+table=$2
+
+cat > "$output"
+echo "Bulk load of $database.$table started"
+
+if [ "$rejected" -gt 0 ]; then
+	head -n "$rejected" "$output" > "$logdir/$table.tbl.Job_1.bad"
+	for i in $(seq 1 "$rejected"); do
+		echo "Line number $i;  Error: Data violates NOT NULL constraint" >> "$logdir/$table.tbl.Job_1.err"
+	done
+fi
+
+if [ "$status" -ne 0 ]; then
+	echo "Error in loading job data"
+fi
+exit "$status"